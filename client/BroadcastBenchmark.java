@@ -0,0 +1,104 @@
+import java.util.*;
+
+/**
+ * Compares storing announcements once per recipient (the old
+ * broadcastToUserType) with one broadcasts row plus read/deleted bitmaps,
+ * without a database: the row-per-user side is counted, the bitmap side is
+ * built and measured.
+ *
+ * Each announcement targets everyone; a random readFraction of the users
+ * read it and one in twenty delete it. Reported: rows and estimated bytes
+ * of the old scheme, actual bitmap bytes, the time to apply every
+ * mark-read (deserialize, add, serialize, as BroadcastService does), and
+ * the time of one user's unread count over all announcements, which is
+ * what an inbox refresh costs.
+ *
+ * Usage: java BroadcastBenchmark [users] [announcements] [readFraction]
+ */
+public class BroadcastBenchmark {
+    // Row-per-user estimate: fixed columns and InnoDB row overhead, plus subject and content
+    private static final int ROW_OVERHEAD_BYTES = 60;
+    private static final String SUBJECT = "Rentrée universitaire : informations importantes";
+    private static final String CONTENT = "Les cours du second semestre reprennent lundi. Consultez l'emploi du temps "
+        + "mis à jour sur la plateforme et vérifiez vos inscriptions aux TP avant vendredi.";
+
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 30_000;
+        int announcements = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        double readFraction = args.length > 2 ? Double.parseDouble(args[2]) : 0.7;
+
+        // Mostly students, like the real user table
+        int[] members = new int[users];
+        for (int i = 0; i < users; i++) {
+            String type = i % 20 == 0 ? "TEACHER" : i % 50 == 1 ? "RESPONSABLE" : i % 100 == 2 ? "ADMIN" : "STUDENT";
+            members[i] = UserBitmap.member(i + 1, type);
+        }
+
+        Random random = new Random(42);
+        byte[][] read = new byte[announcements][];
+        byte[][] deleted = new byte[announcements][];
+        long marks = 0;
+        long start = System.nanoTime();
+        for (int a = 0; a < announcements; a++) {
+            UserBitmap readers = new UserBitmap();
+            UserBitmap deleters = new UserBitmap();
+            for (int member : members) {
+                if (random.nextDouble() < readFraction) {
+                    readers.add(member);
+                    marks++;
+                }
+                if (random.nextInt(20) == 0) deleters.add(member);
+            }
+            read[a] = readers.toBytes();
+            deleted[a] = deleters.toBytes();
+        }
+        long buildNanos = System.nanoTime() - start;
+
+        // One mark-read as BroadcastService applies it, on a bitmap already holding most readers
+        start = System.nanoTime();
+        int rewrites = 2_000;
+        for (int i = 0; i < rewrites; i++) {
+            UserBitmap bitmap = UserBitmap.fromBytes(read[i % announcements]);
+            bitmap.add(members[random.nextInt(users)]);
+            read[i % announcements] = bitmap.toBytes();
+        }
+        long rewriteNanos = (System.nanoTime() - start) / rewrites;
+
+        // Warm up, then time the unread count of many users
+        int unread = 0;
+        for (int i = 0; i < 2_000; i++) {
+            unread += unreadCount(read, deleted, members[i % users]);
+        }
+        int queries = 5_000;
+        start = System.nanoTime();
+        for (int i = 0; i < queries; i++) {
+            unread += unreadCount(read, deleted, members[random.nextInt(users)]);
+        }
+        long countNanos = (System.nanoTime() - start) / queries;
+
+        long bitmapBytes = 0;
+        for (int a = 0; a < announcements; a++) {
+            bitmapBytes += read[a].length + deleted[a].length;
+        }
+        long payloadBytes = (long) announcements * (ROW_OVERHEAD_BYTES + SUBJECT.length() + CONTENT.length());
+        long rows = (long) users * announcements;
+
+        System.out.println("📊 " + announcements + " announcements to " + users + " users, " + (int) (readFraction * 100) + "% read");
+        System.out.printf("   Row per user:   %,d rows, ~%.1f MB%n", rows,
+            rows * (double) (ROW_OVERHEAD_BYTES + SUBJECT.length() + CONTENT.length()) / 1e6);
+        System.out.printf("   Row + bitmaps:  %,d rows, %.1f MB (%.1f MB of bitmaps, %.1f KB per announcement)%n",
+            announcements, (payloadBytes + bitmapBytes) / 1e6, bitmapBytes / 1e6, bitmapBytes / 1e3 / announcements);
+        System.out.printf("   Building %,d read marks: %.0f ms; one mark-read rewrite: %.1f µs%n", marks, buildNanos / 1e6,
+            rewriteNanos / 1e3);
+        System.out.printf("   Unread count over %d announcements: %.1f µs per user (checksum %d)%n", announcements,
+            countNanos / 1e3, unread);
+    }
+
+    private static int unreadCount(byte[][] read, byte[][] deleted, int member) {
+        int unread = 0;
+        for (int a = 0; a < read.length; a++) {
+            if (!UserBitmap.contains(read[a], member) && !UserBitmap.contains(deleted[a], member)) unread++;
+        }
+        return unread;
+    }
+}
@@ -0,0 +1,166 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Broadcasts stored once per announcement instead of once per recipient.
+ *
+ * A broadcasts row targets one user type (or ALL) and carries two
+ * UserBitmaps: who has read it and who has deleted it. Publishing is one
+ * row plus one outbox row per target topic, whatever the number of users.
+ * Inbox queries read the broadcasts of the user's type and test the user
+ * against the serialized bitmaps; marking one read or deleted rewrites its
+ * bitmap under a row lock.
+ *
+ * In a merged inbox a broadcast appears as a Message whose messageId is the
+ * negated broadcast id, which is how ClientService tells the two apart.
+ */
+public class BroadcastService {
+    private static final Log log = Log.get("client.service");
+    private static final String[] USER_TYPES = {"STUDENT", "TEACHER", "ADMIN", "RESPONSABLE"};
+
+    private static final String INSERT_SQL =
+        "INSERT INTO broadcasts (sender_id, sender_type, target_type, subject, content, message_type, created_at) " +
+        "VALUES (?, ?, ?, ?, ?, ?, NOW())";
+    private static final String INSERT_OUTBOX_SQL =
+        "INSERT INTO message_outbox (kind, message_id, destination, is_topic) VALUES ('BROADCAST', ?, ?, TRUE)";
+    private static final String SELECT_INBOX_SQL =
+        "SELECT broadcast_id, sender_id, sender_type, target_type, subject, content, message_type, priority, " +
+        "created_at, read_bitmap, deleted_bitmap FROM broadcasts WHERE target_type IN (?, 'ALL') ORDER BY created_at DESC";
+    private static final String SELECT_STATE_SQL =
+        "SELECT read_bitmap, deleted_bitmap FROM broadcasts WHERE target_type IN (?, 'ALL')";
+
+    private final ClientService clientService;
+
+    public BroadcastService(ClientService clientService) {
+        this.clientService = clientService;
+    }
+
+    // Returns the broadcast id; targetType may be ALL
+    public int publish(int senderId, String senderType, String targetType, String subject, String content,
+                       String messageType) throws SQLException {
+        String target = targetType.toUpperCase();
+        try (Connection conn = clientService.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int broadcastId;
+                try (PreparedStatement stmt = conn.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                    stmt.setInt(1, senderId);
+                    stmt.setString(2, senderType);
+                    stmt.setString(3, target);
+                    stmt.setString(4, subject);
+                    stmt.setString(5, content);
+                    stmt.setString(6, messageType);
+                    stmt.executeUpdate();
+                    try (ResultSet keys = stmt.getGeneratedKeys()) {
+                        if (!keys.next()) throw new SQLException("No broadcast id generated");
+                        broadcastId = keys.getInt(1);
+                    }
+                }
+                try (PreparedStatement stmt = conn.prepareStatement(INSERT_OUTBOX_SQL)) {
+                    for (String userType : "ALL".equals(target) ? USER_TYPES : new String[] {target}) {
+                        stmt.setInt(1, broadcastId);
+                        stmt.setString(2, Destinations.broadcastTopic(userType));
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                conn.commit();
+                log.debug("📢 Broadcast {} stored for {}", broadcastId, target);
+                return broadcastId;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    // Newest first, without the ones this user deleted
+    public List<Message> getInbox(int userId, String userType) throws SQLException {
+        int member = UserBitmap.member(userId, userType);
+        List<Message> inbox = new ArrayList<>();
+        try (Connection conn = clientService.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_INBOX_SQL)) {
+            stmt.setString(1, userType.toUpperCase());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (UserBitmap.contains(rs.getBytes("deleted_bitmap"), member)) continue;
+                    Message message = new Message(rs.getInt("sender_id"), rs.getString("sender_type"), userId,
+                        rs.getString("target_type"), rs.getString("subject"), rs.getString("content"),
+                        rs.getString("message_type"));
+                    message.setMessageId(-rs.getInt("broadcast_id"));
+                    if (rs.getString("priority") != null) message.setPriority(rs.getString("priority"));
+                    message.setRead(UserBitmap.contains(rs.getBytes("read_bitmap"), member));
+                    Timestamp created = rs.getTimestamp("created_at");
+                    if (created != null) message.setCreatedAt(created.toLocalDateTime());
+                    inbox.add(message);
+                }
+            }
+        }
+        return inbox;
+    }
+
+    public int getUnreadCount(int userId, String userType) throws SQLException {
+        int member = UserBitmap.member(userId, userType);
+        int unread = 0;
+        try (Connection conn = clientService.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SELECT_STATE_SQL)) {
+            stmt.setString(1, userType.toUpperCase());
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    if (!UserBitmap.contains(rs.getBytes("read_bitmap"), member)
+                            && !UserBitmap.contains(rs.getBytes("deleted_bitmap"), member)) {
+                        unread++;
+                    }
+                }
+            }
+        }
+        return unread;
+    }
+
+    public boolean markRead(int broadcastId, int userId, String userType) throws SQLException {
+        return addToBitmap("read_bitmap", broadcastId, userId, userType);
+    }
+
+    public boolean delete(int broadcastId, int userId, String userType) throws SQLException {
+        return addToBitmap("deleted_bitmap", broadcastId, userId, userType);
+    }
+
+    // False if the broadcast does not exist or does not target this user's type
+    private boolean addToBitmap(String column, int broadcastId, int userId, String userType) throws SQLException {
+        int member = UserBitmap.member(userId, userType);
+        try (Connection conn = clientService.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                byte[] bytes;
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT " + column + " FROM broadcasts " +
+                        "WHERE broadcast_id = ? AND target_type IN (?, 'ALL') FOR UPDATE")) {
+                    stmt.setInt(1, broadcastId);
+                    stmt.setString(2, userType.toUpperCase());
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (!rs.next()) {
+                            conn.rollback();
+                            return false;
+                        }
+                        bytes = rs.getBytes(1);
+                    }
+                }
+                if (!UserBitmap.contains(bytes, member)) {
+                    UserBitmap bitmap = UserBitmap.fromBytes(bytes);
+                    bitmap.add(member);
+                    try (PreparedStatement stmt = conn.prepareStatement(
+                            "UPDATE broadcasts SET " + column + " = ? WHERE broadcast_id = ?")) {
+                        stmt.setBytes(1, bitmap.toBytes());
+                        stmt.setInt(2, broadcastId);
+                        stmt.executeUpdate();
+                    }
+                }
+                conn.commit();
+                return true;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,390 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client-side JDBC pool behind ClientService.getConnection(), shared by
+ * every ClientService in the process.
+ *
+ * getConnection() hands out a stand-in for a pooled connection, so the
+ * existing open/use/close code keeps working: close() gives the connection
+ * back (rolling back and restoring auto-commit if the caller left a
+ * transaction open), and a closed prepared statement goes back to a per
+ * connection LRU cache keyed by SQL text instead of being closed. After
+ * warm-up a dashboard load opens no new connection to MySQL; getCreated()
+ * and the acquisition-time figures in toString() show it.
+ *
+ * Settings (system properties): client.db.url, client.db.user,
+ * client.db.password, client.db.poolMin, client.db.poolMax,
+ * client.db.borrowTimeoutMs, client.db.validationIntervalMs,
+ * client.db.idleTimeoutMs, client.db.statementCacheSize.
+ */
+public class ClientConnectionPool {
+    private static final Log log = Log.get("client.db");
+    private static ClientConnectionPool instance;
+
+    private final String url = System.getProperty("client.db.url",
+        "jdbc:mysql://localhost:3306/gestion_scolarite?rewriteBatchedStatements=true&useServerPrepStmts=true");
+    private final String user = System.getProperty("client.db.user", "root");
+    private final String password = System.getProperty("client.db.password", "");
+    private final int minIdle = Integer.getInteger("client.db.poolMin", 1);
+    // The dashboards nest a lookup inside an open connection here and there, so leave room for that
+    private final int maxSize = Integer.getInteger("client.db.poolMax", 10);
+    private final long borrowTimeoutMs = Long.getLong("client.db.borrowTimeoutMs", 10_000);
+    private final long validationIntervalMs = Long.getLong("client.db.validationIntervalMs", 30_000);
+    private final long idleTimeoutMs = Long.getLong("client.db.idleTimeoutMs", 300_000);
+    // Per connection; 0 disables caching
+    private final int statementCacheSize = Integer.getInteger("client.db.statementCacheSize", 64);
+
+    private final Semaphore permits = new Semaphore(maxSize, true);
+    private final BlockingDeque<Pooled> idle = new LinkedBlockingDeque<>();
+    private final ScheduledExecutorService housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "client-db-housekeeper");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean closed;
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder borrows = new LongAdder();
+    private final LongAdder acquireNanos = new LongAdder();
+    private final AtomicLong maxAcquireNanos = new AtomicLong();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+
+    public static synchronized ClientConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new ClientConnectionPool();
+            instance.start();
+        }
+        return instance;
+    }
+
+    private ClientConnectionPool() {
+    }
+
+    private void start() {
+        try {
+            Class.forName("com.mysql.cj.jdbc.Driver");
+        } catch (ClassNotFoundException e) {
+            log.error("MySQL JDBC Driver not found in classpath!");
+            log.error("Current classpath: {}", System.getProperty("java.class.path"));
+            log.error("Make sure ../lib/mysql-connector-java-8.0.33.jar exists and is accessible");
+        }
+        housekeeper.execute(this::fillToMinimum);
+        housekeeper.scheduleAtFixedRate(this::housekeep, 30, 30, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close, "client-db-shutdown"));
+        log.info("✅ Client DB pool started (min={}, max={})", minIdle, maxSize);
+    }
+
+    public Connection getConnection() throws SQLException {
+        if (closed) throw new SQLException("Connection pool is closed");
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("No database connection free after " + borrowTimeoutMs + " ms (" + this + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        try {
+            Pooled pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) break;
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = create();
+            }
+            long waited = System.nanoTime() - start;
+            borrows.increment();
+            acquireNanos.add(waited);
+            maxAcquireNanos.accumulateAndGet(waited, Math::max);
+            return pooled.lend();
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(Pooled pooled) {
+        try {
+            if (closed || pooled.broken || pooled.connection.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            pooled.reset();
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean isUsable(Pooled pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < validationIntervalMs) {
+            return true;
+        }
+        try {
+            return pooled.connection.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Pooled create() throws SQLException {
+        try {
+            Pooled pooled = new Pooled(DriverManager.getConnection(url, user, password));
+            created.increment();
+            log.debug("Opened database connection #{} to {}", created.sum(), url);
+            return pooled;
+        } catch (SQLException e) {
+            log.error("Database connection failed: {}", e.getMessage());
+            throw e;
+        }
+    }
+
+    private void destroy(Pooled pooled) {
+        // Closing the connection closes its statements too
+        pooled.statements.clear();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            // Ignore close error
+        }
+        destroyed.increment();
+    }
+
+    private void fillToMinimum() {
+        while (!closed && idle.size() + (maxSize - permits.availablePermits()) < minIdle) {
+            try {
+                Pooled pooled = create();
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                log.error("❌ Client DB pool warm-up failed: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+        // Oldest idle connections sit at the tail; trim them down to minIdle
+        while (idle.size() > minIdle) {
+            Pooled oldest = idle.peekLast();
+            if (oldest == null || now - oldest.lastUsed < idleTimeoutMs) break;
+            if (idle.removeLastOccurrence(oldest)) {
+                destroy(oldest);
+            }
+        }
+        fillToMinimum();
+    }
+
+    // Run by the shutdown hook; connections still lent out are closed when they come back
+    public void close() {
+        if (closed) return;
+        closed = true;
+        housekeeper.shutdownNow();
+        Pooled pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        log.info("✅ Client DB pool closed | {}", this);
+    }
+
+    // Physical connections opened so far
+    public long getCreated() {
+        return created.sum();
+    }
+
+    public double getAverageAcquireMillis() {
+        long count = borrows.sum();
+        return count == 0 ? 0.0 : acquireNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxAcquireMillis() {
+        return maxAcquireNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        long hits = statementHits.sum();
+        long total = hits + statementMisses.sum();
+        return String.format("Client DB pool: idle=%d, inUse=%d, created=%d, destroyed=%d, borrows=%d, " +
+            "acquire avg=%.3f ms max=%.1f ms, statements: hitRate=%.1f%% (%d/%d)",
+            idle.size(), maxSize - permits.availablePermits(), created.sum(), destroyed.sum(), borrows.sum(),
+            getAverageAcquireMillis(), getMaxAcquireMillis(), total == 0 ? 0.0 : hits * 100.0 / total, hits, total);
+    }
+
+    /** One physical connection and its idle prepared statements. */
+    private final class Pooled {
+        private final Connection connection;
+        private final int defaultIsolation;
+        // Only the borrowing thread touches these while lent, and nobody while idle
+        private final Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                if (size() <= statementCacheSize) return false;
+                closeQuietly(eldest.getValue());
+                return true;
+            }
+        };
+        private volatile long lastUsed;
+        private boolean broken;
+
+        Pooled(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.defaultIsolation = connection.getTransactionIsolation();
+        }
+
+        Connection lend() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[]{Connection.class},
+                new Lent(this));
+        }
+
+        // What the last borrower changed, undone for the next one
+        void reset() throws SQLException {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+            if (connection.isReadOnly()) connection.setReadOnly(false);
+            if (connection.getTransactionIsolation() != defaultIsolation) connection.setTransactionIsolation(defaultIsolation);
+            connection.clearWarnings();
+        }
+
+        // A statement is taken out of the cache while in use, so preparing the same SQL twice gives two statements
+        PreparedStatement take(String key, String sql, int autoGeneratedKeys) throws SQLException {
+            PreparedStatement stmt = statements.remove(key);
+            if (stmt != null && !stmt.isClosed()) {
+                statementHits.increment();
+                return stmt;
+            }
+            statementMisses.increment();
+            return connection.prepareStatement(sql, autoGeneratedKeys);
+        }
+
+        void giveBack(String key, PreparedStatement stmt) {
+            try {
+                ResultSet open = stmt.getResultSet();
+                if (open != null) open.close();
+                stmt.clearParameters();
+                stmt.clearBatch();
+                if (statementCacheSize > 0 && !statements.containsKey(key)) {
+                    statements.put(key, stmt);
+                    return;
+                }
+            } catch (SQLException e) {
+                // Closed below
+            }
+            closeQuietly(stmt);
+        }
+    }
+
+    /** What a caller holds between getConnection() and close(). */
+    private final class Lent implements InvocationHandler {
+        private final Pooled pooled;
+        private boolean returned;
+
+        Lent(Pooled pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!returned) {
+                    returned = true;
+                    release(pooled);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) return returned || pooled.connection.isClosed();
+            if (name.equals("equals")) return proxy == args[0];
+            if (name.equals("hashCode")) return System.identityHashCode(proxy);
+            if (name.equals("toString")) return "Pooled " + pooled.connection;
+            if (returned) throw new SQLException("Connection is closed");
+
+            if (name.equals("prepareStatement") && args.length <= 2
+                    && (args.length == 1 || args[1] instanceof Integer)) {
+                String sql = (String) args[0];
+                int keys = args.length == 2 ? (Integer) args[1] : Statement.NO_GENERATED_KEYS;
+                String key = keys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+                PreparedStatement stmt = pooled.take(key, sql, keys);
+                return Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, new Cached(proxy, pooled, key, stmt));
+            }
+            return call(pooled, pooled.connection, method, args);
+        }
+    }
+
+    /** A prepared statement whose close() puts it back in its connection's cache. */
+    private final class Cached implements InvocationHandler {
+        private final Object connectionProxy;
+        private final Pooled pooled;
+        private final String key;
+        private final PreparedStatement stmt;
+        private boolean returned;
+
+        Cached(Object connectionProxy, Pooled pooled, String key, PreparedStatement stmt) {
+            this.connectionProxy = connectionProxy;
+            this.pooled = pooled;
+            this.key = key;
+            this.stmt = stmt;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (name.equals("close")) {
+                if (!returned) {
+                    returned = true;
+                    pooled.giveBack(key, stmt);
+                }
+                return null;
+            }
+            if (name.equals("isClosed")) return returned || stmt.isClosed();
+            if (name.equals("getConnection")) return connectionProxy;
+            if (name.equals("equals")) return proxy == args[0];
+            if (name.equals("hashCode")) return System.identityHashCode(proxy);
+            if (name.equals("toString")) return stmt.toString();
+            if (returned) throw new SQLException("Statement is closed");
+            return call(pooled, stmt, method, args);
+        }
+    }
+
+    private static Object call(Pooled pooled, Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            // SQLState class 08 is a lost connection; don't hand it out again
+            if (cause instanceof SQLException && ((SQLException) cause).getSQLState() != null
+                    && ((SQLException) cause).getSQLState().startsWith("08")) {
+                pooled.broken = true;
+            }
+            throw cause;
+        }
+    }
+
+    private static void closeQuietly(Statement stmt) {
+        try {
+            stmt.close();
+        } catch (SQLException e) {
+            // Ignore close error
+        }
+    }
+}
\ No newline at end of file
@@ -3,12 +3,28 @@ import java.net.*;
 import java.util.*;
 import java.sql.*;
 import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ClientService {
+    private static final Log log = Log.get("client.service");
+    // "binary" (default) or "object" to force the legacy object-stream protocol
+    private static final String PROTOCOL = System.getProperty("client.protocol", "binary");
+    
     private Socket socket;
     private ObjectOutputStream output;
     private ObjectInputStream input;
-    private boolean connected = false;
+    // Binary protocol streams; both stay null when the server only speaks object streams
+    private DataInputStream binaryInput;
+    private OutputStream binaryOutput;
+    private final AtomicInteger nextRequestId = new AtomicInteger();
+    // Binary requests sent and not yet answered, by requestId
+    private final Map<Integer, CompletableFuture<WireProtocol.Frame>> pendingResponses = new ConcurrentHashMap<>();
+    private final Object sendLock = new Object();
+    private volatile boolean connected = false;
     
     public ClientService() {
         // Regular constructor
@@ -16,70 +32,189 @@ public class ClientService {
     
     // Connection Management
     public boolean connect(String host, int port) {
+        if (!"object".equalsIgnoreCase(PROTOCOL) && connectBinary(host, port)) {
+            return true;
+        }
         try {
             socket = new Socket(host, port);
             output = new ObjectOutputStream(socket.getOutputStream());
             input = new ObjectInputStream(socket.getInputStream());
             connected = true;
-            System.out.println("Connected to server " + host + ":" + port);
+            log.info("Connected to server {}:{}", host, port);
             return true;
         } catch (Exception e) {
-            System.err.println("Cannot connect to server: " + e.getMessage());
+            log.error("Cannot connect to server: {}", e.getMessage());
             connected = false;
             return false;
         }
     }
     
+    // Binary handshake; an older server drops the socket and we fall back to object streams
+    private boolean connectBinary(String host, int port) {
+        try {
+            socket = new Socket(host, port);
+            socket.setSoTimeout(5000);
+            // Pipelined requests are small back-to-back writes; don't let Nagle hold them
+            socket.setTcpNoDelay(true);
+            binaryOutput = new BufferedOutputStream(socket.getOutputStream());
+            binaryInput = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            
+            binaryOutput.write(WireProtocol.hello(WireProtocol.VERSION));
+            binaryOutput.flush();
+            byte[] hello = new byte[WireProtocol.HELLO_LENGTH];
+            binaryInput.readFully(hello);
+            int version = WireProtocol.parseHello(hello);
+            if (version < 1) {
+                throw new IOException("server refused protocol version " + WireProtocol.VERSION);
+            }
+            
+            socket.setSoTimeout(0);
+            connected = true;
+            startResponseReader(binaryInput);
+            log.info("Connected to server {}:{} (binary protocol v{})", host, port, version);
+            return true;
+        } catch (IOException e) {
+            log.info("Binary protocol not available ({}), using object streams", e.getMessage());
+            try {
+                if (socket != null) socket.close();
+            } catch (IOException ex) {
+                // Ignore close error
+            }
+            binaryInput = null;
+            binaryOutput = null;
+            return false;
+        }
+    }
+    
+    // Completes pending requests as their responses arrive, in whatever order the server sends them
+    private void startResponseReader(DataInputStream in) {
+        Thread reader = new Thread(() -> {
+            IOException failure = new EOFException("Server closed the connection");
+            try {
+                WireProtocol.Frame frame;
+                while ((frame = WireProtocol.readFrame(in)) != null) {
+                    CompletableFuture<WireProtocol.Frame> pending = pendingResponses.remove(frame.requestId);
+                    if (pending != null) {
+                        pending.complete(frame);
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            connected = false;
+            for (Integer requestId : pendingResponses.keySet()) {
+                CompletableFuture<WireProtocol.Frame> pending = pendingResponses.remove(requestId);
+                if (pending != null) {
+                    pending.completeExceptionally(failure);
+                }
+            }
+        }, "server-response-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    @FunctionalInterface
+    private interface RequestBody {
+        void write(WireProtocol.Writer out) throws IOException;
+    }
+    
+    @FunctionalInterface
+    private interface ResponseDecoder<T> {
+        T read(WireProtocol.Reader in) throws IOException;
+    }
+    
+    /*
+     * Sends one request without waiting for earlier ones to be answered. On the
+     * binary protocol the future completes on the response reader thread; object
+     * streams cannot interleave, so there the call runs to the end before returning.
+     */
+    private <T> CompletableFuture<T> callAsync(WireProtocol.Opcode opcode, RequestBody body, ResponseDecoder<T> decoder) {
+        if (!connected) {
+            return CompletableFuture.failedFuture(new IOException("Not connected to server"));
+        }
+        if (binaryOutput == null) {
+            synchronized (sendLock) {
+                try {
+                    output.writeObject(opcode.action());
+                    body.write(new WireProtocol.ObjectStreamWriter(output));
+                    output.flush();
+                    return CompletableFuture.completedFuture(decoder.read(new WireProtocol.ObjectStreamReader(input)));
+                } catch (IOException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+            }
+        }
+        
+        int requestId = nextRequestId.incrementAndGet();
+        CompletableFuture<WireProtocol.Frame> response = new CompletableFuture<>();
+        pendingResponses.put(requestId, response);
+        try {
+            WireProtocol.BinaryWriter request = new WireProtocol.BinaryWriter(opcode, requestId);
+            body.write(request);
+            byte[] frame = request.toFrame();
+            synchronized (sendLock) {
+                binaryOutput.write(frame);
+                binaryOutput.flush();
+            }
+            // The reader may have failed the pending map before our entry went in
+            if (!connected && pendingResponses.remove(requestId) != null) {
+                throw new EOFException("Server closed the connection");
+            }
+        } catch (IOException e) {
+            pendingResponses.remove(requestId);
+            return CompletableFuture.failedFuture(e);
+        }
+        return response.thenApply(frame -> {
+            try {
+                return decoder.read(frame.body);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        });
+    }
+    
+    // Sends one request and waits for its response
+    private <T> T call(WireProtocol.Opcode opcode, RequestBody body, ResponseDecoder<T> decoder) throws IOException {
+        try {
+            return callAsync(opcode, body, decoder).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the server");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+    
     public boolean isConnected() {
         return connected;
     }
     
     public void disconnect() {
         try {
-            if (output != null) {
+            if (binaryOutput != null) {
+                // The server answers requests still in flight before it closes
+                synchronized (sendLock) {
+                    binaryOutput.write(new WireProtocol.BinaryWriter(WireProtocol.Opcode.EXIT, nextRequestId.incrementAndGet()).toFrame());
+                    binaryOutput.flush();
+                }
+            } else if (output != null) {
                 output.writeObject("EXIT");
                 output.flush();
             }
             if (socket != null) socket.close();
             connected = false;
         } catch (IOException e) {
-            System.err.println("Error disconnecting: " + e.getMessage());
+            log.error("Error disconnecting: {}", e.getMessage());
         }
     }
     
     // Database Connection Helper - MAKE IT PUBLIC
+    // A pooled connection; closing it gives it back, see ClientConnectionPool
     public Connection getConnection() throws SQLException {
-        System.out.println(" Attempting database connection...");
-        
-        try {
-            // Explicitly load the MySQL JDBC driver
-            System.out.println(" Loading MySQL JDBC driver...");
-            Class.forName("com.mysql.cj.jdbc.Driver");
-            System.out.println(" MySQL JDBC Driver loaded successfully!");
-            
-            String url = "jdbc:mysql://localhost:3306/gestion_scolarite";
-            String user = "root";
-            String pass = ""; // your password here
-            
-            System.out.println(" Connecting to: " + url);
-            System.out.println(" Username: " + user);
-            
-            // Test the connection
-            Connection conn = DriverManager.getConnection(url, user, pass);
-            System.out.println(" Database connection successful!");
-            
-            return conn;
-            
-        } catch (ClassNotFoundException e) {
-            System.err.println(" MySQL JDBC Driver not found in classpath!");
-            System.err.println(" Current classpath: " + System.getProperty("java.class.path"));
-            System.err.println(" Make sure ../lib/mysql-connector-java-8.0.33.jar exists and is accessible");
-            throw new SQLException("MySQL JDBC Driver not found", e);
-        } catch (SQLException e) {
-            System.err.println(" Database connection failed!");
-            System.err.println(" Error: " + e.getMessage());
-            throw e;
-        }
+        return ClientConnectionPool.getInstance().getConnection();
     }
     
     // Database Authentication Method
@@ -89,11 +224,11 @@ public class ClientService {
         ResultSet rs = null;
         
         // Add debug output
-        System.out.println("🔐 Attempting authentication for: " + username);
+        log.debug("🔐 Attempting authentication for: {}", username);
         
         try {
             conn = getConnection();
-            System.out.println(" Database connection established");
+            log.debug("Database connection established");
             
             // Updated query to match your actual database schema
             String sql = "SELECT u.*, " +
@@ -108,20 +243,20 @@ public class ClientService {
             stmt.setString(1, username);
             stmt.setString(2, password);
             
-            System.out.println(" Executing query with username: " + username);
+            log.debug("Executing query with username: {}", username);
             
             rs = stmt.executeQuery();
             
             if (rs.next()) {
-                System.out.println(" User found in database!");
+                log.debug("User found in database!");
                 
                 Map<String, String> userInfo = new HashMap<>();
                 userInfo.put("userType", rs.getString("user_type"));
                 userInfo.put("userId", rs.getString("user_id"));
                 
                 // Debug: Print all available columns
-                System.out.println("User type: " + userInfo.get("userType"));
-                System.out.println("User ID: " + userInfo.get("userId"));
+                log.debug("User type: {}", userInfo.get("userType"));
+                log.debug("User ID: {}", userInfo.get("userId"));
                 
                 // Set user-specific information
                 String userType = userInfo.get("userType");
@@ -130,42 +265,42 @@ public class ClientService {
                         userInfo.put("firstName", rs.getString("s_first_name"));
                         userInfo.put("lastName", rs.getString("s_last_name"));
                         userInfo.put("studentId", rs.getString("student_id"));
-                        System.out.println("👨‍🎓 Student: " + rs.getString("s_first_name") + " " + rs.getString("s_last_name"));
+                        log.debug("👨‍🎓 Student: {} {}", rs.getString("s_first_name"), rs.getString("s_last_name"));
                         break;
                     case "TEACHER":
                         userInfo.put("firstName", rs.getString("t_first_name"));
                         userInfo.put("lastName", rs.getString("t_last_name"));
                         userInfo.put("teacherId", rs.getString("teacher_id"));
-                        System.out.println("👨‍🏫 Teacher: " + rs.getString("t_first_name") + " " + rs.getString("t_last_name"));
+                        log.debug("👨‍🏫 Teacher: {} {}", rs.getString("t_first_name"), rs.getString("t_last_name"));
                         break;
                     case "ADMIN":
                         userInfo.put("firstName", "System");
                         userInfo.put("lastName", "Administrator");
-                        System.out.println("👨‍💼 Admin user");
+                        log.debug("👨‍💼 Admin user");
                         break;
                     case "RESPONSABLE":
                         userInfo.put("firstName", "Academic");
                         userInfo.put("lastName", "Responsable");
-                        System.out.println("👨‍💼 Responsable user");
+                        log.debug("👨‍💼 Responsable user");
                         break;
                     default:
-                        System.out.println("❓ Unknown user type: " + userType);
+                        log.debug("❓ Unknown user type: {}", userType);
                         return null;
                 }
                 
-                System.out.println(" Authentication successful!");
+                log.debug("Authentication successful!");
                 return userInfo;
             } else {
-                System.out.println(" No user found with these credentials");
-                System.out.println(" Try these test accounts:");
-                System.out.println("   - admin / password");
-                System.out.println("   - prof1 / password"); 
-                System.out.println("   - ahmed / password");
-                System.out.println("   - resp / password");
+                log.debug("No user found with these credentials");
+                log.debug("Try these test accounts:");
+                log.debug("- admin / password");
+                log.debug("- prof1 / password"); 
+                log.debug("- ahmed / password");
+                log.debug("- resp / password");
             }
             
         } catch (SQLException e) {
-            System.err.println(" Database authentication error: " + e.getMessage());
+            log.error("Database authentication error: {}", e.getMessage());
             e.printStackTrace();
             return null;
         } finally {
@@ -174,32 +309,112 @@ public class ClientService {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
-        System.out.println(" Authentication failed");
+        log.debug("Authentication failed");
         return null;
     }
     
     // Server Authentication
     public Map<String, String> authenticate(String username, String password) {
         try {
-            output.writeObject("LOGIN");
-            output.writeObject(username);
-            output.writeObject(password);
-            output.flush();
-            
-            String response = (String) input.readObject();
-            if ("SUCCESS".equals(response)) {
-                return (Map<String, String>) input.readObject();
-            }
+            return call(WireProtocol.Opcode.LOGIN, out -> {
+                out.writeString(username);
+                out.writeString(password);
+            }, in -> "SUCCESS".equals(in.readString()) ? in.readMap() : null);
         } catch (Exception e) {
-            System.err.println("Authentication error: " + e.getMessage());
+            log.error("Authentication error: {}", e.getMessage());
             // Fall back to database authentication
             return authenticateWithDatabase(username, password);
         }
-        return null;
+    }
+    
+    // Grades as served by the server's GET_STUDENT_GRADES action
+    public List<Map<String, String>> getStudentGradesFromServer(int studentId) {
+        return getStudentGradesAsync(studentId).join();
+    }
+    
+    /*
+     * Student dashboard reads served by the server. On the binary protocol the
+     * requests are pipelined over the one socket, so starting them all before
+     * joining costs about one round trip instead of one each. The futures
+     * complete on the response reader thread; Swing code should hop back with
+     * SwingUtilities.invokeLater before touching components.
+     */
+    public CompletableFuture<Map<String, String>> getStudentInfoAsync(int studentId) {
+        return callAsync(WireProtocol.Opcode.GET_STUDENT_INFO, out -> out.writeInt(studentId),
+                         in -> "SUCCESS".equals(in.readString()) ? in.readMap() : null)
+            .exceptionally(e -> {
+                log.error("Error getting student info from server: {}", e.getMessage());
+                return null;
+            });
+    }
+    
+    public CompletableFuture<List<Map<String, String>>> getStudentGradesAsync(int studentId) {
+        return callAsync(WireProtocol.Opcode.GET_STUDENT_GRADES, out -> out.writeInt(studentId),
+                         in -> "SUCCESS".equals(in.readString()) ? in.readRows() : new ArrayList<Map<String, String>>())
+            .exceptionally(e -> {
+                log.error("Error getting student grades from server: {}", e.getMessage());
+                return new ArrayList<>();
+            });
+    }
+    
+    public CompletableFuture<Double> getOverallAverageAsync(int studentId) {
+        return callAsync(WireProtocol.Opcode.GET_OVERALL_AVERAGE, out -> out.writeInt(studentId),
+                         in -> "SUCCESS".equals(in.readString()) ? in.readDouble() : null)
+            .exceptionally(e -> {
+                log.error("Error getting overall average from server: {}", e.getMessage());
+                return null;
+            });
+    }
+    
+    public CompletableFuture<String> getFinalStatusAsync(int studentId) {
+        return callAsync(WireProtocol.Opcode.GET_FINAL_STATUS, out -> out.writeInt(studentId),
+                         in -> "SUCCESS".equals(in.readString()) ? in.readString() : null)
+            .exceptionally(e -> {
+                log.error("Error getting final status from server: {}", e.getMessage());
+                return null;
+            });
+    }
+    
+    // All four dashboard reads in flight together: keys info, grades, average and status
+    public CompletableFuture<Map<String, Object>> getStudentDashboardAsync(int studentId) {
+        CompletableFuture<Map<String, String>> info = getStudentInfoAsync(studentId);
+        CompletableFuture<List<Map<String, String>>> grades = getStudentGradesAsync(studentId);
+        CompletableFuture<Double> average = getOverallAverageAsync(studentId);
+        CompletableFuture<String> status = getFinalStatusAsync(studentId);
+        return CompletableFuture.allOf(info, grades, average, status).thenApply(done -> {
+            Map<String, Object> dashboard = new HashMap<>();
+            dashboard.put("info", info.join());
+            dashboard.put("grades", grades.join());
+            dashboard.put("average", average.join());
+            dashboard.put("status", status.join());
+            return dashboard;
+        });
+    }
+    
+    // Per-action server statistics (STATS): count, errors, p50Ms, p95Ms, p99Ms, maxMs, bytesIn, bytesOut
+    public List<Map<String, String>> getServerStats() {
+        try {
+            return call(WireProtocol.Opcode.STATS, out -> { },
+                        in -> "SUCCESS".equals(in.readString()) ? in.readRows() : new ArrayList<Map<String, String>>());
+        } catch (IOException e) {
+            log.error("Error getting server statistics: {}", e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+    
+    // Stores and delivers a message through the server's SEND_MESSAGE action
+    public boolean sendMessageViaServer(Message message) {
+        try {
+            String status = call(WireProtocol.Opcode.SEND_MESSAGE, out -> out.writeMessage(message), in -> in.readString());
+            return status != null && status.startsWith("SUCCESS");
+        } catch (IOException e) {
+            log.error("Error sending message through server: {}", e.getMessage());
+            return false;
+        }
     }
     
     // Add this method to ClientService class
@@ -254,7 +469,7 @@ public class ClientService {
             calculateAverages(transcript, studentId);
             
         } catch (SQLException e) {
-            System.err.println("Error getting student transcript: " + e.getMessage());
+            log.error("Error getting student transcript: {}", e.getMessage());
             e.printStackTrace();
         } finally {
             try {
@@ -262,7 +477,7 @@ public class ClientService {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -324,20 +539,20 @@ public class ClientService {
         ResultSet rs = null;
         
         try {
-            System.out.println("🔍 [DEBUG] Starting getStudentInfo for ID: " + studentId);
+            log.debug("🔍 Starting getStudentInfo for ID: {}", studentId);
             conn = getConnection();
-            System.out.println("✅ [DEBUG] Database connection established");
+            log.debug("✅ Database connection established");
 
             // First, let's try a simple query without JOINs
             String sql = "SELECT * FROM students WHERE student_id = ?";
-            System.out.println("🔍 [DEBUG] Executing SQL: " + sql);
+            log.debug("🔍 Executing SQL: {}", sql);
             
             stmt = conn.prepareStatement(sql);
             stmt.setInt(1, studentId);
             rs = stmt.executeQuery();
             
             if (rs.next()) {
-                System.out.println("✅ [DEBUG] Student found in database!");
+                log.debug("✅ Student found in database!");
                 Map<String, String> studentInfo = new HashMap<>();
                 
                 // Get basic student info
@@ -349,35 +564,35 @@ public class ClientService {
                 studentInfo.put("academicYear", rs.getString("academic_year"));
                 studentInfo.put("registrationDate", rs.getString("registration_date"));
                 
-                System.out.println("🔍 [DEBUG] Basic student info retrieved:");
-                System.out.println("  - First Name: " + studentInfo.get("firstName"));
-                System.out.println("  - Last Name: " + studentInfo.get("lastName"));
-                System.out.println("  - School Origin: " + studentInfo.get("schoolOrigin"));
+                log.debug("🔍 Basic student info retrieved:");
+                log.debug("- First Name: {}", studentInfo.get("firstName"));
+                log.debug("- Last Name: {}", studentInfo.get("lastName"));
+                log.debug("- School Origin: {}", studentInfo.get("schoolOrigin"));
                 
                 // Now get program name
                 int programId = rs.getInt("program_id");
                 if (!rs.wasNull()) {
                     String programName = getProgramName(programId);
                     studentInfo.put("program", programName);
-                    System.out.println("  - Program: " + programName);
+                    log.debug("- Program: {}", programName);
                 } else {
                     studentInfo.put("program", "Not assigned");
-                    System.out.println("  - Program: Not assigned (program_id is NULL)");
+                    log.debug("- Program: Not assigned (program_id is NULL)");
                 }
                 
                 // Get email from users table
                 String email = getStudentEmail(studentId);
                 studentInfo.put("email", email);
-                System.out.println("  - Email: " + email);
+                log.debug("- Email: {}", email);
                 
                 return studentInfo;
             } else {
-                System.out.println("❌ [DEBUG] No student found with ID: " + studentId);
+                log.debug("❌ No student found with ID: {}", studentId);
                 return null;
             }
             
         } catch (SQLException e) {
-            System.err.println("❌ Error getting student info from database: " + e.getMessage());
+            log.error("❌ Error getting student info from database: {}", e.getMessage());
             e.printStackTrace();
             return null;
         } finally {
@@ -386,7 +601,7 @@ public class ClientService {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -408,14 +623,14 @@ public class ClientService {
                 return rs.getString("program_name");
             }
         } catch (SQLException e) {
-            System.err.println("Error getting program name: " + e.getMessage());
+            log.error("Error getting program name: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing connection: " + e.getMessage());
+                log.error("Error closing connection: {}", e.getMessage());
             }
         }
         return "Unknown Program";
@@ -438,14 +653,14 @@ public class ClientService {
                 return rs.getString("email");
             }
         } catch (SQLException e) {
-            System.err.println("Error getting student email: " + e.getMessage());
+            log.error("Error getting student email: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing connection: " + e.getMessage());
+                log.error("Error closing connection: {}", e.getMessage());
             }
         }
         return "No email";
@@ -482,14 +697,14 @@ public class ClientService {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting student grades from database: " + e.getMessage());
+            log.error("Error getting student grades from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -498,156 +713,38 @@ public class ClientService {
     
     // FIXED: Enhanced grade calculation with proper weight distribution
     public Double calculateSubjectFinalGrade(int studentId, int subjectId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        
-        try {
-            conn = getConnection();
-            
-            // Get all exam scores for this student and subject
-            String sql = "SELECT e.exam_type, e.coefficient, g.score " +
-                        "FROM exams e " +
-                        "JOIN grades g ON e.exam_id = g.exam_id " +
-                        "WHERE g.student_id = ? AND e.subject_id = ?";
-            
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, studentId);
-            stmt.setInt(2, subjectId);
-            rs = stmt.executeQuery();
-            
-            // Store scores by exam type
-            Map<String, Double> examScores = new HashMap<>();
-            Map<String, Double> examCoefficients = new HashMap<>();
-            
-            while (rs.next()) {
-                String examType = rs.getString("exam_type");
-                double coefficient = rs.getDouble("coefficient");
-                double score = rs.getDouble("score");
-                
-                examScores.put(examType, score);
-                examCoefficients.put(examType, coefficient);
-            }
-            
-            // Calculate final grade based on exam types available
-            double finalGrade = 0.0;
-            
-            boolean hasControle = examScores.containsKey("CONTROLE");
-            boolean hasTP = examScores.containsKey("TP");
-            boolean hasExamen = examScores.containsKey("EXAMEN");
-            
-            if (hasControle && hasTP && hasExamen) {
-                // Case 1: Has all three components
-                // 0.2 for CONTROLE, 0.2 for TP, 0.6 for EXAMEN
-                double controleScore = examScores.get("CONTROLE");
-                double tpScore = examScores.get("TP");
-                double examenScore = examScores.get("EXAMEN");
-                
-                finalGrade = (controleScore * 0.2) + (tpScore * 0.2) + (examenScore * 0.6);
-                
-            } else if (hasControle && hasExamen && !hasTP) {
-                // Case 2: Has CONTROLE and EXAMEN only
-                // 0.4 for CONTROLE, 0.6 for EXAMEN
-                double controleScore = examScores.get("CONTROLE");
-                double examenScore = examScores.get("EXAMEN");
-                
-                finalGrade = (controleScore * 0.4) + (examenScore * 0.6);
-                
-            } else if (hasExamen) {
-                // Case 3: Only has EXAMEN, use database coefficient
-                double examenScore = examScores.get("EXAMEN");
-                double examenCoefficient = examCoefficients.get("EXAMEN");
-                finalGrade = examenScore * examenCoefficient;
-                
-            } else {
-                // Case 4: Other combinations - calculate weighted average
-                double totalWeightedScore = 0.0;
-                double totalCoefficient = 0.0;
-                
-                for (Map.Entry<String, Double> entry : examScores.entrySet()) {
-                    String examType = entry.getKey();
-                    double score = entry.getValue();
-                    double coefficient = examCoefficients.get(examType);
-                    
-                    totalWeightedScore += score * coefficient;
-                    totalCoefficient += coefficient;
+        try (Connection conn = getConnection()) {
+            // Materialized by every grade write; computed here for students not backfilled yet
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT final_grade FROM student_subject_results WHERE student_id = ? AND subject_id = ?")) {
+                stmt.setInt(1, studentId);
+                stmt.setInt(2, subjectId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) return rs.getDouble(1);
                 }
-                
-                finalGrade = totalCoefficient > 0 ? totalWeightedScore / totalCoefficient : 0.0;
             }
-            
-            return Math.round(finalGrade * 100.0) / 100.0; // Round to 2 decimal places
-            
+            GradeEngine.Result result = GradeEngine.compute(GradeEngine.load(conn, studentId, subjectId));
+            return result.getSubjectFinalById(subjectId);
         } catch (SQLException e) {
-            System.err.println("Error calculating subject final grade: " + e.getMessage());
+            log.error("Error calculating subject final grade: {}", e.getMessage());
             return null;
-        } finally {
-            try {
-                if (rs != null) rs.close();
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
         }
     }
     
     // FIXED: Enhanced overall average calculation
     public Double calculateOverallAverage(int studentId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        
-        try {
-            conn = getConnection();
-            
-            // Get all subjects the student is enrolled in
-            String subjectsSql = "SELECT DISTINCT s.subject_id " +
-                               "FROM grades g " +
-                               "JOIN exams e ON g.exam_id = e.exam_id " +
-                               "JOIN subjects s ON e.subject_id = s.subject_id " +
-                               "WHERE g.student_id = ?";
-            
-            stmt = conn.prepareStatement(subjectsSql);
-            stmt.setInt(1, studentId);
-            rs = stmt.executeQuery();
-            
-            List<Integer> subjectIds = new ArrayList<>();
-            while (rs.next()) {
-                subjectIds.add(rs.getInt("subject_id"));
-            }
-            rs.close();
-            stmt.close();
-            
-            // Calculate average of all subject final grades
-            if (subjectIds.isEmpty()) {
-                return 0.0;
-            }
-            
-            double totalGrade = 0.0;
-            int count = 0;
-            
-            for (int subjectId : subjectIds) {
-                Double subjectGrade = calculateSubjectFinalGrade(studentId, subjectId);
-                if (subjectGrade != null) {
-                    totalGrade += subjectGrade;
-                    count++;
+        try (Connection conn = getConnection()) {
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT overall_average FROM student_results WHERE student_id = ?")) {
+                stmt.setInt(1, studentId);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) return rs.getDouble(1);
                 }
             }
-            
-            return count > 0 ? Math.round((totalGrade / count) * 100.0) / 100.0 : 0.0;
-            
+            return GradeEngine.compute(GradeEngine.load(conn, studentId)).getOverallAverage();
         } catch (SQLException e) {
-            System.err.println("Error calculating overall average: " + e.getMessage());
+            log.error("Error calculating overall average: {}", e.getMessage());
             return null;
-        } finally {
-            try {
-                if (rs != null) rs.close();
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
         }
     }
     
@@ -676,14 +773,14 @@ public class ClientService {
                 return status != null ? status : "NOT_SET"; // Return default if null
             }
         } catch (SQLException e) {
-            System.err.println("Error getting final status from database: " + e.getMessage());
+            log.error("Error getting final status from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -692,72 +789,27 @@ public class ClientService {
     
     // Student Statistics Method - Database Only
     public Map<String, Object> getStudentStatistics(int studentId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
         Map<String, Object> stats = new HashMap<>();
         
-        try {
-            conn = getConnection();
-            
-            // Get overall average using new calculation
-            Double average = calculateOverallAverage(studentId);
-            stats.put("overallAverage", average != null ? average : 0.0);
-            
-            // Get total exams
-            String countSql = "SELECT COUNT(*) as total FROM grades WHERE student_id = ?";
-            stmt = conn.prepareStatement(countSql);
-            stmt.setInt(1, studentId);
-            rs = stmt.executeQuery();
-            if (rs.next()) {
-                stats.put("totalExams", rs.getInt("total"));
-            }
-            
-            // Get passed exams (assuming pass is 10 or above)
-            String passedSql = "SELECT COUNT(*) as passed FROM grades WHERE student_id = ? AND score >= 10";
-            stmt = conn.prepareStatement(passedSql);
-            stmt.setInt(1, studentId);
-            rs = stmt.executeQuery();
-            if (rs.next()) {
-                int passed = rs.getInt("passed");
-                int total = (Integer) stats.get("totalExams");
-                stats.put("examsPassed", passed);
-                stats.put("successRate", total > 0 ? (passed * 100.0 / total) : 0);
-            }
-            
-            // Get subject-wise statistics using new calculation
-            String subjectSql = "SELECT DISTINCT s.subject_id, s.subject_name " +
-                               "FROM grades g " +
-                               "JOIN exams e ON g.exam_id = e.exam_id " +
-                               "JOIN subjects s ON e.subject_id = s.subject_id " +
-                               "WHERE g.student_id = ?";
-            stmt = conn.prepareStatement(subjectSql);
-            stmt.setInt(1, studentId);
-            rs = stmt.executeQuery();
+        try (Connection conn = getConnection()) {
+            // Average, exam counts and subject finals all from one query
+            GradeEngine.Result result = GradeEngine.compute(GradeEngine.load(conn, studentId));
+            stats.put("overallAverage", result.getOverallAverage());
+            stats.put("totalExams", result.getExamCount());
+            stats.put("examsPassed", result.getExamsPassed());
+            stats.put("successRate", result.getSuccessRate());
             
             List<Map<String, String>> subjectStats = new ArrayList<>();
-            while (rs.next()) {
-                int subjectId = rs.getInt("subject_id");
-                String subjectName = rs.getString("subject_name");
-                Double subjectAverage = calculateSubjectFinalGrade(studentId, subjectId);
-                
+            for (int i = 0; i < result.getSubjectCount(); i++) {
                 Map<String, String> subject = new HashMap<>();
-                subject.put("subject", subjectName);
-                subject.put("average", subjectAverage != null ? String.format("%.2f", subjectAverage) : "0.00");
+                subject.put("subject", result.getSubjectName(i));
+                subject.put("average", String.format("%.2f", result.getSubjectFinal(i)));
                 subjectStats.add(subject);
             }
             stats.put("subjectStats", subjectStats);
             
         } catch (SQLException e) {
-            System.err.println("Error getting student statistics from database: " + e.getMessage());
-        } finally {
-            try {
-                if (rs != null) rs.close();
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
+            log.error("Error getting student statistics from database: {}", e.getMessage());
         }
         
         return stats;
@@ -784,7 +836,7 @@ public class ClientService {
             rs.close();
             
             if (subjectId == -1) {
-                System.err.println("Subject not found: " + subject);
+                log.error("Subject not found: {}", subject);
                 return false;
             }
             
@@ -802,14 +854,14 @@ public class ClientService {
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error creating exam in database: " + e.getMessage());
+            log.error("Error creating exam in database: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -820,31 +872,89 @@ public class ClientService {
         
         try {
             conn = getConnection();
+            // Closing the pooled connection rolls back whatever is left uncommitted
+            conn.setAutoCommit(false);
+            int student = Integer.parseInt(studentId);
+            StudentResults.lock(conn, student);
             
             String sql = "INSERT INTO grades (student_id, exam_id, score, grade_date) " +
                         "VALUES (?, ?, ?, NOW())";
             
             stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, Integer.parseInt(studentId));
+            stmt.setInt(1, student);
             stmt.setInt(2, Integer.parseInt(examId));
             stmt.setDouble(3, score);
             
             int rowsAffected = stmt.executeUpdate();
+            if (rowsAffected > 0) {
+                StudentResults.refresh(conn, student);
+                conn.commit();
+            }
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error adding grade to database: " + e.getMessage());
+            log.error("Error adding grade to database: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
     
+    /*
+     * Saves a whole exam's grades in one BATCH request: one round trip and one
+     * server transaction. Returns whether each student's grade was saved. When
+     * no server is connected it falls back to addGrade() per student.
+     */
+    public Map<Integer, Boolean> addGrades(int examId, Map<Integer, Double> scoresByStudent) {
+        List<Integer> studentIds = new ArrayList<>(scoresByStudent.keySet());
+        Map<Integer, Boolean> saved = new LinkedHashMap<>();
+        
+        if (!connected) {
+            for (Integer studentId : studentIds) {
+                saved.put(studentId, addGrade(String.valueOf(studentId), String.valueOf(examId), scoresByStudent.get(studentId)));
+            }
+            return saved;
+        }
+        
+        try {
+            List<String> statuses = call(WireProtocol.Opcode.BATCH, out -> {
+                out.writeInt(studentIds.size());
+                for (Integer studentId : studentIds) {
+                    out.writeString(WireProtocol.Opcode.ADD_GRADE.action());
+                    out.writeInt(studentId);
+                    out.writeInt(examId);
+                    out.writeDouble(scoresByStudent.get(studentId));
+                }
+            }, in -> {
+                String status = in.readString();
+                if (!"SUCCESS".equals(status)) {
+                    throw new IOException(status);
+                }
+                int count = in.readInt();
+                List<String> items = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    items.add(in.readString());
+                }
+                return items;
+            });
+            for (int i = 0; i < studentIds.size(); i++) {
+                String status = i < statuses.size() ? statuses.get(i) : null;
+                saved.put(studentIds.get(i), status != null && status.startsWith("SUCCESS"));
+            }
+        } catch (IOException e) {
+            log.error("Error saving grades batch: {}", e.getMessage());
+            for (Integer studentId : studentIds) {
+                saved.put(studentId, false);
+            }
+        }
+        return saved;
+    }
+    
     // FIXED: Enhanced grade update with teacher authorization
     public boolean updateStudentGrade(int gradeId, int teacherId, double newScore) {
         Connection conn = null;
@@ -853,8 +963,10 @@ public class ClientService {
         try {
             conn = getConnection();
             
+            conn.setAutoCommit(false);
+            
             // Verify that the teacher owns this grade through their exam
-            String verifySql = "SELECT COUNT(*) as count FROM grades g " +
+            String verifySql = "SELECT g.student_id FROM grades g " +
                               "JOIN exams e ON g.exam_id = e.exam_id " +
                               "WHERE g.grade_id = ? AND e.teacher_id = ?";
             
@@ -863,29 +975,37 @@ public class ClientService {
             stmt.setInt(2, teacherId);
             ResultSet rs = stmt.executeQuery();
             
-            if (rs.next() && rs.getInt("count") > 0) {
+            if (rs.next()) {
                 // Teacher is authorized to update this grade
+                int studentId = rs.getInt("student_id");
+                rs.close();
+                stmt.close();
+                StudentResults.lock(conn, studentId);
                 String updateSql = "UPDATE grades SET score = ?, grade_date = NOW() WHERE grade_id = ?";
                 stmt = conn.prepareStatement(updateSql);
                 stmt.setDouble(1, newScore);
                 stmt.setInt(2, gradeId);
                 
                 int rowsAffected = stmt.executeUpdate();
+                if (rowsAffected > 0) {
+                    StudentResults.refresh(conn, studentId);
+                    conn.commit();
+                }
                 return rowsAffected > 0;
             } else {
-                System.err.println("Teacher not authorized to update this grade");
+                log.error("Teacher not authorized to update this grade");
                 return false;
             }
             
         } catch (SQLException e) {
-            System.err.println("Error updating student grade: " + e.getMessage());
+            log.error("Error updating student grade: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -930,14 +1050,14 @@ public class ClientService {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting grade details: " + e.getMessage());
+            log.error("Error getting grade details: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -967,14 +1087,14 @@ public class ClientService {
                 return rs.getDouble("average");
             }
         } catch (SQLException e) {
-            System.err.println("Error calculating subject average from database: " + e.getMessage());
+            log.error("Error calculating subject average from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1017,14 +1137,14 @@ public class ClientService {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting teacher exams from database: " + e.getMessage());
+            log.error("Error getting teacher exams from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1067,14 +1187,14 @@ public class ClientService {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting teacher grades from database: " + e.getMessage());
+            log.error("Error getting teacher grades from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1087,6 +1207,10 @@ public class ClientService {
         
         try {
             conn = getConnection();
+            // The coefficient changes the results of everyone graded in this exam
+            conn.setAutoCommit(false);
+            int[] students = StudentResults.studentsOfExam(conn, examId);
+            StudentResults.lock(conn, students);
             
             String sql = "UPDATE exams SET exam_name = ?, coefficient = ? WHERE exam_id = ?";
             stmt = conn.prepareStatement(sql);
@@ -1095,17 +1219,21 @@ public class ClientService {
             stmt.setInt(3, examId);
             
             int rowsAffected = stmt.executeUpdate();
+            for (int studentId : students) {
+                StudentResults.refresh(conn, studentId);
+            }
+            conn.commit();
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error updating exam in database: " + e.getMessage());
+            log.error("Error updating exam in database: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -1116,6 +1244,9 @@ public class ClientService {
         
         try {
             conn = getConnection();
+            conn.setAutoCommit(false);
+            int[] students = StudentResults.studentsOfExam(conn, Integer.parseInt(examId));
+            StudentResults.lock(conn, students);
             
             // First delete related grades
             String deleteGradesSql = "DELETE FROM grades WHERE exam_id = ?";
@@ -1130,17 +1261,21 @@ public class ClientService {
             stmt.setInt(1, Integer.parseInt(examId));
             
             int rowsAffected = stmt.executeUpdate();
+            for (int studentId : students) {
+                StudentResults.refresh(conn, studentId);
+            }
+            conn.commit();
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error deleting exam from database: " + e.getMessage());
+            log.error("Error deleting exam from database: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -1164,14 +1299,14 @@ public class ClientService {
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error adding program to database: " + e.getMessage());
+            log.error("Error adding program to database: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -1200,14 +1335,14 @@ public class ClientService {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting programs from database: " + e.getMessage());
+            log.error("Error getting programs from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1220,20 +1355,20 @@ public boolean addStudent(String firstName, String lastName, String email, Strin
     PreparedStatement stmt = null;
     
     try {
-        System.out.println("🎯 [CLIENT SERVICE] Starting addStudent");
-        System.out.println("   First Name: " + firstName);
-        System.out.println("   Last Name: " + lastName);
-        System.out.println("   Email: " + email);
-        System.out.println("   Phone: " + phone);
-        System.out.println("   School Origin: " + schoolOrigin);
+        log.debug("🎯 [CLIENT SERVICE] Starting addStudent");
+        log.debug("First Name: {}", firstName);
+        log.debug("Last Name: {}", lastName);
+        log.debug("Email: {}", email);
+        log.debug("Phone: {}", phone);
+        log.debug("School Origin: {}", schoolOrigin);
         
         conn = getConnection();
-        System.out.println("✅ [CLIENT SERVICE] Database connected");
+        log.debug("✅ [CLIENT SERVICE] Database connected");
         
         String sql = "INSERT INTO students (first_name, last_name, school_origin, email, phone, academic_year, registration_date) " +
                     "VALUES (?, ?, ?, ?, ?, ?, NOW())";
         
-        System.out.println("🔍 [CLIENT SERVICE] Executing SQL: " + sql);
+        log.debug("🔍 [CLIENT SERVICE] Executing SQL: {}", sql);
         
         stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
         stmt.setString(1, firstName);
@@ -1244,21 +1379,21 @@ public boolean addStudent(String firstName, String lastName, String email, Strin
         stmt.setString(6, "2024-2025");
         
         int rowsAffected = stmt.executeUpdate();
-        System.out.println("✅ [CLIENT SERVICE] Student insert - Rows affected: " + rowsAffected);
+        log.debug("✅ [CLIENT SERVICE] Student insert - Rows affected: {}", rowsAffected);
         
         if (rowsAffected > 0) {
             // Get the generated student ID
             ResultSet generatedKeys = stmt.getGeneratedKeys();
             if (generatedKeys.next()) {
                 int studentId = generatedKeys.getInt(1);
-                System.out.println("✅ [CLIENT SERVICE] Student added with ID: " + studentId);
+                log.debug("✅ [CLIENT SERVICE] Student added with ID: {}", studentId);
                 
                 // Try to create user account, but don't fail the entire operation if it fails
                 boolean userCreated = createUserAccount(studentId, firstName, lastName);
                 if (userCreated) {
-                    System.out.println("✅ [CLIENT SERVICE] User account created successfully");
+                    log.debug("✅ [CLIENT SERVICE] User account created successfully");
                 } else {
-                    System.out.println("⚠️ [CLIENT SERVICE] Student added but user account creation failed (username might already exist)");
+                    log.debug("⚠️ [CLIENT SERVICE] Student added but user account creation failed (username might already exist)");
                     // Don't return false here - the student was added successfully!
                 }
                 
@@ -1266,12 +1401,12 @@ public boolean addStudent(String firstName, String lastName, String email, Strin
             }
             return false;
         } else {
-            System.err.println("❌ [CLIENT SERVICE] No rows affected - student not added");
+            log.error("❌ [CLIENT SERVICE] No rows affected - student not added");
             return false;
         }
         
     } catch (SQLException e) {
-        System.err.println("❌ [CLIENT SERVICE] SQL Error adding student: " + e.getMessage());
+        log.error("❌ [CLIENT SERVICE] SQL Error adding student: {}", e.getMessage());
         e.printStackTrace();
         return false;
     } finally {
@@ -1279,7 +1414,7 @@ public boolean addStudent(String firstName, String lastName, String email, Strin
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
 }
@@ -1304,18 +1439,18 @@ private boolean createUserAccount(int studentId, String firstName, String lastNa
         stmt.setInt(3, studentId);
         
         int rowsAffected = stmt.executeUpdate();
-        System.out.println("✅ [USER CREATION] User account created: " + username);
+        log.debug("✅ [USER CREATION] User account created: {}", username);
         return rowsAffected > 0;
         
     } catch (SQLException e) {
-        System.err.println("⚠️ [USER CREATION] Failed to create user account: " + e.getMessage());
+        log.error("⚠️ [USER CREATION] Failed to create user account: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -1339,15 +1474,15 @@ private String generateUniqueUsername(String firstName, String lastName, int stu
         if (rs.next()) {
             // Username exists, append student ID to make it unique
             String uniqueUsername = baseUsername + studentId;
-            System.out.println("🔄 [USERNAME] Base username exists, using: " + uniqueUsername);
+            log.debug("🔄 [USERNAME] Base username exists, using: {}", uniqueUsername);
             return uniqueUsername;
         } else {
-            System.out.println("✅ [USERNAME] Using base username: " + baseUsername);
+            log.debug("✅ [USERNAME] Using base username: {}", baseUsername);
             return baseUsername;
         }
         
     } catch (SQLException e) {
-        System.err.println("Error checking username: " + e.getMessage());
+        log.error("Error checking username: {}", e.getMessage());
         // If there's an error checking, just use the base username and hope for the best
         return baseUsername;
     } finally {
@@ -1356,7 +1491,7 @@ private String generateUniqueUsername(String firstName, String lastName, int stu
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -1393,10 +1528,14 @@ private String generateUniqueUsername(String firstName, String lastName, int stu
             stmt.setInt(8, studentId);
             
             int rowsAffected = stmt.executeUpdate();
+            if (rowsAffected > 0) {
+                // The name may have changed
+                getUserDirectory().invalidate();
+            }
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error updating student info: " + e.getMessage());
+            log.error("Error updating student info: {}", e.getMessage());
             e.printStackTrace();
             return false;
         } finally {
@@ -1404,7 +1543,7 @@ private String generateUniqueUsername(String firstName, String lastName, int stu
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -1447,7 +1586,7 @@ private String generateUniqueUsername(String firstName, String lastName, int stu
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting student with program: " + e.getMessage());
+            log.error("Error getting student with program: {}", e.getMessage());
             e.printStackTrace();
         } finally {
             try {
@@ -1455,7 +1594,7 @@ private String generateUniqueUsername(String firstName, String lastName, int stu
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1468,18 +1607,18 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
     PreparedStatement stmt = null;
     
     try {
-        System.out.println("🎯 [REGISTRATION] Registering student " + studentId + " to program " + programId);
+        log.debug("🎯 [REGISTRATION] Registering student {} to program {}", studentId, programId);
         
         conn = getConnection();
         
         // First, verify both student and program exist
         if (!verifyStudentExists(studentId)) {
-            System.out.println("❌ Student " + studentId + " does not exist!");
+            log.debug("❌ Student {} does not exist!", studentId);
             return false;
         }
         
         if (!verifyProgramExists(programId)) {
-            System.out.println("❌ Program " + programId + " does not exist!");
+            log.debug("❌ Program {} does not exist!", programId);
             return false;
         }
         
@@ -1493,7 +1632,7 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
         int rowsAffected = stmt.executeUpdate();
         
         if (rowsAffected > 0) {
-            System.out.println("✅ Successfully registered student to program!");
+            log.debug("✅ Successfully registered student to program!");
             
             // Also add to student_programs table for tracking
             String trackSql = "INSERT INTO student_programs (student_id, program_id, academic_year, is_active) VALUES (?, ?, ?, 1)";
@@ -1505,12 +1644,12 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
             
             return true;
         } else {
-            System.out.println("❌ Failed to update student record");
+            log.debug("❌ Failed to update student record");
             return false;
         }
         
     } catch (SQLException e) {
-        System.err.println("❌ Error registering student to program: " + e.getMessage());
+        log.error("❌ Error registering student to program: {}", e.getMessage());
         e.printStackTrace();
         return false;
     } finally {
@@ -1518,7 +1657,7 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
 }
@@ -1547,14 +1686,14 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting programs for dropdown: " + e.getMessage());
+            log.error("Error getting programs for dropdown: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1579,14 +1718,14 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error registering student in database: " + e.getMessage());
+            log.error("Error registering student in database: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -1607,9 +1746,9 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
         List<Map<String, String>> students = new ArrayList<>();
         
         try {
-            System.out.println(" [DEBUG] Starting getAllStudents()...");
+            log.debug("Starting getAllStudents()...");
             conn = getConnection();
-            System.out.println(" [DEBUG] Database connection established");
+            log.debug("Database connection established");
 
             // FIXED SQL - Get email from students table instead of users table
             String sql = "SELECT s.student_id, s.first_name, s.last_name, s.school_origin, " +
@@ -1619,7 +1758,7 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
                         "LEFT JOIN programs p ON s.program_id = p.program_id " +
                         "ORDER BY s.student_id";
             
-            System.out.println(" [DEBUG] Executing SQL: " + sql);
+            log.debug("Executing SQL: {}", sql);
             stmt = conn.prepareStatement(sql);
             rs = stmt.executeQuery();
             
@@ -1639,14 +1778,16 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
                 student.put("status", rs.getString("final_status") != null ? rs.getString("final_status") : "Active");
                 students.add(student);
                 
-                System.out.println(" [DEBUG] Found student: " + student.get("studentId") + " - " + 
-                                 student.get("firstName") + " " + student.get("lastName"));
+                // Guarded: three arguments would allocate a varargs array per row even when disabled
+                if (log.isDebugEnabled()) {
+                    log.debug("Found student: {} - {} {}", student.get("studentId"), student.get("firstName"), student.get("lastName"));
+                }
             }
             
-            System.out.println(" [DEBUG] Total students found: " + count);
+            log.debug("Total students found: {}", count);
             
         } catch (SQLException e) {
-            System.err.println(" Error getting students from database: " + e.getMessage());
+            log.error("Error getting students from database: {}", e.getMessage());
             e.printStackTrace();
         } finally {
             try {
@@ -1654,7 +1795,7 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1693,14 +1834,14 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting programs with stats from database: " + e.getMessage());
+            log.error("Error getting programs with stats from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1740,14 +1881,14 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting users from database: " + e.getMessage());
+            log.error("Error getting users from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1827,14 +1968,14 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
             stats.put("detailedAnalysis", analysis.toString());
             
         } catch (SQLException e) {
-            System.err.println("Error getting system statistics from database: " + e.getMessage());
+            log.error("Error getting system statistics from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1882,14 +2023,14 @@ public boolean registerStudentToProgram(int studentId, int programId, String aca
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting student results from database: " + e.getMessage());
+            log.error("Error getting student results from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -1916,7 +2057,7 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
                     "AND s.program_id IS NOT NULL " +
                     "ORDER BY s.first_name, s.last_name";
         
-        System.out.println("🔍 [DEBUG] Getting students for teacher ID: " + teacherId);
+        log.debug("🔍 Getting students for teacher ID: {}", teacherId);
         
         stmt = conn.prepareStatement(sql);
         stmt.setInt(1, teacherId);
@@ -1932,15 +2073,13 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
             student.put("subject", rs.getString("subject_name"));
             students.add(student);
             
-            System.out.println("✅ Found student: " + student.get("studentName") + 
-                             " | Program: " + student.get("program") + 
-                             " | Subject: " + student.get("subject"));
+            log.debug("✅ Found student: {} | Program: {} | Subject: {}", student.get("studentName"), student.get("program"), student.get("subject"));
         }
         
-        System.out.println("📊 Total students found for teacher: " + count);
+        log.debug("📊 Total students found for teacher: {}", count);
         
     } catch (SQLException e) {
-        System.err.println("Error getting teacher students from database: " + e.getMessage());
+        log.error("Error getting teacher students from database: {}", e.getMessage());
         e.printStackTrace();
     } finally {
         try {
@@ -1948,7 +2087,7 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -2011,14 +2150,14 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting teacher statistics from database: " + e.getMessage());
+            log.error("Error getting teacher statistics from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -2068,14 +2207,14 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting responsable statistics from database: " + e.getMessage());
+            log.error("Error getting responsable statistics from database: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -2102,7 +2241,7 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
             return null;
             
         } catch (SQLException e) {
-            System.err.println("Error getting program ID: " + e.getMessage());
+            log.error("Error getting program ID: {}", e.getMessage());
             return null;
         } finally {
             try {
@@ -2110,7 +2249,7 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -2135,7 +2274,7 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
             return null;
             
         } catch (SQLException e) {
-            System.err.println("Error getting subject ID: " + e.getMessage());
+            log.error("Error getting subject ID: {}", e.getMessage());
             return null;
         } finally {
             try {
@@ -2143,7 +2282,7 @@ public List<Map<String, String>> getTeacherStudents(int teacherId) {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -2176,17 +2315,17 @@ public List<Map<String, String>> getAllTeachers() {
             teachers.add(teacher);
         }
         
-        System.out.println("📋 Found " + teachers.size() + " teachers in database");
+        log.debug("📋 Found {} teachers in database", teachers.size());
         
     } catch (SQLException e) {
-        System.err.println("Error getting teachers from database: " + e.getMessage());
+        log.error("Error getting teachers from database: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -2222,14 +2361,14 @@ public List<Map<String, String>> getAllTeachers() {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting subjects by program: " + e.getMessage());
+            log.error("Error getting subjects by program: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -2257,14 +2396,14 @@ public List<Map<String, String>> getAllTeachers() {
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error assigning teacher to program: " + e.getMessage());
+            log.error("Error assigning teacher to program: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -2327,9 +2466,9 @@ public List<Map<String, String>> getAllTeachers() {
             try {
                 if (conn != null) conn.rollback();
             } catch (SQLException ex) {
-                System.err.println("Error rolling back transaction: " + ex.getMessage());
+                log.error("Error rolling back transaction: {}", ex.getMessage());
             }
-            System.err.println("Error adding program with teachers: " + e.getMessage());
+            log.error("Error adding program with teachers: {}", e.getMessage());
             return false;
         } finally {
             try {
@@ -2340,7 +2479,7 @@ public List<Map<String, String>> getAllTeachers() {
                     conn.close();
                 }
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -2352,7 +2491,7 @@ public List<Map<String, String>> getAllTeachers() {
     List<Map<String, String>> teachers = new ArrayList<>();
     
     try {
-        System.out.println("🔍 [DEBUG] Getting teachers for program ID: " + programId);
+        log.debug("🔍 Getting teachers for program ID: {}", programId);
         conn = getConnection();
         
         // First, try the teacher_subjects table (most common)
@@ -2369,7 +2508,7 @@ public List<Map<String, String>> getAllTeachers() {
                     "WHERE s.program_id = ? " +
                     "ORDER BY s.semester, s.subject_name";
         
-        System.out.println("🔍 [DEBUG] Executing SQL: " + sql);
+        log.debug("🔍 Executing SQL: {}", sql);
         
         stmt = conn.prepareStatement(sql);
         stmt.setInt(1, programId);
@@ -2386,15 +2525,14 @@ public List<Map<String, String>> getAllTeachers() {
             teacher.put("specialty", rs.getString("specialty"));
             teachers.add(teacher);
             
-            System.out.println("✅ Found teacher: " + teacher.get("teacherName") + 
-                             " | Subject: " + teacher.get("subjectName"));
+            log.debug("✅ Found teacher: {} | Subject: {}", teacher.get("teacherName"), teacher.get("subjectName"));
         }
         
-        System.out.println("📊 Total teachers found: " + count);
+        log.debug("📊 Total teachers found: {}", count);
         
         // If no teachers found, try alternative table structure
         if (teachers.isEmpty()) {
-            System.out.println("🔄 No teachers found in teacher_subjects, trying alternative query...");
+            log.debug("🔄 No teachers found in teacher_subjects, trying alternative query...");
             rs.close();
             stmt.close();
             
@@ -2428,16 +2566,16 @@ public List<Map<String, String>> getAllTeachers() {
                     teacher.put("specialty", rs.getString("specialty"));
                     teachers.add(teacher);
                     
-                    System.out.println("✅ Found teacher (alt): " + teacher.get("teacherName"));
+                    log.debug("✅ Found teacher (alt): {}", teacher.get("teacherName"));
                 }
-                System.out.println("📊 Total teachers found (alt): " + altCount);
+                log.debug("📊 Total teachers found (alt): {}", altCount);
             } catch (SQLException e) {
-                System.out.println("ℹ️ Alternative table structure not available");
+                log.debug("ℹ️ Alternative table structure not available");
             }
         }
         
     } catch (SQLException e) {
-        System.err.println("❌ Error getting program teachers: " + e.getMessage());
+        log.error("❌ Error getting program teachers: {}", e.getMessage());
         e.printStackTrace();
     } finally {
         try {
@@ -2445,7 +2583,7 @@ public List<Map<String, String>> getAllTeachers() {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -2519,9 +2657,9 @@ public List<Map<String, String>> getAllTeachers() {
             try {
                 if (conn != null) conn.rollback();
             } catch (SQLException ex) {
-                System.err.println("Error rolling back transaction: " + ex.getMessage());
+                log.error("Error rolling back transaction: {}", ex.getMessage());
             }
-            System.err.println("Error creating program with structure: " + e.getMessage());
+            log.error("Error creating program with structure: {}", e.getMessage());
             return false;
         } finally {
             try {
@@ -2532,7 +2670,7 @@ public List<Map<String, String>> getAllTeachers() {
                     conn.close();
                 }
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -2587,14 +2725,14 @@ public List<Map<String, String>> getAllTeachers() {
             programStructure.put("semesters", semesters);
             
         } catch (SQLException e) {
-            System.err.println("Error getting program structure: " + e.getMessage());
+            log.error("Error getting program structure: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -2646,14 +2784,14 @@ public List<Map<String, String>> getAllTeachers() {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting subjects by semester: " + e.getMessage());
+            log.error("Error getting subjects by semester: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -2700,14 +2838,14 @@ public List<Map<String, String>> getAllTeachers() {
             }
             
         } catch (SQLException e) {
-            System.err.println("Error getting program subjects: " + e.getMessage());
+            log.error("Error getting program subjects: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
         
@@ -2726,11 +2864,11 @@ public boolean verifyProgramExists(int programId) {
         rs = stmt.executeQuery();
         
         boolean exists = rs.next();
-        System.out.println("🔍 [DEBUG] Program ID " + programId + " exists: " + exists);
+        log.debug("🔍 Program ID {} exists: {}", programId, exists);
         return exists;
         
     } catch (SQLException e) {
-        System.err.println("Error checking program existence: " + e.getMessage());
+        log.error("Error checking program existence: {}", e.getMessage());
         return false;
     } finally {
         try {
@@ -2738,7 +2876,7 @@ public boolean verifyProgramExists(int programId) {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
 }
@@ -2758,7 +2896,7 @@ public boolean assignTeacherToSubject(int teacherId, int subjectId, String acade
         ResultSet rs = stmt.executeQuery();
         
         if (rs.next()) {
-            System.out.println("✅ Teacher already assigned to this subject");
+            log.debug("✅ Teacher already assigned to this subject");
             return true;
         }
         rs.close();
@@ -2774,15 +2912,15 @@ public boolean assignTeacherToSubject(int teacherId, int subjectId, String acade
         int rowsAffected = stmt.executeUpdate();
         
         if (rowsAffected > 0) {
-            System.out.println("✅ Successfully assigned teacher " + teacherId + " to subject " + subjectId);
+            log.debug("✅ Successfully assigned teacher {} to subject {}", teacherId, subjectId);
             return true;
         } else {
-            System.out.println("❌ Failed to assign teacher to subject");
+            log.debug("❌ Failed to assign teacher to subject");
             return false;
         }
         
     } catch (SQLException e) {
-        System.err.println("Error assigning teacher to subject: " + e.getMessage());
+        log.error("Error assigning teacher to subject: {}", e.getMessage());
         e.printStackTrace();
         return false;
     } finally {
@@ -2790,7 +2928,7 @@ public boolean assignTeacherToSubject(int teacherId, int subjectId, String acade
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -2811,14 +2949,14 @@ public boolean assignTeacherToSubject(int teacherId, int subjectId, String acade
             return rowsAffected > 0;
             
         } catch (SQLException e) {
-            System.err.println("Error removing teacher from subject: " + e.getMessage());
+            log.error("Error removing teacher from subject: {}", e.getMessage());
             return false;
         } finally {
             try {
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
+                log.error("Error closing database connection: {}", e.getMessage());
             }
         }
     }
@@ -2832,26 +2970,26 @@ public boolean addSubjectToProgram(int programId, String subjectName, String obj
     PreparedStatement stmt = null;
     
     try {
-        System.out.println("🎯 [DEBUG FINAL] Starting addSubjectToProgram");
-        System.out.println("   Program ID: " + programId);
-        System.out.println("   Subject: " + subjectName);
-        System.out.println("   Semester: " + semester);
-        System.out.println("   Coefficient: " + coefficient);
+        log.debug("🎯 [DEBUG FINAL] Starting addSubjectToProgram");
+        log.debug("Program ID: {}", programId);
+        log.debug("Subject: {}", subjectName);
+        log.debug("Semester: {}", semester);
+        log.debug("Coefficient: {}", coefficient);
         
         // First, verify program exists
         if (!verifyProgramExists(programId)) {
-            System.out.println("❌ [DEBUG] Program " + programId + " does not exist!");
+            log.debug("❌ Program {} does not exist!", programId);
             return false;
         }
         
         conn = getConnection();
-        System.out.println("✅ [DEBUG] Database connected");
+        log.debug("✅ Database connected");
         
         // SIMPLE DIRECT INSERT - NO semester table lookup
         String sql = "INSERT INTO subjects (subject_name, program_id, semester, coefficient, objectives) " +
                     "VALUES (?, ?, ?, ?, ?)";
         
-        System.out.println("🔍 [DEBUG] Executing: " + sql);
+        log.debug("🔍 Executing: {}", sql);
         
         stmt = conn.prepareStatement(sql);
         stmt.setString(1, subjectName);
@@ -2861,14 +2999,14 @@ public boolean addSubjectToProgram(int programId, String subjectName, String obj
         stmt.setString(5, objectives);
         
         int rows = stmt.executeUpdate();
-        System.out.println("✅ [DEBUG] Rows affected: " + rows);
+        log.debug("✅ Rows affected: {}", rows);
         
         return rows > 0;
         
     } catch (SQLException e) {
-        System.err.println("❌ [DEBUG] SQL Error: " + e.getMessage());
-        System.err.println("❌ [DEBUG] SQL State: " + e.getSQLState());
-        System.err.println("❌ [DEBUG] Error Code: " + e.getErrorCode());
+        log.error("❌ [DEBUG] SQL Error: {}", e.getMessage());
+        log.error("❌ [DEBUG] SQL State: {}", e.getSQLState());
+        log.error("❌ [DEBUG] Error Code: {}", e.getErrorCode());
         e.printStackTrace();
         return false;
     } finally {
@@ -2876,7 +3014,7 @@ public boolean addSubjectToProgram(int programId, String subjectName, String obj
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -2893,11 +3031,11 @@ public boolean doesProgramExist(int programId) {
         rs = stmt.executeQuery();
         
         boolean exists = rs.next();
-        System.out.println("🔍 [DEBUG] Program ID " + programId + " exists: " + exists);
+        log.debug("🔍 Program ID {} exists: {}", programId, exists);
         return exists;
         
     } catch (SQLException e) {
-        System.err.println("Error checking program existence: " + e.getMessage());
+        log.error("Error checking program existence: {}", e.getMessage());
         return false;
     } finally {
         try {
@@ -2905,7 +3043,7 @@ public boolean doesProgramExist(int programId) {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
 }
@@ -2937,14 +3075,14 @@ public List<Map<String, String>> getUnassignedSubjects(int programId) {
         }
         
     } catch (SQLException e) {
-        System.err.println("Error getting unassigned subjects: " + e.getMessage());
+        log.error("Error getting unassigned subjects: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -2957,53 +3095,53 @@ public void checkDatabaseStructure() {
     
     try {
         conn = getConnection();
-        System.out.println("🔍 [DEBUG] Checking database structure...");
+        log.debug("🔍 Checking database structure...");
         
         // Check if subjects table exists and show its structure
         DatabaseMetaData meta = conn.getMetaData();
         rs = meta.getTables(null, null, "subjects", null);
         if (rs.next()) {
-            System.out.println("✅ [DEBUG] 'subjects' table exists");
+            log.debug("✅ 'subjects' table exists");
             
             // Show columns of subjects table
             rs = meta.getColumns(null, null, "subjects", null);
-            System.out.println("📋 [DEBUG] Subjects table columns:");
+            log.debug("📋 Subjects table columns:");
             while (rs.next()) {
                 String columnName = rs.getString("COLUMN_NAME");
                 String columnType = rs.getString("TYPE_NAME");
-                System.out.println("   - " + columnName + " (" + columnType + ")");
+                log.debug("- {} ({})", columnName, columnType);
             }
         } else {
-            System.out.println("❌ [DEBUG] 'subjects' table does NOT exist!");
+            log.debug("❌ 'subjects' table does NOT exist!");
         }
         rs.close();
         
         // Check if programs table exists
         rs = meta.getTables(null, null, "programs", null);
         if (rs.next()) {
-            System.out.println("✅ [DEBUG] 'programs' table exists");
+            log.debug("✅ 'programs' table exists");
         } else {
-            System.out.println("❌ [DEBUG] 'programs' table does NOT exist!");
+            log.debug("❌ 'programs' table does NOT exist!");
         }
         rs.close();
         
         // Check if semesters table exists
         rs = meta.getTables(null, null, "semesters", null);
         if (rs.next()) {
-            System.out.println("✅ [DEBUG] 'semesters' table exists");
+            log.debug("✅ 'semesters' table exists");
         } else {
-            System.out.println("❌ [DEBUG] 'semesters' table does NOT exist!");
+            log.debug("❌ 'semesters' table does NOT exist!");
         }
         
     } catch (SQLException e) {
-        System.err.println("Error checking database structure: " + e.getMessage());
+        log.error("Error checking database structure: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
 }
@@ -3043,17 +3181,17 @@ public List<Map<String, String>> getProgramSubjectsWithDetails(int programId) {
             subjects.add(subject);
         }
         
-        System.out.println("📚 Found " + subjects.size() + " subjects for program " + programId);
+        log.debug("📚 Found {} subjects for program {}", subjects.size(), programId);
         
     } catch (SQLException e) {
-        System.err.println("Error getting program subjects: " + e.getMessage());
+        log.error("Error getting program subjects: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -3075,18 +3213,18 @@ public boolean updateProgram(int programId, String programName, int programYear,
         stmt.setInt(4, programId);
         
         int rowsAffected = stmt.executeUpdate();
-        System.out.println("✅ Program updated successfully! Rows affected: " + rowsAffected);
+        log.debug("✅ Program updated successfully! Rows affected: {}", rowsAffected);
         return rowsAffected > 0;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error updating program: " + e.getMessage());
+        log.error("❌ Error updating program: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -3106,7 +3244,7 @@ public boolean deleteProgram(int programId) {
         ResultSet rs = stmt.executeQuery();
         
         if (rs.next() && rs.getInt("student_count") > 0) {
-            System.err.println("❌ Cannot delete program: It has " + rs.getInt("student_count") + " students enrolled");
+            log.error("❌ Cannot delete program: It has {} students enrolled", rs.getInt("student_count"));
             return false;
         }
         rs.close();
@@ -3118,18 +3256,18 @@ public boolean deleteProgram(int programId) {
         stmt.setInt(1, programId);
         
         int rowsAffected = stmt.executeUpdate();
-        System.out.println("✅ Program deleted successfully! Rows affected: " + rowsAffected);
+        log.debug("✅ Program deleted successfully! Rows affected: {}", rowsAffected);
         return rowsAffected > 0;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error deleting program: " + e.getMessage());
+        log.error("❌ Error deleting program: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -3162,14 +3300,14 @@ public List<Map<String, String>> getStudentsByProgram(int programId) {
         }
         
     } catch (SQLException e) {
-        System.err.println("Error getting program students: " + e.getMessage());
+        log.error("Error getting program students: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -3239,7 +3377,7 @@ public Map<String, Object> getProgramStatistics(int programId) {
         }
         
     } catch (SQLException e) {
-        System.err.println("Error getting program statistics: " + e.getMessage());
+        log.error("Error getting program statistics: {}", e.getMessage());
         // Set default values
         stats.put("totalStudents", 0);
         stats.put("totalSubjects", 0);
@@ -3251,7 +3389,7 @@ public Map<String, Object> getProgramStatistics(int programId) {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -3356,14 +3494,14 @@ public boolean createUser(String username, String password, String userType,
         
         if (userRows > 0) {
             conn.commit(); // Commit transaction
-            System.out.println("✅ User created successfully! Username: " + username + ", Type: " + userType);
+            log.debug("✅ User created successfully! Username: {}, Type: {}", username, userType);
             
             // Log the created IDs for debugging
             if ("TEACHER".equals(userType) && teacherId != null) {
-                System.out.println("✅ Teacher record created with ID: " + teacherId);
+                log.debug("✅ Teacher record created with ID: {}", teacherId);
             }
             if ("STUDENT".equals(userType) && studentId != null) {
-                System.out.println("✅ Student record created with ID: " + studentId);
+                log.debug("✅ Student record created with ID: {}", studentId);
             }
             
             return true;
@@ -3376,9 +3514,9 @@ public boolean createUser(String username, String password, String userType,
         try {
             if (conn != null) conn.rollback();
         } catch (SQLException ex) {
-            System.err.println("Error rolling back transaction: " + ex.getMessage());
+            log.error("Error rolling back transaction: {}", ex.getMessage());
         }
-        System.err.println("❌ Error creating user: " + e.getMessage());
+        log.error("❌ Error creating user: {}", e.getMessage());
         return false;
     } finally {
         try {
@@ -3388,7 +3526,7 @@ public boolean createUser(String username, String password, String userType,
                 conn.close();
             }
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -3415,18 +3553,18 @@ public boolean updateUserStatus(int userId, boolean isActive) {
         stmt.setInt(2, userId);
         
         int rowsAffected = stmt.executeUpdate();
-        System.out.println("✅ User status updated successfully! Rows affected: " + rowsAffected);
+        log.debug("✅ User status updated successfully! Rows affected: {}", rowsAffected);
         return rowsAffected > 0;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error updating user status: " + e.getMessage());
+        log.error("❌ Error updating user status: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -3446,27 +3584,27 @@ public boolean resetUserPassword(int userId, String newPassword) {
         stmt.setInt(2, userId);
         
         int rowsAffected = stmt.executeUpdate();
-        System.out.println("✅ Password reset successfully! Rows affected: " + rowsAffected);
+        log.debug("✅ Password reset successfully! Rows affected: {}", rowsAffected);
         return rowsAffected > 0;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error resetting password: " + e.getMessage());
+        log.error("❌ Error resetting password: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
 // Add this debug method to ClientService
 public void debugTeacherCreation(String username, String userType, Integer teacherId) {
-    System.out.println("🔍 [DEBUG TEACHER CREATION]");
-    System.out.println("   Username: " + username);
-    System.out.println("   User Type: " + userType);
-    System.out.println("   Teacher ID provided: " + teacherId);
+    log.debug("🔍 [DEBUG TEACHER CREATION]");
+    log.debug("Username: {}", username);
+    log.debug("User Type: {}", userType);
+    log.debug("Teacher ID provided: {}", teacherId);
     
     // Check if teacher exists
     if (teacherId != null) {
@@ -3482,19 +3620,19 @@ public void debugTeacherCreation(String username, String userType, Integer teach
             rs = stmt.executeQuery();
             
             if (rs.next()) {
-                System.out.println("✅ Teacher exists: " + rs.getString("first_name") + " " + rs.getString("last_name"));
+                log.debug("✅ Teacher exists: {} {}", rs.getString("first_name"), rs.getString("last_name"));
             } else {
-                System.out.println("❌ Teacher does NOT exist with ID: " + teacherId);
+                log.debug("❌ Teacher does NOT exist with ID: {}", teacherId);
             }
         } catch (SQLException e) {
-            System.err.println("Error checking teacher: " + e.getMessage());
+            log.error("Error checking teacher: {}", e.getMessage());
         } finally {
             try {
                 if (rs != null) rs.close();
                 if (stmt != null) stmt.close();
                 if (conn != null) conn.close();
             } catch (SQLException e) {
-                System.err.println("Error closing connection: " + e.getMessage());
+                log.error("Error closing connection: {}", e.getMessage());
             }
         }
     }
@@ -3535,14 +3673,14 @@ public Map<String, String> getUserDetails(int userId) {
         }
         
     } catch (SQLException e) {
-        System.err.println("Error getting user details: " + e.getMessage());
+        log.error("Error getting user details: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -3579,14 +3717,14 @@ public List<Map<String, String>> getStudentsBySubject(int subjectId) {
         }
         
     } catch (SQLException e) {
-        System.err.println("Error getting students by subject: " + e.getMessage());
+        log.error("Error getting students by subject: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -3600,7 +3738,7 @@ public List<Map<String, String>> getSubjectsByStudent(int studentId) {
     
     try {
         conn = getConnection();
-        System.out.println("🔍 [DEBUG] Getting subjects for student ID: " + studentId);
+        log.debug("🔍 Getting subjects for student ID: {}", studentId);
         
         // First, get the student's program_id
         String studentSql = "SELECT program_id FROM students WHERE student_id = ?";
@@ -3610,7 +3748,7 @@ public List<Map<String, String>> getSubjectsByStudent(int studentId) {
         
         if (rs.next()) {
             int programId = rs.getInt("program_id");
-            System.out.println("🔍 [DEBUG] Student program ID: " + programId);
+            log.debug("🔍 Student program ID: {}", programId);
             
             if (!rs.wasNull()) {
                 // Now get subjects for this program
@@ -3634,19 +3772,19 @@ public List<Map<String, String>> getSubjectsByStudent(int studentId) {
                     subject.put("volumeHoraire", String.valueOf(rs.getInt("volume_horaire")));
                     subjects.add(subject);
                     
-                    System.out.println("✅ [DEBUG] Found subject: " + rs.getString("subject_name"));
+                    log.debug("✅ Found subject: {}", rs.getString("subject_name"));
                 }
                 
-                System.out.println("✅ [DEBUG] Total subjects found: " + subjects.size());
+                log.debug("✅ Total subjects found: {}", subjects.size());
             } else {
-                System.out.println("❌ [DEBUG] Student has no program assigned (program_id is NULL)");
+                log.debug("❌ Student has no program assigned (program_id is NULL)");
             }
         } else {
-            System.out.println("❌ [DEBUG] Student not found with ID: " + studentId);
+            log.debug("❌ Student not found with ID: {}", studentId);
         }
         
     } catch (SQLException e) {
-        System.err.println("❌ [DEBUG] Error getting subjects by student: " + e.getMessage());
+        log.error("❌ [DEBUG] Error getting subjects by student: {}", e.getMessage());
         e.printStackTrace();
     } finally {
         try {
@@ -3654,7 +3792,7 @@ public List<Map<String, String>> getSubjectsByStudent(int studentId) {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -3692,23 +3830,23 @@ public List<Map<String, String>> getSubjectsByTeacher(int teacherId) {
         }
         
     } catch (SQLException e) {
-        System.err.println("Error getting subjects by teacher: " + e.getMessage());
+        log.error("Error getting subjects by teacher: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
     return subjects;
 }
 public void debugStudentRegistration(int studentId, int programId) {
-    System.out.println("🔍 [DEBUG REGISTRATION]");
-    System.out.println("   Student ID: " + studentId);
-    System.out.println("   Program ID: " + programId);
+    log.debug("🔍 [DEBUG REGISTRATION]");
+    log.debug("Student ID: {}", studentId);
+    log.debug("Program ID: {}", programId);
     
     Connection conn = null;
     PreparedStatement stmt = null;
@@ -3723,10 +3861,10 @@ public void debugStudentRegistration(int studentId, int programId) {
         stmt.setInt(1, studentId);
         rs = stmt.executeQuery();
         if (rs.next()) {
-            System.out.println("✅ Student found: " + rs.getString("first_name") + " " + rs.getString("last_name"));
-            System.out.println("   Current program_id: " + rs.getInt("program_id"));
+            log.debug("✅ Student found: {} {}", rs.getString("first_name"), rs.getString("last_name"));
+            log.debug("Current program_id: {}", rs.getInt("program_id"));
         } else {
-            System.out.println("❌ Student not found with ID: " + studentId);
+            log.debug("❌ Student not found with ID: {}", studentId);
         }
         rs.close();
         stmt.close();
@@ -3737,22 +3875,22 @@ public void debugStudentRegistration(int studentId, int programId) {
         stmt.setInt(1, programId);
         rs = stmt.executeQuery();
         if (rs.next()) {
-            System.out.println("✅ Program found: " + rs.getString("program_name"));
+            log.debug("✅ Program found: {}", rs.getString("program_name"));
         } else {
-            System.out.println("❌ Program not found with ID: " + programId);
+            log.debug("❌ Program not found with ID: {}", programId);
         }
         rs.close();
         stmt.close();
         
     } catch (SQLException e) {
-        System.err.println("Error debugging registration: " + e.getMessage());
+        log.error("Error debugging registration: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -3775,30 +3913,30 @@ public void checkStudentRegistrationStatus(int studentId) {
         rs = stmt.executeQuery();
         
         if (rs.next()) {
-            System.out.println("🔍 [REGISTRATION STATUS]");
-            System.out.println("   Student: " + rs.getString("first_name") + " " + rs.getString("last_name"));
-            System.out.println("   Program: " + rs.getString("program_name"));
-            System.out.println("   Program ID: " + rs.getInt("program_id"));
-            System.out.println("   Academic Year: " + rs.getString("academic_year"));
+            log.debug("🔍 [REGISTRATION STATUS]");
+            log.debug("Student: {} {}", rs.getString("first_name"), rs.getString("last_name"));
+            log.debug("Program: {}", rs.getString("program_name"));
+            log.debug("Program ID: {}", rs.getInt("program_id"));
+            log.debug("Academic Year: {}", rs.getString("academic_year"));
             
             if (rs.getInt("program_id") == 0 || rs.wasNull()) {
-                System.out.println("❌ STUDENT NOT REGISTERED TO ANY PROGRAM");
+                log.debug("❌ STUDENT NOT REGISTERED TO ANY PROGRAM");
             } else {
-                System.out.println("✅ STUDENT SUCCESSFULLY REGISTERED");
+                log.debug("✅ STUDENT SUCCESSFULLY REGISTERED");
             }
         } else {
-            System.out.println("❌ Student not found: " + studentId);
+            log.debug("❌ Student not found: {}", studentId);
         }
         
     } catch (SQLException e) {
-        System.err.println("Error checking registration status: " + e.getMessage());
+        log.error("Error checking registration status: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -3816,7 +3954,7 @@ private boolean verifyStudentExists(int studentId) {
         rs = stmt.executeQuery();
         return rs.next();
     } catch (SQLException e) {
-        System.err.println("Error verifying student: " + e.getMessage());
+        log.error("Error verifying student: {}", e.getMessage());
         return false;
     } finally {
         try {
@@ -3824,14 +3962,14 @@ private boolean verifyStudentExists(int studentId) {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
 public void debugTeacherStudentVisibility(int teacherId, int subjectId) {
-    System.out.println("🔍 [DEBUG TEACHER STUDENT VISIBILITY]");
-    System.out.println("   Teacher ID: " + teacherId);
-    System.out.println("   Subject ID: " + subjectId);
+    log.debug("🔍 [DEBUG TEACHER STUDENT VISIBILITY]");
+    log.debug("Teacher ID: {}", teacherId);
+    log.debug("Subject ID: {}", subjectId);
     
     Connection conn = null;
     PreparedStatement stmt = null;
@@ -3841,22 +3979,22 @@ public void debugTeacherStudentVisibility(int teacherId, int subjectId) {
         conn = getConnection();
         
         // Check teacher-subject assignment
-        System.out.println("\n1. Checking teacher-subject assignment:");
+        log.debug("1. Checking teacher-subject assignment:");
         String teacherSubjectSql = "SELECT * FROM teacher_subjects WHERE teacher_id = ? AND subject_id = ?";
         stmt = conn.prepareStatement(teacherSubjectSql);
         stmt.setInt(1, teacherId);
         stmt.setInt(2, subjectId);
         rs = stmt.executeQuery();
         if (rs.next()) {
-            System.out.println("✅ Teacher is assigned to this subject");
+            log.debug("✅ Teacher is assigned to this subject");
         } else {
-            System.out.println("❌ Teacher NOT assigned to this subject");
+            log.debug("❌ Teacher NOT assigned to this subject");
         }
         rs.close();
         stmt.close();
         
         // Check students in the program that has this subject
-        System.out.println("\n2. Checking students in program with this subject:");
+        log.debug("2. Checking students in program with this subject:");
         String studentsSql = "SELECT s.student_id, s.first_name, s.last_name, p.program_name " +
                            "FROM students s " +
                            "JOIN programs p ON s.program_id = p.program_id " +
@@ -3869,15 +4007,14 @@ public void debugTeacherStudentVisibility(int teacherId, int subjectId) {
         int studentCount = 0;
         while (rs.next()) {
             studentCount++;
-            System.out.println("   Student: " + rs.getString("first_name") + " " + rs.getString("last_name") + 
-                             " (Program: " + rs.getString("program_name") + ")");
+            log.debug("Student: {} {} (Program: {})", rs.getString("first_name"), rs.getString("last_name"), rs.getString("program_name"));
         }
-        System.out.println("📊 Total students in program with this subject: " + studentCount);
+        log.debug("📊 Total students in program with this subject: {}", studentCount);
         rs.close();
         stmt.close();
         
         // Check if subject belongs to any program
-        System.out.println("\n3. Checking subject-program association:");
+        log.debug("3. Checking subject-program association:");
         String subjectProgramSql = "SELECT s.subject_id, s.subject_name, p.program_id, p.program_name " +
                                  "FROM subjects s " +
                                  "LEFT JOIN programs p ON s.program_id = p.program_id " +
@@ -3886,21 +4023,21 @@ public void debugTeacherStudentVisibility(int teacherId, int subjectId) {
         stmt.setInt(1, subjectId);
         rs = stmt.executeQuery();
         if (rs.next()) {
-            System.out.println("✅ Subject: " + rs.getString("subject_name"));
-            System.out.println("   Program: " + rs.getString("program_name") + " (ID: " + rs.getInt("program_id") + ")");
+            log.debug("✅ Subject: {}", rs.getString("subject_name"));
+            log.debug("Program: {} (ID: {})", rs.getString("program_name"), rs.getInt("program_id"));
         } else {
-            System.out.println("❌ Subject not found or not associated with any program");
+            log.debug("❌ Subject not found or not associated with any program");
         }
         
     } catch (SQLException e) {
-        System.err.println("Error debugging teacher visibility: " + e.getMessage());
+        log.error("Error debugging teacher visibility: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -3923,7 +4060,7 @@ public List<Map<String, String>> getStudentsBySubjectForTeacher(int teacherId, i
                     "AND s.program_id IS NOT NULL " +
                     "ORDER BY s.first_name, s.last_name";
         
-        System.out.println("🔍 [DEBUG] Getting students for teacher " + teacherId + " and subject " + subjectId);
+        log.debug("🔍 Getting students for teacher {} and subject {}", teacherId, subjectId);
         
         stmt = conn.prepareStatement(sql);
         stmt.setInt(1, teacherId);
@@ -3943,13 +4080,13 @@ public List<Map<String, String>> getStudentsBySubjectForTeacher(int teacherId, i
             student.put("academicYear", rs.getString("academic_year"));
             students.add(student);
             
-            System.out.println("✅ Student: " + student.get("fullName") + " | " + student.get("program"));
+            log.debug("✅ Student: {} | {}", student.get("fullName"), student.get("program"));
         }
         
-        System.out.println("📊 Total students found: " + count);
+        log.debug("📊 Total students found: {}", count);
         
     } catch (SQLException e) {
-        System.err.println("Error getting students by subject for teacher: " + e.getMessage());
+        log.error("Error getting students by subject for teacher: {}", e.getMessage());
         e.printStackTrace();
     } finally {
         try {
@@ -3957,15 +4094,15 @@ public List<Map<String, String>> getStudentsBySubjectForTeacher(int teacherId, i
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
     return students;
 }
 public void debugProgramTeachers(int programId) {
-    System.out.println("🔍 [DEBUG PROGRAM TEACHERS]");
-    System.out.println("   Program ID: " + programId);
+    log.debug("🔍 [DEBUG PROGRAM TEACHERS]");
+    log.debug("Program ID: {}", programId);
     
     Connection conn = null;
     PreparedStatement stmt = null;
@@ -3980,16 +4117,16 @@ public void debugProgramTeachers(int programId) {
         stmt.setInt(1, programId);
         rs = stmt.executeQuery();
         if (rs.next()) {
-            System.out.println("✅ Program found: " + rs.getString("program_name"));
+            log.debug("✅ Program found: {}", rs.getString("program_name"));
         } else {
-            System.out.println("❌ Program not found with ID: " + programId);
+            log.debug("❌ Program not found with ID: {}", programId);
             return;
         }
         rs.close();
         stmt.close();
         
         // Check teacher_subjects table
-        System.out.println("\n1. Checking teacher_subjects table:");
+        log.debug("1. Checking teacher_subjects table:");
         String teacherSubjectsSql = "SELECT ts.*, t.first_name, t.last_name, s.subject_name " +
                                    "FROM teacher_subjects ts " +
                                    "JOIN teachers t ON ts.teacher_id = t.teacher_id " +
@@ -4002,15 +4139,14 @@ public void debugProgramTeachers(int programId) {
         int teacherCount = 0;
         while (rs.next()) {
             teacherCount++;
-            System.out.println("   ✅ Teacher: " + rs.getString("first_name") + " " + rs.getString("last_name") +
-                             " | Subject: " + rs.getString("subject_name"));
+            log.debug("✅ Teacher: {} {} | Subject: {}", rs.getString("first_name"), rs.getString("last_name"), rs.getString("subject_name"));
         }
-        System.out.println("   📊 Total teachers found: " + teacherCount);
+        log.debug("📊 Total teachers found: {}", teacherCount);
         rs.close();
         stmt.close();
         
         // Check program_teachers table (if it exists)
-        System.out.println("\n2. Checking program_teachers table:");
+        log.debug("2. Checking program_teachers table:");
         try {
             String programTeachersSql = "SELECT pt.*, t.first_name, t.last_name, s.subject_name " +
                                        "FROM program_teachers pt " +
@@ -4024,16 +4160,15 @@ public void debugProgramTeachers(int programId) {
             int programTeacherCount = 0;
             while (rs.next()) {
                 programTeacherCount++;
-                System.out.println("   ✅ Program Teacher: " + rs.getString("first_name") + " " + rs.getString("last_name") +
-                                 " | Subject: " + rs.getString("subject_name"));
+                log.debug("✅ Program Teacher: {} {} | Subject: {}", rs.getString("first_name"), rs.getString("last_name"), rs.getString("subject_name"));
             }
-            System.out.println("   📊 Total program teachers found: " + programTeacherCount);
+            log.debug("📊 Total program teachers found: {}", programTeacherCount);
         } catch (SQLException e) {
-            System.out.println("   ℹ️ program_teachers table doesn't exist or has different structure");
+            log.debug("ℹ️ program_teachers table doesn't exist or has different structure");
         }
         
         // Check subjects in this program
-        System.out.println("\n3. Checking subjects in program:");
+        log.debug("3. Checking subjects in program:");
         String subjectsSql = "SELECT subject_id, subject_name, semester FROM subjects WHERE program_id = ?";
         stmt = conn.prepareStatement(subjectsSql);
         stmt.setInt(1, programId);
@@ -4042,20 +4177,19 @@ public void debugProgramTeachers(int programId) {
         int subjectCount = 0;
         while (rs.next()) {
             subjectCount++;
-            System.out.println("   📚 Subject: " + rs.getString("subject_name") + 
-                             " (S" + rs.getInt("semester") + ") - ID: " + rs.getInt("subject_id"));
+            log.debug("📚 Subject: {} (S{}) - ID: {}", rs.getString("subject_name"), rs.getInt("semester"), rs.getInt("subject_id"));
         }
-        System.out.println("   📊 Total subjects in program: " + subjectCount);
+        log.debug("📊 Total subjects in program: {}", subjectCount);
         
     } catch (SQLException e) {
-        System.err.println("❌ Error debugging program teachers: " + e.getMessage());
+        log.error("❌ Error debugging program teachers: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -4069,7 +4203,54 @@ public MessageService getMessageService() {
     return messageService;
 }
 
+private FanOutService fanOutService;
+private BroadcastService broadcastService;
+private InboxService inboxService;
+private UserDirectory userDirectory;
+
+public synchronized BroadcastService getBroadcastService() {
+    if (broadcastService == null) {
+        broadcastService = new BroadcastService(this);
+    }
+    return broadcastService;
+}
+
+public synchronized UserDirectory getUserDirectory() {
+    if (userDirectory == null) {
+        userDirectory = new UserDirectory(this);
+    }
+    return userDirectory;
+}
+
+public synchronized InboxService getInboxService() {
+    if (inboxService == null) {
+        inboxService = new InboxService(this);
+    }
+    return inboxService;
+}
+
+public synchronized FanOutService getFanOutService() {
+    if (fanOutService == null) {
+        fanOutService = new FanOutService(this);
+    }
+    return fanOutService;
+}
+
+// One stored payload, one multi-row insert and one broker send for the whole recipient list
+public boolean fanOut(int senderId, String senderType, List<Integer> recipientIds, String recipientType,
+                      String subject, String content, String messageType) {
+    try {
+        getFanOutService().send(senderId, senderType, recipientIds, recipientType, subject, content, messageType,
+            (stored, total) -> log.debug("📨 Fan-out progress: {}/{} recipients stored", stored, total));
+        return true;
+    } catch (SQLException e) {
+        log.error("❌ Error sending to {} {}s: {}", recipientIds.size(), recipientType, e.getMessage());
+        return false;
+    }
+}
+
 // Send notification to user - FIXED FOR YOUR NOTIFICATION CLASS
+// Stored with an outbox row in one transaction; the server's OutboxRelay delivers it in real time
 public boolean sendNotification(int receiverId, String receiverType, String title, String message, String type) {
     Connection conn = null;
     PreparedStatement stmt = null;
@@ -4077,11 +4258,12 @@ public boolean sendNotification(int receiverId, String receiverType, String titl
     try {
         // First store in database
         conn = getConnection();
+        conn.setAutoCommit(false);
         String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, " +
                     "subject, content, message_type, created_at, is_read) " +
                     "VALUES (-1, 'SYSTEM', ?, ?, ?, ?, 'NOTIFICATION', NOW(), FALSE)";
         
-        stmt = conn.prepareStatement(sql);
+        stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
         stmt.setInt(1, receiverId);
         stmt.setString(2, receiverType);
         stmt.setString(3, title);
@@ -4090,25 +4272,32 @@ public boolean sendNotification(int receiverId, String receiverType, String titl
         int rowsAffected = stmt.executeUpdate();
         
         if (rowsAffected > 0) {
-            // Also send via MessageService for real-time delivery using your Message class
-            Message msg = new Message(-1, "SYSTEM", receiverId, receiverType, title, message, "NOTIFICATION");
-            boolean realTimeSent = getMessageService().sendUserMessage(receiverId, receiverType, msg);
+            int messageId = queueForDelivery(conn, stmt, receiverId, receiverType);
+            conn.commit();
             
-            System.out.println("✅ Notification sent to " + receiverType + " ID: " + receiverId + 
-                             " | DB: " + (rowsAffected > 0) + " | Real-time: " + realTimeSent);
+            log.debug("✅ Notification {} stored for {} ID: {}", messageId, receiverType, receiverId);
             return true;
         }
+        conn.rollback();
         return false;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error sending notification: " + e.getMessage());
+        try {
+            if (conn != null) conn.rollback();
+        } catch (SQLException ex) {
+            log.error("Error rolling back transaction: {}", ex.getMessage());
+        }
+        log.error("❌ Error sending notification: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
-            if (conn != null) conn.close();
+            if (conn != null) {
+                conn.setAutoCommit(true);
+                conn.close();
+            }
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -4121,11 +4310,12 @@ public boolean sendMessage(int receiverId, String receiverType, String messageTy
     try {
         // Store in database first
         conn = getConnection();
+        conn.setAutoCommit(false);
         String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, " +
                     "subject, content, message_type, created_at, is_read) " +
                     "VALUES (-1, 'SYSTEM', ?, ?, ?, ?, ?, NOW(), FALSE)";
         
-        stmt = conn.prepareStatement(sql);
+        stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
         stmt.setInt(1, receiverId);
         stmt.setString(2, receiverType);
         stmt.setString(3, subject);
@@ -4135,25 +4325,32 @@ public boolean sendMessage(int receiverId, String receiverType, String messageTy
         int rowsAffected = stmt.executeUpdate();
         
         if (rowsAffected > 0) {
-            // Send via MessageService for real-time delivery using your Message class
-            Message message = new Message(-1, "SYSTEM", receiverId, receiverType, subject, content, messageType);
-            boolean realTimeSent = getMessageService().sendUserMessage(receiverId, receiverType, message);
+            int messageId = queueForDelivery(conn, stmt, receiverId, receiverType);
+            conn.commit();
             
-            System.out.println("✅ Message sent to " + receiverType + " ID: " + receiverId + 
-                             " | DB: " + (rowsAffected > 0) + " | Real-time: " + realTimeSent);
+            log.debug("✅ Message {} stored for {} ID: {}", messageId, receiverType, receiverId);
             return true;
         }
+        conn.rollback();
         return false;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error sending message: " + e.getMessage());
+        try {
+            if (conn != null) conn.rollback();
+        } catch (SQLException ex) {
+            log.error("Error rolling back transaction: {}", ex.getMessage());
+        }
+        log.error("❌ Error sending message: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
-            if (conn != null) conn.close();
+            if (conn != null) {
+                conn.setAutoCommit(true);
+                conn.close();
+            }
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
@@ -4167,11 +4364,12 @@ public boolean sendMessageFromUser(int senderId, String senderType, int receiver
     try {
         // Store in database
         conn = getConnection();
+        conn.setAutoCommit(false);
         String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, " +
                     "subject, content, message_type, created_at, is_read) " +
                     "VALUES (?, ?, ?, ?, ?, ?, ?, NOW(), FALSE)";
         
-        stmt = conn.prepareStatement(sql);
+        stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
         stmt.setInt(1, senderId);
         stmt.setString(2, senderType);
         stmt.setInt(3, receiverId);
@@ -4183,175 +4381,79 @@ public boolean sendMessageFromUser(int senderId, String senderType, int receiver
         int rowsAffected = stmt.executeUpdate();
         
         if (rowsAffected > 0) {
-            // Send via MessageService for real-time delivery using your Message class
-            Message message = new Message(senderId, senderType, receiverId, receiverType, subject, content, messageType);
-            boolean realTimeSent = getMessageService().sendUserMessage(receiverId, receiverType, message);
+            int messageId = queueForDelivery(conn, stmt, receiverId, receiverType);
+            conn.commit();
             
-            System.out.println("✅ Message sent from " + senderType + " " + senderId + 
-                             " to " + receiverType + " " + receiverId +
-                             " | DB: " + (rowsAffected > 0) + " | Real-time: " + realTimeSent);
+            log.debug("✅ Message {} stored from {} {} to {} {}", messageId, senderType, senderId, receiverType, receiverId);
             return true;
         }
+        conn.rollback();
         return false;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error sending message from user: " + e.getMessage());
+        try {
+            if (conn != null) conn.rollback();
+        } catch (SQLException ex) {
+            log.error("Error rolling back transaction: {}", ex.getMessage());
+        }
+        log.error("❌ Error sending message from user: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
-            if (conn != null) conn.close();
+            if (conn != null) {
+                conn.setAutoCommit(true);
+                conn.close();
+            }
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
 
-// Broadcast to all users of a type - FIXED FOR YOUR MESSAGE CLASS
+// Adds the outbox row for the message just inserted by stmt, on the same connection and transaction
+private int queueForDelivery(Connection conn, PreparedStatement insert, int receiverId, String receiverType) throws SQLException {
+    int messageId;
+    try (ResultSet keys = insert.getGeneratedKeys()) {
+        if (!keys.next()) throw new SQLException("No message id generated");
+        messageId = keys.getInt(1);
+    }
+    String sql = "INSERT INTO message_outbox (kind, message_id, destination, is_topic) VALUES ('MESSAGE', ?, ?, FALSE)";
+    try (PreparedStatement outbox = conn.prepareStatement(sql)) {
+        outbox.setInt(1, messageId);
+        outbox.setString(2, Destinations.userQueue(receiverId, receiverType));
+        outbox.executeUpdate();
+    }
+    return messageId;
+}
+
+// Broadcast to all users of a type: one broadcasts row, published by the server's OutboxRelay
 public boolean broadcastToUserType(String userType, String subject, String content) {
-    Connection conn = null;
-    PreparedStatement stmt = null;
-    
     try {
-        // Get all users of this type from database
-        conn = getConnection();
-        String getUsersSql = "SELECT user_id FROM users WHERE user_type = ? AND is_active = 1";
-        stmt = conn.prepareStatement(getUsersSql);
-        stmt.setString(1, userType);
-        ResultSet rs = stmt.executeQuery();
-        
-        List<Integer> userIds = new ArrayList<>();
-        while (rs.next()) {
-            userIds.add(rs.getInt("user_id"));
-        }
-        rs.close();
-        stmt.close();
-        
-        if (userIds.isEmpty()) {
-            System.out.println("⚠️ No active users found for type: " + userType);
-            return false;
-        }
-        
-        // Send to each user
-        boolean allSent = true;
-        String insertSql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, " +
-                          "subject, content, message_type, created_at, is_read) " +
-                          "VALUES (-1, 'SYSTEM', ?, ?, ?, ?, 'BROADCAST', NOW(), FALSE)";
-        
-        stmt = conn.prepareStatement(insertSql);
-        
-        for (Integer userId : userIds) {
-            stmt.setInt(1, userId);
-            stmt.setString(2, userType);
-            stmt.setString(3, subject);
-            stmt.setString(4, content);
-            stmt.addBatch();
-        }
-        
-        int[] results = stmt.executeBatch();
-        
-        // Also send via MessageService using your Message class
-        Message broadcastMessage = new Message(-1, "SYSTEM", -1, userType, subject, content, "BROADCAST");
-        boolean realTimeSent = getMessageService().broadcastMessage(userType, broadcastMessage);
-        
-        System.out.println("✅ Broadcast sent to " + results.length + " " + userType + "s" +
-                         " | Real-time: " + realTimeSent);
+        int broadcastId = getBroadcastService().publish(-1, "SYSTEM", userType, subject, content, "BROADCAST");
+        log.debug("✅ Broadcast {} stored for all {}s", broadcastId, userType);
         return true;
-        
     } catch (SQLException e) {
-        System.err.println("❌ Error broadcasting to user type: " + e.getMessage());
+        log.error("❌ Error broadcasting to user type: {}", e.getMessage());
         return false;
-    } finally {
-        try {
-            if (stmt != null) stmt.close();
-            if (conn != null) conn.close();
-        } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
-        }
     }
 }
 
 // Teacher sends message to students - FIXED FOR YOUR MESSAGE CLASS
 public boolean teacherSendMessageToStudents(int teacherId, List<Integer> studentIds, String subject, String content) {
-    Connection conn = null;
-    PreparedStatement stmt = null;
-    
-    try {
-        conn = getConnection();
-        conn.setAutoCommit(false);
-        
-        String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, " +
-                    "subject, content, message_type, created_at, is_read) " +
-                    "VALUES (?, 'TEACHER', ?, 'STUDENT', ?, ?, 'MESSAGE', NOW(), FALSE)";
-        
-        stmt = conn.prepareStatement(sql);
-        
-        int successCount = 0;
-        for (Integer studentId : studentIds) {
-            stmt.setInt(1, teacherId);
-            stmt.setInt(2, studentId);
-            stmt.setString(3, subject);
-            stmt.setString(4, content);
-            stmt.addBatch();
-            successCount++;
-        }
-        
-        int[] results = stmt.executeBatch();
-        conn.commit();
-        
-        // Also send via MessageService for real-time delivery using your Message class
-        for (Integer studentId : studentIds) {
-            Message message = new Message(teacherId, "TEACHER", studentId, "STUDENT", subject, content, "MESSAGE");
-            getMessageService().sendUserMessage(studentId, "STUDENT", message);
-        }
-        
-        System.out.println("✅ Teacher " + teacherId + " sent message to " + successCount + " students");
-        return true;
-        
-    } catch (SQLException e) {
-        try {
-            if (conn != null) conn.rollback();
-        } catch (SQLException ex) {
-            System.err.println("Error rolling back transaction: " + ex.getMessage());
-        }
-        System.err.println("❌ Error sending teacher message to students: " + e.getMessage());
-        return false;
-    } finally {
-        try {
-            if (stmt != null) stmt.close();
-            if (conn != null) {
-                conn.setAutoCommit(true);
-                conn.close();
-            }
-        } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
-        }
-    }
+    return fanOut(teacherId, "TEACHER", studentIds, "STUDENT", subject, content, "MESSAGE");
 }
 
 // Admin sends system announcement - FIXED FOR YOUR MESSAGE CLASS
 public boolean sendSystemAnnouncement(String subject, String content) {
     try {
-        // Create announcement using your Message class
-        Message announcement = new Message(-1, "SYSTEM", -1, "ALL", subject, content, "ANNOUNCEMENT");
-        
-        // Broadcast to all user types
-        String[] userTypes = {"STUDENT", "TEACHER", "ADMIN", "RESPONSABLE"};
-        boolean allSent = true;
-        
-        for (String userType : userTypes) {
-            boolean sent = getMessageService().broadcastMessage(userType, announcement);
-            if (!sent) allSent = false;
-            
-            // Also store in database for each user type
-            broadcastToUserType(userType, subject, content);
-        }
-        
-        System.out.println("✅ System announcement sent to all user types");
-        return allSent;
+        // A single row targeting ALL; the relay publishes it on every user type's topic
+        int broadcastId = getBroadcastService().publish(-1, "SYSTEM", "ALL", subject, content, "ANNOUNCEMENT");
+        log.debug("✅ System announcement {} stored for all user types", broadcastId);
+        return true;
         
-    } catch (Exception e) {
-        System.err.println("❌ Error sending system announcement: " + e.getMessage());
+    } catch (SQLException e) {
+        log.error("❌ Error sending system announcement: {}", e.getMessage());
         return false;
     }
 }
@@ -4400,15 +4502,10 @@ public List<Message> getUserMessages(int userId, String userType) {
     try {
         conn = getConnection();
         
-        String sql = "SELECT m.*, " +
-                    "CASE " +
-                    "   WHEN m.sender_type = 'TEACHER' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM teachers WHERE teacher_id = m.sender_id) " +
-                    "   WHEN m.sender_type = 'RESPONSABLE' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM responsables WHERE responsable_id = m.sender_id) " +
-                    "   WHEN m.sender_type = 'ADMIN' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM admins WHERE admin_id = m.sender_id) " +
-                    "   WHEN m.sender_type = 'STUDENT' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM students WHERE student_id = m.sender_id) " +
-                    "   ELSE 'System' " +
-                    "END as sender_name " +
+        // Sender names come from the UserDirectory, not from per-row subqueries
+        String sql = "SELECT m.*, p.content AS payload_content " +
                     "FROM messages m " +
+                    "LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
                     "WHERE m.receiver_id = ? AND m.receiver_type = ? " +
                     "ORDER BY m.created_at DESC";
         
@@ -4417,16 +4514,20 @@ public List<Message> getUserMessages(int userId, String userType) {
         stmt.setString(2, userType);
         rs = stmt.executeQuery();
         
+        UserDirectory directory = getUserDirectory();
         while (rs.next()) {
             // Create Message object using your Message class
             Message message = new Message();
             message.setMessageId(rs.getInt("message_id"));
             message.setSenderId(rs.getInt("sender_id"));
             message.setSenderType(rs.getString("sender_type"));
+            message.setSenderName(directory.displayName(message.getSenderId(), message.getSenderType()));
             message.setReceiverId(rs.getInt("receiver_id"));
             message.setReceiverType(rs.getString("receiver_type"));
             message.setSubject(rs.getString("subject"));
-            message.setContent(rs.getString("content"));
+            // Fan-out rows keep their body once, in message_payloads
+            String payloadContent = rs.getString("payload_content");
+            message.setContent(payloadContent != null ? payloadContent : rs.getString("content"));
             message.setMessageType(rs.getString("message_type"));
             message.setRead(rs.getBoolean("is_read"));
             
@@ -4439,17 +4540,21 @@ public List<Message> getUserMessages(int userId, String userType) {
             messages.add(message);
         }
         
-        System.out.println("✅ Retrieved " + messages.size() + " messages for " + userType + " ID: " + userId);
+        // Broadcasts are stored once, not per user; merge them in by date
+        messages.addAll(getBroadcastService().getInbox(userId, userType));
+        messages.sort(Comparator.comparing(Message::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder())));
+        
+        log.debug("✅ Retrieved {} messages for {} ID: {}", messages.size(), userType, userId);
         
     } catch (SQLException e) {
-        System.err.println("❌ Error getting user messages: " + e.getMessage());
+        log.error("❌ Error getting user messages: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -4467,7 +4572,8 @@ public List<Notification> getUserNotifications(int userId) {
         conn = getConnection();
         
         // Get notifications from messages table (where message_type = 'NOTIFICATION')
-        String sql = "SELECT m.* FROM messages m " +
+        String sql = "SELECT m.*, p.content AS payload_content FROM messages m " +
+                    "LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
                     "WHERE m.receiver_id = ? AND m.receiver_type = 'STUDENT' " +
                     "AND m.message_type = 'NOTIFICATION' " +
                     "ORDER BY m.created_at DESC";
@@ -4482,7 +4588,8 @@ public List<Notification> getUserNotifications(int userId) {
             notification.setNotificationId(rs.getInt("message_id"));
             notification.setUserId(rs.getInt("receiver_id"));
             notification.setTitle(rs.getString("subject"));
-            notification.setMessage(rs.getString("content"));
+            String payloadContent = rs.getString("payload_content");
+            notification.setMessage(payloadContent != null ? payloadContent : rs.getString("content"));
             notification.setType(rs.getString("message_type"));
             notification.setRead(rs.getBoolean("is_read"));
             notification.setActive(true);
@@ -4496,17 +4603,17 @@ public List<Notification> getUserNotifications(int userId) {
             notifications.add(notification);
         }
         
-        System.out.println("✅ Retrieved " + notifications.size() + " notifications for user ID: " + userId);
+        log.debug("✅ Retrieved {} notifications for user ID: {}", notifications.size(), userId);
         
     } catch (SQLException e) {
-        System.err.println("❌ Error getting user notifications: " + e.getMessage());
+        log.error("❌ Error getting user notifications: {}", e.getMessage());
     } finally {
         try {
             if (rs != null) rs.close();
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
+            log.error("Error closing database connection: {}", e.getMessage());
         }
     }
     
@@ -4526,24 +4633,112 @@ public boolean markMessageAsRead(int messageId) {
         stmt.setInt(1, messageId);
         
         int rowsAffected = stmt.executeUpdate();
-        System.out.println("✅ Marked message " + messageId + " as read. Rows affected: " + rowsAffected);
+        log.debug("✅ Marked message {} as read. Rows affected: {}", messageId, rowsAffected);
         return rowsAffected > 0;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error marking message as read: " + e.getMessage());
+        log.error("❌ Error marking message as read: {}", e.getMessage());
         return false;
     } finally {
         try {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
 
+// Merged-inbox variant: a negative id is a broadcast, whose read state is per user
+public boolean markMessageAsRead(int messageId, int userId, String userType) {
+    Boolean updated = updateMessageOnServer(WireProtocol.Opcode.MARK_MESSAGE_READ, messageId, userId, userType);
+    if (updated != null) return updated;
+    if (messageId >= 0) return markMessageAsRead(messageId);
+    try {
+        return getBroadcastService().markRead(-messageId, userId, userType);
+    } catch (SQLException e) {
+        log.error("❌ Error marking broadcast as read: {}", e.getMessage());
+        return false;
+    }
+}
+
+// Deleting a broadcast only hides it from this user
+public boolean deleteMessage(int messageId, int userId, String userType) {
+    Boolean updated = updateMessageOnServer(WireProtocol.Opcode.DELETE_MESSAGE, messageId, userId, userType);
+    if (updated != null) return updated;
+    try {
+        if (messageId < 0) return getBroadcastService().delete(-messageId, userId, userType);
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(
+                 "DELETE FROM messages WHERE message_id = ? AND receiver_id = ? AND receiver_type = ?")) {
+            stmt.setInt(1, messageId);
+            stmt.setInt(2, userId);
+            stmt.setString(3, userType);
+            return stmt.executeUpdate() > 0;
+        }
+    } catch (SQLException e) {
+        log.error("❌ Error deleting message: {}", e.getMessage());
+        return false;
+    }
+}
+
+// Read and delete go through the server when connected, so its unread counters see them;
+// null means not connected or no answer, and the caller updates the database itself
+private Boolean updateMessageOnServer(WireProtocol.Opcode opcode, int messageId, int userId, String userType) {
+    if (!connected) return null;
+    try {
+        String status = call(opcode, out -> {
+            out.writeInt(messageId);
+            out.writeInt(userId);
+            out.writeString(userType);
+        }, in -> in.readString());
+        return status != null && status.startsWith("SUCCESS");
+    } catch (IOException e) {
+        log.error("Error updating message {} through server: {}", messageId, e.getMessage());
+        return null;
+    }
+}
+
+// For the controllers' map-based message lists: appends the user's broadcasts in the same
+// shape and keeps the list newest first
+public void mergeBroadcasts(List<Map<String, String>> messages, int userId, String userType) {
+    try {
+        java.time.format.DateTimeFormatter format = java.time.format.DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+        for (Message broadcast : getBroadcastService().getInbox(userId, userType)) {
+            Map<String, String> message = new HashMap<>();
+            message.put("messageId", String.valueOf(broadcast.getMessageId()));
+            message.put("senderId", String.valueOf(broadcast.getSenderId()));
+            message.put("senderType", broadcast.getSenderType());
+            message.put("senderName", getUserDirectory().displayName(broadcast.getSenderId(), broadcast.getSenderType()));
+            message.put("subject", broadcast.getSubject());
+            message.put("content", broadcast.getContent());
+            message.put("messageType", broadcast.getMessageType());
+            message.put("createdAt", broadcast.getCreatedAt() == null ? null : broadcast.getCreatedAt().format(format));
+            message.put("isRead", broadcast.isRead() ? "Yes" : "No");
+            messages.add(message);
+        }
+        messages.sort(Comparator.comparing((Map<String, String> m) -> m.get("createdAt"),
+            Comparator.nullsLast(Comparator.reverseOrder())));
+    } catch (SQLException e) {
+        log.error("❌ Error loading broadcasts: {}", e.getMessage());
+    }
+}
+
 // Get unread message count - NEW METHOD
+// Through the server, the unread counters it keeps answer a badge refresh without a query
 public int getUnreadMessageCount(int userId, String userType) {
+    if (connected) {
+        try {
+            Integer count = call(WireProtocol.Opcode.GET_UNREAD_COUNT, out -> {
+                out.writeInt(userId);
+                out.writeString(userType);
+            }, in -> "SUCCESS".equals(in.readString()) ? in.readInt() : null);
+            if (count != null) return count;
+        } catch (IOException e) {
+            log.error("Error getting unread count from server: {}", e.getMessage());
+        }
+    }
+    
     Connection conn = null;
     PreparedStatement stmt = null;
     ResultSet rs = null;
@@ -4560,14 +4755,14 @@ public int getUnreadMessageCount(int userId, String userType) {
         rs = stmt.executeQuery();
         
         if (rs.next()) {
-            int count = rs.getInt("unread_count");
-            System.out.println("📬 Unread messages for " + userType + " " + userId + ": " + count);
+            int count = rs.getInt("unread_count") + getBroadcastService().getUnreadCount(userId, userType);
+            log.debug("📬 Unread messages for {} {}: {}", userType, userId, count);
             return count;
         }
         return 0;
         
     } catch (SQLException e) {
-        System.err.println("❌ Error getting unread message count: " + e.getMessage());
+        log.error("❌ Error getting unread message count: {}", e.getMessage());
         return 0;
     } finally {
         try {
@@ -4575,7 +4770,7 @@ public int getUnreadMessageCount(int userId, String userType) {
             if (stmt != null) stmt.close();
             if (conn != null) conn.close();
         } catch (SQLException e) {
-            System.err.println("Error closing connection: " + e.getMessage());
+            log.error("Error closing connection: {}", e.getMessage());
         }
     }
 }
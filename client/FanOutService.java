@@ -0,0 +1,135 @@
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Sends one message to many users (a class, a program, a cohort) in a single
+ * transaction: the body is stored once in message_payloads, every recipient
+ * gets a messages row (subject only, pointing at the payload) written with
+ * multi-row INSERTs of up to fanout.chunkSize rows, and one FANOUT outbox
+ * row lets the server's OutboxRelay publish the message with a single broker
+ * send to a composite of the recipients' queues.
+ *
+ * Progress is reported after each chunk, and the result carries the
+ * throughput of the whole send.
+ */
+public class FanOutService {
+    private static final Log log = Log.get("client.service");
+    // 7 placeholders per row; MySQL allows 65535 per statement
+    private static final int CHUNK_SIZE = Math.max(1, Math.min(Integer.getInteger("fanout.chunkSize", 2_000), 9_000));
+
+    private static final String INSERT_PAYLOAD_SQL =
+        "INSERT INTO message_payloads (sender_id, sender_type, recipient_type, subject, content, message_type, recipient_count) " +
+        "VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_RECIPIENTS_SQL =
+        "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, subject, content, message_type, " +
+        "payload_id, created_at, is_read) VALUES ";
+    private static final String RECIPIENT_ROW = "(?, ?, ?, ?, ?, '', ?, ?, NOW(), FALSE)";
+    private static final String INSERT_OUTBOX_SQL =
+        "INSERT INTO message_outbox (kind, message_id, destination, is_topic) VALUES ('FANOUT', ?, ?, FALSE)";
+
+    public interface ProgressListener {
+        void onProgress(int stored, int total);
+    }
+
+    public static final class Result {
+        private final int payloadId;
+        private final int recipients;
+        private final long elapsedNanos;
+
+        Result(int payloadId, int recipients, long elapsedNanos) {
+            this.payloadId = payloadId;
+            this.recipients = recipients;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getPayloadId() { return payloadId; }
+        public int getRecipients() { return recipients; }
+        public double getElapsedMillis() { return elapsedNanos / 1e6; }
+        public double getRecipientsPerSecond() { return elapsedNanos == 0 ? 0 : recipients / (elapsedNanos / 1e9); }
+
+        @Override
+        public String toString() {
+            return String.format("Fan-out %d: %d recipients in %.1f ms (%.0f/s)", payloadId, recipients,
+                getElapsedMillis(), getRecipientsPerSecond());
+        }
+    }
+
+    private final ClientService clientService;
+
+    public FanOutService(ClientService clientService) {
+        this.clientService = clientService;
+    }
+
+    // progress may be null; nothing is stored or published if this throws
+    public Result send(int senderId, String senderType, List<Integer> recipientIds, String recipientType,
+                       String subject, String content, String messageType, ProgressListener progress) throws SQLException {
+        long start = System.nanoTime();
+        int total = recipientIds.size();
+        if (total == 0) return new Result(0, 0, 0);
+
+        try (Connection conn = clientService.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int payloadId;
+                try (PreparedStatement stmt = conn.prepareStatement(INSERT_PAYLOAD_SQL, Statement.RETURN_GENERATED_KEYS)) {
+                    stmt.setInt(1, senderId);
+                    stmt.setString(2, senderType);
+                    stmt.setString(3, recipientType);
+                    stmt.setString(4, subject);
+                    stmt.setString(5, content);
+                    stmt.setString(6, messageType);
+                    stmt.setInt(7, total);
+                    stmt.executeUpdate();
+                    try (ResultSet keys = stmt.getGeneratedKeys()) {
+                        if (!keys.next()) throw new SQLException("No payload id generated");
+                        payloadId = keys.getInt(1);
+                    }
+                }
+
+                for (int from = 0; from < total; from += CHUNK_SIZE) {
+                    int to = Math.min(total, from + CHUNK_SIZE);
+                    insertRecipients(conn, payloadId, senderId, senderType, recipientIds.subList(from, to),
+                        recipientType, subject, messageType);
+                    if (progress != null) progress.onProgress(to, total);
+                }
+
+                try (PreparedStatement stmt = conn.prepareStatement(INSERT_OUTBOX_SQL)) {
+                    stmt.setInt(1, payloadId);
+                    stmt.setString(2, "fanout." + recipientType.toLowerCase());
+                    stmt.executeUpdate();
+                }
+                conn.commit();
+
+                Result result = new Result(payloadId, total, System.nanoTime() - start);
+                log.info("📨 {}", result);
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            }
+        }
+    }
+
+    private void insertRecipients(Connection conn, int payloadId, int senderId, String senderType, List<Integer> ids,
+                                  String recipientType, String subject, String messageType) throws SQLException {
+        StringBuilder sql = new StringBuilder(INSERT_RECIPIENTS_SQL.length() + ids.size() * (RECIPIENT_ROW.length() + 2));
+        sql.append(INSERT_RECIPIENTS_SQL);
+        for (int i = 0; i < ids.size(); i++) {
+            if (i > 0) sql.append(", ");
+            sql.append(RECIPIENT_ROW);
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
+            for (int receiverId : ids) {
+                stmt.setInt(p++, senderId);
+                stmt.setString(p++, senderType);
+                stmt.setInt(p++, receiverId);
+                stmt.setString(p++, recipientType);
+                stmt.setString(p++, subject);
+                stmt.setString(p++, messageType);
+                stmt.setInt(p++, payloadId);
+            }
+            stmt.executeUpdate();
+        }
+    }
+}
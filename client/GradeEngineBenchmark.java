@@ -0,0 +1,177 @@
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Compares the old statistics path with GradeEngine for one student,
+ * against the real database:
+ *
+ *   per subject  what getStudentStatistics did before: the distinct
+ *                subjects, then one connection and query per subject
+ *                (twice, once for the average and once for the list),
+ *                plus the exam counts
+ *   engine       one query into primitive arrays, then GradeEngine.compute
+ *
+ * Both run through the client connection pool, so the difference is
+ * queries, not connection setup. The two results are compared first, and
+ * the engine's compute step is also timed on its own, without the query.
+ *
+ * Usage: java -cp ".;../lib/*" GradeEngineBenchmark [studentId] [rounds]
+ * (studentId defaults to the student with the most grades)
+ */
+public class GradeEngineBenchmark {
+    private static final String SUBJECTS_SQL =
+        "SELECT DISTINCT s.subject_id, s.subject_name FROM grades g JOIN exams e ON g.exam_id = e.exam_id " +
+        "JOIN subjects s ON e.subject_id = s.subject_id WHERE g.student_id = ?";
+    private static final String SUBJECT_ROWS_SQL =
+        "SELECT e.exam_type, e.coefficient, g.score FROM exams e JOIN grades g ON e.exam_id = g.exam_id " +
+        "WHERE g.student_id = ? AND e.subject_id = ?";
+
+    public static void main(String[] args) throws Exception {
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        ClientService clientService = new ClientService();
+        int studentId = args.length > 0 ? Integer.parseInt(args[0]) : busiestStudent(clientService);
+
+        Map<String, Object> before = perSubject(clientService, studentId);
+        Map<String, Object> after = clientService.getStudentStatistics(studentId);
+        System.out.println("📊 Student " + studentId + ": " + after.get("totalExams") + " grades in "
+            + ((List<?>) after.get("subjectStats")).size() + " subjects");
+        System.out.println("   Old path: " + before);
+        System.out.println("   Engine:   " + after);
+        if (!normalized(before).equals(normalized(after))) {
+            System.out.println("⚠️ Results differ (subjects with several exams of one type may pick another exam)");
+        }
+
+        for (int i = 0; i < 5; i++) {
+            perSubject(clientService, studentId);
+            clientService.getStudentStatistics(studentId);
+        }
+        long old = Long.MAX_VALUE;
+        long engine = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            perSubject(clientService, studentId);
+            long t1 = System.nanoTime();
+            clientService.getStudentStatistics(studentId);
+            long t2 = System.nanoTime();
+            old = Math.min(old, t1 - t0);
+            engine = Math.min(engine, t2 - t1);
+        }
+        System.out.printf("   Per subject: %.2f ms, engine: %.2f ms (best of %d)%n", old / 1e6, engine / 1e6, rounds);
+
+        GradeEngine.Grades grades;
+        try (Connection conn = clientService.getConnection()) {
+            grades = GradeEngine.load(conn, studentId);
+        }
+        int iterations = 1_000_000;
+        double sink = 0;
+        for (int i = 0; i < iterations; i++) sink += GradeEngine.compute(grades).getOverallAverage();
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += GradeEngine.compute(grades).getOverallAverage();
+        long elapsed = System.nanoTime() - t0;
+        System.out.printf("   compute() alone: %.0f ns per student (%d rows)%s%n", (double) elapsed / iterations,
+            grades.size(), sink < 0 ? "!" : "");
+        System.out.println("   " + ClientConnectionPool.getInstance());
+    }
+
+    // Sorted keys and subjects, since the old path listed subjects in no particular order
+    @SuppressWarnings("unchecked")
+    private static String normalized(Map<String, Object> stats) {
+        Map<String, Object> sorted = new TreeMap<>(stats);
+        List<Map<String, String>> subjects = new ArrayList<>((List<Map<String, String>>) stats.get("subjectStats"));
+        subjects.sort(Comparator.comparing((Map<String, String> m) -> m.get("subject")));
+        sorted.put("subjectStats", subjects);
+        return sorted.toString();
+    }
+
+    private static int busiestStudent(ClientService clientService) throws SQLException {
+        try (Connection conn = clientService.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT student_id FROM grades GROUP BY student_id ORDER BY COUNT(*) DESC LIMIT 1")) {
+            if (!rs.next()) throw new IllegalStateException("No grades in the database");
+            return rs.getInt(1);
+        }
+    }
+
+    // The statistics as computed before GradeEngine, same keys and formatting
+    private static Map<String, Object> perSubject(ClientService clientService, int studentId) throws SQLException {
+        Map<String, Object> stats = new HashMap<>();
+        List<Integer> subjectIds = new ArrayList<>();
+        List<String> subjectNames = new ArrayList<>();
+        try (Connection conn = clientService.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SUBJECTS_SQL)) {
+            stmt.setInt(1, studentId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    subjectIds.add(rs.getInt(1));
+                    subjectNames.add(rs.getString(2));
+                }
+            }
+        }
+        double total = 0.0;
+        for (int subjectId : subjectIds) total += subjectFinal(clientService, studentId, subjectId);
+        stats.put("overallAverage", subjectIds.isEmpty() ? 0.0 : Math.round(total / subjectIds.size() * 100.0) / 100.0);
+
+        try (Connection conn = clientService.getConnection()) {
+            int exams = count(conn, "SELECT COUNT(*) FROM grades WHERE student_id = ?", studentId);
+            int passed = count(conn, "SELECT COUNT(*) FROM grades WHERE student_id = ? AND score >= 10", studentId);
+            stats.put("totalExams", exams);
+            stats.put("examsPassed", passed);
+            stats.put("successRate", exams > 0 ? passed * 100.0 / exams : 0.0);
+        }
+
+        List<Map<String, String>> subjectStats = new ArrayList<>();
+        for (int i = 0; i < subjectIds.size(); i++) {
+            Map<String, String> subject = new HashMap<>();
+            subject.put("subject", subjectNames.get(i));
+            subject.put("average", String.format("%.2f", subjectFinal(clientService, studentId, subjectIds.get(i))));
+            subjectStats.add(subject);
+        }
+        stats.put("subjectStats", subjectStats);
+        return stats;
+    }
+
+    private static double subjectFinal(ClientService clientService, int studentId, int subjectId) throws SQLException {
+        Map<String, Double> scores = new HashMap<>();
+        Map<String, Double> coefficients = new HashMap<>();
+        try (Connection conn = clientService.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(SUBJECT_ROWS_SQL)) {
+            stmt.setInt(1, studentId);
+            stmt.setInt(2, subjectId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    scores.put(rs.getString(1), rs.getDouble(3));
+                    coefficients.put(rs.getString(1), rs.getDouble(2));
+                }
+            }
+        }
+        boolean controle = scores.containsKey("CONTROLE");
+        boolean tp = scores.containsKey("TP");
+        boolean examen = scores.containsKey("EXAMEN");
+        double grade;
+        if (controle && tp && examen) {
+            grade = scores.get("CONTROLE") * 0.2 + scores.get("TP") * 0.2 + scores.get("EXAMEN") * 0.6;
+        } else if (controle && examen) {
+            grade = scores.get("CONTROLE") * 0.4 + scores.get("EXAMEN") * 0.6;
+        } else if (examen) {
+            grade = scores.get("EXAMEN") * coefficients.get("EXAMEN");
+        } else {
+            double weighted = 0.0;
+            double totalCoefficient = 0.0;
+            for (String type : scores.keySet()) {
+                weighted += scores.get(type) * coefficients.get(type);
+                totalCoefficient += coefficients.get(type);
+            }
+            grade = totalCoefficient > 0 ? weighted / totalCoefficient : 0.0;
+        }
+        return Math.round(grade * 100.0) / 100.0;
+    }
+
+    private static int count(Connection conn, String sql, int studentId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, studentId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times loading one user's inbox three ways against the real database:
+ *
+ *   subqueries  the old listing, resolving each row's sender with a CASE
+ *               over correlated subqueries (students, teachers and users,
+ *               as responsables and admins have no table of their own)
+ *   directory   the same rows without the subqueries, names looked up in
+ *               UserDirectory
+ *   first page  InboxService.getPage, headers only, from idx_inbox
+ *
+ * It first gives a receiver (STUDENT, id 9000000 + a random suffix, so no
+ * real user) the requested number of messages from existing students and
+ * teachers, and deletes them again at the end.
+ *
+ * Usage: java -cp ".;../lib/*" InboxQueryBenchmark [messages] [rounds]
+ */
+public class InboxQueryBenchmark {
+    private static final String SUBQUERY_SQL =
+        "SELECT m.*, p.content AS payload_content, " +
+        "CASE " +
+        "   WHEN m.sender_type = 'TEACHER' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM teachers WHERE teacher_id = m.sender_id) " +
+        "   WHEN m.sender_type = 'STUDENT' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM students WHERE student_id = m.sender_id) " +
+        "   WHEN m.sender_type IN ('RESPONSABLE', 'ADMIN') THEN (SELECT username FROM users WHERE user_id = m.sender_id) " +
+        "   ELSE 'System' " +
+        "END AS sender_name " +
+        "FROM messages m LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
+        "WHERE m.receiver_id = ? AND m.receiver_type = 'STUDENT' ORDER BY m.created_at DESC";
+    private static final String PLAIN_SQL =
+        "SELECT m.*, p.content AS payload_content " +
+        "FROM messages m LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
+        "WHERE m.receiver_id = ? AND m.receiver_type = 'STUDENT' ORDER BY m.created_at DESC";
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 5_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int receiverId = 9_000_000 + (int) (Math.random() * 100_000);
+
+        ClientService clientService = new ClientService();
+        UserDirectory directory = clientService.getUserDirectory();
+        try (Connection conn = clientService.getConnection()) {
+            seed(conn, receiverId, count);
+            try {
+                // Warm-up, which also loads the directory once
+                for (int i = 0; i < 3; i++) {
+                    withSubqueries(conn, receiverId);
+                    withDirectory(conn, directory, receiverId);
+                    clientService.getInboxService().getPage(receiverId, "STUDENT", null, InboxService.DEFAULT_PAGE_SIZE);
+                }
+
+                long subqueries = Long.MAX_VALUE;
+                long plain = Long.MAX_VALUE;
+                long page = Long.MAX_VALUE;
+                int rows = 0;
+                for (int r = 0; r < rounds; r++) {
+                    long t0 = System.nanoTime();
+                    rows = withSubqueries(conn, receiverId);
+                    long t1 = System.nanoTime();
+                    withDirectory(conn, directory, receiverId);
+                    long t2 = System.nanoTime();
+                    clientService.getInboxService().getPage(receiverId, "STUDENT", null, InboxService.DEFAULT_PAGE_SIZE);
+                    long t3 = System.nanoTime();
+                    subqueries = Math.min(subqueries, t1 - t0);
+                    plain = Math.min(plain, t2 - t1);
+                    page = Math.min(page, t3 - t2);
+                }
+
+                System.out.println("📊 Inbox of " + rows + " messages, best of " + rounds);
+                System.out.printf("   CASE subqueries:      %.1f ms%n", subqueries / 1e6);
+                System.out.printf("   UserDirectory:        %.1f ms%n", plain / 1e6);
+                System.out.printf("   First page (%d rows): %.1f ms (connection included)%n", InboxService.DEFAULT_PAGE_SIZE,
+                    page / 1e6);
+            } finally {
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "DELETE FROM messages WHERE receiver_id = ? AND receiver_type = 'STUDENT'")) {
+                    stmt.setInt(1, receiverId);
+                    stmt.executeUpdate();
+                }
+            }
+        }
+    }
+
+    private static int withSubqueries(Connection conn, int receiverId) throws SQLException {
+        int rows = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(SUBQUERY_SQL)) {
+            stmt.setInt(1, receiverId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rs.getString("sender_name");
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    private static int withDirectory(Connection conn, UserDirectory directory, int receiverId) throws SQLException {
+        int rows = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(PLAIN_SQL)) {
+            stmt.setInt(1, receiverId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    directory.displayName(rs.getInt("sender_id"), rs.getString("sender_type"));
+                    rows++;
+                }
+            }
+        }
+        return rows;
+    }
+
+    // Senders drawn from existing students and teachers, so both sides resolve real names
+    private static void seed(Connection conn, int receiverId, int count) throws SQLException {
+        List<int[]> senders = new ArrayList<>();
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT student_id, 0 FROM students UNION ALL SELECT teacher_id, 1 FROM teachers")) {
+            while (rs.next()) senders.add(new int[]{rs.getInt(1), rs.getInt(2)});
+        }
+        if (senders.isEmpty()) throw new IllegalStateException("No students or teachers to send from");
+
+        conn.setAutoCommit(false);
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, subject, content, message_type, " +
+                "created_at, is_read) VALUES (?, ?, ?, 'STUDENT', ?, ?, 'MESSAGE', NOW() - INTERVAL ? MINUTE, ?)")) {
+            for (int i = 0; i < count; i++) {
+                int[] sender = senders.get(i % senders.size());
+                stmt.setInt(1, sender[0]);
+                stmt.setString(2, sender[1] == 0 ? "STUDENT" : "TEACHER");
+                stmt.setInt(3, receiverId);
+                stmt.setString(4, "Benchmark message " + i);
+                stmt.setString(5, "Body of benchmark message " + i + ", long enough to look like a real one.");
+                stmt.setInt(6, i);
+                stmt.setBoolean(7, i % 3 == 0);
+                stmt.addBatch();
+                if (i % 1000 == 999) stmt.executeBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,347 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Inbox listing a page at a time, headers only.
+ *
+ * A page is the next rows after a Cursor in (created_at, id) order, newest
+ * first: a keyset seek, so page 200 costs the same as page 1, and rows that
+ * arrive while the user scrolls neither shift nor repeat the ones below.
+ * Header queries read only columns of idx_inbox, so direct messages are
+ * served from the index without touching the rows and their TEXT bodies.
+ * A body is loaded by getBody when the message is opened.
+ *
+ * Broadcasts (negative ids, see BroadcastService) are merged into the same
+ * order. At equal created_at, direct messages come before broadcasts, each
+ * by descending id of its own table. Sender names come from UserDirectory.
+ *
+ * getSince returns what arrived after a Mark, with bodies, for InboxSync to
+ * merge after a reconnect instead of loading the inbox again. A Mark is a
+ * database time, not an id: an id is taken when a row is inserted, so a row
+ * that commits late can sit below ids that were already seen. Every row
+ * committed after the mark has a created_at at most INSERT_TO_COMMIT_SLACK_MS
+ * before it, so getSince returns everything from there on, except the ids
+ * the caller says it already has.
+ */
+public class InboxService {
+    public static final int DEFAULT_PAGE_SIZE = Integer.getInteger("inbox.pageSize", 50);
+
+    private static final String HEADER_COLUMNS =
+        "SELECT message_id, sender_id, sender_type, subject, message_type, priority, is_read, created_at FROM messages ";
+    private static final String FIRST_MESSAGES_SQL = HEADER_COLUMNS +
+        "WHERE receiver_id = ? AND receiver_type = ? ORDER BY created_at DESC, message_id DESC LIMIT ?";
+    private static final String NEXT_MESSAGES_SQL = HEADER_COLUMNS +
+        "WHERE receiver_id = ? AND receiver_type = ? AND (created_at < ? OR (created_at = ? AND message_id < ?)) " +
+        "ORDER BY created_at DESC, message_id DESC LIMIT ?";
+    private static final String BROADCAST_COLUMNS =
+        "SELECT broadcast_id, sender_id, sender_type, subject, message_type, priority, created_at, read_bitmap, " +
+        "deleted_bitmap FROM broadcasts ";
+    private static final String FIRST_BROADCASTS_SQL = BROADCAST_COLUMNS +
+        "WHERE target_type IN (?, 'ALL') ORDER BY created_at DESC, broadcast_id DESC LIMIT ?";
+    private static final String NEXT_BROADCASTS_SQL = BROADCAST_COLUMNS +
+        "WHERE target_type IN (?, 'ALL') AND (created_at < ? OR (created_at = ? AND broadcast_id < ?)) " +
+        "ORDER BY created_at DESC, broadcast_id DESC LIMIT ?";
+    private static final String MESSAGE_BODY_SQL =
+        "SELECT COALESCE(p.content, m.content) FROM messages m LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
+        "WHERE m.message_id = ? AND m.receiver_id = ? AND m.receiver_type = ?";
+    private static final String BROADCAST_BODY_SQL =
+        "SELECT content FROM broadcasts WHERE broadcast_id = ? AND target_type IN (?, 'ALL')";
+    private static final String MARK_SQL = "SELECT NOW()";
+    // Ranges of idx_inbox and idx_target
+    private static final String MESSAGES_SINCE_SQL =
+        "SELECT m.message_id, m.sender_id, m.sender_type, m.subject, COALESCE(p.content, m.content) AS content, " +
+        "m.message_type, m.priority, m.is_read, m.created_at " +
+        "FROM messages m LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
+        "WHERE m.receiver_id = ? AND m.receiver_type = ? AND m.created_at >= ? ORDER BY m.message_id LIMIT ?";
+    private static final String BROADCASTS_SINCE_SQL =
+        "SELECT broadcast_id, sender_id, sender_type, subject, content, message_type, priority, created_at, read_bitmap, " +
+        "deleted_bitmap FROM broadcasts WHERE target_type IN (?, 'ALL') AND created_at >= ? ORDER BY broadcast_id LIMIT ?";
+    // A row's created_at is set when it is inserted, which may be this long before it commits
+    private static final long INSERT_TO_COMMIT_SLACK_MS = 10 * 60 * 1000;
+
+    // Inbox order: newest first; at equal time direct messages, then broadcasts, each by descending table id
+    static final Comparator<Message> NEWEST_FIRST = Comparator
+        .comparing(Message::getCreatedAt, Comparator.nullsLast(Comparator.reverseOrder()))
+        .thenComparing(m -> m.getMessageId() < 0)
+        .thenComparing(m -> Math.abs(m.getMessageId()), Comparator.reverseOrder());
+
+    /** Position after the last header of a page; pass null for the first page. */
+    public static final class Cursor {
+        private final Timestamp createdAt;
+        private final int messageId;
+
+        private Cursor(Timestamp createdAt, int messageId) {
+            this.createdAt = createdAt;
+            this.messageId = messageId;
+        }
+
+        static Cursor after(Message last) {
+            return new Cursor(Timestamp.valueOf(last.getCreatedAt()), last.getMessageId());
+        }
+    }
+
+    /** High-water mark: a database time up to which the inbox has everything that was committed. */
+    public static final class Mark {
+        private final Timestamp takenAt;
+
+        private Mark(Timestamp takenAt) {
+            this.takenAt = takenAt;
+        }
+
+        /*
+         * Moved up to a message delivered live while caught up. The relay
+         * publishes in id order, so whatever was still missing then commits
+         * after this message was stored.
+         */
+        public Mark after(Message message) {
+            if (message.getCreatedAt() == null) return this;
+            Timestamp created = Timestamp.valueOf(message.getCreatedAt());
+            return created.after(takenAt) ? new Mark(created) : this;
+        }
+    }
+
+    public static final class Delta {
+        private final List<Message> messages;
+        private final Mark mark;
+        private final boolean complete;
+
+        Delta(List<Message> messages, Mark mark, boolean complete) {
+            this.messages = messages;
+            this.mark = mark;
+            this.complete = complete;
+        }
+
+        /*
+         * Oldest first, with content. When complete these are the missed
+         * messages; otherwise, and when getSince was given no mark, those of
+         * the last slack window, which an inbox loaded now already holds.
+         */
+        public List<Message> getMessages() { return messages; }
+        // Where the next getSince starts
+        public Mark getMark() { return mark; }
+        // False if more than the limit arrived, and the inbox should be loaded again instead
+        public boolean isComplete() { return complete; }
+    }
+
+    public static final class Page {
+        private final List<Message> headers;
+        private final Cursor next;
+
+        Page(List<Message> headers, Cursor next) {
+            this.headers = headers;
+            this.next = next;
+        }
+
+        // Messages with subject, sender, type, date and read flag; content is null until getBody
+        public List<Message> getHeaders() { return headers; }
+        // Null on the last page
+        public Cursor getNext() { return next; }
+        public boolean hasMore() { return next != null; }
+    }
+
+    private final ClientService clientService;
+
+    public InboxService(ClientService clientService) {
+        this.clientService = clientService;
+    }
+
+    public Page getPage(int userId, String userType, Cursor after, int limit) throws SQLException {
+        List<Message> headers = new ArrayList<>(limit * 2 + 2);
+        try (Connection conn = clientService.getConnection()) {
+            // One row more than the page tells whether another page follows
+            addMessageHeaders(conn, headers, userId, userType, after, limit + 1);
+            addBroadcastHeaders(conn, headers, userId, userType, after, limit + 1);
+        }
+        headers.sort(NEWEST_FIRST);
+        if (headers.size() <= limit) {
+            nameSenders(headers);
+            return new Page(headers, null);
+        }
+        List<Message> page = new ArrayList<>(headers.subList(0, limit));
+        nameSenders(page);
+        return new Page(page, Cursor.after(page.get(limit - 1)));
+    }
+
+    // Null if the message does not exist or is not in this user's inbox
+    public String getBody(int messageId, int userId, String userType) throws SQLException {
+        try (Connection conn = clientService.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(messageId < 0 ? BROADCAST_BODY_SQL : MESSAGE_BODY_SQL)) {
+            if (messageId < 0) {
+                stmt.setInt(1, -messageId);
+                stmt.setString(2, userType.toUpperCase());
+            } else {
+                stmt.setInt(1, messageId);
+                stmt.setInt(2, userId);
+                stmt.setString(3, userType);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    /*
+     * Everything this user received after since, except the ids in known
+     * (messages, and negated broadcast ids). If since is null, or more than
+     * limit are new, the delta holds the last slack window instead.
+     */
+    public Delta getSince(int userId, String userType, Mark since, int limit, Set<Integer> known) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        Mark mark;
+        boolean complete = true;
+        try (Connection conn = clientService.getConnection()) {
+            // Taken first, so a row stored during the queries below is returned now or next time, never neither
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(MARK_SQL)) {
+                rs.next();
+                mark = new Mark(rs.getTimestamp(1));
+            }
+            Timestamp window = new Timestamp(mark.takenAt.getTime() - INSERT_TO_COMMIT_SLACK_MS);
+            if (since != null) {
+                Timestamp from = new Timestamp(since.takenAt.getTime() - INSERT_TO_COMMIT_SLACK_MS);
+                complete = addSince(conn, messages, userId, userType, from, limit, known);
+                if (!complete) messages.clear();
+            }
+            if (since == null || !complete) {
+                addSince(conn, messages, userId, userType, window, limit, Collections.emptySet());
+            }
+        }
+        messages.sort(NEWEST_FIRST.reversed());
+        nameSenders(messages);
+        return new Delta(messages, mark, complete);
+    }
+
+    // False if more than limit rows not in known were created from this time on
+    private boolean addSince(Connection conn, List<Message> messages, int userId, String userType, Timestamp from, int limit,
+                             Set<Integer> known) throws SQLException {
+        int rowLimit = limit + 1 + known.size();
+        int rows = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(MESSAGES_SINCE_SQL)) {
+            stmt.setInt(1, userId);
+            stmt.setString(2, userType);
+            stmt.setTimestamp(3, from);
+            stmt.setInt(4, rowLimit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows++;
+                    int id = rs.getInt("message_id");
+                    if (known.contains(id)) continue;
+                    Message message = header(rs, userId, userType);
+                    message.setMessageId(id);
+                    message.setRead(rs.getBoolean("is_read"));
+                    message.setContent(rs.getString("content"));
+                    messages.add(message);
+                }
+            }
+        }
+        if (rows == rowLimit || messages.size() > limit) return false;
+
+        int member = UserBitmap.member(userId, userType);
+        rows = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(BROADCASTS_SINCE_SQL)) {
+            stmt.setString(1, userType.toUpperCase());
+            stmt.setTimestamp(2, from);
+            stmt.setInt(3, rowLimit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    rows++;
+                    int id = -rs.getInt("broadcast_id");
+                    if (known.contains(id) || UserBitmap.contains(rs.getBytes("deleted_bitmap"), member)) continue;
+                    Message message = header(rs, userId, userType);
+                    message.setMessageId(id);
+                    message.setRead(UserBitmap.contains(rs.getBytes("read_bitmap"), member));
+                    message.setContent(rs.getString("content"));
+                    messages.add(message);
+                }
+            }
+        }
+        return rows < rowLimit && messages.size() <= limit;
+    }
+
+    private void addMessageHeaders(Connection conn, List<Message> headers, int userId, String userType, Cursor after,
+                                   int limit) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(after == null ? FIRST_MESSAGES_SQL : NEXT_MESSAGES_SQL)) {
+            int p = 1;
+            stmt.setInt(p++, userId);
+            stmt.setString(p++, userType);
+            if (after != null) {
+                stmt.setTimestamp(p++, after.createdAt);
+                stmt.setTimestamp(p++, after.createdAt);
+                // After a broadcast, no direct message of the same second is left
+                stmt.setInt(p++, Math.max(0, after.messageId));
+            }
+            stmt.setInt(p, limit);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    Message header = header(rs, userId, userType);
+                    header.setMessageId(rs.getInt("message_id"));
+                    header.setRead(rs.getBoolean("is_read"));
+                    headers.add(header);
+                }
+            }
+        }
+    }
+
+    // Deleted broadcasts are only known from their bitmap, so keep reading until limit are left or none remain
+    private void addBroadcastHeaders(Connection conn, List<Message> headers, int userId, String userType, Cursor after,
+                                     int limit) throws SQLException {
+        int member = UserBitmap.member(userId, userType);
+        Timestamp createdAt = after == null ? null : after.createdAt;
+        // After a direct message, every broadcast of the same second is still to come
+        int belowId = after == null ? 0 : after.messageId < 0 ? -after.messageId : Integer.MAX_VALUE;
+        int added = 0;
+        while (added < limit) {
+            int read = 0;
+            try (PreparedStatement stmt = conn.prepareStatement(createdAt == null ? FIRST_BROADCASTS_SQL : NEXT_BROADCASTS_SQL)) {
+                int p = 1;
+                stmt.setString(p++, userType.toUpperCase());
+                if (createdAt != null) {
+                    stmt.setTimestamp(p++, createdAt);
+                    stmt.setTimestamp(p++, createdAt);
+                    stmt.setInt(p++, belowId);
+                }
+                stmt.setInt(p, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        read++;
+                        createdAt = rs.getTimestamp("created_at");
+                        belowId = rs.getInt("broadcast_id");
+                        if (UserBitmap.contains(rs.getBytes("deleted_bitmap"), member)) continue;
+                        Message header = header(rs, userId, userType);
+                        header.setMessageId(-belowId);
+                        header.setRead(UserBitmap.contains(rs.getBytes("read_bitmap"), member));
+                        headers.add(header);
+                        added++;
+                    }
+                }
+            }
+            if (read < limit) return;
+        }
+    }
+
+    private void nameSenders(List<Message> headers) {
+        UserDirectory directory = clientService.getUserDirectory();
+        for (Message header : headers) {
+            header.setSenderName(directory.displayName(header.getSenderId(), header.getSenderType()));
+        }
+    }
+
+    private static Message header(ResultSet rs, int userId, String userType) throws SQLException {
+        Message header = new Message();
+        header.setSenderId(rs.getInt("sender_id"));
+        header.setSenderType(rs.getString("sender_type"));
+        header.setReceiverId(userId);
+        header.setReceiverType(userType);
+        header.setSubject(rs.getString("subject"));
+        header.setMessageType(rs.getString("message_type"));
+        if (rs.getString("priority") != null) header.setPriority(rs.getString("priority"));
+        Timestamp created = rs.getTimestamp("created_at");
+        if (created != null) header.setCreatedAt(created.toLocalDateTime());
+        header.setContent(null);
+        return header;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,159 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a dashboard's inbox complete across reconnects without loading it
+ * again: the live listener only sees a message once the inbox has caught up
+ * with everything stored before it.
+ *
+ * Subscribe this as the JMS listener, then call start(). Messages delivered
+ * live are held back while a catch-up runs: InboxService.getSince returns,
+ * in one call, what this user received after the high-water mark of the
+ * previous catch-up and has not been passed on yet (by messageId),
+ * CatchUp.missed merges it, and only then are the held and later messages
+ * passed on, minus any the catch-up already delivered. Live messages move
+ * the mark on, but only once a catch-up has succeeded since the connection
+ * was last interrupted. The first catch-up, at start(), only takes the mark
+ * and the ids of the last few minutes, as the inbox loads its first page
+ * itself. Each time failover restores the
+ * broker connection another catch-up runs, which also recovers broadcasts
+ * published to the non-durable topics while the connection was down. If
+ * more than inbox.syncLimit messages (default 500) were missed, the inbox
+ * is told to reload instead.
+ */
+public class InboxSync implements MessageService.MessageListener, MessageService.ConnectionListener {
+    private static final Log log = Log.get("client.sync");
+    private static final int SYNC_LIMIT = Integer.getInteger("inbox.syncLimit", 500);
+    private static final int DELIVERED_WINDOW = 1_000;
+
+    /** Where caught-up messages go; called on a background thread. */
+    public interface CatchUp {
+        // Messages stored while this client was not listening, oldest first
+        void missed(List<Message> messages);
+        // Too many were missed to merge; load the inbox from the first page
+        void reload();
+    }
+
+    private final ClientService clientService;
+    private final int userId;
+    private final String userType;
+    private final MessageService.MessageListener live;
+    private final CatchUp catchUp;
+    private final List<Message> held = new ArrayList<>();
+    // Ids already passed on, so a message both caught up and delivered live shows once
+    private final Set<Integer> delivered = Collections.newSetFromMap(new LinkedHashMap<Integer, Boolean>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Boolean> eldest) {
+            return size() > DELIVERED_WINDOW;
+        }
+    });
+    private InboxService.Mark mark;
+    // False from an interruption until a catch-up succeeds; what was missed meanwhile is below any live message
+    private boolean caughtUp;
+    private boolean holding = true;
+    // Bumped by each catch-up, so an older one that finishes late is dropped
+    private int run;
+
+    public InboxSync(ClientService clientService, int userId, String userType, MessageService.MessageListener live,
+                     CatchUp catchUp) {
+        this.clientService = clientService;
+        this.userId = userId;
+        this.userType = userType;
+        this.live = live;
+        this.catchUp = catchUp;
+    }
+
+    public void start() {
+        clientService.getMessageService().addConnectionListener(this);
+        catchUpAsync();
+    }
+
+    @Override
+    public synchronized void onMessageReceived(Message message) {
+        if (holding) {
+            held.add(message);
+        } else {
+            pass(message);
+        }
+    }
+
+    @Override
+    public synchronized void connectionInterrupted() {
+        // Hold from now, so nothing that arrives on resume overtakes the catch-up
+        holding = true;
+        caughtUp = false;
+    }
+
+    @Override
+    public void connectionResumed() {
+        catchUpAsync();
+    }
+
+    private void catchUpAsync() {
+        int started;
+        InboxService.Mark since;
+        Set<Integer> known;
+        synchronized (this) {
+            holding = true;
+            started = ++run;
+            since = mark;
+            known = new HashSet<>(delivered);
+        }
+        Thread thread = new Thread(() -> catchUp(started, since, known), "inbox-sync");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void catchUp(int started, InboxService.Mark since, Set<Integer> known) {
+        long start = System.nanoTime();
+        InboxService.Delta delta = null;
+        try {
+            delta = clientService.getInboxService().getSince(userId, userType, since, SYNC_LIMIT, known);
+        } catch (SQLException e) {
+            // Live delivery goes on, without moving the mark; the next catch-up starts from the old one
+            log.error("❌ Inbox catch-up failed for {} {}: {}", userType, userId, e.getMessage());
+        }
+        synchronized (this) {
+            if (started != run) return;
+            if (delta != null) {
+                mark = delta.getMark();
+                caughtUp = true;
+                // Without a mark, or on reload, these are already in the inbox the dashboard loads
+                for (Message message : delta.getMessages()) {
+                    delivered.add(message.getMessageId());
+                }
+                if (!delta.isComplete()) {
+                    log.info("🔄 More than {} messages missed by {} {}, reloading the inbox", SYNC_LIMIT, userType, userId);
+                    catchUp.reload();
+                } else if (since != null && !delta.getMessages().isEmpty()) {
+                    catchUp.missed(delta.getMessages());
+                }
+                log.debug("🔄 Inbox of {} {} caught up: {} missed, {} held, {} ms", userType, userId,
+                    delta.getMessages().size(), held.size(), (System.nanoTime() - start) / 1_000_000);
+            }
+            holding = false;
+            for (Message message : held) {
+                pass(message);
+            }
+            held.clear();
+        }
+    }
+
+    // Called with the lock held, so held and live messages keep their order
+    private void pass(Message message) {
+        int id = message.getMessageId();
+        if (id != 0 && !delivered.add(id)) return;
+        if (caughtUp && mark != null) mark = mark.after(message);
+        try {
+            live.onMessageReceived(message);
+        } catch (Exception e) {
+            log.error("❌ Error in message listener: {}", e.getMessage());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,290 @@
+import java.io.*;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Leveled asynchronous logger (this file is kept identical in client/ and
+ * server/, like WireProtocol).
+ *
+ * A caller only claims a slot in a lock-free ring buffer and stores the
+ * message template and its arguments there; one background thread fills in
+ * the {} placeholders and writes to the console. Request threads therefore
+ * never wait on the stdout lock, and a disabled level returns after a single
+ * comparison without building any string.
+ *
+ * Levels are read from system properties: log.level is the default (INFO),
+ * and log.level.<subsystem> overrides it for a subsystem and everything
+ * below it, e.g. -Dlog.level.client.service=DEBUG. When the buffer is full,
+ * events are dropped and counted instead of blocking the caller, unless
+ * -Dlog.blockWhenFull=true asks callers to wait for the writer instead.
+ */
+public final class Log {
+    public enum Level { DEBUG, INFO, WARN, ERROR, OFF }
+
+    private static final int CAPACITY = Integer.highestOneBit(Math.max(1024, Integer.getInteger("log.bufferSize", 8192)));
+    private static final int MASK = CAPACITY - 1;
+    private static final boolean BLOCK_WHEN_FULL = Boolean.getBoolean("log.blockWhenFull");
+    private static final Object[] NO_ARGS = new Object[0];
+    private static final Map<String, Log> LOGGERS = new ConcurrentHashMap<>();
+
+    private static final Event[] RING = new Event[CAPACITY];
+    private static final AtomicLong tail = new AtomicLong();
+    private static volatile long head;
+    private static final LongAdder dropped = new LongAdder();
+    private static volatile boolean shuttingDown;
+    private static final Thread writer;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            RING[i] = new Event();
+        }
+        writer = new Thread(Log::drain, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::shutdown, "log-shutdown"));
+    }
+
+    private final String name;
+    private volatile int threshold;
+
+    private Log(String name) {
+        this.name = name;
+        this.threshold = configuredLevel(name).ordinal();
+    }
+
+    public static Log get(String subsystem) {
+        return LOGGERS.computeIfAbsent(subsystem, Log::new);
+    }
+
+    public void setLevel(Level level) {
+        threshold = level.ordinal();
+    }
+
+    public boolean isEnabled(Level level) {
+        return level.ordinal() >= threshold;
+    }
+
+    public boolean isDebugEnabled() {
+        return threshold <= Level.DEBUG.ordinal();
+    }
+
+    public void debug(String message) {
+        if (threshold <= Level.DEBUG.ordinal()) publish(Level.DEBUG, message, null, null, NO_ARGS, null);
+    }
+
+    public void debug(String message, Object arg) {
+        if (threshold <= Level.DEBUG.ordinal()) publish(Level.DEBUG, message, arg, null, NO_ARGS, null);
+    }
+
+    public void debug(String message, Object arg1, Object arg2) {
+        if (threshold <= Level.DEBUG.ordinal()) publish(Level.DEBUG, message, arg1, arg2, NO_ARGS, null);
+    }
+
+    public void debug(String message, Object... args) {
+        if (threshold <= Level.DEBUG.ordinal()) publish(Level.DEBUG, message, null, null, args, null);
+    }
+
+    public void info(String message) {
+        if (threshold <= Level.INFO.ordinal()) publish(Level.INFO, message, null, null, NO_ARGS, null);
+    }
+
+    public void info(String message, Object arg) {
+        if (threshold <= Level.INFO.ordinal()) publish(Level.INFO, message, arg, null, NO_ARGS, null);
+    }
+
+    public void info(String message, Object arg1, Object arg2) {
+        if (threshold <= Level.INFO.ordinal()) publish(Level.INFO, message, arg1, arg2, NO_ARGS, null);
+    }
+
+    public void info(String message, Object... args) {
+        if (threshold <= Level.INFO.ordinal()) publish(Level.INFO, message, null, null, args, null);
+    }
+
+    public void warn(String message) {
+        if (threshold <= Level.WARN.ordinal()) publish(Level.WARN, message, null, null, NO_ARGS, null);
+    }
+
+    public void warn(String message, Object arg) {
+        if (threshold <= Level.WARN.ordinal()) publish(Level.WARN, message, arg, null, NO_ARGS, null);
+    }
+
+    public void warn(String message, Object arg1, Object arg2) {
+        if (threshold <= Level.WARN.ordinal()) publish(Level.WARN, message, arg1, arg2, NO_ARGS, null);
+    }
+
+    public void warn(String message, Object... args) {
+        if (threshold <= Level.WARN.ordinal()) publish(Level.WARN, message, null, null, args, null);
+    }
+
+    public void error(String message) {
+        if (threshold <= Level.ERROR.ordinal()) publish(Level.ERROR, message, null, null, NO_ARGS, null);
+    }
+
+    public void error(String message, Object arg) {
+        if (threshold <= Level.ERROR.ordinal()) publish(Level.ERROR, message, arg, null, NO_ARGS, null);
+    }
+
+    public void error(String message, Object arg1, Object arg2) {
+        if (threshold <= Level.ERROR.ordinal()) publish(Level.ERROR, message, arg1, arg2, NO_ARGS, null);
+    }
+
+    public void error(String message, Object... args) {
+        if (threshold <= Level.ERROR.ordinal()) publish(Level.ERROR, message, null, null, args, null);
+    }
+
+    // Message plus the exception's stack trace
+    public void error(String message, Throwable thrown) {
+        if (threshold <= Level.ERROR.ordinal()) publish(Level.ERROR, message, null, null, NO_ARGS, thrown);
+    }
+
+    public static long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    private static Level configuredLevel(String name) {
+        for (String n = name; ; ) {
+            String value = System.getProperty("log.level." + n);
+            if (value != null) return parseLevel(value);
+            int dot = n.lastIndexOf('.');
+            if (dot < 0) break;
+            n = n.substring(0, dot);
+        }
+        return parseLevel(System.getProperty("log.level", "INFO"));
+    }
+
+    private static Level parseLevel(String value) {
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            return Level.INFO;
+        }
+    }
+
+    // Producer side: claim a sequence, fill its slot, then publish it with a volatile write
+    private void publish(Level level, String message, Object arg1, Object arg2, Object[] args, Throwable thrown) {
+        long sequence;
+        while (true) {
+            sequence = tail.get();
+            if (sequence - head >= CAPACITY) {
+                if (!BLOCK_WHEN_FULL || shuttingDown) {
+                    dropped.increment();
+                    return;
+                }
+                LockSupport.parkNanos(50_000);
+            } else if (tail.compareAndSet(sequence, sequence + 1)) {
+                break;
+            }
+        }
+
+        Event event = RING[(int) sequence & MASK];
+        event.time = System.currentTimeMillis();
+        event.level = level;
+        event.logger = name;
+        event.thread = Thread.currentThread().getName();
+        event.message = message;
+        event.arg1 = arg1;
+        event.arg2 = arg2;
+        event.args = args;
+        event.thrown = thrown;
+        event.sequence = sequence;
+    }
+
+    // Writer thread: format events in order, flush whenever the buffer runs dry
+    private static void drain() {
+        DateTimeFormatter clock = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+        PrintStream out = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 16 * 1024), false);
+        PrintStream err = new PrintStream(new BufferedOutputStream(new FileOutputStream(FileDescriptor.err), 4 * 1024), false);
+        StringBuilder line = new StringBuilder(256);
+        long reportedDrops = 0;
+
+        while (true) {
+            long sequence = head;
+            Event event = RING[(int) sequence & MASK];
+            if (event.sequence != sequence) {
+                long drops = dropped.sum();
+                if (drops != reportedDrops) {
+                    err.println("⚠️ Log buffer full: " + (drops - reportedDrops) + " events dropped");
+                    reportedDrops = drops;
+                }
+                out.flush();
+                err.flush();
+                if (shuttingDown && tail.get() == sequence) return;
+                LockSupport.parkNanos(500_000);
+                continue;
+            }
+
+            line.setLength(0);
+            clock.formatTo(Instant.ofEpochMilli(event.time), line);
+            line.append(' ').append(event.level).append(" [").append(event.thread).append("] ")
+                .append(event.logger).append(" - ");
+            format(line, event);
+            PrintStream target = event.level.ordinal() >= Level.WARN.ordinal() ? err : out;
+            target.println(line);
+            if (event.thrown != null) {
+                event.thrown.printStackTrace(target);
+            }
+
+            event.clear();
+            head = sequence + 1;
+        }
+    }
+
+    private static void format(StringBuilder line, Event event) {
+        String message = String.valueOf(event.message);
+        int argIndex = 0;
+        int start = 0;
+        int marker;
+        while ((marker = message.indexOf("{}", start)) >= 0) {
+            Object arg;
+            if (event.args.length > 0) {
+                if (argIndex >= event.args.length) break;
+                arg = event.args[argIndex];
+            } else if (argIndex < 2) {
+                arg = argIndex == 0 ? event.arg1 : event.arg2;
+            } else {
+                break;
+            }
+            line.append(message, start, marker).append(arg);
+            argIndex++;
+            start = marker + 2;
+        }
+        line.append(message, start, message.length());
+    }
+
+    private static void shutdown() {
+        shuttingDown = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Event {
+        volatile long sequence = -1;
+        long time;
+        Level level;
+        String logger;
+        String thread;
+        String message;
+        Object arg1;
+        Object arg2;
+        Object[] args;
+        Throwable thrown;
+
+        void clear() {
+            message = null;
+            arg1 = null;
+            arg2 = null;
+            args = null;
+            thrown = null;
+        }
+    }
+}
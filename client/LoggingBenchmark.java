@@ -0,0 +1,87 @@
+import java.util.*;
+
+/**
+ * Measures what per-row logging costs the getAllStudents() loop: the same
+ * rows are built into maps (no database, so only the logging differs) with
+ * the old System.out.println, with Log at its default INFO level (debug
+ * disabled), and with debug enabled on the asynchronous writer.
+ *
+ * Results go to stderr; redirect stdout to a file or /dev/null so the
+ * console speed of your terminal does not dominate the println run.
+ *
+ * Usage: java LoggingBenchmark [rows] [rounds] > /dev/null
+ */
+public class LoggingBenchmark {
+    private static final Log log = Log.get("client.service");
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 50_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // Warm-up with logging disabled so every mode starts from compiled code
+        log.setLevel(Log.Level.INFO);
+        for (int i = 0; i < 3; i++) {
+            withLog(rows);
+        }
+
+        long println = Long.MAX_VALUE;
+        long disabled = Long.MAX_VALUE;
+        long enabled = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long t0 = System.nanoTime();
+            withPrintln(rows);
+            long t1 = System.nanoTime();
+            log.setLevel(Log.Level.INFO);
+            withLog(rows);
+            long t2 = System.nanoTime();
+            log.setLevel(Log.Level.DEBUG);
+            withLog(rows);
+            long t3 = System.nanoTime();
+            log.setLevel(Log.Level.INFO);
+            println = Math.min(println, t1 - t0);
+            disabled = Math.min(disabled, t2 - t1);
+            enabled = Math.min(enabled, t3 - t2);
+        }
+
+        System.err.println("📊 getAllStudents() loop over " + rows + " rows (best of " + rounds + ")");
+        System.err.printf("   System.out.println:   %8.1f ms%n", println / 1e6);
+        System.err.printf("   log.debug, disabled:  %8.1f ms%n", disabled / 1e6);
+        System.err.printf("   log.debug, enabled:   %8.1f ms (caller side; %d events dropped on a full buffer)%n",
+            enabled / 1e6, Log.getDroppedCount());
+    }
+
+    private static int withPrintln(int rows) {
+        List<Map<String, String>> students = new ArrayList<>();
+        for (int i = 1; i <= rows; i++) {
+            Map<String, String> student = row(i);
+            students.add(student);
+            System.out.println(" [DEBUG] Found student: " + student.get("studentId") + " - " +
+                             student.get("firstName") + " " + student.get("lastName"));
+        }
+        System.out.println(" [DEBUG] Total students found: " + rows);
+        return students.size();
+    }
+
+    private static int withLog(int rows) {
+        List<Map<String, String>> students = new ArrayList<>();
+        for (int i = 1; i <= rows; i++) {
+            Map<String, String> student = row(i);
+            students.add(student);
+            if (log.isDebugEnabled()) {
+                log.debug("Found student: {} - {} {}", student.get("studentId"), student.get("firstName"), student.get("lastName"));
+            }
+        }
+        log.debug("Total students found: {}", rows);
+        return students.size();
+    }
+
+    private static Map<String, String> row(int id) {
+        Map<String, String> student = new HashMap<>();
+        student.put("studentId", String.valueOf(id));
+        student.put("firstName", "First" + (id % 997));
+        student.put("lastName", "Last" + (id % 1009));
+        student.put("program", "Licence Informatique");
+        student.put("status", "Active");
+        return student;
+    }
+}
@@ -1,27 +1,54 @@
 import javax.jms.*;
 import org.apache.activemq.ActiveMQConnectionFactory;
 import org.apache.activemq.ActiveMQConnection;
+import org.apache.activemq.transport.DefaultTransportListener;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
 public class MessageService {
-    private static final String BROKER_URL = "tcp://localhost:61616";
+    private static final Log log = Log.get("client.messaging");
+    // Failover reconnects after a broker restart or network drop; it fails at once if the broker is down at
+    // startup, and a send gives up after 5 s rather than waiting for the reconnect
+    private static final String BROKER_URL = System.getProperty("client.jms.url",
+        "failover:(tcp://localhost:61616)?startupMaxReconnectAttempts=0&timeout=5000");
     private static final String BROKER_USERNAME = "admin";
     private static final String BROKER_PASSWORD = "admin";
+    private static final long USER_MESSAGE_TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final long BROADCAST_TTL_MS = 24L * 60 * 60 * 1000;
     
     private Connection connection;
     private Session session;
     private ConcurrentHashMap<String, MessageConsumer> consumers;
     private ConcurrentHashMap<String, List<MessageListener>> listeners;
-    private ConcurrentHashMap<String, MessageProducer> producers;
+    private final List<ConnectionListener> connectionListeners = new CopyOnWriteArrayList<>();
+    // Sends go through one anonymous producer on a session of their own, so they never
+    // share a session with the consumers' listener thread; destinations are resolved once
+    private Session sendSession;
+    private MessageProducer producer;
+    private final Object sendLock = new Object();
+    private ConcurrentHashMap<String, Destination> destinations;
+    
+    // The server's outbox relay delivers at least once; recently seen ids let us drop redeliveries
+    private static final int DEDUP_WINDOW = 10_000;
+    private final Set<Long> recentMessageIds = Collections.newSetFromMap(Collections.synchronizedMap(
+        new LinkedHashMap<Long, Boolean>(256, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Boolean> eldest) {
+                return size() > DEDUP_WINDOW;
+            }
+        }));
     
     private static MessageService instance;
     private boolean initialized = false;
     
-    public static MessageService getInstance() {
+    public static synchronized MessageService getInstance() {
         if (instance == null) {
             instance = new MessageService();
         }
@@ -31,7 +58,7 @@ public class MessageService {
     private MessageService() {
         this.consumers = new ConcurrentHashMap<>();
         this.listeners = new ConcurrentHashMap<>();
-        this.producers = new ConcurrentHashMap<>();
+        this.destinations = new ConcurrentHashMap<>();
         initialize();
     }
     
@@ -51,18 +78,44 @@ public class MessageService {
             
             // Create connection with client ID for durable subscribers
             connection = connectionFactory.createConnection();
+            if (connection instanceof ActiveMQConnection) {
+                ((ActiveMQConnection) connection).addTransportListener(new DefaultTransportListener() {
+                    @Override
+                    public void transportInterupted() {
+                        log.warn("⚠️ Broker connection lost, reconnecting");
+                        for (ConnectionListener listener : connectionListeners) {
+                            listener.connectionInterrupted();
+                        }
+                    }
+
+                    @Override
+                    public void transportResumed() {
+                        log.info("✅ Broker connection restored");
+                        for (ConnectionListener listener : connectionListeners) {
+                            listener.connectionResumed();
+                        }
+                    }
+                });
+            }
             connection.start();
             
             // Create session with transaction support
             session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
             
+            sendSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            producer = sendSession.createProducer(null);
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+            for (String userType : new String[] {"student", "teacher", "admin", "responsable"}) {
+                destination(Destinations.broadcastTopic(userType), true);
+            }
+            
             initialized = true;
-            System.out.println("✅ ActiveMQ connection established successfully");
-            System.out.println("📡 Broker URL: " + BROKER_URL);
-            System.out.println("👤 Connected as: " + BROKER_USERNAME);
+            log.info("✅ ActiveMQ connection established successfully");
+            log.info("📡 Broker URL: {}", BROKER_URL);
+            log.info("👤 Connected as: {}", BROKER_USERNAME);
             
         } catch (JMSException e) {
-            System.err.println("❌ Failed to initialize ActiveMQ: " + e.getMessage());
+            log.error("❌ Failed to initialize ActiveMQ: {}", e.getMessage());
             e.printStackTrace();
             initialized = false;
         }
@@ -75,58 +128,33 @@ public class MessageService {
     // Enhanced message sending with retry and error handling
     public boolean sendUserMessage(int userId, String userType, Message message) {
         if (!initialized) {
-            System.err.println("❌ MessageService not initialized");
+            log.error("❌ MessageService not initialized");
             return false;
         }
         
-        MessageProducer producer = null;
+        String queueName = Destinations.userQueue(userId, userType);
         try {
-            String queueName = "user." + userType.toLowerCase() + "." + userId;
-            
-            // Reuse producer if exists, create new one if not
-            producer = producers.get(queueName);
-            if (producer == null) {
-                Queue queue = session.createQueue(queueName);
-                producer = session.createProducer(queue);
+            synchronized (sendLock) {
+                ObjectMessage objectMessage = sendSession.createObjectMessage(message);
                 
-                // Configure producer for better reliability
-                producer.setDeliveryMode(DeliveryMode.PERSISTENT);
-                producer.setTimeToLive(7 * 24 * 60 * 60 * 1000); // 7 days TTL
-                producer.setPriority(4); // Medium priority
+                // Set message properties for better filtering
+                objectMessage.setStringProperty("MessageType", message.getMessageType());
+                objectMessage.setStringProperty("SenderType", message.getSenderType());
+                objectMessage.setIntProperty("SenderId", message.getSenderId());
+                // Routing properties: consumers of a partitioned queue select on these
+                objectMessage.setStringProperty(Destinations.RECEIVER_TYPE, Destinations.receiverType(userType));
+                objectMessage.setIntProperty(Destinations.RECEIVER_ID, userId);
+                objectMessage.setStringProperty("Subject", message.getSubject());
                 
-                producers.put(queueName, producer);
+                // Persistent, medium priority, 7 days TTL
+                producer.send(destination(queueName, false), objectMessage, DeliveryMode.PERSISTENT, 4, USER_MESSAGE_TTL_MS);
             }
             
-            ObjectMessage objectMessage = session.createObjectMessage(message);
-            
-            // Set message properties for better filtering
-            objectMessage.setStringProperty("MessageType", message.getMessageType());
-            objectMessage.setStringProperty("SenderType", message.getSenderType());
-            objectMessage.setIntProperty("SenderId", message.getSenderId());
-            objectMessage.setStringProperty("ReceiverType", message.getReceiverType());
-            objectMessage.setIntProperty("ReceiverId", message.getReceiverId());
-            objectMessage.setStringProperty("Subject", message.getSubject());
-            
-            producer.send(objectMessage);
-            
-            System.out.println("✅ Message sent to " + queueName + 
-                             " | Type: " + message.getMessageType() + 
-                             " | Subject: " + message.getSubject());
+            log.debug("✅ Message sent to {} | Type: {} | Subject: {}", queueName, message.getMessageType(), message.getSubject());
             return true;
             
         } catch (JMSException e) {
-            System.err.println("❌ Error sending message to user " + userId + ": " + e.getMessage());
-            
-            // Remove faulty producer from cache
-            if (producer != null) {
-                String queueName = "user." + userType.toLowerCase() + "." + userId;
-                producers.remove(queueName);
-                try {
-                    producer.close();
-                } catch (JMSException ex) {
-                    // Ignore close error
-                }
-            }
+            log.error("❌ Error sending message to user {}: {}", userId, e.getMessage());
             return false;
         }
     }
@@ -134,62 +162,61 @@ public class MessageService {
     // Enhanced broadcast with durable topics
     public boolean broadcastMessage(String userType, Message message) {
         if (!initialized) {
-            System.err.println("❌ MessageService not initialized");
+            log.error("❌ MessageService not initialized");
             return false;
         }
         
-        MessageProducer producer = null;
+        String topicName = Destinations.broadcastTopic(userType);
         try {
-            String topicName = "broadcast." + userType.toLowerCase();
-            Topic topic = session.createTopic(topicName);
-            producer = session.createProducer(topic);
-            
-            // Configure broadcast producer
-            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
-            producer.setTimeToLive(24 * 60 * 60 * 1000); // 24 hours TTL
-            
-            ObjectMessage objectMessage = session.createObjectMessage(message);
-            
-            // Set broadcast properties
-            objectMessage.setStringProperty("MessageType", "BROADCAST");
-            objectMessage.setStringProperty("BroadcastTarget", userType);
-            objectMessage.setBooleanProperty("IsBroadcast", true);
-            
-            producer.send(objectMessage);
-            producer.close();
+            synchronized (sendLock) {
+                ObjectMessage objectMessage = sendSession.createObjectMessage(message);
+                
+                // Set broadcast properties
+                objectMessage.setStringProperty("MessageType", "BROADCAST");
+                objectMessage.setStringProperty("BroadcastTarget", userType);
+                objectMessage.setBooleanProperty("IsBroadcast", true);
+                
+                // Persistent, default priority, 24 hours TTL
+                producer.send(destination(topicName, true), objectMessage, DeliveryMode.PERSISTENT, 4, BROADCAST_TTL_MS);
+            }
             
-            System.out.println("✅ Broadcast sent to " + topicName + 
-                             " | Target: " + userType + 
-                             " | Subject: " + message.getSubject());
+            log.debug("✅ Broadcast sent to {} | Target: {} | Subject: {}", topicName, userType, message.getSubject());
             return true;
             
         } catch (JMSException e) {
-            System.err.println("❌ Error broadcasting to " + userType + ": " + e.getMessage());
-            if (producer != null) {
-                try {
-                    producer.close();
-                } catch (JMSException ex) {
-                    // Ignore close error
-                }
-            }
+            log.error("❌ Error broadcasting to {}: {}", userType, e.getMessage());
             return false;
         }
     }
     
+    // Queue and topic names can coincide, so the kind is part of the key
+    private Destination destination(String name, boolean topic) throws JMSException {
+        String key = (topic ? "topic:" : "queue:") + name;
+        Destination destination = destinations.get(key);
+        if (destination == null) {
+            destination = topic ? sendSession.createTopic(name) : sendSession.createQueue(name);
+            Destination existing = destinations.putIfAbsent(key, destination);
+            if (existing != null) destination = existing;
+        }
+        return destination;
+    }
+    
     // Enhanced subscription with durable consumers
     public void subscribeToUserMessages(int userId, String userType, MessageListener listener) {
         if (!initialized) {
-            System.err.println("❌ MessageService not initialized");
+            log.error("❌ MessageService not initialized");
             return;
         }
         
         try {
-            String queueName = "user." + userType.toLowerCase() + "." + userId;
-            String consumerKey = queueName + "_" + userId;
+            String queueName = Destinations.userQueue(userId, userType);
+            String consumerKey = userConsumerKey(userId, userType);
             
             if (!consumers.containsKey(consumerKey)) {
                 Queue queue = session.createQueue(queueName);
-                MessageConsumer consumer = session.createConsumer(queue);
+                // In partitioned mode the queue is shared, so only take this user's messages
+                String selector = Destinations.receiverSelector(userId, userType);
+                MessageConsumer consumer = selector == null ? session.createConsumer(queue) : session.createConsumer(queue, selector);
                 consumers.put(consumerKey, consumer);
                 
                 // Use thread-safe list for listeners
@@ -203,31 +230,32 @@ public class MessageService {
                     }
                 });
                 
-                System.out.println("✅ Subscribed to messages for " + queueName);
+                log.debug("✅ Subscribed to messages for {} (selector: {})", queueName, selector);
             }
             
             // Add the listener
             listeners.get(consumerKey).add(listener);
             
         } catch (JMSException e) {
-            System.err.println("❌ Error subscribing to user messages: " + e.getMessage());
+            log.error("❌ Error subscribing to user messages: {}", e.getMessage());
         }
     }
     
 public void subscribeToBroadcast(String userType, MessageListener listener) {
     if (!initialized) {
-        System.err.println("❌ MessageService not initialized");
+        log.error("❌ MessageService not initialized");
         return;
     }
     
     try {
-        String topicName = "broadcast." + userType.toLowerCase();
+        String topicName = Destinations.broadcastTopic(userType);
         String consumerKey = "broadcast_" + userType;
         
         if (!consumers.containsKey(consumerKey)) {
             Topic topic = session.createTopic(topicName);
             
-            // 🚨 CHANGE THIS LINE: Use regular consumer instead of durable subscriber
+            // Not durable: broadcasts sent while offline are in the broadcasts table, and InboxSync
+            // catches up from there instead of the broker keeping a backlog for every user who ever logged in
             MessageConsumer consumer = session.createConsumer(topic);
             
             consumers.put(consumerKey, consumer);
@@ -240,13 +268,13 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
                 }
             });
             
-            System.out.println("✅ Subscribed to broadcasts for " + topicName);
+            log.debug("✅ Subscribed to broadcasts for {}", topicName);
         }
         
         listeners.get(consumerKey).add(listener);
         
     } catch (JMSException e) {
-        System.err.println("❌ Error subscribing to broadcast: " + e.getMessage());
+        log.error("❌ Error subscribing to broadcast: {}", e.getMessage());
     }
 }
     
@@ -255,6 +283,14 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
         if (jmsMessage instanceof ObjectMessage) {
             try {
                 Message message = (Message) ((ObjectMessage) jmsMessage).getObject();
+                // Message ids are positive and broadcasts negative; fan-out copies have none of their own,
+                // so their payload id stands in, shifted out of the int range to stay apart
+                long dedupKey = message.getMessageId() != 0 ? message.getMessageId()
+                    : jmsMessage.propertyExists(Destinations.PAYLOAD_ID) ? (1L << 32) + jmsMessage.getIntProperty(Destinations.PAYLOAD_ID) : 0;
+                if (dedupKey != 0 && !recentMessageIds.add(dedupKey)) {
+                    log.debug("🔁 Duplicate delivery of message {} dropped", dedupKey);
+                    return;
+                }
                 List<MessageListener> consumerListeners = listeners.get(consumerKey);
                 
                 if (consumerListeners != null && !consumerListeners.isEmpty()) {
@@ -262,28 +298,32 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
                         try {
                             listener.onMessageReceived(message);
                         } catch (Exception e) {
-                            System.err.println("❌ Error in message listener: " + e.getMessage());
+                            log.error("❌ Error in message listener: {}", e.getMessage());
                         }
                     }
                 }
                 
-                System.out.println("📨 Message processed: " + message.getSubject() + 
-                                 " | Type: " + message.getMessageType());
+                log.debug("📨 Message processed: {} | Type: {}", message.getSubject(), message.getMessageType());
                 
             } catch (JMSException e) {
-                System.err.println("❌ Error processing incoming message: " + e.getMessage());
+                log.error("❌ Error processing incoming message: {}", e.getMessage());
             }
         }
     }
     
+    // One consumer per user whatever the routing mode, since partitions are shared
+    private static String userConsumerKey(int userId, String userType) {
+        return "user." + userType.toLowerCase() + "." + userId + "_" + userId;
+    }
+    
     // Unsubscribe from messages
     public void unsubscribeFromUserMessages(int userId, String userType, MessageListener listener) {
-        String consumerKey = "user." + userType.toLowerCase() + "." + userId + "_" + userId;
+        String consumerKey = userConsumerKey(userId, userType);
         List<MessageListener> consumerListeners = listeners.get(consumerKey);
         
         if (consumerListeners != null) {
             consumerListeners.remove(listener);
-            System.out.println("✅ Unsubscribed listener from " + consumerKey);
+            log.debug("✅ Unsubscribed listener from {}", consumerKey);
             
             // Remove consumer if no listeners left
             if (consumerListeners.isEmpty()) {
@@ -292,7 +332,7 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
                     try {
                         consumer.close();
                     } catch (JMSException e) {
-                        System.err.println("Error closing consumer: " + e.getMessage());
+                        log.error("Error closing consumer: {}", e.getMessage());
                     }
                 }
                 listeners.remove(consumerKey);
@@ -304,7 +344,7 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
     public void printStatistics() {
         System.out.println("📊 MessageService Statistics:");
         System.out.println("   Active Consumers: " + consumers.size());
-        System.out.println("   Active Producers: " + producers.size());
+        System.out.println("   Cached Destinations: " + destinations.size());
         System.out.println("   Total Listeners: " + listeners.values().stream()
             .mapToInt(List::size)
             .sum());
@@ -314,22 +354,22 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
     // Close all resources properly
     public void close() {
         try {
-            // Close all producers
-            for (MessageProducer producer : producers.values()) {
+            // Close the shared producer
+            if (producer != null) {
                 try {
                     producer.close();
                 } catch (JMSException e) {
-                    System.err.println("Error closing producer: " + e.getMessage());
+                    log.error("Error closing producer: {}", e.getMessage());
                 }
             }
-            producers.clear();
+            destinations.clear();
             
             // Close all consumers
             for (MessageConsumer consumer : consumers.values()) {
                 try {
                     consumer.close();
                 } catch (JMSException e) {
-                    System.err.println("Error closing consumer: " + e.getMessage());
+                    log.error("Error closing consumer: {}", e.getMessage());
                 }
             }
             consumers.clear();
@@ -337,7 +377,10 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
             // Clear listeners
             listeners.clear();
             
-            // Close session and connection
+            // Close sessions and connection
+            if (sendSession != null) {
+                sendSession.close();
+            }
             if (session != null) {
                 session.close();
             }
@@ -346,10 +389,10 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
             }
             
             initialized = false;
-            System.out.println("✅ ActiveMQ connection closed successfully");
+            log.info("✅ ActiveMQ connection closed successfully");
             
         } catch (JMSException e) {
-            System.err.println("❌ Error closing MessageService: " + e.getMessage());
+            log.error("❌ Error closing MessageService: {}", e.getMessage());
         }
     }
     
@@ -357,6 +400,20 @@ public void subscribeToBroadcast(String userType, MessageListener listener) {
     public interface MessageListener {
         void onMessageReceived(Message message);
     }
+
+    // Told when the broker connection drops and when failover has restored it
+    public interface ConnectionListener {
+        void connectionInterrupted();
+        void connectionResumed();
+    }
+
+    public void addConnectionListener(ConnectionListener listener) {
+        connectionListeners.add(listener);
+    }
+
+    public void removeConnectionListener(ConnectionListener listener) {
+        connectionListeners.remove(listener);
+    }
     // Add this method to your MessageService class
 public void debugQueuesAndTopics() {
     try {
@@ -365,15 +422,15 @@ public void debugQueuesAndTopics() {
         System.out.println("Connection Status: " + (connection != null ? "Connected" : "Disconnected"));
         System.out.println("Session Status: " + (session != null ? "Active" : "Inactive"));
         System.out.println("Active Consumers: " + consumers.size());
-        System.out.println("Active Producers: " + producers.size());
+        System.out.println("Cached Destinations: " + destinations.size());
         
         // List all active queues/consumers
         consumers.forEach((key, consumer) -> {
             System.out.println("Consumer: " + key);
         });
         
-        producers.forEach((key, producer) -> {
-            System.out.println("Producer: " + key);
+        destinations.forEach((key, destination) -> {
+            System.out.println("Destination: " + key);
         });
         
     } catch (Exception e) {
@@ -0,0 +1,225 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of users, in the style of a Roaring bitmap (this file is
+ * kept identical in client/ and server/). Used for the read and deleted
+ * state of a broadcast, which is stored once however many users it reaches.
+ *
+ * A member is an int built by member(userId, userType), so a student and a
+ * teacher with the same id stay apart. Members are split on their high 16
+ * bits into containers; a container holds its low 16 bits as a sorted char
+ * array while it has at most 4096 of them (2 bytes each) and as a 65536-bit
+ * bitmap (8 KB) beyond that, whichever is smaller.
+ *
+ * Serialized form: container count, then per container its key and
+ * cardinality, then the containers' data in the same order. contains(byte[],
+ * int) answers from that form directly, so an inbox query does not have to
+ * build a bitmap per broadcast just to test one user.
+ */
+public final class UserBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+    private static final String[] USER_TYPES = {"STUDENT", "TEACHER", "ADMIN", "RESPONSABLE"};
+
+    private char[] keys = new char[4];
+    private Container[] containers = new Container[4];
+    private int size;
+
+    // Type in the top byte, id (below 2^24) in the rest
+    public static int member(int userId, String userType) {
+        int type = Arrays.asList(USER_TYPES).indexOf(userType.toUpperCase());
+        if (type < 0 || userId < 0 || userId >= 1 << 24) {
+            throw new IllegalArgumentException("No bitmap member for " + userType + " " + userId);
+        }
+        return type << 24 | userId;
+    }
+
+    public static int memberUserId(int member) {
+        return member & (1 << 24) - 1;
+    }
+
+    public static String memberUserType(int member) {
+        return USER_TYPES[member >>> 24];
+    }
+
+    public static UserBitmap fromBytes(byte[] bytes) {
+        UserBitmap bitmap = new UserBitmap();
+        if (bytes == null || bytes.length == 0) return bitmap;
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int count = in.getInt();
+        bitmap.keys = new char[Math.max(4, count)];
+        bitmap.containers = new Container[Math.max(4, count)];
+        for (int i = 0; i < count; i++) {
+            bitmap.keys[i] = in.getChar();
+            bitmap.containers[i] = new Container(in.getInt());
+        }
+        for (int i = 0; i < count; i++) {
+            Container c = bitmap.containers[i];
+            if (c.cardinality > ARRAY_MAX) {
+                c.bits = new long[BITMAP_WORDS];
+                in.asLongBuffer().get(c.bits);
+                in.position(in.position() + BITMAP_WORDS * 8);
+            } else {
+                c.array = new char[Math.max(4, c.cardinality)];
+                in.asCharBuffer().get(c.array, 0, c.cardinality);
+                in.position(in.position() + c.cardinality * 2);
+            }
+        }
+        bitmap.size = count;
+        return bitmap;
+    }
+
+    // Same answer as fromBytes(bytes).contains(member), without building the bitmap
+    public static boolean contains(byte[] bytes, int member) {
+        if (bytes == null || bytes.length == 0) return false;
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int count = in.getInt();
+        char key = (char) (member >>> 16);
+        int offset = 4 + count * 6;
+        for (int i = 0; i < count; i++) {
+            char k = in.getChar(4 + i * 6);
+            int cardinality = in.getInt(4 + i * 6 + 2);
+            boolean bitmap = cardinality > ARRAY_MAX;
+            if (k == key) {
+                char low = (char) member;
+                if (bitmap) {
+                    return (in.getLong(offset + (low >>> 6) * 8) & 1L << low) != 0;
+                }
+                int lo = 0, hi = cardinality - 1;
+                while (lo <= hi) {
+                    int mid = (lo + hi) >>> 1;
+                    char v = in.getChar(offset + mid * 2);
+                    if (v < low) lo = mid + 1;
+                    else if (v > low) hi = mid - 1;
+                    else return true;
+                }
+                return false;
+            }
+            if (k > key) return false;
+            offset += bitmap ? BITMAP_WORDS * 8 : cardinality * 2;
+        }
+        return false;
+    }
+
+    public boolean contains(int member) {
+        int i = Arrays.binarySearch(keys, 0, size, (char) (member >>> 16));
+        return i >= 0 && containers[i].contains((char) member);
+    }
+
+    // Returns false if the member was already there
+    public boolean add(int member) {
+        char key = (char) (member >>> 16);
+        int i = Arrays.binarySearch(keys, 0, size, key);
+        if (i < 0) {
+            i = -i - 1;
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                containers = Arrays.copyOf(containers, size * 2);
+            }
+            System.arraycopy(keys, i, keys, i + 1, size - i);
+            System.arraycopy(containers, i, containers, i + 1, size - i);
+            keys[i] = key;
+            containers[i] = new Container(0);
+            containers[i].array = new char[4];
+            size++;
+        }
+        return containers[i].add((char) member);
+    }
+
+    public int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            total += containers[i].cardinality;
+        }
+        return total;
+    }
+
+    // Members in ascending order
+    public void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            int high = keys[i] << 16;
+            Container c = containers[i];
+            if (c.bits != null) {
+                for (int w = 0; w < BITMAP_WORDS; w++) {
+                    for (long word = c.bits[w]; word != 0; word &= word - 1) {
+                        action.accept(high | w << 6 | Long.numberOfTrailingZeros(word));
+                    }
+                }
+            } else {
+                for (int j = 0; j < c.cardinality; j++) {
+                    action.accept(high | c.array[j]);
+                }
+            }
+        }
+    }
+
+    public byte[] toBytes() {
+        int length = 4 + size * 6;
+        for (int i = 0; i < size; i++) {
+            length += containers[i].bits != null ? BITMAP_WORDS * 8 : containers[i].cardinality * 2;
+        }
+        ByteBuffer out = ByteBuffer.allocate(length);
+        out.putInt(size);
+        for (int i = 0; i < size; i++) {
+            out.putChar(keys[i]);
+            out.putInt(containers[i].cardinality);
+        }
+        for (int i = 0; i < size; i++) {
+            Container c = containers[i];
+            if (c.bits != null) {
+                out.asLongBuffer().put(c.bits);
+                out.position(out.position() + BITMAP_WORDS * 8);
+            } else {
+                out.asCharBuffer().put(c.array, 0, c.cardinality);
+                out.position(out.position() + c.cardinality * 2);
+            }
+        }
+        return out.array();
+    }
+
+    /** Low 16 bits of the members sharing one key: a sorted array, or a bitmap once that is smaller. */
+    private static final class Container {
+        char[] array;
+        long[] bits;
+        int cardinality;
+
+        Container(int cardinality) {
+            this.cardinality = cardinality;
+        }
+
+        boolean contains(char low) {
+            if (bits != null) return (bits[low >>> 6] & 1L << low) != 0;
+            return Arrays.binarySearch(array, 0, cardinality, low) >= 0;
+        }
+
+        boolean add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | 1L << low;
+                if (before == bits[low >>> 6]) return false;
+                cardinality++;
+                return true;
+            }
+            int i = Arrays.binarySearch(array, 0, cardinality, low);
+            if (i >= 0) return false;
+            if (cardinality == ARRAY_MAX) {
+                bits = new long[BITMAP_WORDS];
+                for (int j = 0; j < cardinality; j++) {
+                    bits[array[j] >>> 6] |= 1L << array[j];
+                }
+                array = null;
+                bits[low >>> 6] |= 1L << low;
+                cardinality++;
+                return true;
+            }
+            i = -i - 1;
+            if (cardinality == array.length) array = Arrays.copyOf(array, Math.min(ARRAY_MAX, cardinality * 2));
+            System.arraycopy(array, i, array, i + 1, cardinality - i);
+            array[i] = low;
+            cardinality++;
+            return true;
+        }
+    }
+}
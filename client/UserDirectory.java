@@ -0,0 +1,203 @@
+import java.sql.*;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Display names of message senders, (userType, id) -> "First Last", held in
+ * memory so message listings no longer resolve every row's sender with a
+ * CASE over correlated subqueries.
+ *
+ * The directory is loaded in one pass (students, teachers, and the users
+ * table for RESPONSABLE and ADMIN, which have no table of their own) into
+ * an open-addressing map keyed by UserBitmap.member, so a lookup is a few
+ * int comparisons with no boxing. It is an immutable snapshot stamped with
+ * a version: invalidate() bumps the version after this client changes a
+ * user record, and the next lookup loads a fresh snapshot. Changes made by
+ * other clients are picked up once the snapshot is directory.maxAgeSec old
+ * (default 300). A sender missing from the snapshot (a user created since)
+ * is fetched on its own and remembered until the next reload.
+ */
+public class UserDirectory {
+    private static final Log log = Log.get("client.directory");
+    private static final long MAX_AGE_NANOS = Long.getLong("directory.maxAgeSec", 300) * 1_000_000_000L;
+    private static final String SYSTEM_NAME = "System";
+    // Remembered for ids that do not exist, so they are not queried on every lookup
+    private static final String NOT_FOUND = "";
+
+    private static final String STUDENTS_SQL = "SELECT student_id, CONCAT(first_name, ' ', last_name) FROM students";
+    private static final String TEACHERS_SQL = "SELECT teacher_id, CONCAT(first_name, ' ', last_name) FROM teachers";
+    private static final String STAFF_SQL =
+        "SELECT user_id, user_type, username FROM users WHERE user_type IN ('RESPONSABLE', 'ADMIN')";
+    private static final String STUDENT_SQL = STUDENTS_SQL + " WHERE student_id = ?";
+    private static final String TEACHER_SQL = TEACHERS_SQL + " WHERE teacher_id = ?";
+    private static final String STAFF_MEMBER_SQL = "SELECT username FROM users WHERE user_id = ? AND user_type = ?";
+
+    private final ClientService clientService;
+    private final AtomicLong version = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    public UserDirectory(ClientService clientService) {
+        this.clientService = clientService;
+    }
+
+    // Null if the user does not exist; "System" for system senders
+    public String displayName(int userId, String userType) {
+        if (userType == null || userId < 0 || "SYSTEM".equalsIgnoreCase(userType)) return SYSTEM_NAME;
+        int member;
+        try {
+            member = UserBitmap.member(userId, userType);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        Snapshot current = current();
+        if (current == null) return null;
+        String name = current.names.get(member);
+        if (name == null) {
+            name = current.misses.computeIfAbsent(member, m -> loadOne(userId, userType));
+        }
+        return name == NOT_FOUND ? null : name;
+    }
+
+    // Call after adding, renaming or deleting a user
+    public void invalidate() {
+        version.incrementAndGet();
+    }
+
+    public long getVersion() {
+        return version.get();
+    }
+
+    private Snapshot current() {
+        Snapshot current = snapshot;
+        if (current != null && current.version == version.get() && System.nanoTime() - current.loadedAt < MAX_AGE_NANOS) {
+            return current;
+        }
+        synchronized (this) {
+            current = snapshot;
+            long wanted = version.get();
+            if (current != null && current.version == wanted && System.nanoTime() - current.loadedAt < MAX_AGE_NANOS) {
+                return current;
+            }
+            try {
+                snapshot = load(wanted);
+                return snapshot;
+            } catch (SQLException e) {
+                // Keep serving the old names rather than none
+                log.error("❌ Error loading user directory: {}", e.getMessage());
+                return current;
+            }
+        }
+    }
+
+    private Snapshot load(long forVersion) throws SQLException {
+        long start = System.nanoTime();
+        IntStringMap names = new IntStringMap(1024);
+        try (Connection conn = clientService.getConnection();
+             Statement stmt = conn.createStatement()) {
+            try (ResultSet rs = stmt.executeQuery(STUDENTS_SQL)) {
+                while (rs.next()) put(names, rs.getInt(1), "STUDENT", rs.getString(2));
+            }
+            try (ResultSet rs = stmt.executeQuery(TEACHERS_SQL)) {
+                while (rs.next()) put(names, rs.getInt(1), "TEACHER", rs.getString(2));
+            }
+            try (ResultSet rs = stmt.executeQuery(STAFF_SQL)) {
+                while (rs.next()) put(names, rs.getInt(1), rs.getString(2), rs.getString(3));
+            }
+        }
+        log.debug("📇 User directory v{} loaded: {} names in {} ms", forVersion, names.size(),
+            (System.nanoTime() - start) / 1_000_000);
+        return new Snapshot(forVersion, System.nanoTime(), names);
+    }
+
+    // Ids beyond UserBitmap's range are left to loadOne
+    private static void put(IntStringMap names, int userId, String userType, String name) {
+        if (userId >= 0 && userId < 1 << 24) names.put(UserBitmap.member(userId, userType), name);
+    }
+
+    private String loadOne(int userId, String userType) {
+        String type = userType.toUpperCase();
+        String sql = "STUDENT".equals(type) ? STUDENT_SQL : "TEACHER".equals(type) ? TEACHER_SQL : STAFF_MEMBER_SQL;
+        try (Connection conn = clientService.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, userId);
+            if (sql == STAFF_MEMBER_SQL) stmt.setString(2, type);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(sql == STAFF_MEMBER_SQL ? 1 : 2) : NOT_FOUND;
+            }
+        } catch (SQLException e) {
+            log.error("❌ Error loading name of {} {}: {}", userType, userId, e.getMessage());
+            return NOT_FOUND;
+        }
+    }
+
+    private static final class Snapshot {
+        final long version;
+        final long loadedAt;
+        final IntStringMap names;
+        final ConcurrentHashMap<Integer, String> misses = new ConcurrentHashMap<>();
+
+        Snapshot(long version, long loadedAt, IntStringMap names) {
+            this.version = version;
+            this.loadedAt = loadedAt;
+            this.names = names;
+        }
+    }
+
+    /** Open-addressing int -> String map; keys are non-negative, so -1 marks a free slot. Not thread-safe while filling. */
+    static final class IntStringMap {
+        private int[] keys;
+        private String[] values;
+        private int size;
+
+        IntStringMap(int expected) {
+            int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+            keys = new int[capacity];
+            values = new String[capacity];
+            Arrays.fill(keys, -1);
+        }
+
+        String get(int key) {
+            int mask = keys.length - 1;
+            for (int i = mix(key) & mask; ; i = (i + 1) & mask) {
+                int k = keys[i];
+                if (k == key) return values[i];
+                if (k == -1) return null;
+            }
+        }
+
+        void put(int key, String value) {
+            if ((size + 1) * 2 > keys.length) grow();
+            int mask = keys.length - 1;
+            int i = mix(key) & mask;
+            while (keys[i] != -1 && keys[i] != key) {
+                i = (i + 1) & mask;
+            }
+            if (keys[i] == -1) size++;
+            keys[i] = key;
+            values[i] = value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            String[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new String[oldKeys.length * 2];
+            Arrays.fill(keys, -1);
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != -1) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        // Ids are dense and the type sits in the top bits, so spread them before masking
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
\ No newline at end of file
@@ -10,7 +10,12 @@ public class ResponsableController {
     private ClientService clientService;
      private List<MessageService.MessageListener> messageListeners;  // ADD THIS LINE
     public ResponsableController() {
-        this.clientService = new ClientService();
+        this(new ClientService());
+    }
+    
+    // With the logged-in ClientService, unread counts and read/delete go through the server
+    public ResponsableController(ClientService clientService) {
+        this.clientService = clientService;
       this.messageListeners = new ArrayList<>();  // ADD THIS LINE
     }
     
@@ -97,6 +102,7 @@ public class ResponsableController {
             int rowsAffected = stmt.executeUpdate();
             
             if (rowsAffected > 0) {
+                clientService.getUserDirectory().invalidate();
                 System.out.println("✅ Student deleted successfully!");
                 return true;
             } else {
@@ -781,51 +787,15 @@ public class ResponsableController {
     // MESSAGING METHODS - COMPLETE IMPLEMENTATION
     
 public boolean sendMessageToStudent(int responsableId, int studentId, String subject, String content) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        
-        try {
-            conn = clientService.getConnection();
-            
-            String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, subject, content, message_type, created_at) " +
-                        "VALUES (?, 'RESPONSABLE', ?, 'STUDENT', ?, ?, 'MESSAGE', NOW())";
-            
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, responsableId);
-            stmt.setInt(2, studentId);
-            stmt.setString(3, subject);
-            stmt.setString(4, content);
-            
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                // ✅ Send via MessageService for real-time delivery
-                MessageService messageService = MessageService.getInstance();
-                if (messageService != null && messageService.isInitialized()) {
-                    Message message = new Message(responsableId, "RESPONSABLE", studentId, "STUDENT", subject, content, "MESSAGE");
-                    boolean realTimeSent = messageService.sendUserMessage(studentId, "student", message);
-                    System.out.println("📤 Responsable message sent via MessageService: " + realTimeSent);
-                }
-                
-                System.out.println("✅ Message sent to student ID: " + studentId + " from responsable ID: " + responsableId);
-                return true;
-            } else {
-                System.err.println("❌ Failed to send message to student");
-                return false;
-            }
-            
-        } catch (SQLException e) {
-            System.err.println("❌ Error sending message to student: " + e.getMessage());
-            return false;
-        } finally {
-            try {
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
-        }
+    // Stored with an outbox row, so the server publishes it and counts it as unread
+    boolean sent = clientService.sendMessageFromUser(responsableId, "RESPONSABLE", studentId, "STUDENT", subject, content, "MESSAGE");
+    if (sent) {
+        System.out.println("✅ Message sent to student ID: " + studentId + " from responsable ID: " + responsableId);
+    } else {
+        System.err.println("❌ Failed to send message to student");
     }
+    return sent;
+}
     
     // Send message to all students in a program
     public boolean sendMessageToProgramStudents(int responsableId, int programId, String subject, String content) {
@@ -853,16 +823,7 @@ public boolean sendMessageToStudent(int responsableId, int studentId, String sub
     }
     
 public boolean sendMessageToStudents(int responsableId, List<Integer> studentIds, String subject, String content) {
-        boolean allSent = true;
-        
-        for (int studentId : studentIds) {
-            boolean sent = sendMessageToStudent(responsableId, studentId, subject, content);
-            if (!sent) {
-                allSent = false;
-            }
-        }
-        
-        return allSent;
+        return clientService.fanOut(responsableId, "RESPONSABLE", studentIds, "STUDENT", subject, content, "MESSAGE");
     }
     
     // Broadcast to user type
@@ -975,9 +936,10 @@ public void subscribeToResponsableMessages(int responsableId) {
         try {
             conn = clientService.getConnection();
             
-            String sql = "SELECT m.message_id, m.sender_id, m.sender_type, m.subject, m.content, " +
+            String sql = "SELECT m.message_id, m.sender_id, m.sender_type, m.subject, COALESCE(p.content, m.content) AS content, " +
                         "m.message_type, m.created_at, m.is_read " +
                         "FROM messages m " +
+                        "LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
                         "WHERE m.receiver_id = ? AND m.receiver_type = 'RESPONSABLE' " +
                         "ORDER BY m.created_at DESC";
             
@@ -999,6 +961,7 @@ public void subscribeToResponsableMessages(int responsableId) {
                 messages.add(message);
             }
             
+            clientService.mergeBroadcasts(messages, responsableId, "RESPONSABLE");
             System.out.println("✅ Retrieved " + messages.size() + " messages for responsable ID: " + responsableId);
             
         } catch (SQLException e) {
@@ -1017,159 +980,67 @@ public void subscribeToResponsableMessages(int responsableId) {
         return messages;
     }
     
-    // Mark message as read
-    public boolean markMessageAsRead(int messageId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        
+    // One page of inbox headers (no bodies), newest first; after is null for the first page
+    public InboxService.Page getInboxPage(int responsableId, InboxService.Cursor after) {
         try {
-            conn = clientService.getConnection();
-            
-            String sql = "UPDATE messages SET is_read = TRUE WHERE message_id = ?";
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, messageId);
-            
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                System.out.println("✅ Marked message ID: " + messageId + " as read");
-                return true;
-            } else {
-                System.err.println("❌ Failed to mark message as read");
-                return false;
-            }
-            
+            return clientService.getInboxService().getPage(responsableId, "RESPONSABLE", after, InboxService.DEFAULT_PAGE_SIZE);
         } catch (SQLException e) {
-            System.err.println("❌ Error marking message as read: " + e.getMessage());
-            return false;
-        } finally {
-            try {
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
+            System.err.println("❌ Error loading inbox page: " + e.getMessage());
+            return null;
         }
     }
     
-    // Delete message
-    public boolean deleteMessage(int messageId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        
+    // Body of one inbox message, loaded when it is opened
+    public String getMessageBody(int messageId, int responsableId) {
         try {
-            conn = clientService.getConnection();
-            
-            String sql = "DELETE FROM messages WHERE message_id = ?";
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, messageId);
-            
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                System.out.println("✅ Deleted message ID: " + messageId);
-                return true;
-            } else {
-                System.err.println("❌ Failed to delete message");
-                return false;
-            }
-            
+            return clientService.getInboxService().getBody(messageId, responsableId, "RESPONSABLE");
         } catch (SQLException e) {
-            System.err.println("❌ Error deleting message: " + e.getMessage());
-            return false;
-        } finally {
-            try {
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
+            System.err.println("❌ Error loading message body: " + e.getMessage());
+            return null;
         }
     }
     
+    // Live messages for this inbox, held back until what was missed while offline has been caught up
+    public InboxSync newInboxSync(int responsableId, MessageService.MessageListener live, InboxSync.CatchUp catchUp) {
+        return new InboxSync(clientService, responsableId, "RESPONSABLE", live, catchUp);
+    }
+    
+    // Mark message as read
+    public boolean markMessageAsRead(int messageId, int responsableId) {
+        if (clientService.markMessageAsRead(messageId, responsableId, "RESPONSABLE")) {
+            System.out.println("✅ Marked message ID: " + messageId + " as read");
+            return true;
+        }
+        System.err.println("❌ Failed to mark message as read");
+        return false;
+    }
+    
+    // Delete message
+    public boolean deleteMessage(int messageId, int responsableId) {
+        if (clientService.deleteMessage(messageId, responsableId, "RESPONSABLE")) {
+            System.out.println("✅ Deleted message ID: " + messageId);
+            return true;
+        }
+        System.err.println("❌ Failed to delete message");
+        return false;
+    }
+    
     // Get unread message count
     public int getUnreadMessageCount(int responsableId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        
-        try {
-            conn = clientService.getConnection();
-            
-            String sql = "SELECT COUNT(*) as unread_count FROM messages " +
-                        "WHERE receiver_id = ? AND receiver_type = 'RESPONSABLE' AND is_read = FALSE";
-            
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, responsableId);
-            rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                int count = rs.getInt("unread_count");
-                System.out.println("✅ Unread message count: " + count);
-                return count;
-            }
-            
-            return 0;
-            
-        } catch (SQLException e) {
-            System.err.println("❌ Error getting unread message count: " + e.getMessage());
-            return 0;
-        } finally {
-            try {
-                if (rs != null) rs.close();
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
-        }
+        int count = clientService.getUnreadMessageCount(responsableId, "RESPONSABLE");
+        System.out.println("✅ Unread message count: " + count);
+        return count;
     }
 public boolean sendMessageToTeacher(int responsableId, int teacherId, String subject, String content) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        
-        try {
-            conn = clientService.getConnection();
-            
-            String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, subject, content, message_type, created_at) " +
-                        "VALUES (?, 'RESPONSABLE', ?, 'TEACHER', ?, ?, 'MESSAGE', NOW())";
-            
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, responsableId);
-            stmt.setInt(2, teacherId);
-            stmt.setString(3, subject);
-            stmt.setString(4, content);
-            
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                // ✅ Send via MessageService for real-time delivery
-                MessageService messageService = MessageService.getInstance();
-                if (messageService != null && messageService.isInitialized()) {
-                    Message message = new Message(responsableId, "RESPONSABLE", teacherId, "TEACHER", subject, content, "MESSAGE");
-                    boolean realTimeSent = messageService.sendUserMessage(teacherId, "teacher", message);
-                    System.out.println("📤 Responsable message sent to teacher via MessageService: " + realTimeSent);
-                }
-                
-                System.out.println("✅ Message sent to teacher ID: " + teacherId + " from responsable ID: " + responsableId);
-                return true;
-            } else {
-                System.err.println("❌ Failed to send message to teacher");
-                return false;
-            }
-            
-        } catch (SQLException e) {
-            System.err.println("❌ Error sending message to teacher: " + e.getMessage());
-            return false;
-        } finally {
-            try {
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
-        }
+    // Stored with an outbox row, so the server publishes it and counts it as unread
+    boolean sent = clientService.sendMessageFromUser(responsableId, "RESPONSABLE", teacherId, "TEACHER", subject, content, "MESSAGE");
+    if (sent) {
+        System.out.println("✅ Message sent to teacher ID: " + teacherId + " from responsable ID: " + responsableId);
+    } else {
+        System.err.println("❌ Failed to send message to teacher");
     }
+    return sent;
+}
     public List<Map<String, String>> getMessageHistory(int responsableId) {
         Connection conn = null;
         PreparedStatement stmt = null;
@@ -1179,15 +1050,10 @@ public boolean sendMessageToTeacher(int responsableId, int teacherId, String sub
         try {
             conn = clientService.getConnection();
             
-            String sql = "SELECT m.message_id, m.sender_id, m.sender_type, m.subject, m.content, " +
-                        "m.message_type, m.created_at, m.is_read, " +
-                        "CASE " +
-                        "   WHEN m.sender_type = 'STUDENT' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM students WHERE student_id = m.sender_id) " +
-                        "   WHEN m.sender_type = 'TEACHER' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM teachers WHERE teacher_id = m.sender_id) " +
-                        "   WHEN m.sender_type = 'ADMIN' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM admins WHERE admin_id = m.sender_id) " +
-                        "   ELSE 'System' " +
-                        "END as sender_name " +
+            String sql = "SELECT m.message_id, m.sender_id, m.sender_type, m.subject, COALESCE(p.content, m.content) AS content, " +
+                        "m.message_type, m.created_at, m.is_read " +
                         "FROM messages m " +
+                        "LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
                         "WHERE m.receiver_id = ? AND m.receiver_type = 'RESPONSABLE' " +
                         "ORDER BY m.created_at DESC";
             
@@ -1195,12 +1061,14 @@ public boolean sendMessageToTeacher(int responsableId, int teacherId, String sub
             stmt.setInt(1, responsableId);
             rs = stmt.executeQuery();
             
+            // Sender names from the in-memory directory instead of a subquery per row
+            UserDirectory directory = clientService.getUserDirectory();
             while (rs.next()) {
                 Map<String, String> message = new HashMap<>();
                 message.put("messageId", String.valueOf(rs.getInt("message_id")));
                 message.put("senderId", String.valueOf(rs.getInt("sender_id")));
                 message.put("senderType", rs.getString("sender_type"));
-                message.put("senderName", rs.getString("sender_name"));
+                message.put("senderName", directory.displayName(rs.getInt("sender_id"), rs.getString("sender_type")));
                 message.put("subject", rs.getString("subject"));
                 message.put("content", rs.getString("content"));
                 message.put("messageType", rs.getString("message_type"));
@@ -1210,6 +1078,7 @@ public boolean sendMessageToTeacher(int responsableId, int teacherId, String sub
                 messages.add(message);
             }
             
+            clientService.mergeBroadcasts(messages, responsableId, "RESPONSABLE");
             System.out.println("✅ Retrieved " + messages.size() + " messages for responsable ID: " + responsableId);
             
         } catch (SQLException e) {
@@ -1324,50 +1193,14 @@ public boolean sendMessageToTeacher(int responsableId, int teacherId, String sub
         return students;
     }
     public boolean sendMessageToAdmin(int responsableId, int adminId, String subject, String content) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        
-        try {
-            conn = clientService.getConnection();
-            
-            String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, subject, content, message_type, created_at) " +
-                        "VALUES (?, 'RESPONSABLE', ?, 'ADMIN', ?, ?, 'MESSAGE', NOW())";
-            
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, responsableId);
-            stmt.setInt(2, adminId);
-            stmt.setString(3, subject);
-            stmt.setString(4, content);
-            
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                // ✅ Send via MessageService for real-time delivery
-                MessageService messageService = MessageService.getInstance();
-                if (messageService != null && messageService.isInitialized()) {
-                    Message message = new Message(responsableId, "RESPONSABLE", adminId, "ADMIN", subject, content, "MESSAGE");
-                    boolean realTimeSent = messageService.sendUserMessage(adminId, "admin", message);
-                    System.out.println("📤 Responsable message sent to admin via MessageService: " + realTimeSent);
-                }
-                
-                System.out.println("✅ Message sent to admin ID: " + adminId + " from responsable ID: " + responsableId);
-                return true;
-            } else {
-                System.err.println("❌ Failed to send message to admin");
-                return false;
-            }
-            
-        } catch (SQLException e) {
-            System.err.println("❌ Error sending message to admin: " + e.getMessage());
-            return false;
-        } finally {
-            try {
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
+        // Stored with an outbox row, so the server publishes it and counts it as unread
+        boolean sent = clientService.sendMessageFromUser(responsableId, "RESPONSABLE", adminId, "ADMIN", subject, content, "MESSAGE");
+        if (sent) {
+            System.out.println("✅ Message sent to admin ID: " + adminId + " from responsable ID: " + responsableId);
+        } else {
+            System.err.println("❌ Failed to send message to admin");
         }
+        return sent;
     }
     public boolean sendMessageToClass(int responsableId, int programId, String subject, String content) {
         // Get all students in the program
@@ -9,7 +9,12 @@ public class StudentController {
     private ClientService clientService;
     private List<MessageService.MessageListener> messageListeners;
     public StudentController() {
-       this.clientService = new ClientService();
+       this(new ClientService());
+    }
+    
+    // With the logged-in ClientService, unread counts and read/delete go through the server
+    public StudentController(ClientService clientService) {
+        this.clientService = clientService;
         this.messageListeners = new ArrayList<>();
     }
     
@@ -304,146 +309,38 @@ public class StudentController {
     
     // Send message to teacher
 public boolean sendMessageToTeacher(int studentId, int teacherId, String subject, String content) {
-    Connection conn = null;
-    PreparedStatement stmt = null;
-    
-    try {
-        conn = clientService.getConnection();
-        
-        String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, subject, content, message_type, created_at) " +
-                    "VALUES (?, 'STUDENT', ?, 'TEACHER', ?, ?, 'MESSAGE', NOW())";
-        
-        stmt = conn.prepareStatement(sql);
-        stmt.setInt(1, studentId);
-        stmt.setInt(2, teacherId);
-        stmt.setString(3, subject);
-        stmt.setString(4, content);
-        
-        int rowsAffected = stmt.executeUpdate();
-        
-        if (rowsAffected > 0) {
-            // ✅ ADD THIS: Send via MessageService for real-time delivery
-            MessageService messageService = MessageService.getInstance();
-            if (messageService != null && messageService.isInitialized()) {
-                Message message = new Message(studentId, "STUDENT", teacherId, "TEACHER", subject, content, "MESSAGE");
-                boolean realTimeSent = messageService.sendUserMessage(teacherId, "teacher", message);
-                System.out.println("📤 Student message sent via MessageService: " + realTimeSent);
-            }
-            
-            System.out.println("✅ Message sent to teacher ID: " + teacherId + " from student ID: " + studentId);
-            return true;
-        } else {
-            System.err.println("❌ Failed to send message to teacher");
-            return false;
-        }
-        
-    } catch (SQLException e) {
-        System.err.println("❌ Error sending message to teacher: " + e.getMessage());
-        return false;
-    } finally {
-        try {
-            if (stmt != null) stmt.close();
-            if (conn != null) conn.close();
-        } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
-        }
-    }
+    // Stored with an outbox row, so the server publishes it and counts it as unread
+    boolean sent = clientService.sendMessageFromUser(studentId, "STUDENT", teacherId, "TEACHER", subject, content, "MESSAGE");
+    if (sent) {
+        System.out.println("✅ Message sent to teacher ID: " + teacherId + " from student ID: " + studentId);
+    } else {
+        System.err.println("❌ Failed to send message to teacher");
+    }
+    return sent;
 }
     
     // Send message to responsable
 public boolean sendMessageToResponsable(int studentId, int responsableId, String subject, String content) {
-    Connection conn = null;
-    PreparedStatement stmt = null;
-    
-    try {
-        conn = clientService.getConnection();
-        
-        String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, subject, content, message_type, created_at) " +
-                    "VALUES (?, 'STUDENT', ?, 'RESPONSABLE', ?, ?, 'MESSAGE', NOW())";
-        
-        stmt = conn.prepareStatement(sql);
-        stmt.setInt(1, studentId);
-        stmt.setInt(2, responsableId);
-        stmt.setString(3, subject);
-        stmt.setString(4, content);
-        
-        int rowsAffected = stmt.executeUpdate();
-        
-        if (rowsAffected > 0) {
-            // ✅ ADD THIS: Send via MessageService for real-time delivery
-            MessageService messageService = MessageService.getInstance();
-            if (messageService != null && messageService.isInitialized()) {
-                Message message = new Message(studentId, "STUDENT", responsableId, "RESPONSABLE", subject, content, "MESSAGE");
-                boolean realTimeSent = messageService.sendUserMessage(responsableId, "responsable", message);
-                System.out.println("📤 Student message sent to responsable via MessageService: " + realTimeSent);
-            }
-            
-            System.out.println("✅ Message sent to responsable ID: " + responsableId + " from student ID: " + studentId);
-            return true;
-        } else {
-            System.err.println("❌ Failed to send message to responsable");
-            return false;
-        }
-        
-    } catch (SQLException e) {
-        System.err.println("❌ Error sending message to responsable: " + e.getMessage());
-        return false;
-    } finally {
-        try {
-            if (stmt != null) stmt.close();
-            if (conn != null) conn.close();
-        } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
-        }
-    }
+    // Stored with an outbox row, so the server publishes it and counts it as unread
+    boolean sent = clientService.sendMessageFromUser(studentId, "STUDENT", responsableId, "RESPONSABLE", subject, content, "MESSAGE");
+    if (sent) {
+        System.out.println("✅ Message sent to responsable ID: " + responsableId + " from student ID: " + studentId);
+    } else {
+        System.err.println("❌ Failed to send message to responsable");
+    }
+    return sent;
 }
     
     // Send message to admin
 public boolean sendMessageToAdmin(int studentId, int adminId, String subject, String content) {
-    Connection conn = null;
-    PreparedStatement stmt = null;
-    
-    try {
-        conn = clientService.getConnection();
-        
-        String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, subject, content, message_type, created_at) " +
-                    "VALUES (?, 'STUDENT', ?, 'ADMIN', ?, ?, 'MESSAGE', NOW())";
-        
-        stmt = conn.prepareStatement(sql);
-        stmt.setInt(1, studentId);
-        stmt.setInt(2, adminId);
-        stmt.setString(3, subject);
-        stmt.setString(4, content);
-        
-        int rowsAffected = stmt.executeUpdate();
-        
-        if (rowsAffected > 0) {
-            // ✅ ADD THIS: Send via MessageService for real-time delivery
-            MessageService messageService = MessageService.getInstance();
-            if (messageService != null && messageService.isInitialized()) {
-                Message message = new Message(studentId, "STUDENT", adminId, "ADMIN", subject, content, "MESSAGE");
-                boolean realTimeSent = messageService.sendUserMessage(adminId, "admin", message);
-                System.out.println("📤 Student message sent to admin via MessageService: " + realTimeSent);
-            }
-            
-            System.out.println("✅ Message sent to admin ID: " + adminId + " from student ID: " + studentId);
-            return true;
-        } else {
-            System.err.println("❌ Failed to send message to admin");
-            return false;
-        }
-        
-    } catch (SQLException e) {
-        System.err.println("❌ Error sending message to admin: " + e.getMessage());
-        return false;
-    } finally {
-        try {
-            if (stmt != null) stmt.close();
-            if (conn != null) conn.close();
-        } catch (SQLException e) {
-            System.err.println("Error closing database connection: " + e.getMessage());
-        }
-    }
+    // Stored with an outbox row, so the server publishes it and counts it as unread
+    boolean sent = clientService.sendMessageFromUser(studentId, "STUDENT", adminId, "ADMIN", subject, content, "MESSAGE");
+    if (sent) {
+        System.out.println("✅ Message sent to admin ID: " + adminId + " from student ID: " + studentId);
+    } else {
+        System.err.println("❌ Failed to send message to admin");
+    }
+    return sent;
 }
     
     // COMPLETELY FIXED subscription method - only takes studentId
@@ -499,15 +396,10 @@ public boolean sendMessageToAdmin(int studentId, int adminId, String subject, St
         try {
             conn = clientService.getConnection();
             
-            String sql = "SELECT m.message_id, m.sender_id, m.sender_type, m.subject, m.content, " +
-                        "m.message_type, m.created_at, m.is_read, " +
-                        "CASE " +
-                        "   WHEN m.sender_type = 'TEACHER' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM teachers WHERE teacher_id = m.sender_id) " +
-                        "   WHEN m.sender_type = 'RESPONSABLE' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM responsables WHERE responsable_id = m.sender_id) " +
-                        "   WHEN m.sender_type = 'ADMIN' THEN (SELECT CONCAT(first_name, ' ', last_name) FROM admins WHERE admin_id = m.sender_id) " +
-                        "   ELSE 'System' " +
-                        "END as sender_name " +
+            String sql = "SELECT m.message_id, m.sender_id, m.sender_type, m.subject, COALESCE(p.content, m.content) AS content, " +
+                        "m.message_type, m.created_at, m.is_read " +
                         "FROM messages m " +
+                        "LEFT JOIN message_payloads p ON p.payload_id = m.payload_id " +
                         "WHERE m.receiver_id = ? AND m.receiver_type = 'STUDENT' " +
                         "ORDER BY m.created_at DESC";
             
@@ -515,12 +407,14 @@ public boolean sendMessageToAdmin(int studentId, int adminId, String subject, St
             stmt.setInt(1, studentId);
             rs = stmt.executeQuery();
             
+            // Sender names from the in-memory directory instead of a subquery per row
+            UserDirectory directory = clientService.getUserDirectory();
             while (rs.next()) {
                 Map<String, String> message = new HashMap<>();
                 message.put("messageId", String.valueOf(rs.getInt("message_id")));
                 message.put("senderId", String.valueOf(rs.getInt("sender_id")));
                 message.put("senderType", rs.getString("sender_type"));
-                message.put("senderName", rs.getString("sender_name"));
+                message.put("senderName", directory.displayName(rs.getInt("sender_id"), rs.getString("sender_type")));
                 message.put("subject", rs.getString("subject"));
                 message.put("content", rs.getString("content"));
                 message.put("messageType", rs.getString("message_type"));
@@ -530,6 +424,7 @@ public boolean sendMessageToAdmin(int studentId, int adminId, String subject, St
                 messages.add(message);
             }
             
+            clientService.mergeBroadcasts(messages, studentId, "STUDENT");
             System.out.println("✅ Retrieved " + messages.size() + " messages for student ID: " + studentId);
             
         } catch (SQLException e) {
@@ -550,110 +445,54 @@ public boolean sendMessageToAdmin(int studentId, int adminId, String subject, St
     
     // Get unread messages count
     public int getUnreadMessageCount(int studentId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        ResultSet rs = null;
-        
+        int count = clientService.getUnreadMessageCount(studentId, "STUDENT");
+        System.out.println("✅ Unread message count for student: " + count);
+        return count;
+    }
+    
+    // One page of inbox headers (no bodies), newest first; after is null for the first page
+    public InboxService.Page getInboxPage(int studentId, InboxService.Cursor after) {
         try {
-            conn = clientService.getConnection();
-            
-            String sql = "SELECT COUNT(*) as unread_count FROM messages " +
-                        "WHERE receiver_id = ? AND receiver_type = 'STUDENT' AND is_read = FALSE";
-            
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, studentId);
-            rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                int count = rs.getInt("unread_count");
-                System.out.println("✅ Unread message count for student: " + count);
-                return count;
-            }
-            
-            return 0;
-            
+            return clientService.getInboxService().getPage(studentId, "STUDENT", after, InboxService.DEFAULT_PAGE_SIZE);
         } catch (SQLException e) {
-            System.err.println("❌ Error getting unread message count: " + e.getMessage());
-            return 0;
-        } finally {
-            try {
-                if (rs != null) rs.close();
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
+            System.err.println("❌ Error loading inbox page: " + e.getMessage());
+            return null;
         }
     }
     
-    // Mark message as read
-    public boolean markMessageAsRead(int messageId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        
+    // Body of one inbox message, loaded when it is opened
+    public String getMessageBody(int messageId, int studentId) {
         try {
-            conn = clientService.getConnection();
-            
-            String sql = "UPDATE messages SET is_read = TRUE WHERE message_id = ?";
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, messageId);
-            
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                System.out.println("✅ Marked message ID: " + messageId + " as read");
-                return true;
-            } else {
-                System.err.println("❌ Failed to mark message as read");
-                return false;
-            }
-            
+            return clientService.getInboxService().getBody(messageId, studentId, "STUDENT");
         } catch (SQLException e) {
-            System.err.println("❌ Error marking message as read: " + e.getMessage());
-            return false;
-        } finally {
-            try {
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
+            System.err.println("❌ Error loading message body: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    // Live messages for this inbox, held back until what was missed while offline has been caught up
+    public InboxSync newInboxSync(int studentId, MessageService.MessageListener live, InboxSync.CatchUp catchUp) {
+        return new InboxSync(clientService, studentId, "STUDENT", live, catchUp);
+    }
+    
+    // Mark message as read
+    public boolean markMessageAsRead(int messageId, int studentId) {
+        if (clientService.markMessageAsRead(messageId, studentId, "STUDENT")) {
+            System.out.println("✅ Marked message ID: " + messageId + " as read");
+            return true;
         }
+        System.err.println("❌ Failed to mark message as read");
+        return false;
     }
     
     // Delete message
-    public boolean deleteMessage(int messageId) {
-        Connection conn = null;
-        PreparedStatement stmt = null;
-        
-        try {
-            conn = clientService.getConnection();
-            
-            String sql = "DELETE FROM messages WHERE message_id = ?";
-            stmt = conn.prepareStatement(sql);
-            stmt.setInt(1, messageId);
-            
-            int rowsAffected = stmt.executeUpdate();
-            
-            if (rowsAffected > 0) {
-                System.out.println("✅ Deleted message ID: " + messageId);
-                return true;
-            } else {
-                System.err.println("❌ Failed to delete message");
-                return false;
-            }
-            
-        } catch (SQLException e) {
-            System.err.println("❌ Error deleting message: " + e.getMessage());
-            return false;
-        } finally {
-            try {
-                if (stmt != null) stmt.close();
-                if (conn != null) conn.close();
-            } catch (SQLException e) {
-                System.err.println("Error closing database connection: " + e.getMessage());
-            }
+    public boolean deleteMessage(int messageId, int studentId) {
+        if (clientService.deleteMessage(messageId, studentId, "STUDENT")) {
+            System.out.println("✅ Deleted message ID: " + messageId);
+            return true;
         }
+        System.err.println("❌ Failed to delete message");
+        return false;
     }
     
     // Get teachers for messaging (to populate dropdown)
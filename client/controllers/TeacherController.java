@@ -2,6 +2,9 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 
 public class TeacherController {
     private ClientService clientService;
@@ -102,6 +105,19 @@ public class TeacherController {
         }
     }
     
+    // Bulk variant of addGrade for a whole exam: one server round trip instead of one per student
+    public Map<Integer, Boolean> addGrades(int examId, Map<Integer, Double> scoresByStudent) {
+        try {
+            Map<Integer, Boolean> results = clientService.addGrades(examId, scoresByStudent);
+            long saved = results.values().stream().filter(Boolean::booleanValue).count();
+            System.out.println("Saved " + saved + "/" + results.size() + " grades for exam ID " + examId);
+            return results;
+        } catch (Exception e) {
+            System.err.println("Error adding grades: " + e.getMessage());
+            return new HashMap<>();
+        }
+    }
+    
     // FIXED: Now actually calls the service to update grade
     public boolean updateGrade(int gradeId, double newScore) {
         try {
@@ -253,11 +269,22 @@ public class TeacherController {
     }
     
     // Bulk Operations
+    // One "student_id,score" line per student; lines that don't parse (header, blanks) are skipped
     public boolean importGradesFromFile(int examId, String filePath) {
         try {
-            // Implementation for bulk grade import
             System.out.println("Importing grades for exam ID " + examId + " from: " + filePath);
-            return true;
+            Map<Integer, Double> scores = new LinkedHashMap<>();
+            for (String line : Files.readAllLines(Paths.get(filePath))) {
+                String[] fields = line.split("[,;]");
+                if (fields.length < 2) continue;
+                try {
+                    scores.put(Integer.parseInt(fields[0].trim()), Double.parseDouble(fields[1].trim()));
+                } catch (NumberFormatException e) {
+                    // header or malformed line
+                }
+            }
+            Map<Integer, Boolean> results = addGrades(examId, scores);
+            return !results.isEmpty() && !results.containsValue(false);
         } catch (Exception e) {
             System.err.println("Error importing grades: " + e.getMessage());
             return false;
@@ -314,16 +341,12 @@ public boolean sendMessageToClass(int teacherId, int subjectId, String subject,
 // Grade notifications
 public boolean notifyStudentsAboutGrade(int subjectId, String examName) {
     List<Map<String, String>> students = clientService.getStudentsBySubjectForTeacher(-1, subjectId);
-    boolean allSent = true;
+    List<Integer> studentIds = new ArrayList<>();
     for (Map<String, String> student : students) {
-        int studentId = Integer.parseInt(student.get("studentId"));
-        boolean sent = clientService.sendNotification(studentId, "STUDENT", 
-            "Grade Published", 
-            String.format("Your grade for %s has been published", examName), 
-            "GRADE");
-        if (!sent) allSent = false;
+        studentIds.add(Integer.parseInt(student.get("studentId")));
     }
-    return allSent;
+    return clientService.fanOut(-1, "SYSTEM", studentIds, "STUDENT", "Grade Published",
+        String.format("Your grade for %s has been published", examName), "NOTIFICATION");
 }
 
 // Subscribe to teacher messages
@@ -2,6 +2,8 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 
 public class Message implements Serializable {
+    // Fixed so client and server copies (which differ in fields) deserialize each other over JMS
+    private static final long serialVersionUID = 1L;
     private int messageId;
     private int senderId;
     private String senderType;
@@ -13,6 +15,8 @@ public class Message implements Serializable {
     private String priority;
     private boolean isRead;
     private LocalDateTime createdAt;
+    // Resolved on the client from UserDirectory; not sent by the server
+    private String senderName;
 
     public Message() {}
 
@@ -64,6 +68,9 @@ public class Message implements Serializable {
     public LocalDateTime getCreatedAt() { return createdAt; }
     public void setCreatedAt(LocalDateTime createdAt) { this.createdAt = createdAt; }
 
+    public String getSenderName() { return senderName; }
+    public void setSenderName(String senderName) { this.senderName = senderName; }
+
     @Override
     public String toString() {
         return "Message{id=" + messageId + ", from=" + senderType + " " + senderId + 
@@ -0,0 +1,218 @@
+import javax.swing.*;
+import javax.swing.table.DefaultTableModel;
+import java.awt.*;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Message list for the dashboards: a table of headers that loads the next
+ * page when the user scrolls near its end, and a preview that loads the
+ * body of the selected message (marking it read) only when it is opened.
+ * Pages and bodies are fetched off the event thread.
+ */
+public class InboxPanel extends JPanel {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+    // Rows left below the viewport when the next page is requested
+    private static final int PREFETCH_ROWS = 10;
+
+    /** Where the panel gets its data; called on a background thread. */
+    public interface Source {
+        // Null on failure
+        InboxService.Page loadPage(InboxService.Cursor after);
+        // Null on failure
+        String loadBody(int messageId);
+        boolean markRead(int messageId);
+    }
+
+    private final Source source;
+    private final DefaultTableModel model;
+    private final JTable table;
+    private final JTextArea preview;
+    private final List<Message> rows = new ArrayList<>();
+    private final Set<Integer> shown = new HashSet<>();
+    private String typeFilter;
+    private InboxService.Cursor next;
+    private boolean hasMore = true;
+    private boolean loading;
+    // Bumped by reload() so pages requested before it are dropped
+    private int generation;
+
+    public InboxPanel(Source source) {
+        super(new BorderLayout());
+        this.source = source;
+
+        model = new DefaultTableModel(new String[]{"", "From", "Subject", "Type", "Date"}, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        table = new JTable(model);
+        table.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        table.getColumnModel().getColumn(0).setMaxWidth(30);
+        table.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) openSelected();
+        });
+        JScrollPane tableScroll = new JScrollPane(table);
+        tableScroll.getVerticalScrollBar().addAdjustmentListener(e -> {
+            JScrollBar bar = (JScrollBar) e.getAdjustable();
+            int rowsBelow = (bar.getMaximum() - bar.getValue() - bar.getVisibleAmount()) / Math.max(1, table.getRowHeight());
+            if (rowsBelow < PREFETCH_ROWS) loadNextPage();
+        });
+
+        preview = new JTextArea();
+        preview.setEditable(false);
+        preview.setLineWrap(true);
+        preview.setWrapStyleWord(true);
+        preview.setFont(new Font("Consolas", Font.PLAIN, 12));
+
+        JSplitPane split = new JSplitPane(JSplitPane.VERTICAL_SPLIT, tableScroll, new JScrollPane(preview));
+        split.setResizeWeight(0.6);
+        add(split, BorderLayout.CENTER);
+    }
+
+    // Drops what is shown and starts again from the newest message
+    public void reload() {
+        generation++;
+        rows.clear();
+        shown.clear();
+        model.setRowCount(0);
+        preview.setText("");
+        next = null;
+        hasMore = true;
+        loading = false;
+        loadNextPage();
+    }
+
+    // Shows only one message type (null for all); the pages already loaded are filtered, later ones as they come
+    public void setTypeFilter(String messageType) {
+        typeFilter = messageType;
+        model.setRowCount(0);
+        for (Message message : rows) {
+            if (matches(message)) model.addRow(row(message));
+        }
+        loadNextPage();
+    }
+
+    // A message delivered live goes on top; one already listed is not added twice
+    public void addNewest(Message message) {
+        if (message.getMessageId() != 0 && !shown.add(message.getMessageId())) return;
+        rows.add(0, message);
+        if (matches(message)) model.insertRow(0, row(message));
+    }
+
+    private void loadNextPage() {
+        if (loading || !hasMore) return;
+        loading = true;
+        int requested = generation;
+        InboxService.Cursor after = next;
+        new SwingWorker<InboxService.Page, Void>() {
+            @Override
+            protected InboxService.Page doInBackground() {
+                return source.loadPage(after);
+            }
+
+            @Override
+            protected void done() {
+                if (requested != generation) return;
+                loading = false;
+                InboxService.Page page;
+                try {
+                    page = get();
+                } catch (Exception e) {
+                    page = null;
+                }
+                if (page == null) {
+                    // Retried on the next scroll or reload
+                    return;
+                }
+                for (Message message : page.getHeaders()) {
+                    if (!shown.add(message.getMessageId())) continue;
+                    rows.add(message);
+                    if (matches(message)) model.addRow(row(message));
+                }
+                next = page.getNext();
+                hasMore = page.hasMore();
+                // A short first page may not fill the viewport, so no scroll event would ask for more
+                if (hasMore && table.getRowCount() * table.getRowHeight() < table.getVisibleRect().height + PREFETCH_ROWS * table.getRowHeight()) {
+                    loadNextPage();
+                }
+            }
+        }.execute();
+    }
+
+    private void openSelected() {
+        int viewRow = table.getSelectedRow();
+        if (viewRow < 0) return;
+        Message message = visibleMessage(viewRow);
+        String loaded = message.getContent();
+        preview.setText(loaded != null ? loaded : "Loading...");
+        if (loaded != null && message.isRead()) return;
+        new SwingWorker<String, Void>() {
+            @Override
+            protected String doInBackground() {
+                // Live messages arrive with their body; listed ones only have a header
+                String body = loaded != null ? loaded : source.loadBody(message.getMessageId());
+                if (body != null && !message.isRead() && source.markRead(message.getMessageId())) {
+                    message.setRead(true);
+                }
+                return body;
+            }
+
+            @Override
+            protected void done() {
+                String body;
+                try {
+                    body = get();
+                } catch (Exception e) {
+                    body = null;
+                }
+                if (body == null) {
+                    preview.setText("Could not load this message.");
+                    return;
+                }
+                message.setContent(body);
+                if (visibleMessage(table.getSelectedRow()) == message) preview.setText(body);
+                int index = indexOf(message);
+                if (index >= 0) model.setValueAt(message.isRead() ? "" : "●", index, 0);
+            }
+        }.execute();
+    }
+
+    // The message shown in a given table row, taking the type filter into account
+    private Message visibleMessage(int viewRow) {
+        if (viewRow < 0) return null;
+        int seen = 0;
+        for (Message message : rows) {
+            if (!matches(message)) continue;
+            if (seen++ == viewRow) return message;
+        }
+        return null;
+    }
+
+    private int indexOf(Message message) {
+        int index = 0;
+        for (Message m : rows) {
+            if (m == message) return matches(m) ? index : -1;
+            if (matches(m)) index++;
+        }
+        return -1;
+    }
+
+    private boolean matches(Message message) {
+        return typeFilter == null || typeFilter.equalsIgnoreCase(message.getMessageType());
+    }
+
+    private static Object[] row(Message message) {
+        return new Object[]{
+            message.isRead() ? "" : "●",
+            message.getSenderName() != null ? message.getSenderName() : message.getSenderType() + " " + message.getSenderId(),
+            message.getSubject(),
+            message.getMessageType(),
+            message.getCreatedAt() != null ? message.getCreatedAt().format(DATE_FORMAT) : ""
+        };
+    }
+}
\ No newline at end of file
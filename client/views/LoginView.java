@@ -169,7 +169,7 @@ private void navigateToDashboard(Map<String, String> userInfo) {
         case "STUDENT":
             // DEBUG: Check what we're passing to StudentView
             System.out.println("🔍 [LOGINVIEW] Creating StudentView with studentId: " + userInfo.get("studentId"));
-            StudentView studentView = new StudentView(new StudentController(), userInfo);
+            StudentView studentView = new StudentView(new StudentController(clientService), userInfo);
             studentView.setVisible(true);
             this.dispose();
             break;
@@ -186,7 +186,7 @@ private void navigateToDashboard(Map<String, String> userInfo) {
                 if (userInfo.get("responsableId") == null) {
                     userInfo.put("responsableId", "3001");
                 }
-                ResponsableController responsableController = new ResponsableController();
+                ResponsableController responsableController = new ResponsableController(clientService);
                 new ResponsableView(responsableController, userInfo).setVisible(true);
                 break;
                 
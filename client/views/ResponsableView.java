@@ -20,7 +20,8 @@ public class ResponsableView extends JFrame {
     private JButton addStudentButton, registerStudentButton, refreshButton;
     // ADD THESE MESSAGING FIELDS:
 private List<Message> receivedMessages;
-private JTextArea messageArea;
+private InboxPanel inboxPanel;
+private InboxSync inboxSync;
     public ResponsableView(ResponsableController responsableController, Map<String, String> userInfo) {
         this.responsableController = responsableController;
         this.userInfo = userInfo;
@@ -1134,12 +1135,25 @@ private JPanel createMessagingTab() {
     JPanel panel = new JPanel(new BorderLayout());
     panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
     
-    // Message display area
-    JTextArea messageArea = new JTextArea();
-    messageArea.setEditable(false);
-    messageArea.setFont(new Font("Consolas", Font.PLAIN, 12));
-    JScrollPane messageScroll = new JScrollPane(messageArea);
-    messageScroll.setBorder(BorderFactory.createTitledBorder("📨 Received Messages"));
+    // Inbox, a page of headers at a time; bodies load when a message is opened
+    int responsableId = Integer.parseInt(userInfo.get("userId"));
+    inboxPanel = new InboxPanel(new InboxPanel.Source() {
+        @Override
+        public InboxService.Page loadPage(InboxService.Cursor after) {
+            return responsableController.getInboxPage(responsableId, after);
+        }
+        
+        @Override
+        public String loadBody(int messageId) {
+            return responsableController.getMessageBody(messageId, responsableId);
+        }
+        
+        @Override
+        public boolean markRead(int messageId) {
+            return responsableController.markMessageAsRead(messageId, responsableId);
+        }
+    });
+    inboxPanel.setBorder(BorderFactory.createTitledBorder("📨 Received Messages"));
     
     // Control panel
     JPanel controlPanel = new JPanel(new GridLayout(2, 1, 10, 10));
@@ -1151,28 +1165,29 @@ private JPanel createMessagingTab() {
     quickActionPanel.add(sendMessageButton);
     
     JButton clearMessagesButton = createStyledButton("🗑️ Clear Messages", Color.WHITE, new Color(255, 152, 0));
-    clearMessagesButton.addActionListener(e -> clearMessages(messageArea));
+    clearMessagesButton.addActionListener(e -> clearMessages());
     quickActionPanel.add(clearMessagesButton);
     
     JButton refreshMessagesButton = createStyledButton("🔄 Refresh Messages", Color.WHITE, new Color(76, 175, 80));
-    refreshMessagesButton.addActionListener(e -> refreshMessages(messageArea));
+    refreshMessagesButton.addActionListener(e -> refreshMessages());
     quickActionPanel.add(refreshMessagesButton);
     
     // Message type filter
     JPanel filterPanel = new JPanel(new FlowLayout());
     filterPanel.add(new JLabel("Filter:"));
     JComboBox<String> filterCombo = new JComboBox<>(new String[]{"All", "Announcements", "Alerts", "Notifications"});
-    filterCombo.addActionListener(e -> filterMessages((String)filterCombo.getSelectedItem(), messageArea));
+    filterCombo.addActionListener(e -> filterMessages((String)filterCombo.getSelectedItem()));
     filterPanel.add(filterCombo);
     
     controlPanel.add(quickActionPanel);
     controlPanel.add(filterPanel);
     
     panel.add(controlPanel, BorderLayout.NORTH);
-    panel.add(messageScroll, BorderLayout.CENTER);
+    panel.add(inboxPanel, BorderLayout.CENTER);
     
     // Initialize messaging
-    initializeMessaging(messageArea);
+    initializeMessaging();
+    inboxPanel.reload();
     
     return panel;
 }
@@ -1189,7 +1204,7 @@ private JButton createStyledButton(String text, Color foreground, Color backgrou
 
 
 
-private void initializeMessaging(JTextArea messageArea) {
+private void initializeMessaging() {
     receivedMessages = new ArrayList<>();
     
     // Subscribe to responsable messages
@@ -1198,30 +1213,32 @@ private void initializeMessaging(JTextArea messageArea) {
         public void onMessageReceived(Message message) {
             SwingUtilities.invokeLater(() -> {
                 receivedMessages.add(message);
-                displayMessage(message, messageArea);
+                displayMessage(message);
                 showMessageNotification(message);
             });
         }
     };
     
     int responsableId = Integer.parseInt(userInfo.get("userId"));
-    responsableController.subscribeToResponsableMessages(listener, responsableId);
-    
-    // Also subscribe to broadcasts for responsables
-    responsableController.subscribeToBroadcast("RESPONSABLE", listener);
+    // Live messages wait until the inbox has caught up with what arrived while offline
+    inboxSync = responsableController.newInboxSync(responsableId, listener, new InboxSync.CatchUp() {
+        @Override
+        public void missed(List<Message> messages) {
+            SwingUtilities.invokeLater(() -> messages.forEach(inboxPanel::addNewest));
+        }
+
+        @Override
+        public void reload() {
+            SwingUtilities.invokeLater(() -> inboxPanel.reload());
+        }
+    });
+    // Broadcasts included; the controller subscribes to both
+    responsableController.subscribeToResponsableMessages(inboxSync, responsableId);
+    inboxSync.start();
 }
 
-private void displayMessage(Message message, JTextArea messageArea) {
-    String messageText = String.format(
-        "[%s] %s: %s\n%s\n\n",
-        message.getCreatedAt().toString(),
-        message.getSenderType(),
-        message.getSubject(),
-        message.getContent()
-    );
-    
-    messageArea.append(messageText);
-    messageArea.setCaretPosition(messageArea.getDocument().getLength());
+private void displayMessage(Message message) {
+    inboxPanel.addNewest(message);
 }
 
 private void showMessageNotification(Message message) {
@@ -1231,26 +1248,18 @@ private void showMessageNotification(Message message) {
         JOptionPane.INFORMATION_MESSAGE);
 }
 
-private void clearMessages(JTextArea messageArea) {
+private void clearMessages() {
     receivedMessages.clear();
-    messageArea.setText("");
+    inboxPanel.reload();
 }
 
-private void refreshMessages(JTextArea messageArea) {
-    // Could reload messages from database if needed
-    JOptionPane.showMessageDialog(this,
-        "Messages refreshed!",
-        "Refresh",
-        JOptionPane.INFORMATION_MESSAGE);
+private void refreshMessages() {
+    inboxPanel.reload();
 }
 
-private void filterMessages(String filter, JTextArea messageArea) {
-    messageArea.setText("");
-    for (Message message : receivedMessages) {
-        if (filter.equals("All") || message.getMessageType().equalsIgnoreCase(filter)) {
-            displayMessage(message, messageArea);
-        }
-    }
+private void filterMessages(String filter) {
+    // "Announcements" shows messages of type ANNOUNCEMENT, and so on
+    inboxPanel.setTypeFilter(filter.equals("All") ? null : filter.substring(0, filter.length() - 1));
 }
 private void showSendMessageDialog() {
     JDialog dialog = new JDialog(this, "Send Message to Students", true);
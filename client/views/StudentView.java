@@ -23,7 +23,8 @@ private JLabel transcriptAverageLabel;
 private JLabel transcriptStatusLabel;
 private JLabel transcriptRankLabel;
 private JLabel transcriptCreditsLabel;
-private JTextArea messageArea;
+private InboxPanel inboxPanel;
+private InboxSync inboxSync;
 private JButton sendMessageButton;
 public StudentView(StudentController studentController, Map<String, String> userInfo) {
     this.studentController = studentController;
@@ -37,20 +38,11 @@ public StudentView(StudentController studentController, Map<String, String> user
     loadStudentData();
     
     // CORRECT WAY: Add message listener first, then subscribe
-    studentController.addMessageListener(new MessageService.MessageListener() {
-        @Override
-        public void onMessageReceived(Message message) {
-            // Add to received messages list
-            receivedMessages.add(message);
-            // Refresh the UI
-            refreshMessageDisplay();
-            // Show notification
-            showMessageNotification(message);
-        }
-    });
+    studentController.addMessageListener(inboxSync);
     
     // THEN subscribe to messages with just the student ID
     studentController.subscribeToStudentMessages(currentStudentId);
+    inboxSync.start();
 }
     
     private void initializeUI() {
@@ -842,12 +834,25 @@ private JPanel createMessagingTab() {
     JPanel panel = new JPanel(new BorderLayout());
     panel.setBorder(BorderFactory.createEmptyBorder(15, 15, 15, 15));
     
-    // Message display area
-    messageArea = new JTextArea();
-    messageArea.setEditable(false);
-    messageArea.setFont(new Font("Consolas", Font.PLAIN, 12));
-    JScrollPane messageScroll = new JScrollPane(messageArea);
-    messageScroll.setBorder(BorderFactory.createTitledBorder("📨 Received Messages"));
+    // Inbox, a page of headers at a time; bodies load when a message is opened
+    int studentId = Integer.parseInt(userInfo.get("studentId"));
+    inboxPanel = new InboxPanel(new InboxPanel.Source() {
+        @Override
+        public InboxService.Page loadPage(InboxService.Cursor after) {
+            return studentController.getInboxPage(studentId, after);
+        }
+        
+        @Override
+        public String loadBody(int messageId) {
+            return studentController.getMessageBody(messageId, studentId);
+        }
+        
+        @Override
+        public boolean markRead(int messageId) {
+            return studentController.markMessageAsRead(messageId, studentId);
+        }
+    });
+    inboxPanel.setBorder(BorderFactory.createTitledBorder("📨 Received Messages"));
     
     // Control panel
     JPanel controlPanel = new JPanel(new GridLayout(2, 1, 10, 10));
@@ -869,10 +874,11 @@ private JPanel createMessagingTab() {
     controlPanel.add(quickActionPanel);
     
     panel.add(controlPanel, BorderLayout.NORTH);
-    panel.add(messageScroll, BorderLayout.CENTER);
+    panel.add(inboxPanel, BorderLayout.CENTER);
     
     // Initialize messaging
     initializeMessaging();
+    inboxPanel.reload();
     
     return panel;
 }
@@ -901,20 +907,22 @@ private void initializeMessaging() {
         }
     };
     
+    // Subscribed by the constructor; live messages wait there until the inbox has caught up
     int studentId = Integer.parseInt(userInfo.get("studentId"));
-    studentController.subscribeToStudentMessages(studentId);
+    inboxSync = studentController.newInboxSync(studentId, listener, new InboxSync.CatchUp() {
+        @Override
+        public void missed(List<Message> messages) {
+            SwingUtilities.invokeLater(() -> messages.forEach(inboxPanel::addNewest));
+        }
+
+        @Override
+        public void reload() {
+            SwingUtilities.invokeLater(() -> inboxPanel.reload());
+        }
+    });
 }
 private void displayMessage(Message message) {
-    String messageText = String.format(
-        "[%s] %s: %s\n%s\n\n",
-        message.getCreatedAt().toString(),
-        message.getSenderType(),
-        message.getSubject(),
-        message.getContent()
-    );
-    
-    messageArea.append(messageText);
-    messageArea.setCaretPosition(messageArea.getDocument().getLength());
+    inboxPanel.addNewest(message);
 }
 private void showMessageNotification(Message message) {
     // Show system tray notification
@@ -925,14 +933,10 @@ private void showMessageNotification(Message message) {
 }
 private void clearMessages() {
     receivedMessages.clear();
-    messageArea.setText("");
+    inboxPanel.reload();
 }
 private void refreshMessages() {
-    // Could reload messages from database if needed
-    JOptionPane.showMessageDialog(this,
-        "Messages refreshed!",
-        "Refresh",
-        JOptionPane.INFORMATION_MESSAGE);
+    inboxPanel.reload();
 }
 private void showSendMessageDialog() {
     JDialog dialog = new JDialog(this, "Send Message to Teacher", true);
@@ -1067,16 +1071,10 @@ private void sendMessageToTeacher(JComboBox<String> teacherCombo, JTextField sub
 
 private void refreshMessageDisplay() {
     // Update your message UI components here
-    if (messageArea != null) {
-        StringBuilder sb = new StringBuilder();
-        for (Message msg : receivedMessages) {
-            sb.append("From: ").append(msg.getSenderType())
-              .append(" ").append(msg.getSenderId())
-              .append("\nSubject: ").append(msg.getSubject())
-              .append("\n").append(msg.getContent())
-              .append("\n---\n");
-        }
-        messageArea.setText(sb.toString());
+    // Called from the JMS thread; the inbox skips a message it already lists
+    if (inboxPanel != null && !receivedMessages.isEmpty()) {
+        Message latest = receivedMessages.get(receivedMessages.size() - 1);
+        SwingUtilities.invokeLater(() -> inboxPanel.addNewest(latest));
     }
 }
 
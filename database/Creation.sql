@@ -61,6 +61,37 @@ CREATE TABLE student_programs (
 );
 
 
+-- Body of a message sent to many recipients at once (see FanOutService); each
+-- recipient still gets a messages row, pointing here through payload_id
+CREATE TABLE message_payloads (
+    payload_id INT PRIMARY KEY AUTO_INCREMENT,
+    sender_id INT NOT NULL,
+    sender_type ENUM('STUDENT', 'TEACHER', 'ADMIN', 'RESPONSABLE', 'SYSTEM') NOT NULL,
+    recipient_type ENUM('STUDENT', 'TEACHER', 'ADMIN', 'RESPONSABLE') NOT NULL,
+    subject VARCHAR(255) NOT NULL,
+    content TEXT NOT NULL,
+    message_type ENUM('ANNOUNCEMENT', 'ALERT', 'NOTIFICATION', 'MESSAGE', 'BROADCAST') NOT NULL,
+    recipient_count INT NOT NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+-- A broadcast is stored once for everyone it targets; who has read or deleted
+-- it is kept in two compressed bitmaps (see UserBitmap)
+CREATE TABLE broadcasts (
+    broadcast_id INT PRIMARY KEY AUTO_INCREMENT,
+    sender_id INT NOT NULL,
+    sender_type ENUM('STUDENT', 'TEACHER', 'ADMIN', 'RESPONSABLE', 'SYSTEM') NOT NULL,
+    target_type ENUM('STUDENT', 'TEACHER', 'ADMIN', 'RESPONSABLE', 'ALL') NOT NULL,
+    subject VARCHAR(255) NOT NULL,
+    content TEXT NOT NULL,
+    message_type ENUM('ANNOUNCEMENT', 'ALERT', 'NOTIFICATION', 'MESSAGE', 'BROADCAST') NOT NULL,
+    priority ENUM('LOW', 'MEDIUM', 'HIGH', 'URGENT') DEFAULT 'MEDIUM',
+    read_bitmap MEDIUMBLOB NULL,
+    deleted_bitmap MEDIUMBLOB NULL,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    INDEX idx_target (target_type, created_at)
+);
+
 -- Messages table for persistent storage
 CREATE TABLE messages (
     message_id INT PRIMARY KEY AUTO_INCREMENT,
@@ -77,9 +108,13 @@ CREATE TABLE messages (
     expires_at TIMESTAMP NULL,
     related_entity_type ENUM('GRADE', 'EXAM', 'PROGRAM', 'REGISTRATION', 'NONE') DEFAULT 'NONE',
     related_entity_id INT NULL,
-    INDEX idx_receiver (receiver_id, receiver_type),
+    payload_id INT NULL,
+    -- Covers the inbox header queries (InboxService): seek by receiver, then (created_at, message_id)
+    INDEX idx_inbox (receiver_id, receiver_type, created_at, message_id, sender_id, sender_type, is_read,
+                     message_type, priority, subject),
     INDEX idx_sender (sender_id),
-    INDEX idx_created (created_at)
+    INDEX idx_created (created_at),
+    INDEX idx_payload (payload_id)
 );
 
 -- Notifications table for UI notifications
@@ -98,6 +133,26 @@ CREATE TABLE notifications (
     INDEX idx_user (user_id),
     INDEX idx_active (is_active, created_at)
 );
+
+-- Outbox: one row per stored message, notification, fan-out or broadcast still to be published to
+-- ActiveMQ, written in the same transaction as that row (see OutboxRelay)
+CREATE TABLE message_outbox (
+    outbox_id BIGINT PRIMARY KEY AUTO_INCREMENT,
+    kind ENUM('MESSAGE', 'NOTIFICATION', 'FANOUT', 'BROADCAST') NOT NULL,
+    message_id INT NOT NULL,
+    destination VARCHAR(100) NOT NULL,
+    is_topic BOOLEAN NOT NULL DEFAULT FALSE,
+    attempts INT NOT NULL DEFAULT 0,
+    created_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    -- First claimed by the relay, i.e. counted in UnreadCounters
+    claimed_at TIMESTAMP NULL,
+    -- Not published again before this: the lease of a claimed row, or the backoff after a failure
+    next_attempt_at TIMESTAMP(3) NULL,
+    sent_at TIMESTAMP NULL,
+    INDEX idx_pending (sent_at, outbox_id),
+    -- MARK_MESSAGE_READ and DELETE_MESSAGE lock a message's row to see whether it was counted yet
+    INDEX idx_message (kind, message_id)
+);
 -- =============================================
 -- Table: teachers
 -- =============================================
@@ -181,6 +236,30 @@ CREATE TABLE grades (
     UNIQUE KEY unique_student_exam (student_id, exam_id)
 );
 
+-- Materialized results: each student's overall average and final grade per subject,
+-- rewritten in every transaction that writes the student's grades (see StudentResults)
+CREATE TABLE student_results (
+    student_id INT PRIMARY KEY,
+    overall_average DECIMAL(6,2) NOT NULL DEFAULT 0,
+    subject_count INT NOT NULL DEFAULT 0,
+    exam_count INT NOT NULL DEFAULT 0,
+    exams_passed INT NOT NULL DEFAULT 0,
+    -- Bumped by every write, so GradeIndex keeps the newest copy
+    version BIGINT NOT NULL DEFAULT 0,
+    computed_at TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    -- GradeIndex polls the rows rewritten lately
+    INDEX idx_computed (computed_at),
+    FOREIGN KEY (student_id) REFERENCES students(student_id) ON DELETE CASCADE
+);
+
+CREATE TABLE student_subject_results (
+    student_id INT NOT NULL,
+    subject_id INT NOT NULL,
+    final_grade DECIMAL(6,2) NOT NULL,
+    PRIMARY KEY (student_id, subject_id),
+    FOREIGN KEY (student_id) REFERENCES students(student_id) ON DELETE CASCADE
+);
+
 -- =============================================
 -- Table: academic_years
 -- =============================================
@@ -703,17 +782,24 @@ DELIMITER ;
 DELIMITER //
 CREATE PROCEDURE UpdateStudentStatus(IN student_id_param INT)
 BEGIN
-    DECLARE avg_grade DECIMAL(4,2);
+    DECLARE avg_grade DECIMAL(6,2);
     
-    -- Calculate overall average
-    SELECT AVG(score) INTO avg_grade
-    FROM grades
-    WHERE student_id = student_id_param;
+    -- The year's average, as CohortDeliberation takes it: the mean of the subject finals kept in
+    -- student_subject_results, over the subjects of the programs of this year's registrations (0 without grades)
+    SELECT COALESCE(ROUND(AVG(ssr.final_grade), 2), 0) INTO avg_grade
+    FROM student_subject_results ssr
+    JOIN subjects s ON s.subject_id = ssr.subject_id
+    WHERE ssr.student_id = student_id_param
+    AND s.program_id IN (
+        SELECT r.program_id FROM registrations r
+        WHERE r.student_id = student_id_param
+        AND r.year_id = (SELECT year_id FROM academic_years WHERE is_current = 1)
+    );
     
-    -- Update final status based on average
+    -- Update final status based on average (StudentResults.status)
     IF avg_grade >= 10 THEN
         UPDATE students SET final_status = 'ADMIS' WHERE student_id = student_id_param;
-    ELSEIF avg_grade >= 7 THEN
+    ELSEIF avg_grade >= 8 THEN
         UPDATE students SET final_status = 'REDOUBLANT' WHERE student_id = student_id_param;
     ELSE
         UPDATE students SET final_status = 'EXCLU' WHERE student_id = student_id_param;
@@ -739,6 +825,9 @@ BEGIN
         NEW.student_id,
         NEW.email
     );
+    
+    -- The row grade writers lock (see StudentResults.lock)
+    INSERT INTO student_results (student_id) VALUES (NEW.student_id);
 END //
 DELIMITER ;
 
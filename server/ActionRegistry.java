@@ -0,0 +1,95 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Maps action names to their handlers and keeps per-action statistics:
+ * a latency histogram, call and error counts, and bytes in/out.
+ *
+ * ClientHandler registers the built-in actions; anything else can be
+ * plugged in with register() before the server starts taking requests.
+ * All counters are lock-free, so reading them (the STATS action) never
+ * stalls the threads that are recording.
+ */
+public class ActionRegistry {
+
+    @FunctionalInterface
+    public interface Action {
+        void handle(ClientHandler handler, WireProtocol.Reader input, WireProtocol.Writer output) throws Exception;
+    }
+
+    public static final class Entry {
+        private final String name;
+        private final Action action;
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder calls = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+
+        private Entry(String name, Action action) {
+            this.name = name;
+            this.action = action;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Action getAction() {
+            return action;
+        }
+
+        public void recordCall(long nanos, boolean failed) {
+            latency.record(nanos);
+            calls.increment();
+            if (failed) errors.increment();
+        }
+
+        public void recordBytes(int in, int out) {
+            bytesIn.add(in);
+            bytesOut.add(out);
+        }
+
+        Map<String, String> snapshot() {
+            Map<String, String> row = new LinkedHashMap<>();
+            row.put("action", name);
+            row.put("count", String.valueOf(calls.sum()));
+            row.put("errors", String.valueOf(errors.sum()));
+            row.put("p50Ms", millis(latency.getPercentileNanos(0.50)));
+            row.put("p95Ms", millis(latency.getPercentileNanos(0.95)));
+            row.put("p99Ms", millis(latency.getPercentileNanos(0.99)));
+            row.put("maxMs", millis(latency.getMaxNanos()));
+            row.put("bytesIn", String.valueOf(bytesIn.sum()));
+            row.put("bytesOut", String.valueOf(bytesOut.sum()));
+            return row;
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    public ActionRegistry register(String name, Action action) {
+        entries.put(name, new Entry(name, action));
+        return this;
+    }
+
+    // null when no handler is registered for the action
+    public Entry get(String name) {
+        return entries.get(name);
+    }
+
+    // One row per action that has been called at least once, sorted by name
+    public List<Map<String, String>> snapshot() {
+        List<Map<String, String>> rows = new ArrayList<>();
+        for (Entry entry : new TreeMap<>(entries).values()) {
+            if (entry.calls.sum() > 0) {
+                rows.add(entry.snapshot());
+            }
+        }
+        return rows;
+    }
+}
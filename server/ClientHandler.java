@@ -0,0 +1,1070 @@
+import java.io.*;
+import java.net.*;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+class ClientHandler implements Runnable {
+    private static final Log log = Log.get("server.handler");
+    // Requests a pipelining (v2) client may have running at once on one connection
+    static final int PIPELINE_DEPTH = Integer.getInteger("server.pipelineDepth", 16);
+    private static final int BATCH_MAX_ITEMS = Integer.getInteger("server.batchMaxItems", 1000);
+    
+    // Shared by ADD_GRADE and BATCH; VALUES(score) keeps it rewritable into one multi-row insert
+    private static final String UPSERT_GRADE_SQL =
+        "INSERT INTO grades (student_id, exam_id, score, grade_date) VALUES (?, ?, ?, NOW()) " +
+        "ON DUPLICATE KEY UPDATE score = VALUES(score), grade_date = NOW()";
+    private static final String GRADE_SAVED = "SUCCESS: تم إضافة/تعديل الدرجة";
+    private static final String GRADE_FAILED = "ERROR: فشل في إضافة الدرجة";
+    
+    // Written in the same transaction as the message row; OutboxRelay publishes it to ActiveMQ
+    private static final String INSERT_OUTBOX_SQL =
+        "INSERT INTO message_outbox (kind, message_id, destination, is_topic) VALUES (?, ?, ?, ?)";
+    // Targets of a broadcast to "ALL"; each has its own topic
+    private static final String[] USER_TYPES = {"STUDENT", "TEACHER", "ADMIN", "RESPONSABLE"};
+    private static final String SELECT_MESSAGE_PAYLOAD_SQL = "SELECT payload_id FROM messages WHERE message_id = ?";
+    private static final String LOCK_OUTBOX_ROW_SQL =
+        "SELECT outbox_id, claimed_at, sent_at FROM message_outbox WHERE kind = ? AND message_id = ? FOR UPDATE";
+    private static final String SELECT_MESSAGE_STATE_SQL =
+        "SELECT is_read FROM messages WHERE message_id = ? AND receiver_id = ? AND receiver_type = ? FOR UPDATE";
+    private static final String MARK_MESSAGE_READ_SQL = "UPDATE messages SET is_read = TRUE WHERE message_id = ?";
+    private static final String DELETE_MESSAGE_SQL = "DELETE FROM messages WHERE message_id = ?";
+    private static final String SELECT_BROADCAST_STATE_SQL =
+        "SELECT read_bitmap, deleted_bitmap FROM broadcasts WHERE broadcast_id = ? AND target_type IN (?, 'ALL') FOR UPDATE";
+    private static final String UPDATE_BROADCAST_READ_SQL = "UPDATE broadcasts SET read_bitmap = ? WHERE broadcast_id = ?";
+    private static final String UPDATE_BROADCAST_DELETED_SQL = "UPDATE broadcasts SET deleted_bitmap = ? WHERE broadcast_id = ?";
+    
+    // Action name -> handler, with per-action latency, error and byte counters
+    private static final ActionRegistry ACTIONS = new ActionRegistry()
+        .register("LOGIN", ClientHandler::handleLogin)
+        .register("GET_STUDENT_INFO", ClientHandler::handleGetStudentInfo)
+        .register("GET_STUDENT_GRADES", ClientHandler::handleGetStudentGrades)
+        .register("GET_OVERALL_AVERAGE", ClientHandler::handleGetOverallAverage)
+        .register("GET_FINAL_STATUS", ClientHandler::handleGetFinalStatus)
+        .register("CREATE_EXAM", ClientHandler::handleCreateExam)
+        .register("ADD_GRADE", ClientHandler::handleAddGrade)
+        .register("CALCULATE_SUBJECT_AVERAGE", ClientHandler::handleCalculateSubjectAverage)
+        .register("ADD_STUDENT", ClientHandler::handleAddStudent)
+        .register("ADD_PROGRAM", ClientHandler::handleAddProgram)
+        .register("SEND_MESSAGE", ClientHandler::handleSendMessage)
+        .register("SEND_NOTIFICATION", ClientHandler::handleSendNotification)
+        .register("BROADCAST_MESSAGE", ClientHandler::handleBroadcastMessage)
+        .register("BATCH", ClientHandler::handleBatch)
+        .register("STATS", ClientHandler::handleStats)
+        .register("GET_UNREAD_COUNT", ClientHandler::handleGetUnreadCount)
+        .register("MARK_MESSAGE_READ", ClientHandler::handleMarkMessageRead)
+        .register("DELETE_MESSAGE", ClientHandler::handleDeleteMessage);
+    
+    static ActionRegistry actions() {
+        return ACTIONS;
+    }
+    
+    // Borrowed from the pool on first use within an action, returned when it ends.
+    // Per thread, because pipelined requests of one connection run side by side.
+    private static final ThreadLocal<ConnectionPool.PooledConnection> pooled = new ThreadLocal<>();
+    // In-memory updates (unread counters) that must wait for the action's commit
+    private static final ThreadLocal<List<Runnable>> afterCommit = ThreadLocal.withInitial(ArrayList::new);
+    
+    private Socket clientSocket;
+    private final Executor requestExecutor;
+    private final ConnectionPool connectionPool;
+    
+    public ClientHandler(Socket socket, Executor requestExecutor) {
+        this.clientSocket = socket;
+        this.requestExecutor = requestExecutor;
+        this.connectionPool = ConnectionPool.getInstance();
+    }
+    
+    // Used by NioServerEngine, where the socket is owned by the event loop
+    ClientHandler() {
+        this(null, null);
+    }
+    
+    @Override
+    public void run() {
+        try (Socket socket = clientSocket) {
+            BufferedInputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            
+            // Legacy clients open with the object-stream magic, new ones with a protocol hello
+            in.mark(2);
+            int magic = (in.read() << 8) | in.read();
+            in.reset();
+            
+            if (magic == WireProtocol.LEGACY_MAGIC) {
+                serveObjectStreams(in, out);
+            } else {
+                serveBinary(in, out);
+            }
+        } catch (Exception e) {
+            log.warn("Client error: {}", e.getMessage());
+        } finally {
+            close();
+        }
+    }
+    
+    private void serveObjectStreams(InputStream in, OutputStream out) throws Exception {
+        ObjectInputStream input = new ObjectInputStream(in);
+        ObjectOutputStream output = new ObjectOutputStream(out);
+        output.flush();
+        WireProtocol.Reader reader = new WireProtocol.ObjectStreamReader(input);
+        WireProtocol.Writer writer = new WireProtocol.ObjectStreamWriter(output);
+        
+        while (true) {
+            String action = (String) input.readObject();
+            if (!dispatch(action, reader, writer)) {
+                return;
+            }
+            output.flush();
+        }
+    }
+    
+    private void serveBinary(InputStream in, OutputStream out) throws Exception {
+        // Responses go out one small frame at a time, possibly several per round trip
+        clientSocket.setTcpNoDelay(true);
+        DataInputStream data = new DataInputStream(in);
+        byte[] hello = new byte[WireProtocol.HELLO_LENGTH];
+        data.readFully(hello);
+        
+        short version = negotiateVersion(WireProtocol.parseHello(hello));
+        out.write(WireProtocol.hello(version));
+        out.flush();
+        if (version == 0) {
+            return;
+        }
+        
+        // A v1 client gets a window of one: the next request waits for the previous response
+        Semaphore window = new Semaphore(requestWindow(version));
+        Phaser inFlight = new Phaser(1);
+        ReentrantLock writeLock = new ReentrantLock();
+        try {
+            WireProtocol.Frame frame;
+            while ((frame = WireProtocol.readFrame(data)) != null && frame.opcode != WireProtocol.Opcode.EXIT) {
+                window.acquire();
+                inFlight.register();
+                WireProtocol.Frame request = frame;
+                requestExecutor.execute(() -> {
+                    try {
+                        byte[] response = handleFrame(request);
+                        writeLock.lock();
+                        try {
+                            out.write(response);
+                            out.flush();
+                        } finally {
+                            writeLock.unlock();
+                        }
+                    } catch (Exception e) {
+                        log.warn("Client error: {}", e.getMessage());
+                        closeSocket();
+                    } finally {
+                        window.release();
+                        inFlight.arriveAndDeregister();
+                    }
+                });
+            }
+        } finally {
+            // Answer everything already accepted before the socket is closed
+            inFlight.arriveAndAwaitAdvance();
+        }
+    }
+    
+    // How many requests of one connection may run at once for a negotiated version
+    static int requestWindow(short version) {
+        return version >= WireProtocol.PIPELINED_VERSION ? PIPELINE_DEPTH : 1;
+    }
+    
+    private void closeSocket() {
+        try {
+            clientSocket.close();
+        } catch (IOException e) {
+            // Ignore close error
+        }
+    }
+    
+    // Highest version both sides speak, or 0 to refuse the connection
+    static short negotiateVersion(int clientVersion) {
+        if (clientVersion < 1) {
+            return 0;
+        }
+        return (short) Math.min(clientVersion, WireProtocol.VERSION);
+    }
+    
+    /*
+     * Runs one binary request and returns its response frame. A failed action
+     * is answered with an ERROR response: frames are self-delimiting, so the
+     * other requests on the connection are unaffected.
+     */
+    byte[] handleFrame(WireProtocol.Frame frame) {
+        WireProtocol.BinaryWriter writer = new WireProtocol.BinaryWriter(frame.rawOpcode, frame.requestId);
+        try {
+            dispatch(frame.opcode.action(), frame.body, writer);
+        } catch (Exception e) {
+            log.error("Action {} failed: {}", frame.opcode.action(), e.getMessage());
+            writer = new WireProtocol.BinaryWriter(frame.rawOpcode, frame.requestId);
+            writer.writeString("ERROR: " + e.getMessage());
+        }
+        byte[] response = writer.toFrame();
+        // Object streams have no frame boundaries, so bytes are only counted on the binary protocol
+        ActionRegistry.Entry entry = ACTIONS.get(frame.opcode.action());
+        if (entry != null) {
+            entry.recordBytes(frame.wireLength, response.length);
+        }
+        return response;
+    }
+    
+    /*
+     * Runs one action. The pooled connection it may borrow is always given back
+     * before the next action, so idle clients hold no MySQL connection.
+     */
+    boolean dispatch(String action, WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        try {
+            return runAction(action, input, output);
+        } catch (SQLException e) {
+            // SQLState class 08 = connection exception; anything else leaves the connection reusable
+            ConnectionPool.PooledConnection borrowed = pooled.get();
+            if (borrowed != null && e.getSQLState() != null && e.getSQLState().startsWith("08")) {
+                borrowed.markBroken();
+            }
+            throw e;
+        } finally {
+            afterCommit.get().clear();
+            ConnectionPool.PooledConnection borrowed = pooled.get();
+            if (borrowed != null) {
+                pooled.remove();
+                borrowed.close();
+            }
+        }
+    }
+    
+    // Waiting for a connection parks on a semaphore, never inside synchronized, so virtual threads unmount
+    private ConnectionPool.PooledConnection pooledConnection() throws SQLException {
+        ConnectionPool.PooledConnection borrowed = pooled.get();
+        if (borrowed == null) {
+            borrowed = connectionPool.borrow();
+            pooled.set(borrowed);
+        }
+        return borrowed;
+    }
+    
+    private Connection connection() throws SQLException {
+        return pooledConnection().getConnection();
+    }
+    
+    // Cached per pooled connection: close the ResultSets, never the statement
+    private PreparedStatement prepare(String sql) throws SQLException {
+        return pooledConnection().prepare(sql);
+    }
+    
+    private PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+        return pooledConnection().prepare(sql, autoGeneratedKeys);
+    }
+    
+    private boolean runAction(String action, WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        log.debug("Action: {}", action);
+        
+        if ("EXIT".equals(action)) {
+            return false;
+        }
+        ActionRegistry.Entry entry = ACTIONS.get(action);
+        if (entry == null) {
+            output.writeString("ERROR: Unknown action");
+            return true;
+        }
+        
+        // A thrown exception or an ERROR status both count as a failed call
+        StatusWriter status = new StatusWriter(output);
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            entry.getAction().handle(this, input, status);
+            failed = status.status != null && status.status.startsWith("ERROR");
+        } finally {
+            entry.recordCall(System.nanoTime() - start, failed);
+        }
+        return true;
+    }
+    
+    private void handleStats(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        output.writeString("SUCCESS");
+        output.writeRows(ACTIONS.snapshot());
+    }
+    
+    void close() {
+        // Nothing per-socket to release: connections go back to the pool after each action
+    }
+    
+    // REAL MESSAGE HANDLING WITH ACTIVEMQ
+    // Messages are stored together with an outbox row; OutboxRelay publishes them after the commit
+    private void handleSendMessage(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        try {
+            // Read the Message object from client
+            Message message = input.readMessage();
+            
+            log.debug("📨 Processing message from {} {} to {} {}", message.getSenderType(), message.getSenderId(), message.getReceiverType(), message.getReceiverId());
+            
+            // Store message in database first
+            String sql = "INSERT INTO messages (sender_id, sender_type, receiver_id, receiver_type, " +
+                        "subject, content, message_type, priority, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, NOW())";
+            
+            boolean stored = inTransaction(() -> {
+                PreparedStatement stmt = prepare(sql, Statement.RETURN_GENERATED_KEYS);
+                stmt.setInt(1, message.getSenderId());
+                stmt.setString(2, message.getSenderType());
+                stmt.setInt(3, message.getReceiverId());
+                stmt.setString(4, message.getReceiverType());
+                stmt.setString(5, message.getSubject());
+                stmt.setString(6, message.getContent());
+                stmt.setString(7, message.getMessageType());
+                stmt.setString(8, message.getPriority());
+                
+                if (stmt.executeUpdate() == 0) return false;
+                message.setMessageId(generatedKey(stmt));
+                addToOutbox("MESSAGE", message.getMessageId(),
+                    Destinations.userQueue(message.getReceiverId(), message.getReceiverType()), false);
+                return true;
+            });
+            
+            if (stored) {
+                output.writeString("SUCCESS: Message sent and delivered");
+                log.debug("✅ Message {} stored and queued for ActiveMQ", message.getMessageId());
+                
+            } else {
+                output.writeString("ERROR: Failed to send message");
+            }
+            
+        } catch (Exception e) {
+            log.error("❌ Error handling message: {}", e.getMessage());
+            output.writeString("ERROR: " + e.getMessage());
+        }
+    }
+    
+    private void handleSendNotification(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        try {
+            Notification notification = input.readNotification();
+            
+            log.debug("🔔 Processing notification for user {}: {}", notification.getUserId(), notification.getTitle());
+            
+            // Store notification in database
+            String sql = "INSERT INTO notifications (user_id, title, message, type, is_read, is_active, created_at) " +
+                        "VALUES (?, ?, ?, ?, 0, 1, NOW())";
+            
+            boolean stored = inTransaction(() -> {
+                PreparedStatement stmt = prepare(sql, Statement.RETURN_GENERATED_KEYS);
+                stmt.setInt(1, notification.getUserId());
+                stmt.setString(2, notification.getTitle());
+                stmt.setString(3, notification.getMessage());
+                stmt.setString(4, notification.getType());
+                
+                if (stmt.executeUpdate() == 0) return false;
+                notification.setNotificationId(generatedKey(stmt));
+                addToOutbox("NOTIFICATION", notification.getNotificationId(), Destinations.notificationQueue(notification.getUserId()), false);
+                return true;
+            });
+            
+            if (stored) {
+                output.writeString("SUCCESS: Notification sent");
+                log.debug("✅ Notification {} stored and queued for ActiveMQ", notification.getNotificationId());
+                
+            } else {
+                output.writeString("ERROR: Failed to send notification");
+            }
+            
+        } catch (Exception e) {
+            log.error("❌ Error handling notification: {}", e.getMessage());
+            output.writeString("ERROR: " + e.getMessage());
+        }
+    }
+    
+    private void handleBroadcastMessage(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        try {
+            Message message = input.readMessage();
+            String targetUserType = input.readString();
+            
+            log.debug("📢 Processing broadcast to {} from {} {}", targetUserType, message.getSenderType(), message.getSenderId());
+            
+            // One broadcasts row for all recipients; read state lives in its bitmaps
+            String sql = "INSERT INTO broadcasts (sender_id, sender_type, target_type, " +
+                        "subject, content, message_type, priority, created_at) VALUES (?, ?, ?, ?, ?, ?, ?, NOW())";
+            
+            boolean stored = inTransaction(() -> {
+                PreparedStatement stmt = prepare(sql, Statement.RETURN_GENERATED_KEYS);
+                stmt.setInt(1, message.getSenderId());
+                stmt.setString(2, message.getSenderType());
+                stmt.setString(3, targetUserType.toUpperCase());
+                stmt.setString(4, message.getSubject());
+                stmt.setString(5, message.getContent());
+                stmt.setString(6, message.getMessageType());
+                stmt.setString(7, message.getPriority());
+                
+                if (stmt.executeUpdate() == 0) return false;
+                int broadcastId = generatedKey(stmt);
+                message.setMessageId(-broadcastId);
+                for (String userType : "ALL".equalsIgnoreCase(targetUserType) ? USER_TYPES : new String[] {targetUserType}) {
+                    addToOutbox("BROADCAST", broadcastId, Destinations.broadcastTopic(userType), true);
+                }
+                return true;
+            });
+            
+            if (stored) {
+                output.writeString("SUCCESS: Broadcast sent to all " + targetUserType);
+                log.debug("✅ Broadcast to {} stored and queued for ActiveMQ", targetUserType);
+                
+            } else {
+                output.writeString("ERROR: Failed to send broadcast");
+            }
+            
+        } catch (Exception e) {
+            log.error("❌ Error handling broadcast: {}", e.getMessage());
+            output.writeString("ERROR: " + e.getMessage());
+        }
+    }
+    
+    // Answered from UnreadCounters; an ERROR tells the client to count from the database itself
+    private void handleGetUnreadCount(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        int userId = input.readInt();
+        String userType = input.readString();
+        UnreadCounters counters = UnreadCounters.getInstance();
+        if (!counters.isReady()) {
+            output.writeString("ERROR: Unread counters unavailable");
+            return;
+        }
+        output.writeString("SUCCESS");
+        output.writeInt(counters.getUnreadCount(userId, userType));
+    }
+    
+    private void handleMarkMessageRead(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        updateMessageState(input, output, false);
+    }
+    
+    private void handleDeleteMessage(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        updateMessageState(input, output, true);
+    }
+    
+    /*
+     * Marks a message read or deletes it for one user, under a row lock, and
+     * takes it off the user's unread count once committed if it was unread.
+     * A negative id is a broadcast: the user joins its read or deleted bitmap.
+     */
+    private void updateMessageState(WireProtocol.Reader input, WireProtocol.Writer output, boolean delete) throws Exception {
+        int messageId = input.readInt();
+        int userId = input.readInt();
+        String userType = input.readString();
+        try {
+            boolean updated = inTransaction(() -> messageId < 0
+                ? updateBroadcastState(-messageId, userId, userType, delete)
+                : updateDirectMessage(messageId, userId, userType, delete));
+            output.writeString(updated ? "SUCCESS" : "ERROR: Message not found");
+        } catch (Exception e) {
+            log.error("❌ Error updating message {}: {}", messageId, e.getMessage());
+            output.writeString("ERROR: " + e.getMessage());
+        }
+    }
+    
+    /*
+     * The message's outbox row is locked before the message, the order
+     * OutboxRelay takes them in. If the relay has not claimed the row yet, it
+     * will find the message read or gone and leave it out of the count, so
+     * there is nothing to take off.
+     */
+    private boolean updateDirectMessage(int messageId, int userId, String userType, boolean delete) throws SQLException {
+        PreparedStatement payload = prepare(SELECT_MESSAGE_PAYLOAD_SQL);
+        payload.setInt(1, messageId);
+        int payloadId;
+        try (ResultSet rs = payload.executeQuery()) {
+            if (!rs.next()) return false;
+            payloadId = rs.getInt(1);
+        }
+        boolean counted = lockOutboxRow(payloadId != 0 ? "FANOUT" : "MESSAGE", payloadId != 0 ? payloadId : messageId);
+        
+        PreparedStatement select = prepare(SELECT_MESSAGE_STATE_SQL);
+        select.setInt(1, messageId);
+        select.setInt(2, userId);
+        select.setString(3, userType);
+        boolean wasRead;
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) return false;
+            wasRead = rs.getBoolean(1);
+        }
+        if (delete || !wasRead) {
+            PreparedStatement update = prepare(delete ? DELETE_MESSAGE_SQL : MARK_MESSAGE_READ_SQL);
+            update.setInt(1, messageId);
+            update.executeUpdate();
+        }
+        if (!wasRead && counted) {
+            afterCommit(() -> UnreadCounters.getInstance().messageRead(userId, userType));
+        }
+        return true;
+    }
+    
+    // Whether the unread counters already hold the message behind this outbox row; a purged row was
+    private boolean lockOutboxRow(String kind, int id) throws SQLException {
+        PreparedStatement stmt = prepare(LOCK_OUTBOX_ROW_SQL);
+        stmt.setString(1, kind);
+        stmt.setInt(2, id);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return !rs.next()
+                || UnreadCounters.getInstance().wasCounted(rs.getLong(1), rs.getTimestamp(2) != null || rs.getTimestamp(3) != null);
+        }
+    }
+    
+    private boolean updateBroadcastState(int broadcastId, int userId, String userType, boolean delete) throws SQLException {
+        int member = UserBitmap.member(userId, userType);
+        PreparedStatement select = prepare(SELECT_BROADCAST_STATE_SQL);
+        select.setInt(1, broadcastId);
+        select.setString(2, userType.toUpperCase());
+        byte[] read;
+        byte[] deleted;
+        try (ResultSet rs = select.executeQuery()) {
+            if (!rs.next()) return false;
+            read = rs.getBytes(1);
+            deleted = rs.getBytes(2);
+        }
+        byte[] bytes = delete ? deleted : read;
+        if (!UserBitmap.contains(bytes, member)) {
+            UserBitmap bitmap = UserBitmap.fromBytes(bytes);
+            bitmap.add(member);
+            PreparedStatement update = prepare(delete ? UPDATE_BROADCAST_DELETED_SQL : UPDATE_BROADCAST_READ_SQL);
+            update.setBytes(1, bitmap.toBytes());
+            update.setInt(2, broadcastId);
+            update.executeUpdate();
+        }
+        // Read and deleted both take a broadcast off the count, but only the first of them
+        if (!UserBitmap.contains(read, member) && !UserBitmap.contains(deleted, member)) {
+            afterCommit(() -> UnreadCounters.getInstance().broadcastSeen(userId, userType));
+        }
+        return true;
+    }
+    
+    private void addToOutbox(String kind, int messageId, String destination, boolean topic) throws SQLException {
+        PreparedStatement stmt = prepare(INSERT_OUTBOX_SQL);
+        stmt.setString(1, kind);
+        stmt.setInt(2, messageId);
+        stmt.setString(3, destination);
+        stmt.setBoolean(4, topic);
+        stmt.executeUpdate();
+    }
+    
+    private static int generatedKey(PreparedStatement stmt) throws SQLException {
+        try (ResultSet keys = stmt.getGeneratedKeys()) {
+            return keys.next() ? keys.getInt(1) : 0;
+        }
+    }
+    
+    @FunctionalInterface
+    private interface SqlWork {
+        boolean run() throws SQLException;
+    }
+    
+    /*
+     * Runs work atomically: in a transaction of its own, or, inside BATCH
+     * (auto-commit already off), under a savepoint of the batch's transaction.
+     * The relay is woken once the rows are committed.
+     */
+    private boolean inTransaction(SqlWork work) throws SQLException {
+        Connection conn = connection();
+        if (!conn.getAutoCommit()) {
+            Savepoint savepoint = conn.setSavepoint();
+            int pending = afterCommit.get().size();
+            try {
+                boolean done = work.run();
+                conn.releaseSavepoint(savepoint);
+                return done;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback(savepoint);
+                discardAfterCommit(pending);
+                throw e;
+            }
+        }
+        
+        conn.setAutoCommit(false);
+        try {
+            boolean done = work.run();
+            if (done) {
+                conn.commit();
+                runAfterCommit();
+                OutboxRelay.getInstance().wakeUp();
+            } else {
+                conn.rollback();
+                discardAfterCommit(0);
+            }
+            return done;
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            discardAfterCommit(0);
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+    
+    // Runs once the enclosing transaction (the action's, or the whole BATCH's) commits
+    private static void afterCommit(Runnable update) {
+        afterCommit.get().add(update);
+    }
+    
+    private static void runAfterCommit() {
+        List<Runnable> updates = afterCommit.get();
+        for (Runnable update : updates) {
+            update.run();
+        }
+        updates.clear();
+    }
+    
+    // Drops the updates registered since the given count, after a rollback
+    private static void discardAfterCommit(int keep) {
+        List<Runnable> updates = afterCommit.get();
+        updates.subList(keep, updates.size()).clear();
+    }
+    
+    // Your existing methods
+    private void handleLogin(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        String username = input.readString();
+        String password = input.readString();
+        
+        String sql = "SELECT u.*, s.first_name, s.last_name, s.student_id, " +
+                    "t.first_name as t_first_name, t.last_name as t_last_name " +
+                    "FROM users u " +
+                    "LEFT JOIN students s ON u.student_id = s.student_id " +
+                    "LEFT JOIN teachers t ON u.teacher_id = t.teacher_id " +
+                    "WHERE u.username = ? AND u.password_hash = ? AND u.is_active = 1";
+        
+        PreparedStatement stmt = prepare(sql);
+        stmt.setString(1, username);
+        stmt.setString(2, password);
+        
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                Map<String, String> userInfo = new HashMap<>();
+                userInfo.put("userType", rs.getString("user_type"));
+                userInfo.put("userId", rs.getString("user_id"));
+            
+                if ("STUDENT".equals(userInfo.get("userType"))) {
+                    userInfo.put("firstName", rs.getString("first_name"));
+                    userInfo.put("lastName", rs.getString("last_name"));
+                    userInfo.put("studentId", rs.getString("student_id"));
+                } else if ("TEACHER".equals(userInfo.get("userType"))) {
+                    userInfo.put("firstName", rs.getString("t_first_name"));
+                    userInfo.put("lastName", rs.getString("t_last_name"));
+                    userInfo.put("teacherId", rs.getString("teacher_id"));
+                }
+            
+                output.writeString("SUCCESS");
+                output.writeMap(userInfo);
+                log.debug("Login successful: {}", username);
+            } else {
+                output.writeString("ERROR: Invalid login credentials");
+            }
+        }
+    }
+    
+    private void handleGetStudentInfo(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        int studentId = input.readInt();
+        
+        String sql = "SELECT s.*, p.program_name, ay.start_year, ay.end_year " +
+                    "FROM students s " +
+                    "JOIN registrations r ON s.student_id = r.student_id " +
+                    "JOIN programs p ON r.program_id = p.program_id " +
+                    "JOIN academic_years ay ON r.year_id = ay.year_id " +
+                    "WHERE s.student_id = ? AND ay.is_current = 1";
+        
+        PreparedStatement stmt = prepare(sql);
+        stmt.setInt(1, studentId);
+        
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                Map<String, String> studentInfo = new HashMap<>();
+                studentInfo.put("firstName", rs.getString("first_name"));
+                studentInfo.put("lastName", rs.getString("last_name"));
+                studentInfo.put("schoolOrigin", rs.getString("school_origin"));
+                studentInfo.put("email", rs.getString("email"));
+                studentInfo.put("phone", rs.getString("phone"));
+                studentInfo.put("program", rs.getString("program_name"));
+                studentInfo.put("academicYear", rs.getInt("start_year") + "-" + rs.getInt("end_year"));
+            
+                output.writeString("SUCCESS");
+                output.writeMap(studentInfo);
+            } else {
+                output.writeString("ERROR: Student not found");
+            }
+        }
+    }
+    
+    private void handleGetStudentGrades(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        int studentId = input.readInt();
+        
+        String sql = "SELECT s.subject_name, e.exam_name, e.exam_type, e.coefficient, g.score " +
+                    "FROM grades g " +
+                    "JOIN exams e ON g.exam_id = e.exam_id " +
+                    "JOIN subjects s ON e.subject_id = s.subject_id " +
+                    "WHERE g.student_id = ? " +
+                    "ORDER BY s.subject_name, e.exam_date";
+        
+        PreparedStatement stmt = prepare(sql);
+        stmt.setInt(1, studentId);
+        
+        try (ResultSet rs = stmt.executeQuery()) {
+            List<Map<String, String>> grades = new ArrayList<>();
+            
+            while (rs.next()) {
+                Map<String, String> grade = new HashMap<>();
+                grade.put("subject", rs.getString("subject_name"));
+                grade.put("exam", rs.getString("exam_name"));
+                grade.put("type", rs.getString("exam_type"));
+                grade.put("coefficient", rs.getString("coefficient"));
+                grade.put("score", rs.getString("score"));
+                grades.add(grade);
+            }
+            
+            output.writeString("SUCCESS");
+            output.writeRows(grades);
+        }
+    }
+    
+    private void handleGetOverallAverage(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        int studentId = input.readInt();
+        
+        GradeIndex.Entry indexed = GradeIndex.getInstance().get(studentId);
+        if (indexed != null) {
+            if (indexed.hasGrades()) {
+                output.writeString("SUCCESS");
+                output.writeDouble(indexed.getOverallAverage());
+            } else {
+                output.writeString("ERROR: No grades available to calculate average");
+            }
+            return;
+        }
+        
+        // حساب المعدل العام: kept by every grade write with GradeEngine's rules (see StudentResults)
+        String sql = "SELECT overall_average FROM student_results WHERE student_id = ? AND exam_count > 0";
+        
+        PreparedStatement stmt = prepare(sql);
+        stmt.setInt(1, studentId);
+        
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                double average = rs.getDouble("overall_average");
+                output.writeString("SUCCESS");
+                output.writeDouble(average);
+            } else {
+                output.writeString("ERROR: No grades available to calculate average");
+            }
+        }
+    }
+    
+    private void handleGetFinalStatus(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        int studentId = input.readInt();
+        
+        // الحصول على المعدل وتحديد الحالة: the average as kept by every grade write, the status
+        // decided for the current year if there is one, else the one that average gives
+        String sql = "SELECT sr.overall_average, " +
+                    "(SELECT r.final_status FROM registrations r WHERE r.student_id = sr.student_id " +
+                    "AND r.year_id = (SELECT year_id FROM academic_years WHERE is_current = 1) " +
+                    "AND r.final_status IS NOT NULL LIMIT 1) AS final_status " +
+                    "FROM student_results sr WHERE sr.student_id = ? AND sr.exam_count > 0";
+        
+        PreparedStatement stmt = prepare(sql);
+        stmt.setInt(1, studentId);
+        
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                double average = rs.getDouble("overall_average");
+                String status = rs.getString("final_status");
+                output.writeString("SUCCESS");
+                output.writeString(status != null ? status : StudentResults.status(average));
+                output.writeDouble(average);
+            } else {
+                output.writeString("ERROR: لم يتم حساب المعدل بعد");
+            }
+        }
+    }
+    
+    private void handleCreateExam(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        String examType = input.readString();
+        String examName = input.readString();
+        double coefficient = input.readDouble();
+        int subjectId = input.readInt();
+        int teacherId = input.readInt();
+        
+        String sql = "INSERT INTO exams (exam_type, exam_name, coefficient, exam_date, subject_id, teacher_id) " +
+                    "VALUES (?, ?, ?, CURDATE(), ?, ?)";
+        
+        PreparedStatement stmt = prepare(sql);
+        stmt.setString(1, examType);
+        stmt.setString(2, examName);
+        stmt.setDouble(3, coefficient);
+        stmt.setInt(4, subjectId);
+        stmt.setInt(5, teacherId);
+        
+        int affected = stmt.executeUpdate();
+        
+        if (affected > 0) {
+            output.writeString("SUCCESS: تم إنشاء الاختبار بنجاح");
+        } else {
+            output.writeString("ERROR: فشل في إنشاء الاختبار");
+        }
+    }
+    
+    private void handleAddGrade(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        int studentId = input.readInt();
+        int examId = input.readInt();
+        double score = input.readDouble();
+        
+        // The student's results are rewritten in the same transaction as the grade
+        boolean saved = inTransaction(() -> {
+            StudentResults.lock(connection(), studentId);
+            PreparedStatement stmt = prepare(UPSERT_GRADE_SQL);
+            stmt.setInt(1, studentId);
+            stmt.setInt(2, examId);
+            stmt.setDouble(3, score);
+            if (stmt.executeUpdate() == 0) return false;
+            StudentResults.refresh(connection(), studentId);
+            List<GradeIndex.Entry> indexed = GradeIndex.load(connection(), studentId);
+            afterCommit(() -> GradeIndex.getInstance().install(indexed));
+            return true;
+        });
+        
+        output.writeString(saved ? GRADE_SAVED : GRADE_FAILED);
+    }
+    
+    /*
+     * Runs many actions in one round trip and one transaction. Consecutive
+     * ADD_GRADE items go to the database as a single JDBC batch; any other
+     * item runs through its normal handler inside a savepoint, so a failing
+     * item is rolled back on its own and reported in its status.
+     */
+    private void handleBatch(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        int count = input.readInt();
+        if (count < 0 || count > BATCH_MAX_ITEMS) {
+            output.writeString("ERROR: A batch holds at most " + BATCH_MAX_ITEMS + " items");
+            return;
+        }
+        
+        Connection conn = connection();
+        conn.setAutoCommit(false);
+        String[] results = new String[count];
+        List<Integer> pendingGrades = new ArrayList<>();
+        Set<Integer> pendingStudents = new TreeSet<>();
+        PreparedStatement gradeBatch = null;
+        try {
+            for (int i = 0; i < count; i++) {
+                String action = input.readString();
+                WireProtocol.Opcode op = WireProtocol.Opcode.fromAction(action);
+                
+                if (op == WireProtocol.Opcode.ADD_GRADE) {
+                    if (gradeBatch == null) {
+                        gradeBatch = prepare(UPSERT_GRADE_SQL);
+                    }
+                    int studentId = input.readInt();
+                    gradeBatch.setInt(1, studentId);
+                    gradeBatch.setInt(2, input.readInt());
+                    gradeBatch.setDouble(3, input.readDouble());
+                    gradeBatch.addBatch();
+                    pendingGrades.add(i);
+                    pendingStudents.add(studentId);
+                    continue;
+                }
+                
+                // Items run in request order, so earlier grades must be written first
+                flushGradeBatch(gradeBatch, pendingGrades, pendingStudents, results);
+                if (op == WireProtocol.Opcode.UNKNOWN || op == WireProtocol.Opcode.EXIT ||
+                    op == WireProtocol.Opcode.LOGIN || op == WireProtocol.Opcode.BATCH) {
+                    // The item's fields cannot be skipped without knowing the action, so the whole batch fails
+                    conn.rollback();
+                    output.writeString("ERROR: Action not allowed in a batch: " + action);
+                    return;
+                }
+                
+                Savepoint savepoint = conn.setSavepoint();
+                int pending = afterCommit.get().size();
+                int lent = pooledConnection().lentStatements();
+                StatusWriter status = new StatusWriter(null);
+                try {
+                    runAction(action, input, status);
+                    conn.releaseSavepoint(savepoint);
+                    results[i] = status.status != null ? status.status : "SUCCESS";
+                } catch (SQLException e) {
+                    if (e.getSQLState() != null && e.getSQLState().startsWith("08")) throw e;
+                    conn.rollback(savepoint);
+                    discardAfterCommit(pending);
+                    results[i] = "ERROR: " + e.getMessage();
+                }
+                // The item is done with its statements; the next items reuse them
+                pooledConnection().releaseStatements(lent);
+            }
+            flushGradeBatch(gradeBatch, pendingGrades, pendingStudents, results);
+            conn.commit();
+            runAfterCommit();
+            OutboxRelay.getInstance().wakeUp();
+        } catch (Exception e) {
+            conn.rollback();
+            discardAfterCommit(0);
+            throw e;
+        }
+        
+        output.writeString("SUCCESS");
+        output.writeInt(count);
+        for (String result : results) {
+            output.writeString(result);
+        }
+    }
+    
+    // Sends the queued ADD_GRADE rows, records one status per item and rewrites the students' results
+    private void flushGradeBatch(PreparedStatement gradeBatch, List<Integer> pendingGrades, Set<Integer> pendingStudents,
+                                 String[] results) throws SQLException {
+        if (pendingGrades.isEmpty()) return;
+        
+        Connection conn = connection();
+        StudentResults.lock(conn, pendingStudents.stream().mapToInt(Integer::intValue).toArray());
+        int[] counts;
+        try {
+            counts = gradeBatch.executeBatch();
+        } catch (BatchUpdateException e) {
+            if (e.getSQLState() != null && e.getSQLState().startsWith("08")) throw e;
+            counts = e.getUpdateCounts();
+        }
+        // An unchanged score reports 0 rows and still counts as saved
+        for (int k = 0; k < pendingGrades.size(); k++) {
+            boolean failed = k >= counts.length || counts[k] == Statement.EXECUTE_FAILED;
+            results[pendingGrades.get(k)] = failed ? GRADE_FAILED : GRADE_SAVED;
+        }
+        for (int studentId : pendingStudents) {
+            StudentResults.refresh(conn, studentId);
+        }
+        List<GradeIndex.Entry> indexed = GradeIndex.load(conn, pendingStudents.stream().mapToInt(Integer::intValue).toArray());
+        afterCommit(() -> GradeIndex.getInstance().install(indexed));
+        pendingGrades.clear();
+        pendingStudents.clear();
+    }
+    
+    // Remembers the first string a handler writes (its status) and passes everything on; a null target drops it
+    private static final class StatusWriter implements WireProtocol.Writer {
+        private final WireProtocol.Writer target;
+        private String status;
+        
+        StatusWriter(WireProtocol.Writer target) {
+            this.target = target;
+        }
+        
+        @Override
+        public void writeString(String value) throws IOException {
+            if (status == null) status = value;
+            if (target != null) target.writeString(value);
+        }
+        
+        @Override
+        public void writeInt(int value) throws IOException {
+            if (target != null) target.writeInt(value);
+        }
+        
+        @Override
+        public void writeDouble(double value) throws IOException {
+            if (target != null) target.writeDouble(value);
+        }
+        
+        @Override
+        public void writeMap(Map<String, String> value) throws IOException {
+            if (target != null) target.writeMap(value);
+        }
+        
+        @Override
+        public void writeRows(List<Map<String, String>> value) throws IOException {
+            if (target != null) target.writeRows(value);
+        }
+        
+        @Override
+        public void writeMessage(Message value) throws IOException {
+            if (target != null) target.writeMessage(value);
+        }
+        
+        @Override
+        public void writeNotification(Notification value) throws IOException {
+            if (target != null) target.writeNotification(value);
+        }
+    }
+    
+    private void handleCalculateSubjectAverage(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        int studentId = input.readInt();
+        int subjectId = input.readInt();
+        
+        GradeIndex.Entry indexed = GradeIndex.getInstance().get(studentId);
+        if (indexed != null) {
+            double average = indexed.getSubjectFinal(subjectId);
+            if (Double.isNaN(average)) {
+                output.writeString("ERROR: لا توجد درجات لهذه المادة");
+            } else {
+                output.writeString("SUCCESS");
+                output.writeDouble(average);
+            }
+            return;
+        }
+        
+        // Kept with the overall average (see StudentResults)
+        String sql = "SELECT final_grade FROM student_subject_results WHERE student_id = ? AND subject_id = ?";
+        
+        PreparedStatement stmt = prepare(sql);
+        stmt.setInt(1, studentId);
+        stmt.setInt(2, subjectId);
+        
+        try (ResultSet rs = stmt.executeQuery()) {
+            if (rs.next()) {
+                double average = rs.getDouble("final_grade");
+                output.writeString("SUCCESS");
+                output.writeDouble(average);
+            } else {
+                output.writeString("ERROR: لا توجد درجات لهذه المادة");
+            }
+        }
+    }
+    
+    private void handleAddStudent(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        String firstName = input.readString();
+        String lastName = input.readString();
+        String schoolOrigin = input.readString();
+        String email = input.readString();
+        String phone = input.readString();
+        
+        String sql = "INSERT INTO students (first_name, last_name, school_origin, email, phone) VALUES (?, ?, ?, ?, ?)";
+        
+        PreparedStatement stmt = prepare(sql, Statement.RETURN_GENERATED_KEYS);
+        stmt.setString(1, firstName);
+        stmt.setString(2, lastName);
+        stmt.setString(3, schoolOrigin);
+        stmt.setString(4, email);
+        stmt.setString(5, phone);
+        
+        int affected = stmt.executeUpdate();
+        
+        if (affected > 0) {
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                if (keys.next()) {
+                    int studentId = keys.getInt(1);
+                    output.writeString("SUCCESS: تم إضافة الطالب برقم: " + studentId);
+                }
+            }
+        } else {
+            output.writeString("ERROR: فشل في إضافة الطالب");
+        }
+    }
+    
+    private void handleAddProgram(WireProtocol.Reader input, WireProtocol.Writer output) throws Exception {
+        String programName = input.readString();
+        int programYear = input.readInt();
+        String description = input.readString();
+        
+        String sql = "INSERT INTO programs (program_name, program_year, description) VALUES (?, ?, ?)";
+        
+        PreparedStatement stmt = prepare(sql);
+        stmt.setString(1, programName);
+        stmt.setInt(2, programYear);
+        stmt.setString(3, description);
+        
+        int affected = stmt.executeUpdate();
+        
+        if (affected > 0) {
+            output.writeString("SUCCESS: تم إضافة البرنامج بنجاح");
+        } else {
+            output.writeString("ERROR: فشل في إضافة البرنامج");
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,315 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Decides ADMIS, REDOUBLANT or EXCLU for every student registered in the
+ * current academic year, in place of one UpdateStudentStatus call per
+ * student.
+ *
+ *   read     one streaming query returns the current year's grades of every
+ *            registered student: those in the subjects of the programs they
+ *            are registered in this year (grades have no year of their own),
+ *            ordered by program and student. It is read once, into one
+ *            cohort per program. A student registered in several programs
+ *            this year is in the cohort of the lowest program id only, with
+ *            the grades of all of them.
+ *   decide   as each cohort is complete, it goes to a fork-join pool, which
+ *            splits it by students. GradeEngine computes each average with
+ *            the rules of calculateSubjectFinalGrade and
+ *            calculateOverallAverage, and StudentResults.status applies the
+ *            thresholds, so a decision matches UpdateStudentStatus, which
+ *            averages the same subjects' finals from student_subject_results.
+ *            A student without grades averages 0.
+ *   write    each cohort writes registrations.final_status and
+ *            overall_average (every registration of the student for the
+ *            year), and students.final_status. It uses batched updates,
+ *            committed every batchSize students.
+ *
+ * With --dry-run nothing is written and only the outcome per program is
+ * printed. Progress is printed every second. A failed cohort keeps the
+ * batches it already committed; running the job again is safe, as it
+ * rewrites the same values.
+ *
+ * Usage: java CohortDeliberation [--dry-run] [threads] [batchSize]
+ * (threads defaults to the number of cores and needs as many pooled
+ * connections plus one, batchSize to 500)
+ */
+public class CohortDeliberation {
+    private static final String CURRENT_YEAR_SQL = "SELECT year_id, description FROM academic_years WHERE is_current = 1";
+    private static final String COUNT_SQL = "SELECT COUNT(DISTINCT student_id) FROM registrations WHERE year_id = ?";
+    private static final String GRADES_SQL =
+        "SELECT r.program_id, r.student_id, " + GradeEngine.COLUMNS + " " +
+        "FROM (SELECT student_id, MIN(program_id) AS program_id FROM registrations WHERE year_id = ? GROUP BY student_id) r " +
+        "LEFT JOIN ((SELECT DISTINCT student_id, program_id FROM registrations WHERE year_id = ?) y " +
+        "JOIN (" + GradeEngine.ROWS + ") ON g.student_id = y.student_id AND s.program_id = y.program_id) " +
+        "ON y.student_id = r.student_id " +
+        "ORDER BY r.program_id, r.student_id, " + GradeEngine.ORDER;
+    private static final String UPDATE_REGISTRATION_SQL =
+        "UPDATE registrations SET final_status = ?, overall_average = ? WHERE student_id = ? AND year_id = ?";
+    private static final String UPDATE_STUDENT_SQL = "UPDATE students SET final_status = ? WHERE student_id = ?";
+    // Students one fork-join task decides without splitting further
+    private static final int SPLIT = 1_000;
+
+    private static final LongAdder rowsRead = new LongAdder();
+    private static final LongAdder decided = new LongAdder();
+    private static final LongAdder written = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        boolean dryRun = false;
+        List<Integer> numbers = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--dry-run")) {
+                dryRun = true;
+            } else {
+                numbers.add(Integer.parseInt(arg));
+            }
+        }
+        int threads = numbers.size() > 0 ? numbers.get(0) : Runtime.getRuntime().availableProcessors();
+        int batchSize = numbers.size() > 1 ? numbers.get(1) : 500;
+
+        ConnectionPool pool = ConnectionPool.getInstance();
+        pool.start();
+        int yearId;
+        long total;
+        try (ConnectionPool.PooledConnection pooled = pool.borrow()) {
+            try (ResultSet rs = pooled.prepare(CURRENT_YEAR_SQL).executeQuery()) {
+                if (!rs.next()) {
+                    System.out.println("❌ No current academic year");
+                    System.exit(1);
+                }
+                yearId = rs.getInt(1);
+                System.out.println("🎓 Deliberation for " + rs.getString(2) + (dryRun ? " (dry run, nothing is written)" : ""));
+            }
+            PreparedStatement count = pooled.prepare(COUNT_SQL);
+            count.setInt(1, yearId);
+            try (ResultSet rs = count.executeQuery()) {
+                total = rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+
+        long start = System.nanoTime();
+        ScheduledExecutorService progress = Executors.newSingleThreadScheduledExecutor();
+        progress.scheduleAtFixedRate(() -> System.out.printf("   %d grades read, %d/%d students decided, %d written%n",
+            rowsRead.sum(), decided.sum(), total, written.sum()), 1, 1, TimeUnit.SECONDS);
+
+        ForkJoinPool forkJoin = new ForkJoinPool(threads);
+        List<Cohort> cohorts = new ArrayList<>();
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        boolean write = !dryRun;
+        try (ConnectionPool.PooledConnection pooled = pool.borrow()) {
+            read(pooled.getConnection(), yearId, cohort -> {
+                cohorts.add(cohort);
+                tasks.add(forkJoin.submit(new CohortTask(cohort, yearId, write, batchSize)));
+            });
+        }
+
+        int failed = 0;
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                System.out.println("❌ Program " + cohorts.get(i).programId + " failed: " + e.getCause().getMessage());
+            }
+        }
+        forkJoin.shutdown();
+        progress.shutdownNow();
+        long elapsed = System.nanoTime() - start;
+
+        long[] totals = new long[3];
+        for (Cohort cohort : cohorts) {
+            long[] counts = cohort.counts();
+            System.out.printf("   Program %d: %d students, %d ADMIS, %d REDOUBLANT, %d EXCLU, %d without grades%n",
+                cohort.programId, cohort.size, counts[0], counts[1], counts[2], cohort.withoutGrades());
+            for (int k = 0; k < 3; k++) totals[k] += counts[k];
+        }
+        System.out.printf("✅ %d students decided in %.2f s (%d ADMIS, %d REDOUBLANT, %d EXCLU), %d written, %d programs failed%n",
+            decided.sum(), elapsed / 1e9, totals[0], totals[1], totals[2], written.sum(), failed);
+        System.out.println("   " + pool);
+        pool.close();
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    // Streams the year's cohorts, handing each one over as soon as all its rows are read
+    static void read(Connection conn, int yearId, Consumer<Cohort> complete) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(GRADES_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Rows come one at a time instead of the whole result set at once
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            stmt.setInt(1, yearId);
+            stmt.setInt(2, yearId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                Cohort cohort = null;
+                GradeEngine.Grades grades = null;
+                int student = 0;
+                while (rs.next()) {
+                    int programId = rs.getInt(1);
+                    int studentId = rs.getInt(2);
+                    if (cohort == null || programId != cohort.programId) {
+                        if (cohort != null) complete.accept(cohort);
+                        cohort = new Cohort(programId);
+                        grades = null;
+                    }
+                    if (grades == null || studentId != student) {
+                        grades = cohort.add(studentId);
+                        student = studentId;
+                    }
+                    // A student with no grades still gets one row, with no subject
+                    if (rs.getObject(3) == null) continue;
+                    grades.add(rs, 3);
+                    rowsRead.increment();
+                }
+                if (cohort != null) complete.accept(cohort);
+            }
+        }
+    }
+
+    // Averages and statuses of a whole cohort, in the calling fork-join pool (or the common one)
+    static void decide(Cohort cohort) {
+        cohort.averages = new double[cohort.size];
+        cohort.statuses = new String[cohort.size];
+        cohort.graded = new boolean[cohort.size];
+        new Decide(cohort, 0, cohort.size).invoke();
+    }
+
+    /** The students of one program, their grades, then their averages and statuses. */
+    static final class Cohort {
+        final int programId;
+        int size;
+        int[] studentIds = new int[64];
+        GradeEngine.Grades[] grades = new GradeEngine.Grades[64];
+        // Filled in by CohortTask
+        boolean[] graded;
+        double[] averages;
+        String[] statuses;
+
+        Cohort(int programId) {
+            this.programId = programId;
+        }
+
+        GradeEngine.Grades add(int studentId) {
+            if (size == studentIds.length) {
+                studentIds = Arrays.copyOf(studentIds, size * 2);
+                grades = Arrays.copyOf(grades, size * 2);
+            }
+            studentIds[size] = studentId;
+            grades[size] = new GradeEngine.Grades(16);
+            return grades[size++];
+        }
+
+        // ADMIS, REDOUBLANT, EXCLU
+        long[] counts() {
+            long[] counts = new long[3];
+            for (int i = 0; statuses != null && i < size; i++) {
+                if (statuses[i] == null) continue;
+                counts[statuses[i].equals("ADMIS") ? 0 : statuses[i].equals("REDOUBLANT") ? 1 : 2]++;
+            }
+            return counts;
+        }
+
+        int withoutGrades() {
+            int count = 0;
+            for (int i = 0; graded != null && i < size; i++) {
+                if (!graded[i]) count++;
+            }
+            return count;
+        }
+    }
+
+    /** Decides a whole cohort with the fork-join pool, then writes it. */
+    private static final class CohortTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Cohort cohort;
+        private final int yearId;
+        private final boolean write;
+        private final int batchSize;
+
+        CohortTask(Cohort cohort, int yearId, boolean write, int batchSize) {
+            this.cohort = cohort;
+            this.yearId = yearId;
+            this.write = write;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        protected void compute() {
+            decide(cohort);
+            if (!write) return;
+            try {
+                write();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e.getMessage(), e);
+            }
+        }
+
+        private void write() throws SQLException {
+            try (ConnectionPool.PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+                Connection conn = pooled.getConnection();
+                conn.setAutoCommit(false);
+                try (PreparedStatement registration = conn.prepareStatement(UPDATE_REGISTRATION_SQL);
+                     PreparedStatement student = conn.prepareStatement(UPDATE_STUDENT_SQL)) {
+                    int pending = 0;
+                    for (int i = 0; i < cohort.size; i++) {
+                        registration.setString(1, cohort.statuses[i]);
+                        registration.setDouble(2, cohort.averages[i]);
+                        registration.setInt(3, cohort.studentIds[i]);
+                        registration.setInt(4, yearId);
+                        registration.addBatch();
+                        student.setString(1, cohort.statuses[i]);
+                        student.setInt(2, cohort.studentIds[i]);
+                        student.addBatch();
+                        if (++pending == batchSize || i + 1 == cohort.size) {
+                            registration.executeBatch();
+                            student.executeBatch();
+                            conn.commit();
+                            written.add(pending);
+                            pending = 0;
+                        }
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    conn.rollback();
+                    throw e;
+                } finally {
+                    conn.setAutoCommit(true);
+                }
+            }
+        }
+    }
+
+    /** Decides students [from, to) of a cohort, splitting while there are more than SPLIT. */
+    private static final class Decide extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Cohort cohort;
+        private final int from;
+        private final int to;
+
+        Decide(Cohort cohort, int from, int to) {
+            this.cohort = cohort;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Decide(cohort, from, middle), new Decide(cohort, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                GradeEngine.Grades grades = cohort.grades[i];
+                double average = GradeEngine.compute(grades).getOverallAverage();
+                cohort.averages[i] = average;
+                cohort.statuses[i] = StudentResults.status(average);
+                cohort.graded[i] = grades.size() > 0;
+                // Nothing needs the rows once decided
+                cohort.grades[i] = null;
+            }
+            decided.add(to - from);
+        }
+    }
+}
\ No newline at end of file
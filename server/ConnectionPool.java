@@ -0,0 +1,338 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Server-side JDBC pool. ClientHandler borrows a connection for the duration
+ * of one action and gives it back, so MySQL sees at most "server.db.poolMax"
+ * connections however many clients are connected.
+ *
+ * Settings (system properties): server.db.url, server.db.user,
+ * server.db.password, server.db.poolMin, server.db.poolMax,
+ * server.db.borrowTimeoutMs, server.db.validationIntervalMs,
+ * server.db.idleTimeoutMs, server.db.leakThresholdMs,
+ * server.db.statementCacheSize.
+ *
+ * Each pooled connection keeps an LRU cache of its prepared statements keyed
+ * by SQL text. With useServerPrepStmts, MySQL parses a statement once per
+ * connection and later executions only send the parameters. A statement is
+ * taken out of the cache while it is lent and put back when the action ends,
+ * so preparing the same SQL twice in one action gives two statements, and
+ * the LRU only ever closes statements nobody is using.
+ */
+public class ConnectionPool {
+    private static final Log log = Log.get("server.db");
+    private static ConnectionPool instance;
+
+    // rewriteBatchedStatements turns a JDBC batch of inserts into one multi-row INSERT
+    private final String url = System.getProperty("server.db.url",
+        "jdbc:mysql://localhost:3306/gestion_scolarite?rewriteBatchedStatements=true&useServerPrepStmts=true");
+    private final String user = System.getProperty("server.db.user", "root");
+    private final String password = System.getProperty("server.db.password", "");
+    private final int minIdle = Integer.getInteger("server.db.poolMin", 2);
+    private final int maxSize = Integer.getInteger("server.db.poolMax", 20);
+    private final long validationIntervalMs = Long.getLong("server.db.validationIntervalMs", 30_000);
+    private final long idleTimeoutMs = Long.getLong("server.db.idleTimeoutMs", 600_000);
+    private final long leakThresholdMs = Long.getLong("server.db.leakThresholdMs", 60_000);
+    // Per connection; 0 disables caching (statements are then closed when the action ends)
+    private final int statementCacheSize = Integer.getInteger("server.db.statementCacheSize", 64);
+
+    // The bulkhead's permits are the pool size; its wait metrics are the pool-wait metrics
+    private final DbBulkhead permits = new DbBulkhead(maxSize, Long.getLong("server.db.borrowTimeoutMs", 30_000));
+    private final BlockingDeque<PooledConnection> idle = new LinkedBlockingDeque<>();
+    private final Set<PooledConnection> borrowed = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService housekeeper = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "db-pool-housekeeper");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final LongAdder created = new LongAdder();
+    private final LongAdder destroyed = new LongAdder();
+    private final LongAdder validationFailures = new LongAdder();
+    private final LongAdder leaksReported = new LongAdder();
+    private final LongAdder statementHits = new LongAdder();
+    private final LongAdder statementMisses = new LongAdder();
+    private final LongAdder statementEvictions = new LongAdder();
+
+    public static synchronized ConnectionPool getInstance() {
+        if (instance == null) {
+            instance = new ConnectionPool();
+        }
+        return instance;
+    }
+
+    private ConnectionPool() {
+    }
+
+    // Warms minIdle connections and starts leak/idle checks, all off the calling thread
+    public void start() {
+        housekeeper.execute(this::fillToMinimum);
+        housekeeper.scheduleAtFixedRate(this::housekeep, 5, 5, TimeUnit.SECONDS);
+        log.info("✅ DB pool started (min={}, max={})", minIdle, maxSize);
+    }
+
+    public PooledConnection borrow() throws SQLException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+
+        try {
+            PooledConnection pooled;
+            while ((pooled = idle.pollFirst()) != null) {
+                if (isUsable(pooled)) break;
+                destroy(pooled);
+            }
+            if (pooled == null) {
+                pooled = create();
+            }
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrower = Thread.currentThread().getName();
+            borrowed.add(pooled);
+            return pooled;
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    // A connection that failed mid-action is dropped instead of reused
+    void release(PooledConnection pooled, boolean broken) {
+        if (!borrowed.remove(pooled)) return;
+        try {
+            if (broken || pooled.connection.isClosed()) {
+                destroy(pooled);
+                return;
+            }
+            pooled.endOfAction();
+            if (!pooled.connection.getAutoCommit()) {
+                pooled.connection.rollback();
+                pooled.connection.setAutoCommit(true);
+            }
+            pooled.lastUsed = System.currentTimeMillis();
+            idle.offerFirst(pooled);
+        } catch (SQLException e) {
+            destroy(pooled);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private boolean isUsable(PooledConnection pooled) {
+        if (System.currentTimeMillis() - pooled.lastUsed < validationIntervalMs) {
+            return true;
+        }
+        try {
+            if (pooled.connection.isValid(2)) {
+                return true;
+            }
+        } catch (SQLException e) {
+            // treated as invalid below
+        }
+        validationFailures.increment();
+        return false;
+    }
+
+    private PooledConnection create() throws SQLException {
+        PooledConnection pooled = new PooledConnection(this, DriverManager.getConnection(url, user, password));
+        created.increment();
+        return pooled;
+    }
+
+    private void destroy(PooledConnection pooled) {
+        // Closing the connection closes its statements too
+        pooled.statements.clear();
+        pooled.usedStatements.clear();
+        try {
+            pooled.connection.close();
+        } catch (SQLException e) {
+            // Ignore close error
+        }
+        destroyed.increment();
+    }
+
+    private void fillToMinimum() {
+        while (idle.size() + borrowed.size() < minIdle) {
+            try {
+                PooledConnection pooled = create();
+                pooled.lastUsed = System.currentTimeMillis();
+                idle.offerLast(pooled);
+            } catch (SQLException e) {
+                log.error("❌ DB pool warm-up failed: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private void housekeep() {
+        long now = System.currentTimeMillis();
+
+        for (PooledConnection pooled : borrowed) {
+            long heldFor = now - pooled.borrowedAt;
+            if (heldFor > leakThresholdMs && !pooled.leakReported) {
+                pooled.leakReported = true;
+                leaksReported.increment();
+                log.warn("⚠️ Possible connection leak: held {} ms by {}", heldFor, pooled.borrower);
+            }
+        }
+
+        // Oldest idle connections sit at the tail; trim them down to minIdle
+        while (idle.size() > minIdle) {
+            PooledConnection oldest = idle.peekLast();
+            if (oldest == null || now - oldest.lastUsed < idleTimeoutMs) break;
+            if (idle.removeLastOccurrence(oldest)) {
+                destroy(oldest);
+            }
+        }
+        fillToMinimum();
+    }
+
+    public void close() {
+        housekeeper.shutdownNow();
+        PooledConnection pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            destroy(pooled);
+        }
+        log.info("✅ DB pool closed");
+    }
+
+    public long getStatementHits() {
+        return statementHits.sum();
+    }
+    
+    public long getStatementMisses() {
+        return statementMisses.sum();
+    }
+    
+    public double getStatementHitRate() {
+        long hits = statementHits.sum();
+        long total = hits + statementMisses.sum();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DB pool: idle=%d, borrowed=%d, created=%d, destroyed=%d, validationFailures=%d, leaks=%d, " +
+            "statements: hitRate=%.1f%% (%d/%d), evicted=%d | %s",
+            idle.size(), borrowed.size(), created.sum(), destroyed.sum(), validationFailures.sum(), leaksReported.sum(),
+            getStatementHitRate() * 100, statementHits.sum(), statementHits.sum() + statementMisses.sum(),
+            statementEvictions.sum(), permits);
+    }
+
+    /** A borrowed connection; close() hands it back to the pool. */
+    public static final class PooledConnection implements AutoCloseable {
+        private final ConnectionPool pool;
+        private final Connection connection;
+        private volatile long lastUsed;
+        private volatile long borrowedAt;
+        private volatile String borrower;
+        private volatile boolean leakReported;
+        private boolean broken;
+        // Only the borrowing thread touches these, so no locking
+        private final Map<String, PreparedStatement> statements;
+        // Lent during the current action, keyed like the cache
+        private final List<Map.Entry<String, PreparedStatement>> usedStatements = new ArrayList<>();
+
+        private PooledConnection(ConnectionPool pool, Connection connection) {
+            this.pool = pool;
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() <= pool.statementCacheSize) return false;
+                    closeQuietly(eldest.getValue());
+                    pool.statementEvictions.increment();
+                    return true;
+                }
+            };
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        /*
+         * Returns a prepared statement for this SQL, reusing a cached one when
+         * possible. Callers close the ResultSets they open but never the
+         * statement itself; it is reset and cached again when the connection
+         * goes back to the pool (or at releaseStatements()).
+         */
+        public PreparedStatement prepare(String sql) throws SQLException {
+            return prepare(sql, Statement.NO_GENERATED_KEYS);
+        }
+
+        public PreparedStatement prepare(String sql, int autoGeneratedKeys) throws SQLException {
+            String key = autoGeneratedKeys == Statement.RETURN_GENERATED_KEYS ? "keys:" + sql : sql;
+            PreparedStatement stmt = statements.remove(key);
+            if (stmt != null && !stmt.isClosed()) {
+                pool.statementHits.increment();
+            } else {
+                pool.statementMisses.increment();
+                stmt = connection.prepareStatement(sql, autoGeneratedKeys);
+            }
+            usedStatements.add(Map.entry(key, stmt));
+            return stmt;
+        }
+
+        // How many statements are lent so far; pass it to releaseStatements() once the later ones are done with
+        public int lentStatements() {
+            return usedStatements.size();
+        }
+
+        // Returns the statements prepared since lentStatements() gave mark, so a long action can reuse them
+        public void releaseStatements(int mark) throws SQLException {
+            List<Map.Entry<String, PreparedStatement>> done = usedStatements.subList(mark, usedStatements.size());
+            try {
+                for (Map.Entry<String, PreparedStatement> used : done) {
+                    giveBack(used.getKey(), used.getValue());
+                }
+            } finally {
+                done.clear();
+            }
+        }
+
+        // Leaves the statements used by the action clean for the next borrower
+        private void endOfAction() throws SQLException {
+            releaseStatements(0);
+        }
+
+        private void giveBack(String key, PreparedStatement stmt) throws SQLException {
+            if (stmt.isClosed()) return;
+            if (pool.statementCacheSize == 0 || statements.containsKey(key)) {
+                stmt.close();
+                return;
+            }
+            stmt.clearBatch();
+            stmt.clearParameters();
+            statements.put(key, stmt);
+        }
+
+        private static void closeQuietly(Statement stmt) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                // Ignore close error
+            }
+        }
+
+        public void markBroken() {
+            broken = true;
+        }
+
+        @Override
+        public void close() {
+            boolean wasBroken = broken;
+            broken = false;
+            leakReported = false;
+            pool.release(this, wasBroken);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how many request threads may do JDBC work at the same time. The
+ * ConnectionPool uses it as its size limit, so its wait figures are the
+ * pool-wait metrics.
+ *
+ * With one virtual thread per client, thousands of handlers can be runnable
+ * at once; without this limit each of them would open a MySQL connection.
+ * Waiting threads park on the semaphore, which does not pin their carrier.
+ */
+public class DbBulkhead {
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final long timeoutMillis;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+
+    public DbBulkhead(int maxConcurrent, long timeoutMillis) {
+        this.permits = new Semaphore(maxConcurrent, true);
+        this.maxConcurrent = maxConcurrent;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    public void acquire() throws InterruptedException {
+        long start = System.nanoTime();
+        boolean ok = permits.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulate(waited);
+
+        if (!ok) {
+            rejected.increment();
+            throw new IllegalStateException("Database busy: no connection slot after " + timeoutMillis + " ms");
+        }
+        acquired.increment();
+    }
+
+    public void release() {
+        permits.release();
+    }
+
+    public int getInUse() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    public int getQueueLength() {
+        return permits.getQueueLength();
+    }
+
+    public long getAcquiredCount() {
+        return acquired.sum();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public double getAverageWaitMillis() {
+        long attempts = acquired.sum() + rejected.sum();
+        return attempts == 0 ? 0.0 : totalWaitNanos.get() / 1e6 / attempts;
+    }
+
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1e6;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DB bulkhead: inUse=%d/%d, queued=%d, acquired=%d, rejected=%d, avgWait=%.2fms, maxWait=%.2fms",
+            getInUse(), maxConcurrent, getQueueLength(), getAcquiredCount(), getRejectedCount(),
+            getAverageWaitMillis(), getMaxWaitMillis());
+    }
+}
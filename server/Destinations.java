@@ -0,0 +1,87 @@
+/**
+ * JMS destination names shared by the server and the clients (this file is
+ * kept identical in client/ and server/, like WireProtocol), so a message
+ * is always published where its receiver listens.
+ *
+ * Two routing modes, chosen with -Dmessaging.routing (set the same value
+ * on the server and every client):
+ *
+ *   per-user (default)  one queue per user, user.<type>.<id>, and
+ *                       notification.<id> for notifications
+ *   partitioned         messaging.partitions queues, users.p<n> and
+ *                       notifications.p<n>; a user's partition is a hash of
+ *                       type and id, and consumers select their own messages
+ *                       with receiverSelector() on the ReceiverId and
+ *                       ReceiverType properties
+ *
+ * Partitioning keeps the broker at a fixed number of destinations however
+ * many users there are. The price is selector evaluation on dispatch, and
+ * messages for offline users sitting in a shared queue. Broadcasts always
+ * use one topic per user type, broadcast.<type>.
+ *
+ * A fan-out (one message to many users, see FanOutService) is published once
+ * to a composite of the recipients' queues, and carries a PayloadId property
+ * so a client can drop a redelivered copy.
+ */
+public final class Destinations {
+    public static final String RECEIVER_ID = "ReceiverId";
+    public static final String RECEIVER_TYPE = "ReceiverType";
+    public static final String PAYLOAD_ID = "PayloadId";
+
+    private static final boolean PARTITIONED = "partitioned".equalsIgnoreCase(System.getProperty("messaging.routing", "per-user"));
+    private static final int PARTITIONS = Math.max(1, Integer.getInteger("messaging.partitions", 16));
+
+    private Destinations() {
+    }
+
+    public static boolean isPartitioned() {
+        return PARTITIONED;
+    }
+
+    public static String userQueue(int userId, String userType) {
+        return PARTITIONED
+            ? "users.p" + partition(userId, userType)
+            : "user." + userType.toLowerCase() + "." + userId;
+    }
+
+    // ActiveMQ composite destination (per-user mode): one send puts a copy in each listed queue
+    public static String compositeUserQueue(int[] userIds, String userType) {
+        StringBuilder name = new StringBuilder(userIds.length * 20);
+        for (int userId : userIds) {
+            if (name.length() > 0) name.append(',');
+            name.append(userQueue(userId, userType));
+        }
+        return name.toString();
+    }
+
+    public static String notificationQueue(int userId) {
+        return PARTITIONED ? "notifications.p" + partition(userId, "") : "notification." + userId;
+    }
+
+    public static String broadcastTopic(String userType) {
+        return "broadcast." + userType.toLowerCase();
+    }
+
+    // Property value the selector compares against; always upper case
+    public static String receiverType(String userType) {
+        return userType.toUpperCase();
+    }
+
+    // null in per-user mode, where the queue itself identifies the receiver
+    public static String receiverSelector(int userId, String userType) {
+        if (!PARTITIONED) return null;
+        return RECEIVER_ID + " = " + userId + " AND " + RECEIVER_TYPE + " = '" + receiverType(userType) + "'";
+    }
+
+    public static String notificationSelector(int userId) {
+        return PARTITIONED ? RECEIVER_ID + " = " + userId : null;
+    }
+
+    static int partition(int userId, String userType) {
+        int h = receiverType(userType).hashCode() * 31 + userId;
+        h ^= h >>> 16;
+        h *= 0x45d9f3b;
+        h ^= h >>> 16;
+        return Math.floorMod(h, PARTITIONS);
+    }
+}
@@ -0,0 +1,279 @@
+import java.sql.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A student's subject finals, overall average and exam counts, from one
+ * query and one pass over its rows.
+ *
+ * load() reads every (subject, exam type, coefficient, score) row of the
+ * student, ordered by subject, into parallel primitive arrays; compute()
+ * walks them once. Within a subject the final follows the dashboard rules:
+ *
+ *   CONTROLE + TP + EXAMEN   0.2 CONTROLE + 0.2 TP + 0.6 EXAMEN
+ *   CONTROLE + EXAMEN        0.4 CONTROLE + 0.6 EXAMEN
+ *   EXAMEN otherwise         EXAMEN score times its exam coefficient
+ *   no EXAMEN                average of the scores weighted by coefficient
+ *
+ * If a subject has several exams of one type, the one with the highest
+ * exam_id counts. Finals and the overall average (the plain mean of the
+ * finals) are rounded to two decimals; an exam is passed at 10 or above.
+ *
+ * The rows are every grade the student has, whatever the program or the
+ * academic year of the subject: the dashboards and student_results show
+ * that running average. A year's decision (CohortDeliberation,
+ * UpdateStudentStatus) keeps only the subjects of the programs the student
+ * is registered in that year, grades carrying no year of their own, and
+ * averages their finals with these same rules; CohortDeliberation reads
+ * them through ROWS, COLUMNS and ORDER.
+ *
+ * This file is kept identical in client/ and server/, so StudentResults
+ * materializes the same numbers the dashboards compute.
+ */
+public final class GradeEngine {
+    // A student's grade rows are those of ROWS with g.student_id = theirs, read as COLUMNS, sorted by ORDER
+    static final String ROWS =
+        "grades g JOIN exams e ON e.exam_id = g.exam_id JOIN subjects s ON s.subject_id = e.subject_id";
+    static final String COLUMNS = "e.subject_id, s.subject_name, e.exam_type, e.coefficient, g.score";
+    static final String ORDER = "e.subject_id, g.exam_id";
+    private static final String GRADES_SQL =
+        "SELECT " + COLUMNS + " FROM " + ROWS + " WHERE g.student_id = ? ORDER BY " + ORDER;
+    private static final String SUBJECT_GRADES_SQL =
+        "SELECT " + COLUMNS + " FROM " + ROWS + " WHERE g.student_id = ? AND e.subject_id = ? ORDER BY " + ORDER;
+    private static final String RANGE_GRADES_SQL =
+        "SELECT g.student_id, " + COLUMNS + " FROM " + ROWS + " WHERE g.student_id BETWEEN ? AND ? " +
+        "ORDER BY g.student_id, " + ORDER;
+    // A locking read returns the latest committed rows, whatever the transaction's snapshot
+    private static final String LOCKED = " LOCK IN SHARE MODE";
+
+    static final byte CONTROLE = 0;
+    static final byte TP = 1;
+    static final byte EXAMEN = 2;
+    static final byte PROJET = 3;
+    private static final int TYPES = 4;
+    // The order the former HashMap-based code summed in, so weighted averages round the same way
+    private static final byte[] SUM_ORDER = {PROJET, CONTROLE, TP, EXAMEN};
+    private static final double PASS_MARK = 10.0;
+
+    private GradeEngine() {
+    }
+
+    /** One student's grade rows, grouped by subject, in parallel arrays. */
+    public static final class Grades {
+        int size;
+        int[] subjectIds;
+        byte[] examTypes;
+        double[] coefficients;
+        double[] scores;
+        // Indexed like the rows, but only set on the first row of each subject
+        String[] subjectNames;
+
+        Grades(int capacity) {
+            subjectIds = new int[capacity];
+            examTypes = new byte[capacity];
+            coefficients = new double[capacity];
+            scores = new double[capacity];
+            subjectNames = new String[capacity];
+        }
+
+        void add(int subjectId, String subjectName, byte examType, double coefficient, double score) {
+            if (size == scores.length) {
+                int capacity = Math.max(16, size * 2);
+                subjectIds = Arrays.copyOf(subjectIds, capacity);
+                examTypes = Arrays.copyOf(examTypes, capacity);
+                coefficients = Arrays.copyOf(coefficients, capacity);
+                scores = Arrays.copyOf(scores, capacity);
+                subjectNames = Arrays.copyOf(subjectNames, capacity);
+            }
+            if (size == 0 || subjectIds[size - 1] != subjectId) subjectNames[size] = subjectName;
+            subjectIds[size] = subjectId;
+            examTypes[size] = examType;
+            coefficients[size] = coefficient;
+            scores[size] = score;
+            size++;
+        }
+
+        // Adds the row at the cursor, whose COLUMNS start at column first
+        void add(ResultSet rs, int first) throws SQLException {
+            add(rs.getInt(first), rs.getString(first + 1), examType(rs.getString(first + 2)), rs.getDouble(first + 3),
+                rs.getDouble(first + 4));
+        }
+
+        public int size() {
+            return size;
+        }
+    }
+
+    /** Everything the dashboards show, computed from one Grades. */
+    public static final class Result {
+        private final int subjectCount;
+        private final int[] subjectIds;
+        private final String[] subjectNames;
+        private final double[] subjectFinals;
+        private final double overallAverage;
+        private final int examCount;
+        private final int examsPassed;
+
+        Result(int subjectCount, int[] subjectIds, String[] subjectNames, double[] subjectFinals, double overallAverage,
+               int examCount, int examsPassed) {
+            this.subjectCount = subjectCount;
+            this.subjectIds = subjectIds;
+            this.subjectNames = subjectNames;
+            this.subjectFinals = subjectFinals;
+            this.overallAverage = overallAverage;
+            this.examCount = examCount;
+            this.examsPassed = examsPassed;
+        }
+
+        public int getSubjectCount() { return subjectCount; }
+        public int getSubjectId(int i) { return subjectIds[i]; }
+        public String getSubjectName(int i) { return subjectNames[i]; }
+        public double getSubjectFinal(int i) { return subjectFinals[i]; }
+        // 0 when the student has no grades
+        public double getOverallAverage() { return overallAverage; }
+        public int getExamCount() { return examCount; }
+        public int getExamsPassed() { return examsPassed; }
+        // Percentage of exams passed, 0 when there are none
+        public double getSuccessRate() { return examCount > 0 ? examsPassed * 100.0 / examCount : 0.0; }
+
+        // Final of one subject, or 0 if the student has no grade in it
+        public double getSubjectFinalById(int subjectId) {
+            for (int i = 0; i < subjectCount; i++) {
+                if (subjectIds[i] == subjectId) return subjectFinals[i];
+            }
+            return 0.0;
+        }
+    }
+
+    public static Grades load(Connection conn, int studentId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(GRADES_SQL)) {
+            stmt.setInt(1, studentId);
+            return read(stmt);
+        }
+    }
+
+    // Inside a transaction that writes this student's grades: sees what others committed since it began
+    public static Grades loadLocked(Connection conn, int studentId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(GRADES_SQL + LOCKED)) {
+            stmt.setInt(1, studentId);
+            return read(stmt);
+        }
+    }
+
+    // Every student with grades whose id is in [fromStudent, toStudent], in one query, by student id
+    public static Map<Integer, Grades> loadRange(Connection conn, int fromStudent, int toStudent, boolean lock)
+            throws SQLException {
+        Map<Integer, Grades> byStudent = new LinkedHashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(lock ? RANGE_GRADES_SQL + LOCKED : RANGE_GRADES_SQL)) {
+            stmt.setInt(1, fromStudent);
+            stmt.setInt(2, toStudent);
+            try (ResultSet rs = stmt.executeQuery()) {
+                Grades grades = null;
+                int current = 0;
+                while (rs.next()) {
+                    int studentId = rs.getInt(1);
+                    if (grades == null || studentId != current) {
+                        grades = new Grades(16);
+                        current = studentId;
+                        byStudent.put(studentId, grades);
+                    }
+                    grades.add(rs, 2);
+                }
+            }
+        }
+        return byStudent;
+    }
+
+    // Only the rows of one subject
+    public static Grades load(Connection conn, int studentId, int subjectId) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(SUBJECT_GRADES_SQL)) {
+            stmt.setInt(1, studentId);
+            stmt.setInt(2, subjectId);
+            return read(stmt);
+        }
+    }
+
+    private static Grades read(PreparedStatement stmt) throws SQLException {
+        Grades grades = new Grades(32);
+        try (ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                grades.add(rs, 1);
+            }
+        }
+        return grades;
+    }
+
+    public static Result compute(Grades grades) {
+        int n = grades.size;
+        int[] subjectIds = new int[n];
+        String[] subjectNames = new String[n];
+        double[] finals = new double[n];
+        int subjects = 0;
+        int passed = 0;
+        double finalsSum = 0.0;
+
+        // Score and coefficient of the last exam of each type in the current subject; bit t of present marks type t
+        double[] score = new double[TYPES];
+        double[] coefficient = new double[TYPES];
+        int present = 0;
+        int first = 0;
+        for (int i = 0; i < n; i++) {
+            if (grades.scores[i] >= PASS_MARK) passed++;
+            int type = grades.examTypes[i];
+            score[type] = grades.scores[i];
+            coefficient[type] = grades.coefficients[i];
+            present |= 1 << type;
+            if (i + 1 == n || grades.subjectIds[i + 1] != grades.subjectIds[i]) {
+                double subjectFinal = subjectFinal(present, score, coefficient);
+                subjectIds[subjects] = grades.subjectIds[i];
+                subjectNames[subjects] = grades.subjectNames[first];
+                finals[subjects] = subjectFinal;
+                finalsSum += subjectFinal;
+                subjects++;
+                present = 0;
+                first = i + 1;
+            }
+        }
+        double overall = subjects > 0 ? round2(finalsSum / subjects) : 0.0;
+        return new Result(subjects, subjectIds, subjectNames, finals, overall, n, passed);
+    }
+
+    static double subjectFinal(int present, double[] score, double[] coefficient) {
+        boolean controle = (present & 1 << CONTROLE) != 0;
+        boolean tp = (present & 1 << TP) != 0;
+        boolean examen = (present & 1 << EXAMEN) != 0;
+        double result;
+        if (controle && tp && examen) {
+            result = score[CONTROLE] * 0.2 + score[TP] * 0.2 + score[EXAMEN] * 0.6;
+        } else if (controle && examen) {
+            result = score[CONTROLE] * 0.4 + score[EXAMEN] * 0.6;
+        } else if (examen) {
+            result = score[EXAMEN] * coefficient[EXAMEN];
+        } else {
+            double weighted = 0.0;
+            double totalCoefficient = 0.0;
+            for (int t : SUM_ORDER) {
+                if ((present & 1 << t) == 0) continue;
+                weighted += score[t] * coefficient[t];
+                totalCoefficient += coefficient[t];
+            }
+            result = totalCoefficient > 0 ? weighted / totalCoefficient : 0.0;
+        }
+        return round2(result);
+    }
+
+    static byte examType(String examType) {
+        switch (examType) {
+            case "CONTROLE": return CONTROLE;
+            case "TP": return TP;
+            case "EXAMEN": return EXAMEN;
+            case "PROJET": return PROJET;
+            default: throw new IllegalArgumentException("Unknown exam type: " + examType);
+        }
+    }
+
+    private static double round2(double value) {
+        return Math.round(value * 100.0) / 100.0;
+    }
+}
\ No newline at end of file
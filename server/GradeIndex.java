@@ -0,0 +1,253 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Every student's overall average and subject finals, held in memory so
+ * that GET_OVERALL_AVERAGE and CALCULATE_SUBJECT_AVERAGE answer without a
+ * query. It mirrors student_results and student_subject_results, so the
+ * numbers are GradeEngine's, as in the tables.
+ *
+ * A student is one immutable Entry: the average, the exam count and two
+ * sorted primitive arrays (subject ids, finals). Entries sit in chunks of
+ * 4096 slots indexed by student id, like UnreadCounters; reads take no lock.
+ *
+ * Every write of a student_results row bumps its version, and an entry only
+ * replaces one with a lower version. Loads can therefore finish in any
+ * order, from any of these sources, without putting an older result back:
+ *
+ *   ADD_GRADE, BATCH  read the rows they rewrote inside their transaction
+ *                     and install them once it commits
+ *   poll              every server.grades.pollMs, the rows rewritten in the
+ *                     last server.grades.overlapSec, which picks up grades
+ *                     that clients write directly to the database
+ *   rebuild()         everything, at startup and every
+ *                     server.grades.refreshSec
+ *
+ * A client transaction that takes longer than overlapSec to commit is only
+ * seen by the next rebuild. Until the first rebuild succeeds, and for
+ * students it does not hold yet, the handlers read the tables.
+ */
+public class GradeIndex {
+    private static final Log log = Log.get("server.grades");
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // Student ids are below 2^24, like user ids in UnreadCounters
+    private static final int MAX_CHUNKS = 1 << (24 - CHUNK_BITS);
+    private static GradeIndex instance;
+
+    private static final String SELECT_SQL =
+        "SELECT r.student_id, r.version, r.overall_average, r.exam_count, ssr.subject_id, ssr.final_grade " +
+        "FROM student_results r LEFT JOIN student_subject_results ssr ON ssr.student_id = r.student_id ";
+    private static final String ORDER_SQL = " ORDER BY r.student_id, ssr.subject_id";
+    private static final String RECENT_SQL = SELECT_SQL + "WHERE r.computed_at >= NOW() - INTERVAL ? SECOND" + ORDER_SQL;
+    private static final String STUDENTS_SQL = SELECT_SQL + "WHERE r.student_id IN (";
+
+    private final long pollMs = Long.getLong("server.grades.pollMs", 1000);
+    private final int overlapSec = Integer.getInteger("server.grades.overlapSec", 30);
+    private final long refreshSec = Long.getLong("server.grades.refreshSec", 3600);
+
+    private final AtomicReferenceArray<AtomicReferenceArray<Entry>> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+    private volatile boolean ready;
+    private final ScheduledExecutorService refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "grade-index-refresh");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile long rebuildMillis;
+    private final LongAdder memoryReads = new LongAdder();
+    private final LongAdder tableReads = new LongAdder();
+    private final LongAdder polled = new LongAdder();
+
+    public static synchronized GradeIndex getInstance() {
+        if (instance == null) {
+            instance = new GradeIndex();
+        }
+        return instance;
+    }
+
+    private GradeIndex() {
+    }
+
+    // Rebuilds once on the calling thread, then keeps polling and rebuilding in the background
+    public void start() {
+        try {
+            rebuild();
+        } catch (SQLException e) {
+            // The handlers keep reading the tables until a rebuild succeeds
+            log.warn("⚠️ Grade index unavailable: {}", e.getMessage());
+        }
+        refresher.scheduleWithFixedDelay(() -> {
+            try {
+                if (ready) poll();
+            } catch (SQLException | RuntimeException e) {
+                log.warn("⚠️ Grade index poll failed: {}", e.getMessage());
+            }
+        }, pollMs, pollMs, TimeUnit.MILLISECONDS);
+        if (refreshSec > 0) {
+            refresher.scheduleWithFixedDelay(() -> {
+                try {
+                    rebuild();
+                } catch (SQLException | RuntimeException e) {
+                    log.error("❌ Grade index rebuild failed: {}", e.getMessage());
+                }
+            }, refreshSec, refreshSec, TimeUnit.SECONDS);
+        }
+    }
+
+    public void close() {
+        refresher.shutdownNow();
+    }
+
+    public void rebuild() throws SQLException {
+        long start = System.nanoTime();
+        int students;
+        try (ConnectionPool.PooledConnection pooled = ConnectionPool.getInstance().borrow();
+             ResultSet rs = pooled.prepare(SELECT_SQL + ORDER_SQL).executeQuery()) {
+            students = read(rs, this::install);
+        }
+        ready = true;
+        rebuildMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("✅ Grade index rebuilt: {} students in {} ms", students, rebuildMillis);
+    }
+
+    private void poll() throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+            PreparedStatement stmt = pooled.prepare(RECENT_SQL);
+            stmt.setInt(1, overlapSec);
+            try (ResultSet rs = stmt.executeQuery()) {
+                polled.add(read(rs, this::install));
+            }
+        }
+    }
+
+    // Inside the transaction that rewrote these students' results; install() the entries once it commits
+    public static List<Entry> load(Connection conn, int... studentIds) throws SQLException {
+        List<Entry> entries = new ArrayList<>(studentIds.length);
+        if (studentIds.length == 0) return entries;
+        StringBuilder sql = new StringBuilder(STUDENTS_SQL);
+        for (int i = 0; i < studentIds.length; i++) sql.append(i == 0 ? "?" : ", ?");
+        sql.append(')').append(ORDER_SQL);
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < studentIds.length; i++) stmt.setInt(i + 1, studentIds[i]);
+            try (ResultSet rs = stmt.executeQuery()) {
+                read(rs, entries::add);
+            }
+        }
+        return entries;
+    }
+
+    public void install(List<Entry> entries) {
+        entries.forEach(this::install);
+    }
+
+    // Keeps whichever of the two entries has the higher version
+    private void install(Entry entry) {
+        if (entry.studentId < 0 || entry.studentId >= MAX_CHUNKS * CHUNK_SIZE) return;
+        int index = entry.studentId >>> CHUNK_BITS;
+        AtomicReferenceArray<Entry> chunk = chunks.get(index);
+        if (chunk == null) {
+            chunks.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = chunks.get(index);
+        }
+        int slot = entry.studentId & CHUNK_SIZE - 1;
+        while (true) {
+            Entry current = chunk.get(slot);
+            if (current != null && current.version >= entry.version) return;
+            if (chunk.compareAndSet(slot, current, entry)) return;
+        }
+    }
+
+    // Null until the first rebuild, and for students it does not hold: read the tables then
+    public Entry get(int studentId) {
+        AtomicReferenceArray<Entry> chunk = ready && studentId >= 0 && studentId < MAX_CHUNKS * CHUNK_SIZE
+            ? chunks.get(studentId >>> CHUNK_BITS) : null;
+        Entry entry = chunk == null ? null : chunk.get(studentId & CHUNK_SIZE - 1);
+        (entry == null ? tableReads : memoryReads).increment();
+        return entry;
+    }
+
+    // Rows ordered by student and subject, one or more per student; returns how many students were read
+    private static int read(ResultSet rs, Consumer<Entry> sink) throws SQLException {
+        int students = 0;
+        int studentId = 0;
+        long version = 0;
+        double average = 0.0;
+        int exams = 0;
+        int[] subjectIds = new int[16];
+        double[] finals = new double[16];
+        int size = 0;
+        while (rs.next()) {
+            int id = rs.getInt(1);
+            if (students == 0 || id != studentId) {
+                if (students > 0) {
+                    sink.accept(new Entry(studentId, version, average, exams, Arrays.copyOf(subjectIds, size),
+                        Arrays.copyOf(finals, size)));
+                }
+                students++;
+                studentId = id;
+                version = rs.getLong(2);
+                average = rs.getDouble(3);
+                exams = rs.getInt(4);
+                size = 0;
+            }
+            int subjectId = rs.getInt(5);
+            // A student without subject finals still has one row
+            if (rs.wasNull()) continue;
+            if (size == subjectIds.length) {
+                subjectIds = Arrays.copyOf(subjectIds, size * 2);
+                finals = Arrays.copyOf(finals, size * 2);
+            }
+            subjectIds[size] = subjectId;
+            finals[size++] = rs.getDouble(6);
+        }
+        if (students > 0) {
+            sink.accept(new Entry(studentId, version, average, exams, Arrays.copyOf(subjectIds, size),
+                Arrays.copyOf(finals, size)));
+        }
+        return students;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Grade index: rebuilt in %d ms, %d memory reads, %d table reads, %d students polled",
+            rebuildMillis, memoryReads.sum(), tableReads.sum(), polled.sum());
+    }
+
+    /** One student's results as of one version of their student_results row; never modified. */
+    public static final class Entry {
+        private final int studentId;
+        private final long version;
+        private final double overallAverage;
+        private final int examCount;
+        // Sorted, with finals[i] the final of subjectIds[i]
+        private final int[] subjectIds;
+        private final double[] finals;
+
+        Entry(int studentId, long version, double overallAverage, int examCount, int[] subjectIds, double[] finals) {
+            this.studentId = studentId;
+            this.version = version;
+            this.overallAverage = overallAverage;
+            this.examCount = examCount;
+            this.subjectIds = subjectIds;
+            this.finals = finals;
+        }
+
+        public boolean hasGrades() { return examCount > 0; }
+        public double getOverallAverage() { return overallAverage; }
+
+        // NaN when the student has no grade in the subject
+        public double getSubjectFinal(int subjectId) {
+            int i = Arrays.binarySearch(subjectIds, subjectId);
+            return i >= 0 ? finals[i] : Double.NaN;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,77 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Sends notifications (or broadcasts) from many threads at once through
+ * ServerMessageService and prints messages per second and the latency of
+ * one send. By default it uses an embedded, in-memory broker; pass -Dserver.jms.url=tcp://localhost:61616 to measure against
+ * the real one. Run it again with -Dserver.jms.sessions=1 to see every
+ * sender queue up behind a single session, or with
+ * -Dserver.jms.groupCommit=true to batch sends into transactions. Latency
+ * is measured until the send's future completes (its commit, in
+ * group-commit mode).
+ *
+ * Usage: java JmsSendBenchmark [senders] [messagesPerSender] [notify|broadcast]
+ */
+public class JmsSendBenchmark {
+    public static void main(String[] args) throws Exception {
+        int senders = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        int messagesPerSender = args.length > 1 ? Integer.parseInt(args[1]) : 2_000;
+        boolean broadcast = args.length > 2 && args[2].equalsIgnoreCase("broadcast");
+
+        if (System.getProperty("server.jms.url") == null) {
+            System.setProperty("server.jms.url", "vm://benchmark?broker.persistent=false&broker.useJmx=false");
+        }
+        ServerMessageService service = ServerMessageService.getInstance();
+
+        // Warm-up: opens the sessions and their producers
+        run(service, senders, Math.max(1, messagesPerSender / 10), broadcast, new LatencyHistogram());
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long sentBefore = service.getSentCount();
+        long start = System.nanoTime();
+        run(service, senders, messagesPerSender, broadcast, latency);
+        long elapsed = System.nanoTime() - start;
+        long sent = service.getSentCount() - sentBefore;
+
+        System.out.println("📊 " + sent + (broadcast ? " broadcasts" : " notifications") + " from " + senders + " senders");
+        System.out.printf("   Throughput: %.0f messages/s%n", sent / (elapsed / 1e9));
+        System.out.printf("   Send latency: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+            latency.getPercentileNanos(0.50) / 1e6, latency.getPercentileNanos(0.99) / 1e6, latency.getMaxNanos() / 1e6);
+        System.out.println("   " + service);
+        service.close();
+        System.exit(0);
+    }
+
+    private static void run(ServerMessageService service, int senders, int messages, boolean broadcast,
+                            LatencyHistogram latency) throws Exception {
+        String[] userTypes = {"STUDENT", "TEACHER", "ADMIN", "RESPONSABLE"};
+        ExecutorService executor = Executors.newFixedThreadPool(senders);
+        CountDownLatch go = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < senders; t++) {
+            int sender = t;
+            futures.add(executor.submit(() -> {
+                go.await();
+                List<CompletableFuture<Void>> pending = new ArrayList<>(messages);
+                for (int i = 0; i < messages; i++) {
+                    // A few hundred recipients, like a class receiving grade notifications
+                    int userId = (sender * 31 + i) % 500;
+                    long begin = System.nanoTime();
+                    CompletableFuture<Void> done = broadcast
+                        ? service.broadcastToUserTypeAsync(userTypes[i % userTypes.length],
+                            new Message(-1, "SYSTEM", -1, userTypes[i % userTypes.length], "Benchmark", "Message " + i, "BROADCAST"))
+                        : service.sendNotificationAsync(userId, new Notification(userId, "Benchmark", "Message " + i, "INFO"));
+                    pending.add(done.whenComplete((ignored, error) -> latency.record(System.nanoTime() - begin)));
+                }
+                CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+                return null;
+            }));
+        }
+        go.countDown();
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+    }
+}
@@ -3,6 +3,8 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 
 public class Message implements Serializable {
+    // Fixed so client and server copies (which differ in fields) deserialize each other over JMS
+    private static final long serialVersionUID = 1L;
     private int messageId;
     private int senderId;
     private String senderType; // STUDENT, TEACHER, ADMIN, RESPONSABLE, SYSTEM
@@ -0,0 +1,583 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking connection engine: one acceptor, a few selector event loops
+ * (one per core) and a worker pool that runs ClientHandler.dispatch().
+ *
+ * Idle clients cost a registered channel and two small buffers instead of a
+ * parked platform thread. A worker is only taken when bytes arrive, and it
+ * is released as soon as the connection has no buffered request left.
+ *
+ * Binary frames of a pipelining (v2) client are handed to workers as soon as
+ * they are decoded, up to ClientHandler.PIPELINE_DEPTH at a time, and each
+ * response is queued when its request finishes. Legacy and v1 clients get a
+ * window of one, which keeps their responses in request order. Once another
+ * window's worth of frames is waiting, the connection stops reading (OP_READ
+ * is cleared) until workers catch up, so a client that sends faster than it
+ * is served fills its own socket buffers rather than the server's heap.
+ */
+public class NioServerEngine {
+    private static final Log log = Log.get("server.nio");
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    private final int port;
+    private final EventLoop[] loops;
+    private final ExecutorService workers;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicInteger openConnections = new AtomicInteger();
+    private volatile boolean running = true;
+    private volatile ServerSocketChannel serverChannel;
+
+    public NioServerEngine(int port, int eventLoops, int workerThreads) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[eventLoops];
+        for (int i = 0; i < eventLoops; i++) {
+            loops[i] = new EventLoop(i);
+        }
+        this.workers = Executors.newFixedThreadPool(workerThreads, namedThreads("nio-worker"));
+    }
+
+    public int getOpenConnections() {
+        return openConnections.get();
+    }
+
+    // Blocks the calling thread in the accept loop until stop() is called
+    public void start() throws IOException {
+        for (EventLoop loop : loops) {
+            Thread t = new Thread(loop, "nio-loop-" + loop.index);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        try (ServerSocketChannel listener = ServerSocketChannel.open()) {
+            serverChannel = listener;
+            listener.bind(new InetSocketAddress(port), 1024);
+            log.info("✅ NIO server is running on port {} ({} event loops)", port, loops.length);
+
+            while (running) {
+                SocketChannel channel = listener.accept();
+                if (channel == null) continue;
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].register(channel);
+            }
+        } catch (ClosedChannelException e) {
+            // stop() closed the listener to end a blocked accept()
+            if (running) throw e;
+        } finally {
+            stop();
+        }
+    }
+
+    public void stop() {
+        running = false;
+        ServerSocketChannel listener = serverChannel;
+        if (listener != null) closeQuietly(listener);
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+        workers.shutdown();
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+
+    // One selector thread; owns reads and writes for its channels
+    private final class EventLoop implements Runnable {
+        private final int index;
+        private final Selector selector;
+        private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+        private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+
+        EventLoop(int index) throws IOException {
+            this.index = index;
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            execute(() -> {
+                try {
+                    ClientConnection connection = new ClientConnection(this, channel);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    openConnections.incrementAndGet();
+                } catch (IOException e) {
+                    log.error("❌ Cannot register client: {}", e.getMessage());
+                    closeQuietly(channel);
+                }
+            });
+        }
+
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        try {
+                            task.run();
+                        } catch (RuntimeException e) {
+                            log.error("❌ Event loop task failed: {}", e.toString());
+                        }
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        ClientConnection connection = (ClientConnection) key.attachment();
+                        // A failure on one connection closes that connection, never the loop
+                        try {
+                            if (!key.isValid()) {
+                                connection.close();
+                                continue;
+                            }
+                            if (key.isReadable()) {
+                                connection.onReadable(readBuffer);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                connection.onWritable();
+                            }
+                        } catch (RuntimeException e) {
+                            log.warn("Client error: {}", e.toString());
+                            connection.close();
+                        }
+                    }
+                } catch (IOException e) {
+                    log.error("❌ Event loop error: {}", e.getMessage());
+                }
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    // Per-socket state: protocol detection, inbound bytes, outbound buffers and the handler
+    private final class ClientConnection {
+        private static final int PROTOCOL_UNKNOWN = 0;
+        private static final int PROTOCOL_LEGACY = 1;
+        private static final int PROTOCOL_BINARY = 2;
+
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final ClientHandler handler = new ClientHandler();
+        private volatile int protocol = PROTOCOL_UNKNOWN;
+        private volatile boolean closeWhenFlushed;
+        private SelectionKey key;
+
+        // Binary protocol: bytes not yet forming a whole frame (event loop only), and decoded frames
+        private ByteBuffer inbound = ByteBuffer.allocate(1024);
+        private final Queue<WireProtocol.Frame> frames = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private volatile int window = 1;
+        private volatile boolean exitRequested;
+        // Written by the event loop only: OP_READ is off until the frame queue drains
+        private volatile boolean readPaused;
+
+        // Legacy object streams
+        private final ChannelInputStream in = new ChannelInputStream();
+        private ObjectOutputStream output;
+        private ObjectInputStream input;
+        private WireProtocol.Reader legacyReader;
+        private WireProtocol.Writer legacyWriter;
+
+        ClientConnection(EventLoop loop, SocketChannel channel) {
+            this.loop = loop;
+            this.channel = channel;
+        }
+
+        void onReadable(ByteBuffer buffer) {
+            buffer.clear();
+            int n;
+            try {
+                n = channel.read(buffer);
+            } catch (IOException e) {
+                n = -1;
+            }
+            if (n < 0) {
+                close();
+                return;
+            }
+            if (n == 0) return;
+
+            buffer.flip();
+            if (protocol == PROTOCOL_LEGACY) {
+                byte[] chunk = new byte[n];
+                buffer.get(chunk);
+                in.feed(chunk);
+                schedule();
+                return;
+            }
+
+            appendInbound(buffer);
+            try {
+                if (protocol == PROTOCOL_UNKNOWN && !detectProtocol()) return;
+                if (protocol == PROTOCOL_BINARY) decodeFrames();
+            } catch (IOException e) {
+                log.warn("Client error: {}", e.getMessage());
+                close();
+            }
+        }
+
+        private void appendInbound(ByteBuffer bytes) {
+            if (inbound.remaining() < bytes.remaining()) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(inbound.capacity() * 2, inbound.position() + bytes.remaining()));
+                inbound.flip();
+                bigger.put(inbound);
+                inbound = bigger;
+            }
+            inbound.put(bytes);
+        }
+
+        // Returns true once the protocol is known; legacy bytes are moved to the object-stream path
+        private boolean detectProtocol() throws IOException {
+            if (inbound.position() < 2) return false;
+
+            int magic = ((inbound.get(0) & 0xFF) << 8) | (inbound.get(1) & 0xFF);
+            if (magic == WireProtocol.LEGACY_MAGIC) {
+                // The client blocks in new ObjectInputStream() until it sees our header
+                output = new ObjectOutputStream(new ChannelOutputStream(this));
+                output.flush();
+                legacyWriter = new WireProtocol.ObjectStreamWriter(output);
+
+                byte[] received = new byte[inbound.position()];
+                inbound.flip();
+                inbound.get(received);
+                inbound = null;
+                protocol = PROTOCOL_LEGACY;
+                in.feed(received);
+                schedule();
+                return false;
+            }
+
+            if (inbound.position() < WireProtocol.HELLO_LENGTH) return false;
+            byte[] hello = new byte[WireProtocol.HELLO_LENGTH];
+            inbound.flip();
+            inbound.get(hello);
+            inbound.compact();
+
+            short version = ClientHandler.negotiateVersion(WireProtocol.parseHello(hello));
+            if (version == 0) {
+                closeWhenFlushed = true;
+            }
+            window = ClientHandler.requestWindow(version);
+            enqueueWrite(ByteBuffer.wrap(WireProtocol.hello(version)));
+            protocol = PROTOCOL_BINARY;
+            return version != 0;
+        }
+
+        // Event loop side: cut complete frames out of the inbound buffer while fewer than a window are queued
+        private void decodeFrames() throws IOException {
+            inbound.flip();
+            while (inbound.remaining() >= 4 && !exitRequested && frames.size() < window) {
+                int length = WireProtocol.checkLength(inbound.getInt(inbound.position()));
+                if (inbound.remaining() < 4 + length) break;
+
+                byte[] frame = new byte[length];
+                inbound.position(inbound.position() + 4);
+                inbound.get(frame);
+                WireProtocol.Frame decoded = WireProtocol.decodeFrame(frame, 0, length);
+                if (decoded.opcode == WireProtocol.Opcode.EXIT) {
+                    exitRequested = true;
+                } else {
+                    frames.add(decoded);
+                    startFrames();
+                }
+            }
+            inbound.compact();
+            if (frames.size() >= window) {
+                pauseReading();
+            }
+            closeIfExited();
+        }
+
+        // Event loop side; undecoded bytes stay in the inbound buffer
+        private void pauseReading() {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            // A worker may have taken a frame before it could see the flag
+            if (frames.size() < window) {
+                resumeReading();
+            }
+        }
+
+        // Event loop side: decode what is already buffered, then read again unless the queue filled up
+        private void resumeReading() {
+            if (!readPaused || closed.get() || !key.isValid()) return;
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+            try {
+                decodeFrames();
+            } catch (IOException e) {
+                log.warn("Client error: {}", e.getMessage());
+                close();
+            }
+        }
+
+        // Hands queued frames to workers while the connection's window has room
+        private void startFrames() {
+            while (!frames.isEmpty()) {
+                int running = inFlight.get();
+                if (running >= window) return;
+                if (!inFlight.compareAndSet(running, running + 1)) continue;
+
+                WireProtocol.Frame frame = frames.poll();
+                if (frame == null) {
+                    inFlight.decrementAndGet();
+                    return;
+                }
+                try {
+                    workers.execute(() -> runFrame(frame));
+                } catch (RejectedExecutionException e) {
+                    close();
+                    return;
+                }
+            }
+        }
+
+        void onWritable() {
+            try {
+                ByteBuffer buffer;
+                while ((buffer = pendingWrites.peek()) != null) {
+                    channel.write(buffer);
+                    if (buffer.hasRemaining()) return; // socket buffer full, wait for next OP_WRITE
+                    pendingWrites.poll();
+                }
+                if (closeWhenFlushed) {
+                    close();
+                    return;
+                }
+                key.interestOps(readInterest());
+                // A worker may have queued more while we were switching interest
+                if (!pendingWrites.isEmpty()) {
+                    key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                }
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void enqueueWrite(ByteBuffer buffer) {
+            pendingWrites.add(buffer);
+            loop.execute(() -> {
+                if (key != null && key.isValid()) {
+                    key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                }
+            });
+        }
+
+        private int readInterest() {
+            return readPaused ? 0 : SelectionKey.OP_READ;
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    workers.execute(this::drainRequests);
+                } catch (RejectedExecutionException e) {
+                    close();
+                }
+            }
+        }
+
+        // Worker side: run every complete legacy request buffered for this socket, in order
+        private void drainRequests() {
+            try {
+                while (!closed.get()) {
+                    if (!hasBufferedRequest()) {
+                        scheduled.set(false);
+                        // Bytes may have landed between the check and the reset
+                        if (!hasBufferedRequest() || !scheduled.compareAndSet(false, true)) {
+                            return;
+                        }
+                    }
+                    runLegacyRequest();
+                }
+            } catch (Exception e) {
+                log.warn("Client error: {}", e.getMessage());
+                close();
+            }
+        }
+
+        // Worker side: one binary request; its response is queued as soon as it is ready
+        private void runFrame(WireProtocol.Frame frame) {
+            try {
+                if (!closed.get()) {
+                    enqueueWrite(ByteBuffer.wrap(handler.handleFrame(frame)));
+                }
+            } finally {
+                inFlight.decrementAndGet();
+                startFrames();
+                if (readPaused && frames.size() < window) {
+                    loop.execute(this::resumeReading);
+                }
+                closeIfExited();
+            }
+        }
+
+        // After EXIT, close once every accepted request has been answered and flushed
+        private void closeIfExited() {
+            if (exitRequested && inFlight.get() == 0 && frames.isEmpty() && !closeWhenFlushed) {
+                closeWhenFlushed = true;
+                enqueueWrite(ByteBuffer.allocate(0));
+            }
+        }
+
+        private void runLegacyRequest() throws Exception {
+            if (input == null) {
+                input = new ObjectInputStream(in);
+                legacyReader = new WireProtocol.ObjectStreamReader(input);
+                return;
+            }
+            String action = (String) input.readObject();
+            boolean keepOpen = handler.dispatch(action, legacyReader, legacyWriter);
+            output.flush();
+            if (!keepOpen) {
+                close();
+            }
+        }
+
+        private boolean hasBufferedRequest() throws IOException {
+            return in.available() > 0 || (input != null && input.available() > 0);
+        }
+
+        void close() {
+            if (!closed.compareAndSet(false, true)) return;
+            in.finish();
+            if (key != null) key.cancel();
+            closeQuietly(channel);
+            handler.close();
+            openConnections.decrementAndGet();
+        }
+    }
+
+    /*
+     * Legacy object streams carry no frame length, so a request cannot be
+     * recognised as complete before it is decoded. The worker therefore decodes
+     * from this queue and only blocks if a single request was split across TCP
+     * reads. Binary clients never take this path.
+     */
+    private static final class ChannelInputStream extends InputStream {
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition dataAvailable = lock.newCondition();
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private int position;
+        private int available;
+        private boolean finished;
+
+        void feed(byte[] chunk) {
+            lock.lock();
+            try {
+                chunks.add(chunk);
+                available += chunk.length;
+                dataAvailable.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void finish() {
+            lock.lock();
+            try {
+                finished = true;
+                dataAvailable.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            lock.lock();
+            try {
+                while (available == 0) {
+                    if (finished) return -1;
+                    dataAvailable.await();
+                }
+                int copied = 0;
+                while (copied < len && !chunks.isEmpty()) {
+                    byte[] head = chunks.peek();
+                    int n = Math.min(len - copied, head.length - position);
+                    System.arraycopy(head, position, b, off + copied, n);
+                    copied += n;
+                    position += n;
+                    if (position == head.length) {
+                        chunks.poll();
+                        position = 0;
+                    }
+                }
+                available -= copied;
+                return copied;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for request bytes");
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                return available;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    // Collects a response and hands it to the event loop on flush()
+    private static final class ChannelOutputStream extends ByteArrayOutputStream {
+        private final ClientConnection connection;
+
+        ChannelOutputStream(ClientConnection connection) {
+            super(512);
+            this.connection = connection;
+        }
+
+        @Override
+        public void flush() {
+            if (count == 0) return;
+            connection.enqueueWrite(ByteBuffer.wrap(toByteArray()));
+            reset();
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            // Ignore close error
+        }
+    }
+}
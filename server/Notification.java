@@ -2,6 +2,8 @@ import java.io.Serializable;
 import java.time.LocalDateTime;
 
 public class Notification implements Serializable {
+    // Fixed so client and server copies (which differ in fields) deserialize each other over JMS
+    private static final long serialVersionUID = 1L;
     private int notificationId;
     private int userId;
     private String title;
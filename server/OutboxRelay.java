@@ -0,0 +1,397 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Publishes the rows of message_outbox to ActiveMQ.
+ *
+ * Whoever stores a message (SEND_MESSAGE, SEND_NOTIFICATION and
+ * BROADCAST_MESSAGE here, sendMessage/sendNotification in the client) writes
+ * an outbox row in the same transaction, naming the stored row and the JMS
+ * destination. A request therefore never waits for the broker, and a message
+ * is published if and only if it was stored. A FANOUT row stands for a
+ * message_payloads row and all its recipients, and is published in one send
+ * (ServerMessageService.fanOutAsync). A BROADCAST row publishes a broadcasts
+ * row to one user type's topic, with the negated broadcast id as messageId.
+ *
+ * One relay thread works in three steps, so that no database lock is held
+ * while it waits for the broker:
+ *
+ *   claim    in a short transaction, take due rows in id order (FOR UPDATE
+ *            SKIP LOCKED, so several servers can share the table), rebuild
+ *            each Message or Notification from its table, and lease the rows
+ *            by moving next_attempt_at past the send timeout. A row whose
+ *            stored message was deleted meanwhile has nothing left to
+ *            publish and is marked sent.
+ *   publish  after the commit, send them all and wait up to sendTimeoutMs.
+ *   mark     a published row gets sent_at. A failed one gets one more attempt
+ *            and a next_attempt_at that doubles from pollMs with each attempt,
+ *            up to server.outbox.maxBackoffMs.
+ *
+ * If no row of a batch could be published, the broker is taken to be
+ * unreachable: the rows are deferred with a backoff that grows while the
+ * outage lasts, but no attempt is counted, so an outage never uses up
+ * server.outbox.maxAttempts. Rows that fail that many times on their own
+ * are left in the table for inspection. If the server dies after publishing
+ * and before marking, the lease runs out and the row is published again:
+ * delivery is at-least-once, and consumers drop duplicates by messageId.
+ *
+ * The first time a row is claimed (claimed_at), its recipients'
+ * UnreadCounters go up once the claim commits, whether or not the send
+ * succeeds: the message is stored either way, and a retried row is not
+ * counted again. Until then the badge does not show it; the relay is woken
+ * after every commit that adds rows, so that is rarely longer than a claim.
+ * Recipients who already read or deleted the message are left out; is_read
+ * is read under a lock, and MARK_MESSAGE_READ and DELETE_MESSAGE lock the
+ * outbox row before the message, so exactly one side accounts for each
+ * message. Those actions only ever wait for a claim, never for the broker.
+ *
+ * Settings (system properties): server.outbox.batchSize,
+ * server.outbox.pollMs, server.outbox.maxAttempts,
+ * server.outbox.maxBackoffMs, server.outbox.sendTimeoutMs,
+ * server.outbox.retentionHours.
+ */
+public class OutboxRelay {
+    private static final Log log = Log.get("server.outbox");
+    private static OutboxRelay instance;
+
+    private static final String SELECT_PENDING_SQL =
+        "SELECT o.outbox_id, o.kind, o.message_id, o.destination, o.is_topic, o.attempts, o.claimed_at, " +
+        "m.sender_id, m.sender_type, m.receiver_id, m.receiver_type, m.subject, m.content, " +
+        "m.message_type, m.priority, m.created_at, " +
+        "n.user_id, n.title, n.message, n.type, n.created_at AS notification_created_at, " +
+        "p.sender_id AS payload_sender_id, p.sender_type AS payload_sender_type, p.recipient_type, " +
+        "p.subject AS payload_subject, p.content AS payload_content, p.message_type AS payload_message_type, " +
+        "p.created_at AS payload_created_at, " +
+        "b.sender_id AS broadcast_sender_id, b.sender_type AS broadcast_sender_type, b.target_type, " +
+        "b.subject AS broadcast_subject, b.content AS broadcast_content, b.message_type AS broadcast_message_type, " +
+        "b.priority AS broadcast_priority, b.created_at AS broadcast_created_at " +
+        "FROM message_outbox o " +
+        "LEFT JOIN messages m ON o.kind = 'MESSAGE' AND m.message_id = o.message_id " +
+        "LEFT JOIN notifications n ON o.kind = 'NOTIFICATION' AND n.notification_id = o.message_id " +
+        "LEFT JOIN message_payloads p ON o.kind = 'FANOUT' AND p.payload_id = o.message_id " +
+        "LEFT JOIN broadcasts b ON o.kind = 'BROADCAST' AND b.broadcast_id = o.message_id " +
+        "WHERE o.sent_at IS NULL AND o.attempts < ? AND (o.next_attempt_at IS NULL OR o.next_attempt_at <= NOW(3)) " +
+        "ORDER BY o.outbox_id LIMIT ? FOR UPDATE OF o SKIP LOCKED";
+    // Locking reads: they see a read or delete committed after this batch's snapshot
+    private static final String SELECT_RECIPIENTS_SQL = "SELECT receiver_id, is_read FROM messages WHERE payload_id = ? FOR SHARE";
+    private static final String SELECT_UNREAD_SQL = "SELECT is_read FROM messages WHERE message_id = ? FOR SHARE";
+    private static final String CLAIM_SQL =
+        "UPDATE message_outbox SET claimed_at = COALESCE(claimed_at, NOW()), " +
+        "next_attempt_at = NOW(3) + INTERVAL ? MICROSECOND WHERE outbox_id = ?";
+    private static final String MARK_SENT_SQL = "UPDATE message_outbox SET sent_at = NOW(), next_attempt_at = NULL WHERE outbox_id = ?";
+    private static final String MARK_FAILED_SQL =
+        "UPDATE message_outbox SET attempts = attempts + 1, next_attempt_at = NOW(3) + INTERVAL ? MICROSECOND WHERE outbox_id = ?";
+    private static final String DEFER_SQL = "UPDATE message_outbox SET next_attempt_at = NOW(3) + INTERVAL ? MICROSECOND WHERE outbox_id = ?";
+    private static final String PURGE_SQL =
+        "DELETE FROM message_outbox WHERE sent_at IS NOT NULL AND sent_at < NOW() - INTERVAL ? HOUR LIMIT 1000";
+
+    private final int batchSize = Integer.getInteger("server.outbox.batchSize", 100);
+    private final long pollMs = Long.getLong("server.outbox.pollMs", 200);
+    private final int maxAttempts = Integer.getInteger("server.outbox.maxAttempts", 20);
+    private final long maxBackoffMs = Long.getLong("server.outbox.maxBackoffMs", 300_000);
+    private final long sendTimeoutMs = Long.getLong("server.outbox.sendTimeoutMs", 10_000);
+    private final int retentionHours = Integer.getInteger("server.outbox.retentionHours", 24);
+
+    private final Semaphore wakeUps = new Semaphore(0);
+    private final Thread thread = new Thread(this::run, "outbox-relay");
+    private volatile boolean running;
+
+    private final LongAdder relayed = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    // Delay of rows deferred while the broker is unreachable; only the relay thread uses it
+    private long outageBackoffMs;
+
+    public static synchronized OutboxRelay getInstance() {
+        if (instance == null) {
+            instance = new OutboxRelay();
+        }
+        return instance;
+    }
+
+    private OutboxRelay() {
+        thread.setDaemon(true);
+    }
+
+    public synchronized void start() {
+        if (running) return;
+        running = true;
+        thread.start();
+        log.info("✅ Outbox relay started (batch={}, poll={} ms)", batchSize, pollMs);
+    }
+
+    // Called after a commit that added outbox rows, so they go out without waiting for the next poll
+    public void wakeUp() {
+        if (wakeUps.availablePermits() == 0) {
+            wakeUps.release();
+        }
+    }
+
+    public void close() {
+        running = false;
+        wakeUp();
+        try {
+            thread.join(sendTimeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long backoffMs = pollMs;
+        long nextPurge = System.currentTimeMillis() + 60_000;
+        while (running) {
+            try {
+                int relayedNow = relayBatch();
+                backoffMs = pollMs;
+                if (relayedNow == batchSize) continue; // more rows are probably waiting
+
+                if (System.currentTimeMillis() >= nextPurge) {
+                    purge();
+                    nextPurge = System.currentTimeMillis() + 60_000;
+                }
+            } catch (Exception e) {
+                failures.increment();
+                log.warn("⚠️ Outbox relay failed, retrying in {} ms: {}", backoffMs, e.getMessage());
+                backoffMs = Math.min(backoffMs * 2, 30_000);
+            }
+            try {
+                wakeUps.tryAcquire(backoffMs, TimeUnit.MILLISECONDS);
+                wakeUps.drainPermits();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // Returns how many rows were published; failed rows are retried later (see the class comment)
+    int relayBatch() throws Exception {
+        List<Long> ids = new ArrayList<>();
+        List<Integer> attempts = new ArrayList<>();
+        List<Supplier<CompletableFuture<Void>>> sends = new ArrayList<>();
+        List<Runnable> counts = new ArrayList<>();
+        try (ConnectionPool.PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+            claim(pooled, ids, attempts, sends, counts);
+        }
+        counts.forEach(Runnable::run);
+        if (ids.isEmpty()) return 0;
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (Supplier<CompletableFuture<Void>> send : sends) {
+            try {
+                futures.add(send.get());
+            } catch (RuntimeException e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+        boolean[] published = new boolean[ids.size()];
+        int sent = 0;
+        for (int i = 0; i < ids.size(); i++) {
+            try {
+                futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                published[i] = true;
+                sent++;
+            } catch (Exception e) {
+                failures.increment();
+                log.warn("⚠️ Outbox row {} not published: {}", ids.get(i), e.getMessage());
+            }
+        }
+
+        // Nothing went through: the broker is down, which is no fault of these rows
+        boolean outage = sent == 0;
+        outageBackoffMs = outage ? Math.min(Math.max(pollMs, outageBackoffMs * 2), maxBackoffMs) : 0;
+        try (ConnectionPool.PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+            PreparedStatement markSent = pooled.prepare(MARK_SENT_SQL);
+            PreparedStatement markFailed = pooled.prepare(outage ? DEFER_SQL : MARK_FAILED_SQL);
+            for (int i = 0; i < ids.size(); i++) {
+                if (published[i]) {
+                    markSent.setLong(1, ids.get(i));
+                    markSent.addBatch();
+                } else {
+                    markFailed.setLong(1, (outage ? outageBackoffMs : backoffMs(attempts.get(i))) * 1000);
+                    markFailed.setLong(2, ids.get(i));
+                    markFailed.addBatch();
+                }
+            }
+            markSent.executeBatch();
+            markFailed.executeBatch();
+        }
+        relayed.add(sent);
+        return sent;
+    }
+
+    // Takes due rows and leases them, in one transaction; sends are only prepared, to run after it commits
+    private void claim(ConnectionPool.PooledConnection pooled, List<Long> ids, List<Integer> attempts,
+                       List<Supplier<CompletableFuture<Void>>> sends, List<Runnable> counts) throws SQLException {
+        ServerMessageService messageService = ServerMessageService.getInstance();
+        Connection conn = pooled.getConnection();
+        conn.setAutoCommit(false);
+        try {
+            List<Long> gone = new ArrayList<>();
+            PreparedStatement select = pooled.prepare(SELECT_PENDING_SQL);
+            select.setInt(1, maxAttempts);
+            select.setInt(2, batchSize);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    boolean first = rs.getTimestamp("claimed_at") == null;
+                    Supplier<CompletableFuture<Void>> send = publish(messageService, pooled, rs, first ? counts : null);
+                    if (send == null) {
+                        gone.add(rs.getLong("outbox_id"));
+                        continue;
+                    }
+                    ids.add(rs.getLong("outbox_id"));
+                    attempts.add(rs.getInt("attempts"));
+                    sends.add(send);
+                }
+            }
+            PreparedStatement lease = pooled.prepare(CLAIM_SQL);
+            for (long id : ids) {
+                // Long enough for the sends, then another server (or this one after a crash) may take the row
+                lease.setLong(1, 2 * sendTimeoutMs * 1000);
+                lease.setLong(2, id);
+                lease.addBatch();
+            }
+            if (!ids.isEmpty()) lease.executeBatch();
+            if (!gone.isEmpty()) {
+                PreparedStatement markSent = pooled.prepare(MARK_SENT_SQL);
+                for (long id : gone) {
+                    log.debug("Outbox row {}: its message no longer exists", id);
+                    markSent.setLong(1, id);
+                    markSent.addBatch();
+                }
+                markSent.executeBatch();
+            }
+            conn.commit();
+        } catch (SQLException | RuntimeException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    // pollMs, doubled with each attempt already made, up to maxBackoffMs
+    private long backoffMs(int attempts) {
+        return Math.min(pollMs << Math.min(attempts, 30), maxBackoffMs);
+    }
+
+    // counts is null unless this row is claimed for the first time; null when the stored row was deleted
+    private Supplier<CompletableFuture<Void>> publish(ServerMessageService messageService,
+                                                      ConnectionPool.PooledConnection pooled, ResultSet rs,
+                                                      List<Runnable> counts) throws SQLException {
+        UnreadCounters unread = UnreadCounters.getInstance();
+        long outboxId = rs.getLong("outbox_id");
+        String destination = rs.getString("destination");
+        boolean topic = rs.getBoolean("is_topic");
+        int id = rs.getInt("message_id");
+        String kind = rs.getString("kind");
+
+        if ("FANOUT".equals(kind)) {
+            if (rs.getObject("payload_sender_id") == null) return null;
+            return publishFanOut(messageService, pooled, id, rs, counts);
+        }
+        if ("BROADCAST".equals(kind)) {
+            if (rs.getObject("broadcast_sender_id") == null) return null;
+            Message message = new Message(rs.getInt("broadcast_sender_id"), rs.getString("broadcast_sender_type"), -1,
+                rs.getString("target_type"), rs.getString("broadcast_subject"), rs.getString("broadcast_content"),
+                rs.getString("broadcast_message_type"));
+            message.setMessageId(-id);
+            if (rs.getString("broadcast_priority") != null) message.setPriority(rs.getString("broadcast_priority"));
+            Timestamp created = rs.getTimestamp("broadcast_created_at");
+            if (created != null) message.setCreatedAt(created.toLocalDateTime());
+            // One row per target type, on that type's topic (Destinations.broadcastTopic)
+            String userType = destination.substring(destination.lastIndexOf('.') + 1);
+            if (counts != null) counts.add(() -> unread.broadcastStored(outboxId, userType));
+            return () -> messageService.sendToDestinationAsync(destination, topic, message, null, null);
+        }
+        if ("NOTIFICATION".equals(kind)) {
+            if (rs.getObject("user_id") == null) return null;
+            Notification notification = new Notification(rs.getInt("user_id"), rs.getString("title"),
+                rs.getString("message"), rs.getString("type"));
+            notification.setNotificationId(id);
+            Timestamp created = rs.getTimestamp("notification_created_at");
+            if (created != null) notification.setCreatedAt(created.toLocalDateTime());
+            return () -> messageService.sendToDestinationAsync(destination, topic, notification, notification.getUserId(), null);
+        }
+
+        if (rs.getObject("sender_id") == null) return null;
+        Message message = new Message(rs.getInt("sender_id"), rs.getString("sender_type"), rs.getInt("receiver_id"),
+            rs.getString("receiver_type"), rs.getString("subject"), rs.getString("content"), rs.getString("message_type"));
+        message.setMessageId(id);
+        if (rs.getString("priority") != null) message.setPriority(rs.getString("priority"));
+        Timestamp created = rs.getTimestamp("created_at");
+        if (created != null) message.setCreatedAt(created.toLocalDateTime());
+        if (counts != null && rs.getObject("receiver_id") != null && isUnread(pooled, id)) {
+            counts.add(() -> unread.messageStored(outboxId, message.getReceiverId(), message.getReceiverType()));
+        }
+        if (topic) return () -> messageService.sendToDestinationAsync(destination, true, message, null, null);
+        return () -> messageService.sendToDestinationAsync(destination, false, message, message.getReceiverId(),
+            message.getReceiverType());
+    }
+
+    // Every recipient gets the same object; their own rows are read back from the inbox, not from this copy
+    private Supplier<CompletableFuture<Void>> publishFanOut(ServerMessageService messageService,
+                                                            ConnectionPool.PooledConnection pooled, int payloadId,
+                                                            ResultSet rs, List<Runnable> counts) throws SQLException {
+        PreparedStatement recipients = pooled.prepare(SELECT_RECIPIENTS_SQL);
+        recipients.setInt(1, payloadId);
+        int[] userIds = new int[16];
+        int[] unreadIds = new int[16];
+        int count = 0;
+        int unread = 0;
+        try (ResultSet r = recipients.executeQuery()) {
+            while (r.next()) {
+                if (count == userIds.length) userIds = Arrays.copyOf(userIds, count * 2);
+                userIds[count++] = r.getInt(1);
+                if (r.getBoolean(2)) continue;
+                if (unread == unreadIds.length) unreadIds = Arrays.copyOf(unreadIds, unread * 2);
+                unreadIds[unread++] = r.getInt(1);
+            }
+        }
+        // Every recipient's row was deleted
+        if (count == 0) return null;
+
+        String recipientType = rs.getString("recipient_type");
+        Message message = new Message(rs.getInt("payload_sender_id"), rs.getString("payload_sender_type"), 0, recipientType,
+            rs.getString("payload_subject"), rs.getString("payload_content"), rs.getString("payload_message_type"));
+        Timestamp created = rs.getTimestamp("payload_created_at");
+        if (created != null) message.setCreatedAt(created.toLocalDateTime());
+        int[] recipientIds = Arrays.copyOf(userIds, count);
+        if (counts != null) {
+            long outboxId = rs.getLong("outbox_id");
+            int[] countedIds = Arrays.copyOf(unreadIds, unread);
+            counts.add(() -> UnreadCounters.getInstance().fanOutStored(outboxId, recipientType, countedIds));
+        }
+        log.debug("📨 Fan-out {} to {} {} recipients", payloadId, count, recipientType);
+        return () -> messageService.fanOutAsync(payloadId, recipientType, recipientIds, message);
+    }
+
+    // False once the receiver has read or deleted the message
+    private static boolean isUnread(ConnectionPool.PooledConnection pooled, int messageId) throws SQLException {
+        PreparedStatement stmt = pooled.prepare(SELECT_UNREAD_SQL);
+        stmt.setInt(1, messageId);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() && !rs.getBoolean(1);
+        }
+    }
+
+    private void purge() throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+            PreparedStatement stmt = pooled.prepare(PURGE_SQL);
+            stmt.setInt(1, retentionHours);
+            stmt.executeUpdate();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Outbox: relayed=%d, failures=%d", relayed.sum(), failures.sum());
+    }
+}
\ No newline at end of file
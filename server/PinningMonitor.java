@@ -0,0 +1,49 @@
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.consumer.RecordingStream;
+
+/**
+ * Counts jdk.VirtualThreadPinned events in-process, i.e. the times a virtual
+ * thread blocked while stuck to its carrier (synchronized block or native
+ * frame). A steady zero means the blocking socket and JDBC calls unmount
+ * cleanly.
+ */
+public class PinningMonitor implements AutoCloseable {
+    private final RecordingStream stream;
+    private final LongAdder pinnedEvents = new LongAdder();
+    private final AtomicLong pinnedNanos = new AtomicLong();
+    private volatile String lastPinnedThread = "-";
+
+    public PinningMonitor(Duration threshold) {
+        stream = new RecordingStream();
+        stream.enable("jdk.VirtualThreadPinned").withThreshold(threshold).withStackTrace();
+        stream.onEvent("jdk.VirtualThreadPinned", event -> {
+            pinnedEvents.increment();
+            pinnedNanos.addAndGet(event.getDuration().toNanos());
+            if (event.getThread() != null) {
+                lastPinnedThread = event.getThread().getJavaName();
+            }
+        });
+        stream.startAsync();
+    }
+
+    public long getPinnedCount() {
+        return pinnedEvents.sum();
+    }
+
+    public double getPinnedMillis() {
+        return pinnedNanos.get() / 1e6;
+    }
+
+    @Override
+    public void close() {
+        stream.close();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Carrier pinning: events=%d, pinned=%.2fms, last=%s",
+            getPinnedCount(), getPinnedMillis(), lastPinnedThread);
+    }
+}
@@ -0,0 +1,101 @@
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recomputes student_results and student_subject_results for every
+ * student, in parallel. Run it once after creating the two tables, and
+ * whenever grades were changed behind the application's back (by hand, or
+ * by deleting a student's grades).
+ *
+ * Students are split into chunks of consecutive ids. Each chunk is one
+ * transaction on its own pooled connection: lock the chunk's results rows
+ * (as every grade write does, so it can run while the application is in
+ * use), read all of the chunk's grades in one query, compute them with
+ * GradeEngine and write the results in batches.
+ *
+ * Usage: java ResultsBackfill [threads] [studentsPerChunk]
+ * (threads defaults to the number of cores, chunks to 500 students)
+ */
+public class ResultsBackfill {
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        int chunkSize = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+        ConnectionPool pool = ConnectionPool.getInstance();
+        pool.start();
+        int[] studentIds = studentIds(pool);
+        int chunks = (studentIds.length + chunkSize - 1) / chunkSize;
+        System.out.println("🔄 Recomputing results of " + studentIds.length + " students in " + chunks + " chunks on "
+            + threads + " threads");
+
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger done = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int from = 0; from < studentIds.length; from += chunkSize) {
+            int[] chunk = Arrays.copyOfRange(studentIds, from, Math.min(studentIds.length, from + chunkSize));
+            futures.add(executor.submit(() -> {
+                backfill(pool, chunk);
+                int total = done.addAndGet(chunk.length);
+                System.out.printf("   %d/%d students (%.0f%%)%n", total, studentIds.length, 100.0 * total / studentIds.length);
+                return null;
+            }));
+        }
+        int failed = 0;
+        for (Future<?> f : futures) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                failed++;
+                System.out.println("❌ Chunk failed and was rolled back: " + e.getCause().getMessage());
+            }
+        }
+        executor.shutdown();
+        long elapsed = System.nanoTime() - start;
+
+        System.out.printf("✅ %d students in %.2f s (%.0f students/s), %d chunks failed%n", done.get(), elapsed / 1e9,
+            done.get() / (elapsed / 1e9), failed);
+        System.out.println("   " + pool);
+        pool.close();
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    private static int[] studentIds(ConnectionPool pool) throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = pool.borrow();
+             ResultSet rs = pooled.prepare("SELECT student_id FROM students ORDER BY student_id").executeQuery()) {
+            int[] ids = new int[1024];
+            int size = 0;
+            while (rs.next()) {
+                if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+                ids[size++] = rs.getInt(1);
+            }
+            return Arrays.copyOf(ids, size);
+        }
+    }
+
+    // Sorted ids; students without grades get zeros
+    private static void backfill(ConnectionPool pool, int[] chunk) throws SQLException {
+        try (ConnectionPool.PooledConnection pooled = pool.borrow()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                StudentResults.lock(conn, chunk);
+                Map<Integer, GradeEngine.Grades> grades = GradeEngine.loadRange(conn, chunk[0], chunk[chunk.length - 1], true);
+                GradeEngine.Grades none = new GradeEngine.Grades(0);
+                GradeEngine.Result[] results = new GradeEngine.Result[chunk.length];
+                for (int i = 0; i < chunk.length; i++) {
+                    results[i] = GradeEngine.compute(grades.getOrDefault(chunk[i], none));
+                }
+                StudentResults.write(conn, chunk, results);
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+}
\ No newline at end of file
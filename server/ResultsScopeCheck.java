@@ -0,0 +1,145 @@
+import java.sql.*;
+
+/**
+ * Checks that the two year-end decisions, CohortDeliberation and
+ * UpdateStudentStatus, average the same grades of the current year. In one
+ * transaction, rolled back at the end, it gives a student registered in the
+ * current year a grade in a subject of a program they are not registered in
+ * this year, as if from a previous year, then checks that:
+ *
+ *   StudentResults.refresh    counts it in student_results, the running
+ *                             average of all grades
+ *   CohortDeliberation        leaves it out: the average it would write for
+ *                             the year is the one it had before
+ *   UpdateStudentStatus       decides the status the deliberation would
+ *
+ * Nothing is left in the database. Exits with 1 if one of them fails.
+ *
+ * Usage: java ResultsScopeCheck [studentId]
+ * (defaults to the first student registered in the current year)
+ */
+public class ResultsScopeCheck {
+    private static final String CURRENT_YEAR_SQL = "SELECT year_id FROM academic_years WHERE is_current = 1";
+    private static final String FIRST_STUDENT_SQL = "SELECT MIN(student_id) FROM registrations WHERE year_id = ?";
+    private static final String OTHER_SUBJECT_SQL =
+        "SELECT MIN(subject_id) FROM subjects WHERE program_id NOT IN " +
+        "(SELECT program_id FROM registrations WHERE student_id = ? AND year_id = ?)";
+    private static final String INSERT_EXAM_SQL =
+        "INSERT INTO exams (exam_name, subject_id, exam_type, coefficient, teacher_id) " +
+        "SELECT 'ResultsScopeCheck', ?, 'EXAMEN', 1, MIN(teacher_id) FROM teachers";
+    private static final String INSERT_GRADE_SQL = "INSERT INTO grades (student_id, exam_id, score) VALUES (?, ?, ?)";
+    private static final String RESULT_SQL = "SELECT overall_average, exam_count FROM student_results WHERE student_id = ?";
+    private static final String STATUS_SQL = "SELECT final_status FROM students WHERE student_id = ?";
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        ConnectionPool pool = ConnectionPool.getInstance();
+        pool.start();
+        try (ConnectionPool.PooledConnection pooled = pool.borrow()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            try {
+                check(conn, args.length > 0 ? Integer.parseInt(args[0]) : 0);
+            } finally {
+                conn.rollback();
+                conn.setAutoCommit(true);
+            }
+        }
+        pool.close();
+        System.out.println(failures == 0 ? "✅ Deliberation and student results agree" : "❌ " + failures + " differences");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static void check(Connection conn, int studentId) throws SQLException {
+        int yearId = queryInt(conn, CURRENT_YEAR_SQL);
+        if (studentId == 0) studentId = queryInt(conn, FIRST_STUDENT_SQL, yearId);
+        int subjectId = queryInt(conn, OTHER_SUBJECT_SQL, studentId, yearId);
+        if (yearId == 0 || studentId == 0 || subjectId == 0) {
+            throw new IllegalStateException("Needs a current year, a student registered in it and a subject outside their programs");
+        }
+
+        StudentResults.lock(conn, studentId);
+        int before = examCount(conn, studentId);
+        String[] yearBefore = deliberate(conn, yearId, studentId);
+        int examId;
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_EXAM_SQL, Statement.RETURN_GENERATED_KEYS)) {
+            stmt.setInt(1, subjectId);
+            stmt.executeUpdate();
+            try (ResultSet keys = stmt.getGeneratedKeys()) {
+                keys.next();
+                examId = keys.getInt(1);
+            }
+        }
+        try (PreparedStatement stmt = conn.prepareStatement(INSERT_GRADE_SQL)) {
+            stmt.setInt(1, studentId);
+            stmt.setInt(2, examId);
+            stmt.setDouble(3, 20.0);
+            stmt.executeUpdate();
+        }
+        System.out.println("   Student " + studentId + ", grade in subject " + subjectId + " (exam " + examId + ")");
+
+        int after = examCount(conn, studentId);
+        expect("student_results counts the grade", after == before + 1, before + " then " + after + " exams");
+
+        try (CallableStatement call = conn.prepareCall("{CALL UpdateStudentStatus(?)}")) {
+            call.setInt(1, studentId);
+            call.execute();
+        }
+        String procedure;
+        try (PreparedStatement stmt = conn.prepareStatement(STATUS_SQL)) {
+            stmt.setInt(1, studentId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                procedure = rs.getString(1);
+            }
+        }
+
+        String[] year = deliberate(conn, yearId, studentId);
+        expect("deliberation leaves the grade out", year[0].equals(yearBefore[0]), yearBefore[0] + " then " + year[0]);
+        expect("deliberation status = UpdateStudentStatus", year[1].equals(procedure), year[1] + " and " + procedure);
+    }
+
+    // The average (to two decimals) and status CohortDeliberation would write for the student
+    private static String[] deliberate(Connection conn, int yearId, int studentId) throws SQLException {
+        String[] decision = {"none", "none"};
+        CohortDeliberation.read(conn, yearId, cohort -> {
+            for (int i = 0; i < cohort.size; i++) {
+                if (cohort.studentIds[i] != studentId) continue;
+                CohortDeliberation.decide(cohort);
+                decision[0] = String.format("%.2f", cohort.averages[i]);
+                decision[1] = cohort.statuses[i];
+            }
+        });
+        return decision;
+    }
+
+    private static int examCount(Connection conn, int studentId) throws SQLException {
+        StudentResults.refresh(conn, studentId);
+        try (PreparedStatement stmt = conn.prepareStatement(RESULT_SQL)) {
+            stmt.setInt(1, studentId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(2) : 0;
+            }
+        }
+    }
+
+    // The first column of the first row, 0 when there is none or it is NULL
+    private static int queryInt(Connection conn, String sql, int... params) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < params.length; i++) stmt.setInt(i + 1, params[i]);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static void expect(String what, boolean ok, String values) {
+        if (ok) {
+            System.out.println("   " + what + ": " + values);
+        } else {
+            failures++;
+            System.out.println("❌ " + what + ": " + values);
+        }
+    }
+}
\ No newline at end of file
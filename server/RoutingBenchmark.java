@@ -0,0 +1,104 @@
+import javax.jms.*;
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.apache.activemq.broker.BrokerService;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Compares the two routing modes of Destinations on an embedded, in-memory
+ * broker: one message is sent to each of [users] users through
+ * ServerMessageService, then a sample of users connect and take their
+ * message, the way a client does at login.
+ *
+ * It prints the send throughput, how many destinations the broker holds,
+ * the broker's memory usage and the heap growth, and how long the sample
+ * consumers took to receive (with a selector, in partitioned mode). The
+ * routing mode is fixed when Destinations loads, so run it once per mode:
+ *
+ *   java RoutingBenchmark 20000
+ *   java -Dmessaging.routing=partitioned RoutingBenchmark 20000
+ *
+ * A partitioned queue only pages a window of messages into memory for
+ * selector matching, so with a large backlog some sample consumers may not
+ * see their message before the timeout; the "received" count shows it.
+ *
+ * Usage: java RoutingBenchmark [users] [sampleConsumers]
+ */
+public class RoutingBenchmark {
+    private static final String[] USER_TYPES = {"STUDENT", "TEACHER", "ADMIN", "RESPONSABLE"};
+
+    public static void main(String[] args) throws Exception {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 20_000;
+        int sample = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("routing");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+        System.setProperty("server.jms.url", "vm://routing?create=false");
+
+        long heapBefore = usedHeap();
+        ServerMessageService service = ServerMessageService.getInstance();
+
+        long start = System.nanoTime();
+        List<CompletableFuture<Void>> pending = new ArrayList<>(users);
+        for (int userId = 1; userId <= users; userId++) {
+            String userType = USER_TYPES[userId % USER_TYPES.length];
+            pending.add(service.sendToUserAsync(userId, userType,
+                new Message(-1, "SYSTEM", userId, userType, "Benchmark", "Message for " + userId, "MESSAGE")));
+        }
+        CompletableFuture.allOf(pending.toArray(new CompletableFuture<?>[0])).join();
+        long sendNanos = System.nanoTime() - start;
+        long heapAfter = usedHeap();
+
+        System.out.println("📊 " + users + " users, routing=" + (Destinations.isPartitioned() ? "partitioned" : "per-user"));
+        System.out.printf("   Send throughput: %.0f messages/s%n", users / (sendNanos / 1e9));
+        System.out.println("   Broker destinations: " + broker.getBroker().getDestinationMap().size());
+        System.out.printf("   Broker memory usage: %.1f MB%n", broker.getSystemUsage().getMemoryUsage().getUsage() / 1e6);
+        System.out.printf("   Heap growth: %.1f MB%n", (heapAfter - heapBefore) / 1e6);
+
+        receiveSample(users, sample);
+
+        service.close();
+        broker.stop();
+        System.exit(0);
+    }
+
+    // Spread over the id range so partitioned mode samples every partition
+    private static void receiveSample(int users, int sample) throws JMSException {
+        Connection connection = new ActiveMQConnectionFactory("vm://routing?create=false").createConnection();
+        connection.start();
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        LatencyHistogram latency = new LatencyHistogram();
+        int received = 0;
+        int step = Math.max(1, users / sample);
+        for (int userId = step; userId <= users && userId / step <= sample; userId += step) {
+            String userType = USER_TYPES[userId % USER_TYPES.length];
+            Queue queue = session.createQueue(Destinations.userQueue(userId, userType));
+            String selector = Destinations.receiverSelector(userId, userType);
+            long begin = System.nanoTime();
+            MessageConsumer consumer = selector == null ? session.createConsumer(queue) : session.createConsumer(queue, selector);
+            if (consumer.receive(2_000) != null) {
+                latency.record(System.nanoTime() - begin);
+                received++;
+            }
+            consumer.close();
+        }
+        connection.close();
+
+        System.out.printf("   Sample consumers: received %d of %d, p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+            received, Math.min(sample, users / step), latency.getPercentileNanos(0.50) / 1e6,
+            latency.getPercentileNanos(0.99) / 1e6, latency.getMaxNanos() / 1e6);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
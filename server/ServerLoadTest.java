@@ -0,0 +1,113 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Load generator for comparing server modes.
+ *
+ * Opens many mostly idle client connections, then drives LOGIN requests
+ * through a subset of them and prints latency percentiles. Run it against
+ * a server started with -Dserver.mode=thread and then with the default
+ * NIO mode, and read the server heap with "jcmd <pid> GC.heap_info" while
+ * all connections are open to get connections per GB of heap.
+ *
+ * Usage: java ServerLoadTest [host] [port] [clients] [activeClients] [requestsPerClient]
+ */
+public class ServerLoadTest {
+    public static void main(String[] args) throws Exception {
+        String host = args.length > 0 ? args[0] : "localhost";
+        int port = args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+        int clients = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+        int activeClients = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+        int requestsPerClient = args.length > 4 ? Integer.parseInt(args[4]) : 50;
+
+        System.out.println("📈 Opening " + clients + " connections to " + host + ":" + port);
+        List<Client> open = new ArrayList<>();
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < clients; i++) {
+            try {
+                open.add(new Client(host, port));
+            } catch (IOException e) {
+                System.err.println("❌ Connection " + i + " failed: " + e.getMessage());
+                break;
+            }
+        }
+        System.out.printf("✅ %d connections open in %d ms%n", open.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart));
+
+        int active = Math.min(activeClients, open.size());
+        ExecutorService pool = Executors.newFixedThreadPool(active);
+        long[] latencies = new long[active * requestsPerClient];
+        List<Future<?>> futures = new ArrayList<>();
+        long runStart = System.nanoTime();
+
+        for (int c = 0; c < active; c++) {
+            Client client = open.get(c);
+            int offset = c * requestsPerClient;
+            futures.add(pool.submit(() -> {
+                for (int r = 0; r < requestsPerClient; r++) {
+                    long start = System.nanoTime();
+                    client.login("loadtest", "loadtest");
+                    latencies[offset + r] = System.nanoTime() - start;
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - runStart;
+        pool.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.println("📊 Results (" + latencies.length + " requests, " + open.size() + " connections)");
+        System.out.printf("   Throughput: %.0f req/s%n", latencies.length / (elapsed / 1e9));
+        System.out.printf("   p50: %.2f ms%n", percentile(latencies, 0.50) / 1e6);
+        System.out.printf("   p99: %.2f ms%n", percentile(latencies, 0.99) / 1e6);
+        System.out.printf("   max: %.2f ms%n", latencies[latencies.length - 1] / 1e6);
+
+        for (Client client : open) {
+            client.close();
+        }
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static class Client {
+        private final Socket socket;
+        private final ObjectOutputStream output;
+        private final ObjectInputStream input;
+
+        Client(String host, int port) throws IOException {
+            socket = new Socket(host, port);
+            output = new ObjectOutputStream(socket.getOutputStream());
+            output.flush();
+            input = new ObjectInputStream(socket.getInputStream());
+        }
+
+        void login(String username, String password) throws Exception {
+            output.writeObject("LOGIN");
+            output.writeObject(username);
+            output.writeObject(password);
+            output.flush();
+            String response = (String) input.readObject();
+            if ("SUCCESS".equals(response)) {
+                input.readObject();
+            }
+        }
+
+        void close() {
+            try {
+                output.writeObject("EXIT");
+                output.flush();
+                socket.close();
+            } catch (IOException e) {
+                // Ignore close error
+            }
+        }
+    }
+}
@@ -1,112 +1,461 @@
 import javax.jms.*;
 import org.apache.activemq.ActiveMQConnectionFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Publishes messages, notifications and broadcasts to ActiveMQ for every
+ * ClientHandler.
+ *
+ * A JMS Session (and everything created from it) may only be used by one
+ * thread at a time, so each send borrows a session from a small pool and
+ * gives it back afterwards, the same way actions borrow JDBC connections
+ * from ConnectionPool. Handlers on different threads therefore publish in
+ * parallel over the one broker connection.
+ *
+ * Each pooled session has a single anonymous producer that sends to any
+ * destination, so no producer is ever created or closed per send. Queue and
+ * topic names are resolved to Destination objects once and shared by all
+ * sessions; the broadcast topics are resolved up front. Names come from
+ * Destinations, and every message carries the ReceiverId (and, for user
+ * messages, ReceiverType) properties that partitioned consumers select on.
+ * fanOutAsync publishes one message to many users in a single send, to a
+ * composite of their queues.
+ *
+ * With server.jms.groupCommit=true, sends are queued instead and a single
+ * flusher thread publishes them on a transacted session, committing every
+ * server.jms.batchSize messages or server.jms.batchDelayMs after the first
+ * one, whichever comes first. The broker then persists a whole batch per
+ * commit instead of one message per round trip. Guarantees in that mode:
+ * the future returned by the ...Async methods completes once the batch
+ * holding the message is committed (the message is then as durable as a
+ * direct persistent send), or fails if the batch is rolled back, in which
+ * case none of its messages were delivered. Messages still queued when the
+ * process dies are lost, so callers that must not lose one wait on the
+ * future. Messages keep their submission order.
+ *
+ * Settings (system properties): server.jms.url, server.jms.sessions,
+ * server.jms.borrowTimeoutMs, server.jms.groupCommit, server.jms.batchSize,
+ * server.jms.batchDelayMs, server.jms.queueCapacity.
+ */
 public class ServerMessageService {
-    private static final String BROKER_URL = "tcp://localhost:61616";
+    private static final Log log = Log.get("server.messaging");
+    private static final String BROKER_URL = System.getProperty("server.jms.url", "tcp://localhost:61616");
     private static ServerMessageService instance;
-    
+
+    private final int maxSessions = Integer.getInteger("server.jms.sessions", 16);
+    private final long borrowTimeoutMs = Long.getLong("server.jms.borrowTimeoutMs", 10_000);
+    private final boolean groupCommitEnabled = Boolean.getBoolean("server.jms.groupCommit");
+    private final int batchSize = Integer.getInteger("server.jms.batchSize", 200);
+    private final long batchDelayMs = Long.getLong("server.jms.batchDelayMs", 10);
+    private final int queueCapacity = Integer.getInteger("server.jms.queueCapacity", 10_000);
+
     private Connection connection;
-    private Session session;
-    private ConcurrentHashMap<String, MessageProducer> producers;
-    
-    public static ServerMessageService getInstance() {
+    private final Semaphore permits = new Semaphore(maxSessions);
+    private final BlockingDeque<PooledSession> idle = new LinkedBlockingDeque<>();
+    // Keyed "queue:NAME" / "topic:NAME"; destinations are plain values, safe to share across sessions
+    private final ConcurrentHashMap<String, Destination> destinations = new ConcurrentHashMap<>();
+    // null unless server.jms.groupCommit is set
+    private GroupCommitter groupCommitter;
+
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder sessionsCreated = new LongAdder();
+    private final LongAdder sessionsDiscarded = new LongAdder();
+    private final LongAdder batchesCommitted = new LongAdder();
+
+    public static synchronized ServerMessageService getInstance() {
         if (instance == null) {
             instance = new ServerMessageService();
         }
         return instance;
     }
-    
+
     private ServerMessageService() {
-        this.producers = new ConcurrentHashMap<>();
         initialize();
     }
-    
+
     private void initialize() {
         try {
             ActiveMQConnectionFactory connectionFactory = new ActiveMQConnectionFactory(BROKER_URL);
             connectionFactory.setTrustAllPackages(true); // This allows all serializable objects
-            
+
             connection = connectionFactory.createConnection();
             connection.start();
-            
-            session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
-            
-            System.out.println("✅ Server Message Service connected to ActiveMQ");
-            
+
+            // Fail fast on a broker problem instead of on the first send
+            PooledSession first = createSession();
+            for (String userType : new String[] {"STUDENT", "TEACHER", "ADMIN", "RESPONSABLE"}) {
+                destination(first.session, Destinations.broadcastTopic(userType), true);
+            }
+            idle.offerFirst(first);
+
+            if (groupCommitEnabled) {
+                groupCommitter = new GroupCommitter();
+                log.info("✅ Group commit on: up to {} messages or {} ms per transaction", batchSize, batchDelayMs);
+            }
+            log.info("✅ Server Message Service connected to ActiveMQ (up to {} sessions)", maxSessions);
+
         } catch (JMSException e) {
-            System.err.println("❌ Failed to initialize Server Message Service: " + e.getMessage());
+            log.error("❌ Failed to initialize Server Message Service: {}", e.getMessage());
         }
     }
-    
+
     public void sendToUser(int userId, String userType, java.io.Serializable message) {
+        report(sendToUserAsync(userId, userType, message), "📤 Message sent to {}", "❌ Error sending message: {}",
+            Destinations.userQueue(userId, userType));
+    }
+
+    public void broadcastToUserType(String userType, java.io.Serializable message) {
+        report(broadcastToUserTypeAsync(userType, message), "📢 Broadcast sent to {}", "❌ Error broadcasting: {}",
+            Destinations.broadcastTopic(userType));
+    }
+
+    public void sendNotification(int userId, java.io.Serializable notification) {
+        report(sendNotificationAsync(userId, notification), "🔔 Notification sent to {}", "❌ Error sending notification: {}",
+            Destinations.notificationQueue(userId));
+    }
+
+    // Completes when the message is on the broker (after its batch commits in group-commit mode)
+    public CompletableFuture<Void> sendToUserAsync(int userId, String userType, java.io.Serializable message) {
+        return submit(Destinations.userQueue(userId, userType), false, message, userId, Destinations.receiverType(userType));
+    }
+
+    public CompletableFuture<Void> broadcastToUserTypeAsync(String userType, java.io.Serializable message) {
+        return submit(Destinations.broadcastTopic(userType), true, message, null, null);
+    }
+
+    public CompletableFuture<Void> sendNotificationAsync(int userId, java.io.Serializable notification) {
+        return submit(Destinations.notificationQueue(userId), false, notification, userId, null);
+    }
+
+    // For callers that already know the destination name, such as OutboxRelay; receiverId and
+    // receiverType may be null (broadcasts have neither, notifications no type)
+    public CompletableFuture<Void> sendToDestinationAsync(String name, boolean topic, java.io.Serializable payload,
+                                                          Integer receiverId, String receiverType) {
+        return submit(name, topic, payload, receiverId, receiverType == null ? null : Destinations.receiverType(receiverType));
+    }
+
+    // One send to a composite of the users' queues; a shared partition queue hands each message to a
+    // single consumer, so partitioned mode needs one copy per user (still a single commit in group-commit mode)
+    public CompletableFuture<Void> fanOutAsync(int payloadId, String userType, int[] userIds, java.io.Serializable message) {
+        if (!Destinations.isPartitioned()) {
+            return submit(new PendingSend(Destinations.compositeUserQueue(userIds, userType), false, message, null,
+                Destinations.receiverType(userType), payloadId));
+        }
+        CompletableFuture<?>[] sends = new CompletableFuture<?>[userIds.length];
+        for (int i = 0; i < userIds.length; i++) {
+            sends[i] = submit(new PendingSend(Destinations.userQueue(userIds[i], userType), false, message, userIds[i],
+                Destinations.receiverType(userType), payloadId));
+        }
+        return CompletableFuture.allOf(sends);
+    }
+
+    private CompletableFuture<Void> submit(String name, boolean topic, java.io.Serializable payload,
+                                           Integer receiverId, String receiverType) {
+        return submit(new PendingSend(name, topic, payload, receiverId, receiverType, 0));
+    }
+
+    private CompletableFuture<Void> submit(PendingSend pending) {
+        if (groupCommitter != null) {
+            return groupCommitter.enqueue(pending);
+        }
         try {
-            String queueName = "USER." + userType.toUpperCase() + "." + userId;
-            MessageProducer producer = getProducer(queueName);
-            
-            ObjectMessage jmsMessage = session.createObjectMessage(message);
-            producer.send(jmsMessage);
-            
-            System.out.println("📤 Message sent to " + queueName);
-            
+            send(pending);
+            pending.done.complete(null);
         } catch (JMSException e) {
-            System.err.println("❌ Error sending message: " + e.getMessage());
+            pending.done.completeExceptionally(e);
         }
+        return pending.done;
     }
-    
-    public void broadcastToUserType(String userType, java.io.Serializable message) {
+
+    private static void report(CompletableFuture<Void> done, String sentMessage, String errorMessage, String destination) {
+        done.whenComplete((ignored, error) -> {
+            if (error == null) {
+                log.debug(sentMessage, destination);
+            } else {
+                log.error(errorMessage, error.getMessage());
+            }
+        });
+    }
+
+    private void send(PendingSend pending) throws JMSException {
+        PooledSession pooled = borrow();
+        boolean broken = true;
         try {
-            String topicName = "BROADCAST." + userType.toUpperCase();
-            Topic topic = session.createTopic(topicName);
-            MessageProducer producer = session.createProducer(topic);
-            
-            ObjectMessage jmsMessage = session.createObjectMessage(message);
-            producer.send(jmsMessage);
-            producer.close();
-            
-            System.out.println("📢 Broadcast sent to " + topicName);
-            
-        } catch (JMSException e) {
-            System.err.println("❌ Error broadcasting: " + e.getMessage());
+            pooled.producer.send(destination(pooled.session, pending.name, pending.topic), pending.toMessage(pooled.session));
+            sent.increment();
+            broken = false;
+        } finally {
+            release(pooled, broken);
         }
     }
-    
-    public void sendNotification(int userId, java.io.Serializable notification) {
+
+    // Two threads may both create the same destination; putIfAbsent keeps one. Composite
+    // names are one-off recipient lists, so they are not cached
+    private Destination destination(Session session, String name, boolean topic) throws JMSException {
+        if (name.indexOf(',') >= 0) {
+            return topic ? session.createTopic(name) : session.createQueue(name);
+        }
+        String key = (topic ? "topic:" : "queue:") + name;
+        Destination destination = destinations.get(key);
+        if (destination == null) {
+            destination = topic ? session.createTopic(name) : session.createQueue(name);
+            Destination existing = destinations.putIfAbsent(key, destination);
+            if (existing != null) destination = existing;
+        }
+        return destination;
+    }
+
+    private PooledSession borrow() throws JMSException {
+        if (connection == null) {
+            throw new JMSException("Not connected to ActiveMQ");
+        }
         try {
-            String queueName = "NOTIFICATION." + userId;
-            MessageProducer producer = getProducer(queueName);
-            
-            ObjectMessage jmsMessage = session.createObjectMessage(notification);
-            producer.send(jmsMessage);
-            
-            System.out.println("🔔 Notification sent to user " + userId);
-            
-        } catch (JMSException e) {
-            System.err.println("❌ Error sending notification: " + e.getMessage());
+            if (!permits.tryAcquire(borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                throw new JMSException("Timed out after " + borrowTimeoutMs + " ms waiting for a JMS session");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JMSException("Interrupted while waiting for a JMS session");
+        }
+
+        PooledSession pooled = idle.pollFirst();
+        if (pooled != null) {
+            return pooled;
+        }
+        try {
+            return createSession();
+        } catch (JMSException | RuntimeException e) {
+            permits.release();
+            throw e;
         }
     }
-    
-    private MessageProducer getProducer(String queueName) throws JMSException {
-        MessageProducer producer = producers.get(queueName);
-        if (producer == null) {
-            Queue queue = session.createQueue(queueName);
-            producer = session.createProducer(queue);
-            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
-            producers.put(queueName, producer);
+
+    // A session that failed mid-send is closed and replaced on a later borrow
+    private void release(PooledSession pooled, boolean broken) {
+        try {
+            if (broken) {
+                pooled.closeQuietly();
+                sessionsDiscarded.increment();
+            } else {
+                idle.offerFirst(pooled);
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    private PooledSession createSession() throws JMSException {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        try {
+            PooledSession pooled = new PooledSession(session);
+            sessionsCreated.increment();
+            return pooled;
+        } catch (JMSException | RuntimeException e) {
+            session.close();
+            throw e;
         }
-        return producer;
     }
-    
+
+    public long getSentCount() {
+        return sent.sum();
+    }
+
     public void close() {
+        if (groupCommitter != null) {
+            groupCommitter.shutdown();
+        }
+        PooledSession pooled;
+        while ((pooled = idle.pollFirst()) != null) {
+            pooled.closeQuietly();
+        }
         try {
-            for (MessageProducer producer : producers.values()) {
-                producer.close();
-            }
-            if (session != null) session.close();
             if (connection != null) connection.close();
-            System.out.println("✅ Server Message Service closed");
+            log.info("✅ Server Message Service closed");
         } catch (JMSException e) {
-            System.err.println("❌ Error closing: " + e.getMessage());
+            log.error("❌ Error closing: {}", e.getMessage());
+        }
+    }
+
+    @Override
+    public String toString() {
+        String sessions = String.format("JMS sessions: idle=%d, inUse=%d, created=%d, discarded=%d, destinations=%d, sent=%d",
+            idle.size(), maxSessions - permits.availablePermits(), sessionsCreated.sum(), sessionsDiscarded.sum(),
+            destinations.size(), sent.sum());
+        if (groupCommitter == null) return sessions;
+        return sessions + String.format(", batches=%d, queued=%d", batchesCommitted.sum(), groupCommitter.queued());
+    }
+
+    private static final class PendingSend {
+        final String name;
+        final boolean topic;
+        final java.io.Serializable payload;
+        final Integer receiverId;
+        final String receiverType;
+        final int payloadId;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        PendingSend(String name, boolean topic, java.io.Serializable payload, Integer receiverId, String receiverType,
+                    int payloadId) {
+            this.name = name;
+            this.topic = topic;
+            this.payload = payload;
+            this.receiverId = receiverId;
+            this.receiverType = receiverType;
+            this.payloadId = payloadId;
+        }
+
+        // The receiver properties let consumers of a partitioned queue select their own messages
+        ObjectMessage toMessage(Session session) throws JMSException {
+            ObjectMessage message = session.createObjectMessage(payload);
+            if (receiverId != null) message.setIntProperty(Destinations.RECEIVER_ID, receiverId);
+            if (receiverType != null) message.setStringProperty(Destinations.RECEIVER_TYPE, receiverType);
+            if (payloadId > 0) message.setIntProperty(Destinations.PAYLOAD_ID, payloadId);
+            return message;
+        }
+    }
+
+    /** The flusher thread and its transacted session (group-commit mode only). */
+    private final class GroupCommitter implements Runnable {
+        private final BlockingQueue<PendingSend> queue = new LinkedBlockingQueue<>(queueCapacity);
+        private final Thread thread = new Thread(this, "jms-group-commit");
+        private volatile boolean running = true;
+        private Session session;
+        private MessageProducer producer;
+
+        GroupCommitter() {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // A full queue makes the caller wait (up to the borrow timeout) rather than grow without bound
+        CompletableFuture<Void> enqueue(PendingSend pending) {
+            try {
+                if (!running) {
+                    pending.done.completeExceptionally(new JMSException("Message service is closing"));
+                } else if (!queue.offer(pending, borrowTimeoutMs, TimeUnit.MILLISECONDS)) {
+                    pending.done.completeExceptionally(new JMSException("Send queue full for " + borrowTimeoutMs + " ms"));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.done.completeExceptionally(new JMSException("Interrupted while queueing a message"));
+            }
+            return pending.done;
+        }
+
+        @Override
+        public void run() {
+            List<PendingSend> batch = new ArrayList<>(batchSize);
+            long delayNanos = TimeUnit.MILLISECONDS.toNanos(batchDelayMs);
+            while (running || !queue.isEmpty()) {
+                try {
+                    PendingSend first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) continue;
+                    batch.add(first);
+
+                    // Collect until the batch is full or the first message has waited batchDelayMs
+                    long deadline = System.nanoTime() + delayNanos;
+                    while (batch.size() < batchSize) {
+                        queue.drainTo(batch, batchSize - batch.size());
+                        long wait = deadline - System.nanoTime();
+                        if (batch.size() >= batchSize || wait <= 0) break;
+                        PendingSend next = queue.poll(wait, TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        batch.add(next);
+                    }
+                    flush(batch);
+                } catch (InterruptedException e) {
+                    running = false;
+                } finally {
+                    batch.clear();
+                }
+            }
+            closeSession();
+        }
+
+        private void flush(List<PendingSend> batch) {
+            try {
+                if (session == null) {
+                    session = connection.createSession(true, Session.SESSION_TRANSACTED);
+                    producer = session.createProducer(null);
+                    producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+                }
+                for (PendingSend pending : batch) {
+                    producer.send(destination(session, pending.name, pending.topic), pending.toMessage(session));
+                }
+                session.commit();
+                sent.add(batch.size());
+                batchesCommitted.increment();
+                for (PendingSend pending : batch) {
+                    pending.done.complete(null);
+                }
+            } catch (JMSException | RuntimeException e) {
+                // Nothing from this batch reached consumers; start over on a fresh session
+                try {
+                    if (session != null) session.rollback();
+                } catch (JMSException ignored) {
+                    // The session is discarded anyway
+                }
+                closeSession();
+                for (PendingSend pending : batch) {
+                    pending.done.completeExceptionally(e);
+                }
+            }
+        }
+
+        private void closeSession() {
+            if (session == null) return;
+            try {
+                session.close();
+            } catch (JMSException e) {
+                // Ignore close error
+            }
+            session = null;
+            producer = null;
+        }
+
+        // Flushes what is already queued, then stops the thread
+        void shutdown() {
+            running = false;
+            try {
+                thread.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int queued() {
+            return queue.size();
+        }
+    }
+
+    /** A session and its anonymous producer; used by one thread at a time. */
+    private static final class PooledSession {
+        private final Session session;
+        private final MessageProducer producer;
+
+        private PooledSession(Session session) throws JMSException {
+            this.session = session;
+            this.producer = session.createProducer(null);
+            producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+        }
+
+        // Closing the session closes its producer too
+        void closeQuietly() {
+            try {
+                session.close();
+            } catch (JMSException e) {
+                // Ignore close error
+            }
         }
     }
-}
\ No newline at end of file
+}
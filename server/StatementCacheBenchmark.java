@@ -0,0 +1,64 @@
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Drives the GET_STUDENT_GRADES handler straight against the database (no
+ * sockets) and prints statements per second and the statement-cache hit
+ * rate. Run it once as is and once with -Dserver.db.statementCacheSize=0
+ * to compare with re-preparing on every request; add
+ * -Dserver.db.url=...&useServerPrepStmts=false to isolate the server-side
+ * prepared statements.
+ *
+ * Usage: java StatementCacheBenchmark [studentId] [requestsPerThread] [threads]
+ */
+public class StatementCacheBenchmark {
+    public static void main(String[] args) throws Exception {
+        int studentId = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+        int requestsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        ConnectionPool pool = ConnectionPool.getInstance();
+        pool.start();
+        ClientHandler handler = new ClientHandler();
+
+        // Warm-up: fills every connection's cache and lets the JIT settle
+        run(handler, studentId, Math.max(1, requestsPerThread / 10), threads);
+        long hitsBefore = pool.getStatementHits();
+        long missesBefore = pool.getStatementMisses();
+
+        long start = System.nanoTime();
+        run(handler, studentId, requestsPerThread, threads);
+        long elapsed = System.nanoTime() - start;
+
+        long hits = pool.getStatementHits() - hitsBefore;
+        long misses = pool.getStatementMisses() - missesBefore;
+        long statements = (long) requestsPerThread * threads;
+        System.out.println("📊 GET_STUDENT_GRADES x " + statements + " (" + threads + " threads)");
+        System.out.printf("   Throughput: %.0f statements/s%n", statements / (elapsed / 1e9));
+        System.out.printf("   Cache hit rate: %.1f%% (%d hits, %d misses)%n",
+            hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses), hits, misses);
+        System.out.println("   " + pool);
+        pool.close();
+        System.exit(0);
+    }
+
+    private static void run(ClientHandler handler, int studentId, int requests, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < requests; i++) {
+                    WireProtocol.BinaryWriter request = new WireProtocol.BinaryWriter(WireProtocol.Opcode.GET_STUDENT_GRADES, i);
+                    request.writeInt(studentId);
+                    byte[] frame = request.toFrame();
+                    handler.handleFrame(WireProtocol.decodeFrame(frame, 4, frame.length - 4));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,149 @@
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Keeps student_results (overall average and counts of each student) and
+ * student_subject_results (final grade per subject) up to date, so that
+ * reading a student's average is a primary-key lookup. This file is kept
+ * identical in client/ and server/, like GradeEngine, whose rules it
+ * materializes.
+ *
+ * A transaction that writes grades calls lock() for the students concerned
+ * before touching any grade, then refresh() for each of them before it
+ * commits:
+ *
+ *   lock()     takes (creating it if needed) each student's student_results
+ *              row, in student order, so writers of one student queue up and
+ *              two writers never wait on each other's grade rows. Only
+ *              student_results is locked: the students row is left to the
+ *              grade triggers, which update it once the writer has its turn
+ *              (a foreign-key check before the turn would hold a shared lock
+ *              on it, and two writers would deadlock there)
+ *   refresh()  reads the student's grades with a locking read, which sees
+ *              everything committed before the lock was granted, and
+ *              rewrites the student's results rows
+ *
+ * A status is not stored here: it stays a decision, kept in
+ * students.final_status (UpdateStudentStatus, CohortDeliberation or a
+ * responsable) and registrations. status() gives the thresholds those use,
+ * ADMIS from 10, REDOUBLANT from 8 and EXCLU below, as GET_FINAL_STATUS
+ * always has. ResultsBackfill recomputes the whole table. Every write bumps
+ * the row's version, by which the server's GradeIndex orders its copies.
+ */
+public final class StudentResults {
+    private static final String LOCK_SQL = "SELECT student_id FROM student_results WHERE student_id IN (";
+    private static final String LOCK_SQL_END = ") ORDER BY student_id FOR UPDATE";
+    // Students without a row yet (created with the student, or by ResultsBackfill); unknown ids are skipped
+    private static final String CREATE_SQL = "INSERT IGNORE INTO student_results (student_id) VALUES ";
+    private static final String UPSERT_RESULT_SQL =
+        "INSERT INTO student_results (student_id, overall_average, subject_count, exam_count, exams_passed, version) " +
+        "VALUES (?, ?, ?, ?, ?, 1) ON DUPLICATE KEY UPDATE overall_average = VALUES(overall_average), " +
+        "subject_count = VALUES(subject_count), exam_count = VALUES(exam_count), " +
+        "exams_passed = VALUES(exams_passed), version = version + 1, computed_at = NOW()";
+    private static final String DELETE_SUBJECTS_SQL = "DELETE FROM student_subject_results WHERE student_id = ?";
+    private static final String INSERT_SUBJECT_SQL =
+        "INSERT INTO student_subject_results (student_id, subject_id, final_grade) VALUES (?, ?, ?)";
+    private static final String STUDENTS_OF_EXAM_SQL = "SELECT student_id FROM grades WHERE exam_id = ?";
+
+    static final double ADMIS_FROM = 10.0;
+    static final double REDOUBLANT_FROM = 8.0;
+
+    private StudentResults() {
+    }
+
+    // Call before writing these students' grades; students that do not exist are skipped
+    public static void lock(Connection conn, int... studentIds) throws SQLException {
+        if (studentIds.length == 0) return;
+        int[] sorted = studentIds.clone();
+        Arrays.sort(sorted);
+        int[] missing = lockRows(conn, sorted);
+        if (missing.length == 0) return;
+        StringBuilder sql = new StringBuilder(CREATE_SQL);
+        for (int i = 0; i < missing.length; i++) sql.append(i == 0 ? "(?)" : ", (?)");
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < missing.length; i++) stmt.setInt(i + 1, missing[i]);
+            stmt.executeUpdate();
+        }
+        lockRows(conn, missing);
+    }
+
+    // Locks the existing rows of these sorted ids, in order, and returns the ids that have none
+    private static int[] lockRows(Connection conn, int[] sorted) throws SQLException {
+        StringBuilder sql = new StringBuilder(LOCK_SQL);
+        for (int i = 0; i < sorted.length; i++) sql.append(i == 0 ? "?" : ", ?");
+        sql.append(LOCK_SQL_END);
+        int[] missing = new int[sorted.length];
+        int count = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            for (int i = 0; i < sorted.length; i++) stmt.setInt(i + 1, sorted[i]);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int i = 0;
+                while (rs.next()) {
+                    int found = rs.getInt(1);
+                    while (sorted[i] != found) {
+                        if (i == 0 || sorted[i] != sorted[i - 1]) missing[count++] = sorted[i];
+                        i++;
+                    }
+                    while (i < sorted.length && sorted[i] == found) i++;
+                }
+                for (; i < sorted.length; i++) {
+                    if (i == 0 || sorted[i] != sorted[i - 1]) missing[count++] = sorted[i];
+                }
+            }
+        }
+        return Arrays.copyOf(missing, count);
+    }
+
+    // Recomputes one locked student's results from their grades, in the caller's transaction
+    public static void refresh(Connection conn, int studentId) throws SQLException {
+        write(conn, new int[] {studentId}, new GradeEngine.Result[] {GradeEngine.compute(GradeEngine.loadLocked(conn, studentId))});
+    }
+
+    // Writes the results of many students with one batch per table
+    static void write(Connection conn, int[] studentIds, GradeEngine.Result[] results) throws SQLException {
+        try (PreparedStatement upsert = conn.prepareStatement(UPSERT_RESULT_SQL);
+             PreparedStatement delete = conn.prepareStatement(DELETE_SUBJECTS_SQL);
+             PreparedStatement insert = conn.prepareStatement(INSERT_SUBJECT_SQL)) {
+            int subjects = 0;
+            for (int i = 0; i < studentIds.length; i++) {
+                GradeEngine.Result result = results[i];
+                upsert.setInt(1, studentIds[i]);
+                upsert.setDouble(2, result.getOverallAverage());
+                upsert.setInt(3, result.getSubjectCount());
+                upsert.setInt(4, result.getExamCount());
+                upsert.setInt(5, result.getExamsPassed());
+                upsert.addBatch();
+                delete.setInt(1, studentIds[i]);
+                delete.addBatch();
+                for (int s = 0; s < result.getSubjectCount(); s++) {
+                    insert.setInt(1, studentIds[i]);
+                    insert.setInt(2, result.getSubjectId(s));
+                    insert.setDouble(3, result.getSubjectFinal(s));
+                    insert.addBatch();
+                    subjects++;
+                }
+            }
+            upsert.executeBatch();
+            delete.executeBatch();
+            if (subjects > 0) insert.executeBatch();
+        }
+    }
+
+    // Who has a grade in this exam, to lock and refresh when the exam changes
+    public static int[] studentsOfExam(Connection conn, int examId) throws SQLException {
+        List<Integer> students = new ArrayList<>();
+        try (PreparedStatement stmt = conn.prepareStatement(STUDENTS_OF_EXAM_SQL)) {
+            stmt.setInt(1, examId);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) students.add(rs.getInt(1));
+            }
+        }
+        return students.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    public static String status(double average) {
+        return average >= ADMIS_FROM ? "ADMIS" : (average >= REDOUBLANT_FROM ? "REDOUBLANT" : "EXCLU");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,214 @@
+import java.sql.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Unread-message counts per user, held in memory so that GET_UNREAD_COUNT
+ * answers a badge refresh without touching the messages table.
+ *
+ * A user's count is their unread direct messages plus the broadcasts to
+ * their type that they have neither read nor deleted. Per user type there
+ * is one table of counters indexed by user id, in lazily created chunks of
+ * 4096 AtomicIntegers: updates are single atomic adds, and users in
+ * different chunks never share a cache line of bookkeeping. Broadcasts are
+ * one total per type plus, per user, how many of them the user has seen.
+ *
+ * rebuild() loads everything from the database at startup, in one snapshot,
+ * and remembers the newest outbox row it saw. From then on OutboxRelay
+ * counts each new message, fan-out and broadcast when its claim of the
+ * outbox row commits (rows up to that mark were already in the snapshot),
+ * and MARK_MESSAGE_READ and DELETE_MESSAGE take them off. A new message is
+ * therefore counted shortly after its insert commits, not with it: the
+ * badge lags by one relay claim, which the sender's commit wakes up, and
+ * does not wait for the broker. A message read or deleted before the relay
+ * claimed its row is neither counted nor taken off (wasCounted()). Every
+ * message write therefore has to go through the outbox or those two
+ * actions, or the counts drift until the next restart.
+ */
+public class UnreadCounters {
+    private static final Log log = Log.get("server.unread");
+    private static final String[] USER_TYPES = {"STUDENT", "TEACHER", "ADMIN", "RESPONSABLE"};
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    // User ids are below 2^24, like UserBitmap members
+    private static final int MAX_CHUNKS = 1 << (24 - CHUNK_BITS);
+    private static UnreadCounters instance;
+
+    private static final String SELECT_OUTBOX_MARK_SQL = "SELECT COALESCE(MAX(outbox_id), 0) FROM message_outbox";
+    private static final String SELECT_UNREAD_SQL =
+        "SELECT receiver_type, receiver_id, COUNT(*) FROM messages " +
+        "WHERE is_read = FALSE AND receiver_id IS NOT NULL GROUP BY receiver_type, receiver_id";
+    private static final String SELECT_BROADCAST_TOTALS_SQL = "SELECT target_type, COUNT(*) FROM broadcasts GROUP BY target_type";
+    private static final String SELECT_BROADCAST_STATE_SQL = "SELECT read_bitmap, deleted_bitmap FROM broadcasts";
+
+    private final Table[] direct = new Table[USER_TYPES.length];
+    private final Table[] broadcastsSeen = new Table[USER_TYPES.length];
+    private final AtomicInteger[] broadcastTotals = new AtomicInteger[USER_TYPES.length];
+    // Outbox rows up to this id were counted by rebuild(); -1 until it ran
+    private volatile long countedThroughOutboxId = -1;
+    private volatile long rebuildMillis;
+
+    public static synchronized UnreadCounters getInstance() {
+        if (instance == null) {
+            instance = new UnreadCounters();
+        }
+        return instance;
+    }
+
+    private UnreadCounters() {
+        for (int i = 0; i < USER_TYPES.length; i++) {
+            direct[i] = new Table();
+            broadcastsSeen[i] = new Table();
+            broadcastTotals[i] = new AtomicInteger();
+        }
+    }
+
+    // Call once at startup, before OutboxRelay starts
+    public void rebuild() throws SQLException {
+        long start = System.nanoTime();
+        try (ConnectionPool.PooledConnection pooled = ConnectionPool.getInstance().borrow()) {
+            Connection conn = pooled.getConnection();
+            conn.setAutoCommit(false);
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                long mark;
+                try (ResultSet rs = pooled.prepare(SELECT_OUTBOX_MARK_SQL).executeQuery()) {
+                    rs.next();
+                    mark = rs.getLong(1);
+                }
+                try (ResultSet rs = pooled.prepare(SELECT_UNREAD_SQL).executeQuery()) {
+                    while (rs.next()) {
+                        int type = typeIndex(rs.getString(1));
+                        if (type >= 0) direct[type].add(rs.getInt(2), rs.getInt(3));
+                    }
+                }
+                try (ResultSet rs = pooled.prepare(SELECT_BROADCAST_TOTALS_SQL).executeQuery()) {
+                    while (rs.next()) {
+                        addBroadcasts(rs.getString(1), rs.getInt(2));
+                    }
+                }
+                try (ResultSet rs = pooled.prepare(SELECT_BROADCAST_STATE_SQL).executeQuery()) {
+                    while (rs.next()) {
+                        // Read and deleted count once together
+                        UserBitmap seen = UserBitmap.fromBytes(rs.getBytes(1));
+                        UserBitmap.fromBytes(rs.getBytes(2)).forEach(seen::add);
+                        seen.forEach(member -> broadcastsSeen[typeIndex(UserBitmap.memberUserType(member))]
+                            .add(UserBitmap.memberUserId(member), 1));
+                    }
+                }
+                conn.commit();
+                countedThroughOutboxId = mark;
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+        rebuildMillis = (System.nanoTime() - start) / 1_000_000;
+        log.info("✅ Unread counters rebuilt in {} ms", rebuildMillis);
+    }
+
+    // False until rebuild() has succeeded
+    public boolean isReady() {
+        return countedThroughOutboxId >= 0;
+    }
+
+    public int getUnreadCount(int userId, String userType) {
+        int type = typeIndex(userType);
+        if (type < 0 || !validId(userId)) return 0;
+        int unreadBroadcasts = broadcastTotals[type].get() - broadcastsSeen[type].get(userId);
+        return Math.max(0, direct[type].get(userId)) + Math.max(0, unreadBroadcasts);
+    }
+
+    // Called by OutboxRelay once the row's publish is committed
+    public void messageStored(long outboxId, int receiverId, String receiverType) {
+        int type = typeIndex(receiverType);
+        if (counts(outboxId) && type >= 0 && validId(receiverId)) direct[type].add(receiverId, 1);
+    }
+
+    public void fanOutStored(long outboxId, String receiverType, int[] receiverIds) {
+        int type = typeIndex(receiverType);
+        if (!counts(outboxId) || type < 0) return;
+        for (int receiverId : receiverIds) {
+            if (validId(receiverId)) direct[type].add(receiverId, 1);
+        }
+    }
+
+    // One outbox row per target type, so a broadcast to ALL arrives once for each type
+    public void broadcastStored(long outboxId, String userType) {
+        int type = typeIndex(userType);
+        if (counts(outboxId) && type >= 0) broadcastTotals[type].incrementAndGet();
+    }
+
+    // Whether the message behind an outbox row is in the counts: in the rebuild snapshot, or claimed by OutboxRelay
+    public boolean wasCounted(long outboxId, boolean claimed) {
+        return claimed || !counts(outboxId);
+    }
+
+    // An unread direct message that wasCounted() was marked read or deleted
+    public void messageRead(int receiverId, String receiverType) {
+        int type = typeIndex(receiverType);
+        if (type >= 0 && validId(receiverId)) direct[type].add(receiverId, -1);
+    }
+
+    // A broadcast the user had neither read nor deleted now is one of them
+    public void broadcastSeen(int userId, String userType) {
+        int type = typeIndex(userType);
+        if (type >= 0 && validId(userId)) broadcastsSeen[type].add(userId, 1);
+    }
+
+    private boolean counts(long outboxId) {
+        return isReady() && outboxId > countedThroughOutboxId;
+    }
+
+    private void addBroadcasts(String targetType, int count) {
+        if ("ALL".equalsIgnoreCase(targetType)) {
+            for (AtomicInteger total : broadcastTotals) {
+                total.addAndGet(count);
+            }
+        } else {
+            int type = typeIndex(targetType);
+            if (type >= 0) broadcastTotals[type].addAndGet(count);
+        }
+    }
+
+    private static int typeIndex(String userType) {
+        if (userType == null) return -1;
+        for (int i = 0; i < USER_TYPES.length; i++) {
+            if (USER_TYPES[i].equalsIgnoreCase(userType)) return i;
+        }
+        return -1;
+    }
+
+    private static boolean validId(int userId) {
+        return userId >= 0 && userId < MAX_CHUNKS * CHUNK_SIZE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Unread counters: rebuilt in %d ms, counting outbox rows after %d", rebuildMillis,
+            countedThroughOutboxId);
+    }
+
+    /** Counters for one user type, by user id; chunks appear on first use and are never replaced. */
+    private static final class Table {
+        private final AtomicReferenceArray<AtomicIntegerArray> chunks = new AtomicReferenceArray<>(MAX_CHUNKS);
+
+        int get(int userId) {
+            AtomicIntegerArray chunk = chunks.get(userId >>> CHUNK_BITS);
+            return chunk == null ? 0 : chunk.get(userId & CHUNK_SIZE - 1);
+        }
+
+        void add(int userId, int delta) {
+            int index = userId >>> CHUNK_BITS;
+            AtomicIntegerArray chunk = chunks.get(index);
+            if (chunk == null) {
+                chunks.compareAndSet(index, null, new AtomicIntegerArray(CHUNK_SIZE));
+                chunk = chunks.get(index);
+            }
+            chunk.addAndGet(userId & CHUNK_SIZE - 1, delta);
+        }
+    }
+}
\ No newline at end of file
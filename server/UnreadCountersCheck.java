@@ -0,0 +1,124 @@
+import org.apache.activemq.broker.BrokerService;
+import java.sql.*;
+
+/**
+ * Checks that a user's unread count ends where the messages table says,
+ * whichever of OutboxRelay and MARK_MESSAGE_READ / DELETE_MESSAGE gets to a
+ * new message first. It runs the handlers and the relay in this process,
+ * against the configured database and an embedded, in-memory broker, in
+ * three orders:
+ *
+ *   send, read, relay     read before the relay claimed the outbox row
+ *   send, delete, relay   deleted before the relay claimed it
+ *   send, relay, read     the usual order
+ *
+ * A first message is sent and relayed, and stays unread until the end, so
+ * the count is above zero throughout and a drift cannot hide behind
+ * getUnreadCount's clamp. Nothing else may write messages meanwhile: stop
+ * the server first. The test messages are deleted at the end. Exits with 1
+ * if a count is wrong.
+ *
+ * Usage: java UnreadCountersCheck [studentId]
+ */
+public class UnreadCountersCheck {
+    private static final String LATEST_SQL = "SELECT MAX(message_id) FROM messages WHERE receiver_id = ? AND subject = ?";
+
+    private static final ClientHandler handler = new ClientHandler();
+    private static int requestId;
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        int studentId = args.length > 0 ? Integer.parseInt(args[0]) : 1;
+
+        BrokerService broker = new BrokerService();
+        broker.setBrokerName("unread-check");
+        broker.setPersistent(false);
+        broker.setUseJmx(false);
+        broker.start();
+        broker.waitUntilStarted();
+        System.setProperty("server.jms.url", "vm://unread-check?create=false");
+
+        ConnectionPool pool = ConnectionPool.getInstance();
+        pool.start();
+        UnreadCounters counters = UnreadCounters.getInstance();
+        counters.rebuild();
+        OutboxRelay relay = OutboxRelay.getInstance();
+        while (relay.relayBatch() > 0) {
+            // Rows left by an earlier run
+        }
+
+        int before = counters.getUnreadCount(studentId, "STUDENT");
+        int keeper = send(pool, studentId, "keeper");
+        relay.relayBatch();
+        int expected = before + 1;
+        expect("send, relay", counters.getUnreadCount(studentId, "STUDENT"), expected);
+
+        int read = send(pool, studentId, "read first");
+        update(WireProtocol.Opcode.MARK_MESSAGE_READ, read, studentId);
+        relay.relayBatch();
+        expect("send, read, relay", counters.getUnreadCount(studentId, "STUDENT"), expected);
+
+        int deleted = send(pool, studentId, "deleted first");
+        update(WireProtocol.Opcode.DELETE_MESSAGE, deleted, studentId);
+        relay.relayBatch();
+        expect("send, delete, relay", counters.getUnreadCount(studentId, "STUDENT"), expected);
+
+        int relayed = send(pool, studentId, "relayed first");
+        relay.relayBatch();
+        expect("send, relay (second)", counters.getUnreadCount(studentId, "STUDENT"), expected + 1);
+        update(WireProtocol.Opcode.MARK_MESSAGE_READ, relayed, studentId);
+        expect("send, relay, read", counters.getUnreadCount(studentId, "STUDENT"), expected);
+
+        for (int messageId : new int[] {keeper, read, relayed}) {
+            update(WireProtocol.Opcode.DELETE_MESSAGE, messageId, studentId);
+        }
+        expect("clean-up", counters.getUnreadCount(studentId, "STUDENT"), before);
+
+        ServerMessageService.getInstance().close();
+        pool.close();
+        broker.stop();
+        System.out.println(failures == 0 ? "✅ Unread counts match" : "❌ " + failures + " unread counts are wrong");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    // Stores a message through SEND_MESSAGE, without relaying it, and returns its id
+    private static int send(ConnectionPool pool, int studentId, String subject) throws Exception {
+        WireProtocol.BinaryWriter request = new WireProtocol.BinaryWriter(WireProtocol.Opcode.SEND_MESSAGE, ++requestId);
+        request.writeMessage(new Message(0, "SYSTEM", studentId, "STUDENT", "UnreadCountersCheck " + subject,
+            "Test message", "MESSAGE"));
+        call(request);
+        try (ConnectionPool.PooledConnection pooled = pool.borrow()) {
+            PreparedStatement stmt = pooled.prepare(LATEST_SQL);
+            stmt.setInt(1, studentId);
+            stmt.setString(2, "UnreadCountersCheck " + subject);
+            try (ResultSet rs = stmt.executeQuery()) {
+                rs.next();
+                return rs.getInt(1);
+            }
+        }
+    }
+
+    private static void update(WireProtocol.Opcode opcode, int messageId, int studentId) throws Exception {
+        WireProtocol.BinaryWriter request = new WireProtocol.BinaryWriter(opcode, ++requestId);
+        request.writeInt(messageId);
+        request.writeInt(studentId);
+        request.writeString("STUDENT");
+        call(request);
+    }
+
+    private static void call(WireProtocol.BinaryWriter request) throws Exception {
+        byte[] frame = request.toFrame();
+        byte[] response = handler.handleFrame(WireProtocol.decodeFrame(frame, 4, frame.length - 4));
+        String status = WireProtocol.decodeFrame(response, 4, response.length - 4).body.readString();
+        if (!status.startsWith("SUCCESS")) throw new IllegalStateException(status);
+    }
+
+    private static void expect(String order, int actual, int expected) {
+        if (actual == expected) {
+            System.out.println("   " + order + ": " + actual);
+        } else {
+            failures++;
+            System.out.println("❌ " + order + ": unread count is " + actual + ", expected " + expected);
+        }
+    }
+}
\ No newline at end of file
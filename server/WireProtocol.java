@@ -0,0 +1,527 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Binary wire protocol shared by ClientService and ClientHandler (this file
+ * is kept identical in client/ and server/, like Message and Notification).
+ *
+ * Handshake: the client sends MAGIC + its highest version; the server answers
+ * MAGIC + the version it accepts, or version 0 to refuse. A connection that
+ * starts with 0xACED instead is a legacy Java object-stream client.
+ *
+ * Frame:  int length | byte opcode | int requestId | payload
+ * where length counts everything after itself. Payload fields are written
+ * in the same order as the legacy protocol's writeObject/writeInt calls:
+ * strings as varint(length + 1) + UTF-8 (0 means null), ints as zig-zag
+ * varints, doubles as 8 bytes, maps and row lists with their keys once.
+ *
+ * Version 1 answers requests one at a time, in order. From version 2 a
+ * client may send requests without waiting; the server runs them
+ * concurrently and responses can come back in any order, matched to their
+ * request by requestId.
+ */
+public final class WireProtocol {
+    public static final int MAGIC = 0x534D5350; // "SMSP"
+    public static final short VERSION = 2;
+    public static final short PIPELINED_VERSION = 2;
+    public static final int LEGACY_MAGIC = 0xACED;
+    public static final int HELLO_LENGTH = 6;
+    public static final int FRAME_HEADER_LENGTH = 4 + 1 + 4;
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    private WireProtocol() {
+    }
+
+    public enum Opcode {
+        EXIT(0, "EXIT"),
+        LOGIN(1, "LOGIN"),
+        GET_STUDENT_INFO(2, "GET_STUDENT_INFO"),
+        GET_STUDENT_GRADES(3, "GET_STUDENT_GRADES"),
+        GET_OVERALL_AVERAGE(4, "GET_OVERALL_AVERAGE"),
+        GET_FINAL_STATUS(5, "GET_FINAL_STATUS"),
+        CREATE_EXAM(6, "CREATE_EXAM"),
+        ADD_GRADE(7, "ADD_GRADE"),
+        CALCULATE_SUBJECT_AVERAGE(8, "CALCULATE_SUBJECT_AVERAGE"),
+        ADD_STUDENT(9, "ADD_STUDENT"),
+        ADD_PROGRAM(10, "ADD_PROGRAM"),
+        SEND_MESSAGE(11, "SEND_MESSAGE"),
+        SEND_NOTIFICATION(12, "SEND_NOTIFICATION"),
+        BROADCAST_MESSAGE(13, "BROADCAST_MESSAGE"),
+        // int count, then count x (action string + that action's fields); answers SUCCESS, count, one status each
+        BATCH(14, "BATCH"),
+        // Answers SUCCESS + one row per action: count, errors, p50Ms, p95Ms, p99Ms, maxMs, bytesIn, bytesOut
+        STATS(15, "STATS"),
+        // int userId, String userType; answers SUCCESS + int (direct messages and broadcasts)
+        GET_UNREAD_COUNT(16, "GET_UNREAD_COUNT"),
+        // int messageId (negative for a broadcast), int userId, String userType; answers a status
+        MARK_MESSAGE_READ(17, "MARK_MESSAGE_READ"),
+        // Same fields as MARK_MESSAGE_READ; a broadcast is only hidden from that user
+        DELETE_MESSAGE(18, "DELETE_MESSAGE"),
+        UNKNOWN(127, "UNKNOWN");
+
+        private static final Opcode[] BY_CODE = new Opcode[128];
+        private static final Map<String, Opcode> BY_ACTION = new HashMap<>();
+        static {
+            for (Opcode op : values()) {
+                BY_CODE[op.code] = op;
+                BY_ACTION.put(op.action, op);
+            }
+        }
+
+        private final byte code;
+        private final String action;
+
+        Opcode(int code, String action) {
+            this.code = (byte) code;
+            this.action = action;
+        }
+
+        public byte code() { return code; }
+        public String action() { return action; }
+
+        public static Opcode fromCode(byte code) {
+            Opcode op = code >= 0 ? BY_CODE[code] : null;
+            return op != null ? op : UNKNOWN;
+        }
+
+        public static Opcode fromAction(String action) {
+            Opcode op = BY_ACTION.get(action);
+            return op != null ? op : UNKNOWN;
+        }
+    }
+
+    /** Typed request/response fields, implemented by both protocols. */
+    public interface Reader {
+        String readString() throws IOException;
+        int readInt() throws IOException;
+        double readDouble() throws IOException;
+        Map<String, String> readMap() throws IOException;
+        List<Map<String, String>> readRows() throws IOException;
+        Message readMessage() throws IOException;
+        Notification readNotification() throws IOException;
+    }
+
+    public interface Writer {
+        void writeString(String value) throws IOException;
+        void writeInt(int value) throws IOException;
+        void writeDouble(double value) throws IOException;
+        void writeMap(Map<String, String> value) throws IOException;
+        void writeRows(List<Map<String, String>> value) throws IOException;
+        void writeMessage(Message value) throws IOException;
+        void writeNotification(Notification value) throws IOException;
+    }
+
+    // ===== Handshake =====
+
+    public static byte[] hello(short version) {
+        return new byte[] {
+            (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC,
+            (byte) (version >>> 8), (byte) version
+        };
+    }
+
+    // Returns the version carried by a hello, or -1 if the bytes are not one
+    public static int parseHello(byte[] hello) {
+        if (hello.length < HELLO_LENGTH) return -1;
+        int magic = ((hello[0] & 0xFF) << 24) | ((hello[1] & 0xFF) << 16) | ((hello[2] & 0xFF) << 8) | (hello[3] & 0xFF);
+        if (magic != MAGIC) return -1;
+        return ((hello[4] & 0xFF) << 8) | (hello[5] & 0xFF);
+    }
+
+    // ===== Framing =====
+
+    public static final class Frame {
+        public final Opcode opcode;
+        public final byte rawOpcode;
+        public final int requestId;
+        public final BinaryReader body;
+        // Bytes the frame took on the wire, length prefix included
+        public final int wireLength;
+
+        Frame(byte rawOpcode, int requestId, BinaryReader body, int wireLength) {
+            this.opcode = Opcode.fromCode(rawOpcode);
+            this.rawOpcode = rawOpcode;
+            this.requestId = requestId;
+            this.body = body;
+            this.wireLength = wireLength;
+        }
+    }
+
+    // Blocking read of one frame; returns null on a clean end of stream
+    public static Frame readFrame(DataInputStream in) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        byte[] frame = new byte[checkLength(length)];
+        in.readFully(frame);
+        return decodeFrame(frame, 0, frame.length);
+    }
+
+    // Decodes the bytes that follow the length prefix
+    public static Frame decodeFrame(byte[] buf, int offset, int length) {
+        byte opcode = buf[offset];
+        int requestId = ((buf[offset + 1] & 0xFF) << 24) | ((buf[offset + 2] & 0xFF) << 16)
+                      | ((buf[offset + 3] & 0xFF) << 8) | (buf[offset + 4] & 0xFF);
+        return new Frame(opcode, requestId, new BinaryReader(buf, offset + 5, offset + length), 4 + length);
+    }
+
+    public static int checkLength(int length) throws IOException {
+        if (length < 5 || length > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("Invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    // ===== Binary codec =====
+
+    public static final class BinaryReader implements Reader {
+        private final byte[] buf;
+        private int pos;
+        private final int limit;
+
+        public BinaryReader(byte[] buf, int offset, int limit) {
+            this.buf = buf;
+            this.pos = offset;
+            this.limit = limit;
+        }
+
+        private int readByte() throws IOException {
+            if (pos >= limit) throw new EOFException("Truncated frame");
+            return buf[pos++] & 0xFF;
+        }
+
+        private int readVarint() throws IOException {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = readByte();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new StreamCorruptedException("Malformed varint");
+        }
+
+        private void checkCount(int count, int minBytesEach) throws IOException {
+            if (count < 0 || (long) count * minBytesEach > limit - pos) {
+                throw new StreamCorruptedException("Invalid count: " + count);
+            }
+        }
+
+        private long readFixed64() throws IOException {
+            if (limit - pos < 8) throw new EOFException("Truncated frame");
+            long v = 0;
+            for (int i = 0; i < 8; i++) {
+                v = (v << 8) | (buf[pos++] & 0xFF);
+            }
+            return v;
+        }
+
+        @Override
+        public String readString() throws IOException {
+            int len = readVarint() - 1;
+            if (len < 0) return null;
+            if (limit - pos < len) throw new EOFException("Truncated frame");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        @Override
+        public int readInt() throws IOException {
+            int v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        public boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        @Override
+        public double readDouble() throws IOException {
+            return Double.longBitsToDouble(readFixed64());
+        }
+
+        public LocalDateTime readDateTime() throws IOException {
+            long seconds = readFixed64();
+            if (seconds == Long.MIN_VALUE) return null;
+            return LocalDateTime.ofEpochSecond(seconds, readVarint(), ZoneOffset.UTC);
+        }
+
+        @Override
+        public Map<String, String> readMap() throws IOException {
+            int size = readVarint() - 1;
+            if (size < 0) return null;
+            Map<String, String> map = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                map.put(readString(), readString());
+            }
+            return map;
+        }
+
+        @Override
+        public List<Map<String, String>> readRows() throws IOException {
+            int columnCount = readVarint() - 1;
+            if (columnCount < 0) return null;
+            // Counts come from the peer: every string takes at least one byte, so check them against what is left
+            checkCount(columnCount, 1);
+            String[] columns = new String[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                columns[c] = readString();
+            }
+            int rowCount = readVarint();
+            checkCount(rowCount, Math.max(1, columnCount));
+            List<Map<String, String>> rows = new ArrayList<>(rowCount);
+            for (int r = 0; r < rowCount; r++) {
+                Map<String, String> row = new HashMap<>();
+                for (String column : columns) {
+                    row.put(column, readString());
+                }
+                rows.add(row);
+            }
+            return rows;
+        }
+
+        @Override
+        public Message readMessage() throws IOException {
+            if (!readBoolean()) return null;
+            Message m = new Message();
+            m.setMessageId(readInt());
+            m.setSenderId(readInt());
+            m.setSenderType(readString());
+            m.setReceiverId(readInt());
+            m.setReceiverType(readString());
+            m.setSubject(readString());
+            m.setContent(readString());
+            m.setMessageType(readString());
+            m.setPriority(readString());
+            m.setRead(readBoolean());
+            m.setCreatedAt(readDateTime());
+            return m;
+        }
+
+        @Override
+        public Notification readNotification() throws IOException {
+            if (!readBoolean()) return null;
+            Notification n = new Notification();
+            n.setNotificationId(readInt());
+            n.setUserId(readInt());
+            n.setTitle(readString());
+            n.setMessage(readString());
+            n.setType(readString());
+            n.setRead(readBoolean());
+            n.setActive(readBoolean());
+            n.setCreatedAt(readDateTime());
+            n.setActionUrl(readString());
+            n.setExpiresAt(readDateTime());
+            return n;
+        }
+    }
+
+    /** Builds one frame; the header is reserved up front and patched in toFrame(). */
+    public static final class BinaryWriter implements Writer {
+        private byte[] buf = new byte[256];
+        private int pos = FRAME_HEADER_LENGTH;
+
+        public BinaryWriter(Opcode opcode, int requestId) {
+            this(opcode.code(), requestId);
+        }
+
+        public BinaryWriter(byte opcode, int requestId) {
+            buf[4] = opcode;
+            buf[5] = (byte) (requestId >>> 24);
+            buf[6] = (byte) (requestId >>> 16);
+            buf[7] = (byte) (requestId >>> 8);
+            buf[8] = (byte) requestId;
+        }
+
+        private void ensure(int extra) {
+            if (pos + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + extra));
+            }
+        }
+
+        private void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        private void writeVarint(int v) {
+            ensure(5);
+            while ((v & ~0x7F) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        private void writeFixed64(long v) {
+            ensure(8);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                buf[pos++] = (byte) (v >>> shift);
+            }
+        }
+
+        @Override
+        public void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, buf, pos, bytes.length);
+            pos += bytes.length;
+        }
+
+        @Override
+        public void writeInt(int value) {
+            writeVarint((value << 1) ^ (value >> 31));
+        }
+
+        public void writeBoolean(boolean value) {
+            writeByte(value ? 1 : 0);
+        }
+
+        @Override
+        public void writeDouble(double value) {
+            writeFixed64(Double.doubleToLongBits(value));
+        }
+
+        public void writeDateTime(LocalDateTime value) {
+            if (value == null) {
+                writeFixed64(Long.MIN_VALUE);
+                return;
+            }
+            writeFixed64(value.toEpochSecond(ZoneOffset.UTC));
+            writeVarint(value.getNano());
+        }
+
+        @Override
+        public void writeMap(Map<String, String> value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            writeVarint(value.size() + 1);
+            for (Map.Entry<String, String> entry : value.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+        }
+
+        // Column names are written once; every row then carries values only
+        @Override
+        public void writeRows(List<Map<String, String>> value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            Set<String> columns = new LinkedHashSet<>();
+            for (Map<String, String> row : value) {
+                columns.addAll(row.keySet());
+            }
+            writeVarint(columns.size() + 1);
+            for (String column : columns) {
+                writeString(column);
+            }
+            writeVarint(value.size());
+            for (Map<String, String> row : value) {
+                for (String column : columns) {
+                    writeString(row.get(column));
+                }
+            }
+        }
+
+        @Override
+        public void writeMessage(Message m) {
+            writeBoolean(m != null);
+            if (m == null) return;
+            writeInt(m.getMessageId());
+            writeInt(m.getSenderId());
+            writeString(m.getSenderType());
+            writeInt(m.getReceiverId());
+            writeString(m.getReceiverType());
+            writeString(m.getSubject());
+            writeString(m.getContent());
+            writeString(m.getMessageType());
+            writeString(m.getPriority());
+            writeBoolean(m.isRead());
+            writeDateTime(m.getCreatedAt());
+        }
+
+        @Override
+        public void writeNotification(Notification n) {
+            writeBoolean(n != null);
+            if (n == null) return;
+            writeInt(n.getNotificationId());
+            writeInt(n.getUserId());
+            writeString(n.getTitle());
+            writeString(n.getMessage());
+            writeString(n.getType());
+            writeBoolean(n.isRead());
+            writeBoolean(n.isActive());
+            writeDateTime(n.getCreatedAt());
+            writeString(n.getActionUrl());
+            writeDateTime(n.getExpiresAt());
+        }
+
+        public byte[] toFrame() {
+            int length = pos - 4;
+            buf[0] = (byte) (length >>> 24);
+            buf[1] = (byte) (length >>> 16);
+            buf[2] = (byte) (length >>> 8);
+            buf[3] = (byte) length;
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+
+    // ===== Legacy object-stream adapters =====
+
+    public static final class ObjectStreamReader implements Reader {
+        private final ObjectInputStream in;
+
+        public ObjectStreamReader(ObjectInputStream in) {
+            this.in = in;
+        }
+
+        private Object read() throws IOException {
+            try {
+                return in.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new InvalidClassException(e.getMessage());
+            }
+        }
+
+        @Override public String readString() throws IOException { return (String) read(); }
+        @Override public int readInt() throws IOException { return in.readInt(); }
+        @Override public double readDouble() throws IOException { return in.readDouble(); }
+        @SuppressWarnings("unchecked")
+        @Override public Map<String, String> readMap() throws IOException { return (Map<String, String>) read(); }
+        @SuppressWarnings("unchecked")
+        @Override public List<Map<String, String>> readRows() throws IOException { return (List<Map<String, String>>) read(); }
+        @Override public Message readMessage() throws IOException { return (Message) read(); }
+        @Override public Notification readNotification() throws IOException { return (Notification) read(); }
+    }
+
+    public static final class ObjectStreamWriter implements Writer {
+        private final ObjectOutputStream out;
+
+        public ObjectStreamWriter(ObjectOutputStream out) {
+            this.out = out;
+        }
+
+        @Override public void writeString(String value) throws IOException { out.writeObject(value); }
+        @Override public void writeInt(int value) throws IOException { out.writeInt(value); }
+        @Override public void writeDouble(double value) throws IOException { out.writeDouble(value); }
+        @Override public void writeMap(Map<String, String> value) throws IOException { out.writeObject(value); }
+        @Override public void writeRows(List<Map<String, String>> value) throws IOException { out.writeObject(value); }
+        @Override public void writeMessage(Message value) throws IOException { out.writeObject(value); }
+        @Override public void writeNotification(Notification value) throws IOException { out.writeObject(value); }
+    }
+}
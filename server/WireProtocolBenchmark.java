@@ -0,0 +1,111 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compares the legacy object-stream encoding with the binary protocol for a
+ * typical GET_STUDENT_GRADES response ("SUCCESS" + grade rows).
+ *
+ * Usage: java WireProtocolBenchmark [rows] [iterations]
+ */
+public class WireProtocolBenchmark {
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 24;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+
+        System.out.println("📊 GET_STUDENT_GRADES response with " + rows + " rows");
+
+        // Object streams write class descriptors once per stream, so measure a
+        // fresh stream and the increment of a later response on the same stream
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(bytes);
+        writeLegacy(oos, gradeRows(rows));
+        int legacyFirst = bytes.size();
+        writeLegacy(oos, gradeRows(rows));
+        int legacySteady = bytes.size() - legacyFirst;
+        int binary = encodeBinary(gradeRows(rows)).length;
+
+        System.out.println("   Object streams, first response: " + legacyFirst + " bytes");
+        System.out.println("   Object streams, later response: " + legacySteady + " bytes");
+        System.out.println("   Binary frame:                   " + binary + " bytes");
+
+        List<Map<String, String>> sample = gradeRows(rows);
+        byte[] legacyBytes = legacyStream(sample);
+        byte[] binaryBytes = encodeBinary(sample);
+
+        // Warm-up, then timed runs
+        for (int i = 0; i < iterations / 10; i++) {
+            legacyStream(sample);
+            decodeLegacy(legacyBytes);
+            encodeBinary(sample);
+            decodeBinary(binaryBytes);
+        }
+
+        long sink = 0;
+        long t0 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += legacyStream(sample).length;
+        long t1 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += decodeLegacy(legacyBytes);
+        long t2 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += encodeBinary(sample).length;
+        long t3 = System.nanoTime();
+        for (int i = 0; i < iterations; i++) sink += decodeBinary(binaryBytes);
+        long t4 = System.nanoTime();
+
+        System.out.printf("   Object streams: encode %.2f us, decode %.2f us%n",
+            (t1 - t0) / 1e3 / iterations, (t2 - t1) / 1e3 / iterations);
+        System.out.printf("   Binary frame:   encode %.2f us, decode %.2f us%n",
+            (t3 - t2) / 1e3 / iterations, (t4 - t3) / 1e3 / iterations);
+        if (sink == 42) System.out.println();
+    }
+
+    private static List<Map<String, String>> gradeRows(int count) {
+        String[] subjects = {"Java Programming", "Algorithms and Data Structures", "Mathematics for Computer Science",
+                             "Information Systems", "Database Systems", "Networks and Telecommunications"};
+        String[] types = {"CONTROLE", "TP", "EXAMEN", "PROJET"};
+        List<Map<String, String>> grades = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Map<String, String> grade = new HashMap<>();
+            grade.put("subject", new String(subjects[i % subjects.length]));
+            grade.put("exam", types[i % types.length] + " " + (i / types.length + 1));
+            grade.put("type", new String(types[i % types.length]));
+            grade.put("coefficient", "1.50");
+            grade.put("score", String.format("%.2f", 8 + (i * 7 % 12) + 0.25));
+            grades.add(grade);
+        }
+        return grades;
+    }
+
+    private static void writeLegacy(ObjectOutputStream out, List<Map<String, String>> grades) throws IOException {
+        WireProtocol.Writer writer = new WireProtocol.ObjectStreamWriter(out);
+        writer.writeString("SUCCESS");
+        writer.writeRows(grades);
+        out.flush();
+    }
+
+    // What a fresh connection costs: stream header plus full class descriptors
+    private static byte[] legacyStream(List<Map<String, String>> grades) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(2048);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        writeLegacy(out, grades);
+        return bytes.toByteArray();
+    }
+
+    private static int decodeLegacy(byte[] bytes) throws IOException {
+        WireProtocol.Reader reader = new WireProtocol.ObjectStreamReader(new ObjectInputStream(new ByteArrayInputStream(bytes)));
+        reader.readString();
+        return reader.readRows().size();
+    }
+
+    private static byte[] encodeBinary(List<Map<String, String>> grades) {
+        WireProtocol.BinaryWriter writer = new WireProtocol.BinaryWriter(WireProtocol.Opcode.GET_STUDENT_GRADES, 1);
+        writer.writeString("SUCCESS");
+        writer.writeRows(grades);
+        return writer.toFrame();
+    }
+
+    private static int decodeBinary(byte[] frame) throws IOException {
+        WireProtocol.Frame decoded = WireProtocol.decodeFrame(frame, 4, frame.length - 4);
+        decoded.body.readString();
+        return decoded.body.readRows().size();
+    }
+}